@@ -0,0 +1,194 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.QueryTimeoutException;
+import com.socrata.exceptions.ServiceUnavailableException;
+import com.socrata.exceptions.SodaError;
+
+import java.util.Random;
+
+/**
+ * Tunes the batch size and the number of in-flight batches of bulk writes to a single dataset, so they find the
+ * most throughput the server will sustain for that dataset without hand tuning.<p/>
+ *
+ * This uses AIMD (additive increase, multiplicative decrease), the same scheme TCP uses for its congestion window:
+ * <ul>
+ *     <li>A batch that completes within the target latency grows the batch size by a fixed step, and a full window
+ *     of such batches grows the window by one.</li>
+ *     <li>A batch that completes, but slower than the target latency, shrinks the batch size by a quarter.</li>
+ *     <li>A batch the server pushes back on (HTTP 408, 429, 502, 503 or 504) halves both the batch size and the
+ *     window, and is retried after an exponential backoff (or the server's Retry-After, if that is longer).</li>
+ * </ul>
+ *
+ * One controller should be used per dataset, since what works for a dataset with narrow numeric rows is too much
+ * for one with wide geo rows.  Controllers are thread safe.
+ */
+public class AdaptiveBatchController
+{
+    public static final int     DEFAULT_INITIAL_BATCH_SIZE = 1000;
+    public static final int     DEFAULT_MIN_BATCH_SIZE = 100;
+    public static final int     DEFAULT_MAX_BATCH_SIZE = 50000;
+    public static final int     DEFAULT_MAX_WINDOW = 8;
+    public static final long    DEFAULT_TARGET_LATENCY_MILLIS = 20000;
+    public static final int     DEFAULT_MAX_RETRIES = 5;
+
+    protected static final long BASE_BACKOFF_MILLIS = 1000;
+    protected static final long MAX_BACKOFF_MILLIS = 60000;
+
+    /** Weight of the newest sample in the throughput average */
+    private static final double THROUGHPUT_ALPHA = 0.2;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxWindow;
+    private final long targetLatencyMillis;
+    private final int maxRetries;
+    private final Random random = new Random();
+
+    private int batchSize;
+    private int window = 1;
+    private int windowCredit;
+    private double throughput;
+
+    /**
+     * Constructor, using the default settings.
+     */
+    public AdaptiveBatchController()
+    {
+        this(DEFAULT_INITIAL_BATCH_SIZE, DEFAULT_MIN_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WINDOW, DEFAULT_TARGET_LATENCY_MILLIS, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param initialBatchSize the number of rows in the first batch
+     * @param minBatchSize the fewest rows to put in a batch
+     * @param maxBatchSize the most rows to put in a batch
+     * @param maxWindow the most batches to have in flight at once
+     * @param targetLatencyMillis how long a batch can take before it is considered too big
+     * @param maxRetries the most times to retry a batch the server pushes back on
+     */
+    public AdaptiveBatchController(final int initialBatchSize, final int minBatchSize, final int maxBatchSize, final int maxWindow,
+                                   final long targetLatencyMillis, final int maxRetries)
+    {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize || maxWindow < 1 || targetLatencyMillis < 1 || maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid adaptive batch settings.");
+        }
+
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWindow = maxWindow;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.maxRetries = maxRetries;
+        this.batchSize = clamp(initialBatchSize, minBatchSize, maxBatchSize);
+    }
+
+    /**
+     * Checks whether an error means the server is overloaded, so the batch should be retried after backing off.
+     *
+     * @param error the error from the batch
+     * @return {@code true} if the batch should be retried
+     */
+    public static boolean isRetryable(final SodaError error)
+    {
+        return error instanceof ServiceUnavailableException || error instanceof QueryTimeoutException;
+    }
+
+    /**
+     * The number of rows to put in the next batch.
+     * @return the number of rows to put in the next batch.
+     */
+    public synchronized int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * The number of batches that should be in flight at once.
+     * @return the number of batches that should be in flight at once.
+     */
+    public synchronized int getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * The most batches this will ever allow in flight at once.
+     * @return the most batches this will ever allow in flight at once.
+     */
+    public int getMaxWindow()
+    {
+        return maxWindow;
+    }
+
+    /**
+     * The most times to retry a batch the server pushes back on.
+     * @return the most times to retry a batch the server pushes back on.
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * A moving average of the rows per second written by recent batches.
+     * @return a moving average of the rows per second written by recent batches.
+     */
+    public synchronized double getThroughput()
+    {
+        return throughput;
+    }
+
+    /**
+     * Records a batch that completed.
+     *
+     * @param rows the number of rows in the batch
+     * @param latencyMillis how long the batch took
+     */
+    public synchronized void onSuccess(final int rows, final long latencyMillis)
+    {
+        final double rowsPerSecond = rows * 1000.0 / Math.max(1, latencyMillis);
+        throughput = (throughput == 0) ? rowsPerSecond : THROUGHPUT_ALPHA * rowsPerSecond + (1 - THROUGHPUT_ALPHA) * throughput;
+
+        if (latencyMillis > targetLatencyMillis) {
+            batchSize = clamp(batchSize - batchSize / 4, minBatchSize, maxBatchSize);
+            return;
+        }
+
+        //Only grow the batch if the batch that just finished was actually full sized
+        if (rows >= batchSize) {
+            batchSize = clamp(batchSize + minBatchSize, minBatchSize, maxBatchSize);
+        }
+
+        if (++windowCredit >= window) {
+            window = Math.min(maxWindow, window + 1);
+            windowCredit = 0;
+        }
+    }
+
+    /**
+     * Records a batch the server pushed back on, and works out how long to wait before retrying it.
+     *
+     * @param error the error from the server
+     * @param attempt the number of times the batch has been tried so far
+     * @return the number of milliseconds to wait before retrying
+     */
+    public synchronized long onBackoff(final SodaError error, final int attempt)
+    {
+        batchSize = clamp(batchSize / 2, minBatchSize, maxBatchSize);
+        window = Math.max(1, window / 2);
+        windowCredit = 0;
+
+        final long exponential = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        final long jittered = exponential / 2 + (long) (random.nextDouble() * exponential / 2);
+
+        if (error instanceof ServiceUnavailableException && ((ServiceUnavailableException) error).retryAt > 0) {
+            return Math.max(jittered, ((ServiceUnavailableException) error).retryAt - System.currentTimeMillis());
+        }
+        return jittered;
+    }
+
+    private static int clamp(final int value, final int min, final int max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,375 @@
+package com.socrata.api;
+
+import com.socrata.builders.SoqlQueryBuilder;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.IdLookupResult;
+import com.socrata.model.soql.ConditionalExpression;
+import com.socrata.model.soql.SoqlLiterals;
+import com.socrata.model.soql.SoqlQuery;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Looks up a number of rows by id with a few {@code where <id> in (...)} queries, rather than one request per id.<p/>
+ *
+ * The ids are split into chunks small enough that each query's URL stays under {@link #MAX_URL_LENGTH} (and each
+ * chunk fits in one page of results), and the chunks are queried concurrently.<p/>
+ *
+ * Ids are strings, but a number column is queried with number literals, and its ids are matched as numbers, so
+ * {@code 123} and {@code 123.0} are the same row.
+ */
+class BatchedIdLookup
+{
+    public static final int     MAX_URL_LENGTH = 4000;
+    public static final int     MAX_CHUNK_SIZE = 1000;
+    public static final int     DEFAULT_CONCURRENCY = 4;
+
+    private static final ObjectMapper MAPPER = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    //"?$where=", "&$limit=1000" and "&$select=:id, :updated_at, :updated_meta, *", encoded
+    private static final int    QUERY_OVERHEAD = 100;
+
+    private final Soda2Consumer consumer;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor
+     *
+     * @param consumer the consumer to query with
+     * @param executor the executor the chunks are queried on.  This is shared, and isn't shut down.
+     */
+    BatchedIdLookup(final Soda2Consumer consumer, final ExecutorService executor)
+    {
+        this.consumer = consumer;
+        this.executor = executor;
+    }
+
+    /**
+     * Looks up rows by id.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param idField the field that identifies rows, either the Row Identifier column or {@code :id}
+     * @param numeric whether the id field is a number column
+     * @param ids the ids to look up
+     * @param cls the class each row is decoded as
+     * @return the rows found, keyed by id, and the ids that weren't found
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    <T> IdLookupResult<T> lookup(final String resourceId, final String idField, final boolean numeric, final Collection<String> ids, final Class<T> cls) throws SodaError, InterruptedException
+    {
+        final List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(ids));
+
+        //Ids that aren't numbers can't match a number column, so they aren't queried
+        final LinkedHashSet<String> keys = new LinkedHashSet<String>();
+        for (String id : distinct) {
+            final String key = keyOf(id, numeric);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        final List<List<String>> chunks = chunk(consumer.getHttpLowLevel(), resourceId, idField, new ArrayList<String>(keys));
+        final List<String> unbound = unboundFields(cls, idField.startsWith(":") ? Collections.singletonList(idField) : Collections.<String>emptyList());
+
+        final Map<String, T> found = new HashMap<String, T>();
+        final List<Future<Map<String, T>>> results = new ArrayList<Future<Map<String, T>>>();
+        try {
+            for (final List<String> chunk : chunks) {
+                results.add(executor.submit(new Callable<Map<String, T>>()
+                {
+                    @Override
+                    public Map<String, T> call() throws Exception
+                    {
+                        return lookupChunk(resourceId, idField, numeric, chunk, cls, unbound);
+                    }
+                }));
+            }
+
+            for (Future<Map<String, T>> result : results) {
+                try {
+                    found.putAll(result.get());
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+        } finally {
+            //The executor is shared, so only this lookup's chunks are stopped if it fails
+            for (Future<Map<String, T>> result : results) {
+                result.cancel(true);
+            }
+        }
+
+        final Map<String, T> rows = new LinkedHashMap<String, T>();
+        final List<String> missing = new ArrayList<String>();
+        for (String id : distinct) {
+            final String key = keyOf(id, numeric);
+            final T row = (key != null) ? found.get(key) : null;
+            if (row != null) {
+                rows.put(id, row);
+            } else {
+                missing.add(id);
+            }
+        }
+        return new IdLookupResult<T>(rows, missing);
+    }
+
+    /**
+     * Works out the key an id is matched on.  Ids of a number column are matched as numbers, so they are written
+     * without trailing zeros or an exponent.
+     *
+     * @param id the id
+     * @param numeric whether the id field is a number column
+     * @return the key, or {@code null} if the id can't identify a row as it isn't a number
+     */
+    static String keyOf(final String id, final boolean numeric)
+    {
+        if (!numeric) {
+            return id;
+        }
+
+        final BigDecimal number;
+        try {
+            number = new BigDecimal(id.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        //Zero keeps its scale when it is stripped on older JDKs
+        return (number.signum() == 0) ? "0" : number.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Builds the query for a chunk of ids.
+     */
+    static SoqlQuery queryFor(final String idField, final boolean numeric, final List<String> ids)
+    {
+        return queryFor(idField, numeric, ids, Collections.<String>emptyList(), true);
+    }
+
+    /**
+     * Builds the query for a chunk of ids, selecting some system fields as well.
+     *
+     * @param idField the field that identifies rows
+     * @param numeric whether the id field is a number column, so the ids are written as number literals
+     * @param ids the ids
+     * @param systemFields system fields to select, such as {@code :updated_at}
+     * @param allColumns whether to select all the columns, or only the id and system fields
+     * @throws IllegalArgumentException if the id field is a number column, and one of the ids isn't a number
+     */
+    static SoqlQuery queryFor(final String idField, final boolean numeric, final List<String> ids, final List<String> systemFields, final boolean allColumns)
+    {
+        final StringBuilder where = new StringBuilder(idField).append(" in (");
+        for (int i=0; i<ids.size(); i++) {
+            if (i > 0) {
+                where.append(", ");
+            }
+            if (numeric) {
+                final String key = keyOf(ids.get(i), true);
+                if (key == null) {
+                    throw new IllegalArgumentException("\"" + ids.get(i) + "\" is not a number, so it can't identify a row by " + idField + ".");
+                }
+                where.append(key);
+            } else {
+                SoqlLiterals.appendQuoted(where, ids.get(i));
+            }
+        }
+        where.append(')');
+
+        final SoqlQueryBuilder builder = new SoqlQueryBuilder()
+                .setWhereClause(new ConditionalExpression(where.toString()))
+                .setLimit(ids.size());
+
+        //System fields, including the system id, aren't returned by "select *"
+        if (idField.startsWith(":") || !allColumns) {
+            builder.addSelectPhrase(idField);
+        }
+        builder.addSelectPhrases(systemFields);
+        if (allColumns && (idField.startsWith(":") || !systemFields.isEmpty())) {
+            builder.addSelectPhrase("*");
+        }
+        return builder.build();
+    }
+
+    /**
+     * Splits ids into chunks whose queries on a dataset stay under the URL length limit.
+     */
+    static List<List<String>> chunk(final HttpLowLevel httpLowLevel, final String resourceId, final String idField, final List<String> ids)
+    {
+        final int baseLength = httpLowLevel.uriBuilder()
+                                           .path(Soda2Base.SODA_BASE_PATH)
+                                           .path(resourceId)
+                                           .build().toString().length();
+        return chunk(ids, encodedLength(idField + " in ()") + baseLength + QUERY_OVERHEAD);
+    }
+
+    /**
+     * Splits ids into chunks whose queries stay under the URL length limit.
+     *
+     * @param ids the ids
+     * @param fixedLength the length of a query's URL without any ids
+     */
+    static List<List<String>> chunk(final List<String> ids, final int fixedLength)
+    {
+        final List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = new ArrayList<String>();
+        int length = fixedLength;
+        for (String id : ids) {
+            //The quoted id, and the encoded ", " before it
+            final int idLength = encodedLength(SoqlLiterals.quote(id)) + 6;
+            if (!chunk.isEmpty() && (length + idLength > MAX_URL_LENGTH || chunk.size() >= MAX_CHUNK_SIZE)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<String>();
+                length = fixedLength;
+            }
+            chunk.add(id);
+            length += idLength;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * The most characters a string can take once it is percent encoded in a URL.
+     */
+    static int encodedLength(final String value)
+    {
+        try {
+            int length = 0;
+            for (byte b : value.getBytes("UTF-8")) {
+                final char c = (char) (b & 0xFF);
+                length += ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-._~".indexOf(c) >= 0) ? 1 : 3;
+            }
+            return length;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private <T> Map<String, T> lookupChunk(final String resourceId, final String idField, final boolean numeric, final List<String> ids,
+                                           final Class<T> cls, final List<String> unbound) throws SodaError, InterruptedException
+    {
+        final Map<String, ObjectNode> rows = queryRows(consumer, resourceId, queryFor(idField, numeric, ids), idField, numeric);
+        final Map<String, T> bound = new HashMap<String, T>();
+        for (Map.Entry<String, ObjectNode> row : rows.entrySet()) {
+            bound.put(row.getKey(), bind(row.getValue(), unbound, cls));
+        }
+        return bound;
+    }
+
+    /**
+     * Runs a query, keying each row by the key of its id.
+     *
+     * @see #keyOf(String, boolean)
+     */
+    static Map<String, ObjectNode> queryRows(final Soda2Consumer consumer, final String resourceId, final SoqlQuery query, final String idField, final boolean numeric) throws SodaError, InterruptedException
+    {
+        try {
+            final InputStream stream = consumer.issueQuery(resourceId, query).getEntityInputStream();
+            try {
+                return readRows(stream, idField, numeric);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ioe) {
+            throw new SodaError("Error decoding the rows looked up by id.  Error message: " + ioe.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Reads a query response, keying each row by the key of its id.  Rows without an id are dropped.
+     *
+     * @see #keyOf(String, boolean)
+     */
+    static Map<String, ObjectNode> readRows(final InputStream stream, final String idField, final boolean numeric) throws IOException
+    {
+        final Map<String, ObjectNode> rows = new HashMap<String, ObjectNode>();
+        final JsonParser parser = MAPPER.getJsonFactory().createJsonParser(stream);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected the query response to be an array of rows.");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final ObjectNode row = (ObjectNode) MAPPER.readTree(parser);
+                final JsonNode id = row.get(idField);
+                final String key = (id != null && !id.isNull()) ? keyOf(id.getValueAsText(), numeric) : null;
+                if (key != null) {
+                    rows.put(key, row);
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Works out which of the system fields added to a query a class doesn't bind, so they can be dropped before
+     * binding, as the class may not expect them.  Classes that take every field keep them all.
+     */
+    static List<String> unboundFields(final Class<?> cls, final List<String> systemFields)
+    {
+        final List<String> fields = QueryProjections.fieldsFor(cls);
+        final List<String> unbound = new ArrayList<String>();
+        if (!fields.isEmpty()) {
+            for (String field : systemFields) {
+                if (!fields.contains(field)) {
+                    unbound.add(field);
+                }
+            }
+        }
+        return unbound;
+    }
+
+    /**
+     * Binds a row to a class, dropping some fields first.
+     */
+    static <T> T bind(final ObjectNode row, final List<String> unbound, final Class<T> cls) throws SodaError
+    {
+        for (String field : unbound) {
+            row.remove(field);
+        }
+        try {
+            return MAPPER.treeToValue(row, cls);
+        } catch (IOException ioe) {
+            throw new SodaError("Error decoding the rows looked up by id.  Error message: " + ioe.getLocalizedMessage());
+        }
+    }
+
+    private static SodaError unwrap(final ExecutionException e) throws InterruptedException
+    {
+        final Throwable cause = e.getCause();
+        if (cause instanceof SodaError) {
+            return (SodaError) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new SodaError(cause);
+    }
+}
@@ -0,0 +1,228 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import com.socrata.utils.GeneralUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only journal of the chunks of a bulk load that have been committed to the server.<p/>
+ *
+ * The journal is a file of JSON lines.  The first line identifies the load (the dataset, the input, and how it
+ * was split into chunks), and every line after it records one committed chunk along with its UpsertResult.  Each
+ * line is synced to disk before {@link #commit(Entry)} returns, so once a chunk is in the journal it survives a
+ * crash.  A line that was only partially written when the process died is dropped when the journal is re-opened.
+ */
+public class BulkLoadJournal implements Closeable
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final File file;
+    private final Map<Integer, Entry> entries;
+    private final FileOutputStream out;
+
+    /**
+     * Opens a journal, creating it if it does not exist yet.
+     *
+     * @param file the journal file
+     * @param loadKey string identifying the load.  If the journal already exists, it must have been created for the same load.
+     * @return the open journal
+     * @throws SodaError thrown if the journal belongs to a different load.
+     * @throws IOException thrown if the journal cannot be read or written.
+     */
+    public static BulkLoadJournal open(@Nonnull final File file, @Nonnull final String loadKey) throws SodaError, IOException
+    {
+        final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+        long validLength = 0;
+
+        if (file.exists() && file.length() > 0) {
+            final byte[] contents = readFully(file);
+
+            int lineStart = 0;
+            for (int i=0; i<contents.length; i++) {
+                if (contents[i] != '\n') {
+                    continue;
+                }
+
+                final JsonNode line = MAPPER.readTree(new String(contents, lineStart, i - lineStart, "UTF-8"));
+                if (lineStart == 0) {
+                    final JsonNode load = line.get("load");
+                    if (load == null || !loadKey.equals(load.getTextValue())) {
+                        throw new SodaError("Journal " + GeneralUtils.bestFilePath(file) + " is for a different load.  Remove it to start this load over.");
+                    }
+                } else {
+                    final Entry entry = Entry.fromJson(line);
+                    entries.put(entry.chunk, entry);
+                }
+                lineStart = i + 1;
+                validLength = lineStart;
+            }
+        }
+
+        final FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            //Drop anything after the last complete line, it was torn by a crash
+            out.getChannel().truncate(validLength);
+            if (validLength == 0) {
+                final Map<String, Object> header = new HashMap<String, Object>();
+                header.put("load", loadKey);
+                writeLine(out, header);
+            }
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+
+        return new BulkLoadJournal(file, entries, out);
+    }
+
+    private BulkLoadJournal(final File file, final Map<Integer, Entry> entries, final FileOutputStream out)
+    {
+        this.file = file;
+        this.entries = entries;
+        this.out = out;
+    }
+
+    /**
+     * Gets the journal entry for a chunk.
+     *
+     * @param chunk index of the chunk
+     * @return the entry for the chunk, or {@code null} if the chunk has not been committed.
+     */
+    public synchronized Entry get(final int chunk)
+    {
+        return entries.get(chunk);
+    }
+
+    /**
+     * All the committed chunks, in the order they were committed.
+     *
+     * @return all the committed chunks
+     */
+    public synchronized List<Entry> getEntries()
+    {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+    }
+
+    /**
+     * Records that a chunk was committed, and syncs the journal to disk.
+     *
+     * @param entry the committed chunk
+     * @throws IOException thrown if the journal cannot be written.
+     */
+    public synchronized void commit(@Nonnull final Entry entry) throws IOException
+    {
+        writeLine(out, entry.toJson());
+        entries.put(entry.chunk, entry);
+    }
+
+    /**
+     * The journal file.
+     * @return the journal file.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+    private static void writeLine(final FileOutputStream out, final Object value) throws IOException
+    {
+        final byte[] json = MAPPER.writeValueAsBytes(value);
+        final byte[] line = new byte[json.length + 1];
+        System.arraycopy(json, 0, line, 0, json.length);
+        line[json.length] = '\n';
+
+        out.write(line);
+        out.getChannel().force(true);
+    }
+
+    private static byte[] readFully(final File file) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] contents = new byte[(int) raf.length()];
+            raf.readFully(contents);
+            return contents;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * One committed chunk of a bulk load.
+     */
+    public static class Entry
+    {
+        public final int chunk;
+        public final long firstRow;
+        public final long rows;
+        public final UpsertResult result;
+
+        /**
+         * Constructor
+         *
+         * @param chunk index of the chunk
+         * @param firstRow index of the chunk's first row in the complete input
+         * @param rows number of rows in the chunk
+         * @param result the result of upserting the chunk.  Error indexes are relative to the chunk.
+         */
+        public Entry(final int chunk, final long firstRow, final long rows, @Nonnull final UpsertResult result)
+        {
+            this.chunk = chunk;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.result = result;
+        }
+
+        Map<String, Object> toJson()
+        {
+            final Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("chunk", chunk);
+            json.put("first_row", firstRow);
+            json.put("rows", rows);
+            json.put("rows_created", result.getRowsCreated());
+            json.put("rows_updated", result.getRowsUpdated());
+            json.put("rows_deleted", result.getRowsDeleted());
+            json.put("errors", result.getErrors());
+            return json;
+        }
+
+        static Entry fromJson(final JsonNode json) throws IOException
+        {
+            final JsonNode errorsJson = json.get("errors");
+            final List<UpsertError> errors = (errorsJson == null || errorsJson.isNull()) ?
+                    null :
+                    MAPPER.<List<UpsertError>>readValue(errorsJson, new TypeReference<List<UpsertError>>() {});
+
+            return new Entry(json.get("chunk").getIntValue(),
+                             json.get("first_row").getLongValue(),
+                             json.get("rows").getLongValue(),
+                             new UpsertResult(json.get("rows_created").getLongValue(),
+                                              json.get("rows_updated").getLongValue(),
+                                              json.get("rows_deleted").getLongValue(),
+                                              errors));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.utils.BufferPool;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import com.socrata.utils.PooledBufferOutputStream;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Upserts a long sequence of objects as a series of chunks, several at a time.<p/>
+ *
+ * Objects are only pulled from the iterator as chunks are ready to be sent, so only the chunks in flight, and the
+ * one waiting to go, are held in memory.  If any chunk fails, no more chunks are started, and the first error is thrown once the chunks already
+ * in flight have finished.<p/>
+ *
+ * Chunks are encoded as JSON on the calling thread, and handed to the sending threads already encoded.  The next
+ * chunk is pulled and encoded while the chunks in flight are on the wire, and then waits for room in flight, so at
+ * most {@code concurrency + 1} chunks are held at once.  Each upsert encodes into its own pool of buffers, which
+ * keeps the buffers of every chunk that has been sent, so later chunks reuse them rather than allocating a new
+ * body each time.<p/>
+ *
+ * With an {@link AdaptiveBatchController}, the chunk size and the number of chunks in flight follow the controller,
+ * and chunks the server pushes back on are retried after backing off.  Otherwise they are fixed.
+ */
+class ChunkedUpserter
+{
+    private final Soda2Producer producer;
+    private final int chunkSize;
+    private final int concurrency;
+    private final AdaptiveBatchController controller;
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    private final Object windowLock = new Object();
+    private int inFlight;
+
+    /**
+     * Constructor for fixed size chunks
+     *
+     * @param producer the producer to send the chunks with
+     * @param chunkSize the number of objects in each chunk
+     * @param concurrency the most chunks to send at once
+     */
+    ChunkedUpserter(final Soda2Producer producer, final int chunkSize, final int concurrency)
+    {
+        if (chunkSize < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("Chunk size and concurrency must be positive.");
+        }
+        this.producer = producer;
+        this.chunkSize = chunkSize;
+        this.concurrency = concurrency;
+        this.controller = null;
+    }
+
+    /**
+     * Constructor for adaptively sized chunks
+     *
+     * @param producer the producer to send the chunks with
+     * @param controller the controller that picks the chunk size and the number of chunks in flight
+     */
+    ChunkedUpserter(final Soda2Producer producer, final AdaptiveBatchController controller)
+    {
+        this.producer = producer;
+        this.chunkSize = controller.getBatchSize();
+        this.concurrency = controller.getMaxWindow();
+        this.controller = controller;
+    }
+
+    /**
+     * Upserts all the objects.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param objects the objects to upsert
+     * @return the combined result of all the chunks.  Error indexes are relative to the start of the sequence.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    UpsertResult upsert(final String resourceId, final Iterator<?> objects) throws SodaError, InterruptedException
+    {
+        final UpsertResultAccumulator accumulator = new UpsertResultAccumulator();
+        final List<Future<Void>> results = new ArrayList<Future<Void>>();
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final AtomicBoolean failed = new AtomicBoolean();
+        //Only ever holds the buffers of the chunks held at once, so it needs no limit of its own
+        final BufferPool buffers = new BufferPool(BufferPool.HEAP.getBufferSize(), Integer.MAX_VALUE, false);
+
+        try {
+            long firstRow = 0;
+            while (objects.hasNext() && !failed.get()) {
+                final int size = (controller != null) ? controller.getBatchSize() : chunkSize;
+                final List<Object> chunk = new ArrayList<Object>(size);
+                while (objects.hasNext() && chunk.size() < size) {
+                    chunk.add(objects.next());
+                }
+                final int rows = chunk.size();
+                final PooledBufferOutputStream encoded = encode(chunk, buffers);
+
+                //The encoded chunk waits here for room, so it is ready to go as soon as a chunk in flight finishes
+                try {
+                    acquireWindow();
+                } catch (InterruptedException e) {
+                    encoded.release();
+                    throw e;
+                }
+                if (failed.get()) {
+                    encoded.release();
+                    releaseWindow();
+                    break;
+                }
+
+                final long chunkFirstRow = firstRow;
+                results.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        try {
+                            accumulator.add(upsertChunk(resourceId, encoded, rows), chunkFirstRow);
+                            return null;
+                        } catch (Exception e) {
+                            failed.set(true);
+                            throw e;
+                        } finally {
+                            encoded.release();
+                            releaseWindow();
+                        }
+                    }
+                }));
+                firstRow += rows;
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+            return accumulator.getResult();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Encodes a chunk as a JSON array.
+     */
+    private PooledBufferOutputStream encode(final List<Object> chunk, final BufferPool buffers) throws SodaError
+    {
+        final PooledBufferOutputStream encoded = new PooledBufferOutputStream(buffers);
+        try {
+            mapper.writeValue(encoded, chunk);
+            return encoded;
+        } catch (IOException e) {
+            encoded.release();
+            throw new SodaError("Unable to encode a chunk of objects as JSON.  Error message: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Upserts one encoded chunk, retrying it if the controller says to.
+     */
+    private UpsertResult upsertChunk(final String resourceId, final PooledBufferOutputStream encoded, final int rows) throws SodaError, InterruptedException
+    {
+        int attempt = 0;
+        while (true) {
+            final long start = System.currentTimeMillis();
+            try {
+                final UpsertResult result = producer.upsertStream(resourceId, HttpLowLevel.JSON_TYPE, ReplayableBody.fromBuffers(encoded.getBuffers()));
+                if (controller != null) {
+                    controller.onSuccess(rows, System.currentTimeMillis() - start);
+                }
+                return result;
+            } catch (SodaError e) {
+                if (controller == null || !AdaptiveBatchController.isRetryable(e) || attempt >= controller.getMaxRetries()) {
+                    throw e;
+                }
+                Thread.sleep(controller.onBackoff(e, attempt++));
+            }
+        }
+    }
+
+    /**
+     * Waits until there is room for another chunk in flight.
+     */
+    private void acquireWindow() throws InterruptedException
+    {
+        synchronized (windowLock) {
+            while (inFlight >= ((controller != null) ? controller.getWindow() : concurrency)) {
+                windowLock.wait();
+            }
+            inFlight++;
+        }
+    }
+
+    private void releaseWindow()
+    {
+        synchronized (windowLock) {
+            inFlight--;
+            windowLock.notifyAll();
+        }
+    }
+
+    private static SodaError unwrap(final ExecutionException e) throws InterruptedException
+    {
+        final Throwable cause = e.getCause();
+        if (cause instanceof SodaError) {
+            return (SodaError) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new SodaError(cause);
+    }
+}
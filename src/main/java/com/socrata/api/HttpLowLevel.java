@@ -4,8 +4,10 @@ package com.socrata.api;
 import com.google.common.collect.ImmutableMap;
 import com.socrata.exceptions.*;
 import com.socrata.model.SodaErrorResponse;
+import com.socrata.model.requests.ReplayableBody;
 import com.socrata.model.requests.SodaRequest;
 import com.socrata.utils.JacksonObjectMapperProvider;
+import com.socrata.utils.ReplayableBodyProvider;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.GenericType;
@@ -16,8 +18,9 @@ import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
 import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.client.urlconnection.HttpURLConnectionFactory;
 import com.sun.jersey.client.urlconnection.URLConnectionClientHandler;
+import com.sun.jersey.core.header.FormDataContentDisposition;
+import com.sun.jersey.multipart.FormDataBodyPart;
 import com.sun.jersey.multipart.FormDataMultiPart;
-import com.sun.jersey.multipart.file.FileDataBodyPart;
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.DateTime;
@@ -30,8 +33,11 @@ import javax.annotation.Nullable;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriBuilder;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.*;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -61,10 +67,18 @@ public final class HttpLowLevel
 
     public static final String SODA_VERSION = "$$version";
     public static final String SOCRATA_TOKEN_HEADER = "X-App-Token";
+    public static final String RANGE_HEADER = "Range";
+    public static final String CONTENT_RANGE_HEADER = "Content-Range";
+    public static final String IF_RANGE_HEADER = "If-Range";
+    public static final String ETAG_HEADER = "ETag";
+    public static final String LAST_MODIFIED_HEADER = "Last-Modified";
     public static final String AUTH_REQUIRED_CODE = "authentication_required";
     public static final String UNEXPECTED_ERROR = "uexpectedError";
     public static final String MALFORMED_RESPONSE = "malformedResponse";
 
+    //Size of each chunk when a body of unknown length is streamed with chunked encoding
+    static final int           CHUNKED_ENCODING_SIZE = 64 * 1024;
+
     public static final Map<String, String> UTF_PARAMS = ImmutableMap.of("charset", "UTF-8");
     public static final MediaType JSON_TYPE = MediaType.APPLICATION_JSON_TYPE;
     public static final MediaType CSV_TYPE = new MediaType("text", "csv");
@@ -117,6 +131,7 @@ public final class HttpLowLevel
         final ClientConfig clientConfig = new DefaultClientConfig();
         clientConfig.getFeatures().put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
         clientConfig.getClasses().add(JacksonObjectMapperProvider.class);
+        clientConfig.getClasses().add(ReplayableBodyProvider.class);
 
         if (StringUtils.isNotEmpty(proxyHost)) {
             Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort == null ? 443 : proxyPort));
@@ -402,14 +417,63 @@ public final class HttpLowLevel
         return processErrors(response);
     }
 
+    /**
+     * Issues a raw GET for a byte range of a resource.  If the server honors the range, the response will be
+     * a 206 with a Content-Range header; servers that don't support ranges will answer with a 200 and the whole
+     * resource.
+     *
+     * @param uri URI to issue a request to.  Any id information should have already been added.
+     * @param acceptType the MIME Type accepted by this client
+     * @param first the offset of the first byte to request
+     * @param last the offset of the last byte to request (inclusive)
+     * @return the raw ClientReponse to the request.  Any errors will have already been processed, and have thrown
+     * and exception.
+     * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
+     * the caller likely wants to call follow202.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     */
+    public ClientResponse queryRangeRaw(final URI uri, final MediaType acceptType, final long first, final long last) throws LongRunningQueryException, SodaError
+    {
+        return queryRangeRaw(uri, acceptType, first, last, null);
+    }
+
+    /**
+     * Issues a raw GET for a byte range of a resource, only if the resource still matches a validator.  If the
+     * resource has changed, the server answers with a 200 and the whole, new resource instead.
+     *
+     * @param uri URI to issue a request to.  Any id information should have already been added.
+     * @param acceptType the MIME Type accepted by this client
+     * @param first the offset of the first byte to request
+     * @param last the offset of the last byte to request (inclusive)
+     * @param ifRange the ETag or Last-Modified date the resource must still have, sent as If-Range.  If this is
+     *                {@code null}, the range is requested unconditionally.
+     * @return the raw ClientReponse to the request.  Any errors will have already been processed, and have thrown
+     * and exception.
+     * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
+     * the caller likely wants to call follow202.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     */
+    public ClientResponse queryRangeRaw(final URI uri, final MediaType acceptType, final long first, final long last, @Nullable final String ifRange) throws LongRunningQueryException, SodaError
+    {
+        WebResource.Builder builder = client.resource(soda2ifyUri(uri))
+                                            .accept(acceptType)
+                                            .header(RANGE_HEADER, "bytes=" + first + "-" + last);
+        if (ifRange != null) {
+            builder = builder.header(IF_RANGE_HEADER, ifRange);
+        }
+
+        final ClientResponse response = builder.get(ClientResponse.class);
+        return processErrors(response);
+    }
+
     /**
      * Issues a raw POST to a URI.  The URI should be properly formed, and the response will process the errors
      * and throw if there are any.
      *
      * @param uri URI to issue a request to.  Any id information should have already been added.
      * @param mediaType the MIME type the object is to be sent to the server as.
-     * @param object the object to send down to the server.  This can be a Jackson serializable object or a raw
-     *               InputStream.
+     * @param object the object to send down to the server.  This can be a Jackson serializable object, a raw
+     *               InputStream or a ReplayableBody.
      * @return the raw ClientReponse to the request.  Any errors will have already been processed, and have thrown
      * and exception.
      * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
@@ -418,7 +482,7 @@ public final class HttpLowLevel
      */
     public ClientResponse postRaw(final URI uri, final MediaType mediaType, final Object object) throws LongRunningQueryException, SodaError
     {
-        final WebResource.Builder builder = client.resource(soda2ifyUri(uri))
+        final WebResource.Builder builder = entityResource(soda2ifyUri(uri), object)
                 .accept("application/json")
                 .type(mediaType);
 
@@ -436,10 +500,7 @@ public final class HttpLowLevel
                                                   .accept(acceptType)
                                                   .type(MediaType.MULTIPART_FORM_DATA_TYPE);
 
-        FormDataMultiPart form = new FormDataMultiPart();
-        form.bodyPart(new FileDataBodyPart(file.getName(), file, mediaType));
-
-        final ClientResponse response = builder.post(ClientResponse.class, form);
+        final ClientResponse response = builder.post(ClientResponse.class, fileForm(file, mediaType));
         return processErrors(response);
     }
 
@@ -449,8 +510,8 @@ public final class HttpLowLevel
      *
      * @param uri URI to issue a request to.  Any id information should have already been added.
      * @param mediaType the MIME type the object is to be sent to the server as.
-     * @param object the object to send down to the server.  This can be a Jackson serializable object or a raw
-     *               InputStream.
+     * @param object the object to send down to the server.  This can be a Jackson serializable object, a raw
+     *               InputStream or a ReplayableBody.
      * @return the raw ClientReponse to the request.  Any errors will have already been processed, and have thrown
      * and exception.
      * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
@@ -459,7 +520,7 @@ public final class HttpLowLevel
      */
     public <T> ClientResponse putRaw(final URI uri, final MediaType mediaType, final Object object) throws LongRunningQueryException, SodaError
     {
-        final WebResource.Builder builder = client.resource(soda2ifyUri(uri))
+        final WebResource.Builder builder = entityResource(soda2ifyUri(uri), object)
                                                   .accept("application/json")
                                                   .type(mediaType);
 
@@ -478,14 +539,57 @@ public final class HttpLowLevel
                                                   .accept(acceptType)
                                                   .type(MediaType.MULTIPART_FORM_DATA_TYPE);
 
-        FormDataMultiPart form = new FormDataMultiPart();
-        form.bodyPart(new FileDataBodyPart(file.getName(), file, mediaType));
-
-        final ClientResponse response = builder.put(ClientResponse.class, form);
+        final ClientResponse response = builder.put(ClientResponse.class, fileForm(file, mediaType));
         return processErrors(response);
     }
 
 
+    /**
+     * Creates the resource to send an entity to.  Streams whose length isn't known yet (a raw InputStream, or a
+     * ReplayableBody on its first send) are sent with chunked encoding, otherwise HttpURLConnection buffers the
+     * whole body in memory to work out its length.
+     *
+     * @param uri URI to issue the request to.
+     * @param entity the entity that will be sent
+     * @return the resource to send the entity to.
+     */
+    private WebResource entityResource(final URI uri, final Object entity)
+    {
+        final WebResource resource = client.resource(uri);
+        if (entity instanceof InputStream || (entity instanceof ReplayableBody && ((ReplayableBody) entity).length() < 0)) {
+            resource.setProperty(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, CHUNKED_ENCODING_SIZE);
+        }
+        return resource;
+    }
+
+    /**
+     * Creates the multipart form for uploading a file.  The file is sent as a ReplayableBody, so it goes
+     * out through {@code FileChannel.transferTo} rather than being copied through the heap.
+     *
+     * @param file the file to upload
+     * @param mediaType the MIME type of the file
+     * @return the form to send
+     * @throws SodaError if the file does not exist.
+     */
+    private static FormDataMultiPart fileForm(final File file, final MediaType mediaType) throws SodaError
+    {
+        final ReplayableBody body;
+        try {
+            body = ReplayableBody.fromFile(file);
+        } catch (FileNotFoundException e) {
+            throw new SodaError("Unable to load file: " + file.getAbsolutePath());
+        }
+
+        final FormDataContentDisposition disposition = FormDataContentDisposition.name(file.getName())
+                                                                                 .fileName(file.getName())
+                                                                                 .modificationDate(new Date(file.lastModified()))
+                                                                                 .build();
+
+        final FormDataMultiPart form = new FormDataMultiPart();
+        form.bodyPart(new FormDataBodyPart(disposition, body, mediaType));
+        return form;
+    }
+
     /**
      * Internal API to add any common parameters.  In this case, it sets the version parameter
      * so all our return types correspond to SODA2.
@@ -517,7 +621,7 @@ public final class HttpLowLevel
     private ClientResponse processErrors(final ClientResponse response) throws SodaError, LongRunningQueryException
     {
 
-        if (response.getStatus() == 200) {
+        if (response.getStatus() == 200 || response.getStatus() == 206) {
             return response;
         }
 
@@ -566,6 +670,24 @@ public final class HttpLowLevel
             throw new LongRunningQueryException(locationUri, parseRetryAfter(retryAfter), ticket);
         }
 
+        switch (response.getStatus()) {
+            case 429:
+            case 502:
+            case 503:
+            case 504:
+                //These often come from a proxy, so the body may not be JSON
+                SodaErrorResponse unavailableResponse = new SodaErrorResponse(UNEXPECTED_ERROR, body, null, null);
+                if (response.getType() != null && response.getType().isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                    try {
+                        unavailableResponse = mapper.readValue(body, SodaErrorResponse.class);
+                    } catch (Exception e) {
+                        //Keep the raw body
+                    }
+                }
+                final String unavailableRetryAfter = response.getHeaders().getFirst("Retry-After");
+                throw new ServiceUnavailableException(unavailableResponse, response.getStatus(), unavailableRetryAfter != null ? parseRetryAfter(unavailableRetryAfter) : 0);
+        }
+
         if (!response.getType().isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
             throw new SodaError(new SodaErrorResponse(UNEXPECTED_ERROR, body, null, null));
         }
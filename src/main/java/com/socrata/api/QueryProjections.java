@@ -0,0 +1,128 @@
+package com.socrata.api;
+
+import com.google.common.collect.ImmutableList;
+import com.socrata.builders.SoqlQueryBuilder;
+import com.socrata.model.soql.SoqlQuery;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.introspect.BasicBeanDescription;
+import org.codehaus.jackson.map.introspect.VisibilityChecker;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Works out the {@code $select} for a class that query results are bound to, i.e. the fields Jackson would
+ * actually set on it.  Each class is only introspected once.<p/>
+ *
+ * Classes that take every field (Maps, or beans with an any-setter) have no projection, and are queried as is.
+ */
+final class QueryProjections
+{
+    private static final ObjectMapper MAPPER = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    //No projection is an empty list, as the map can't hold nulls
+    private static final ConcurrentMap<Class<?>, List<String>> PROJECTIONS = new ConcurrentHashMap<Class<?>, List<String>>();
+
+    private QueryProjections()
+    {
+    }
+
+    /**
+     * Gets the fields a class binds.
+     *
+     * @param cls the class results are bound to
+     * @return the field names, in the order they are declared, or an empty list if the class has no projection.
+     */
+    static List<String> fieldsFor(final Class<?> cls)
+    {
+        final List<String> cached = PROJECTIONS.get(cls);
+        if (cached != null) {
+            return cached;
+        }
+
+        final List<String> fields = introspect(cls);
+        PROJECTIONS.putIfAbsent(cls, fields);
+        return fields;
+    }
+
+    /**
+     * Gets the class each element of a list type is bound to.
+     *
+     * @param listType the type of the result, such as {@code List<Nomination>}
+     * @return the element class, or {@code null} if it can't be worked out.
+     */
+    static Class<?> elementClass(final Type listType)
+    {
+        if (listType instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) listType).getActualTypeArguments();
+            if (arguments.length == 1) {
+                final Type element = arguments[0];
+                if (element instanceof Class) {
+                    return (Class<?>) element;
+                } else if (element instanceof ParameterizedType && ((ParameterizedType) element).getRawType() instanceof Class) {
+                    return (Class<?>) ((ParameterizedType) element).getRawType();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a {@code $select} of some fields to a query.  Queries that already have a select or a group by are
+     * left alone, as the fields they return aren't just columns.
+     *
+     * @param query the query
+     * @param fields the fields to select.  If this is empty, the query is left alone.
+     * @return the query with the select.
+     */
+    static SoqlQuery project(final SoqlQuery query, final List<String> fields)
+    {
+        if (fields.isEmpty() || query.selectClause != null || query.groupByClause != null) {
+            return query;
+        }
+        return new SoqlQueryBuilder(query).setSelectPhrase(fields).build();
+    }
+
+    private static List<String> introspect(final Class<?> cls)
+    {
+        if (cls.isPrimitive() || cls.isArray() || cls.isInterface() || cls.isEnum() || cls == Object.class ||
+                Map.class.isAssignableFrom(cls) || Collection.class.isAssignableFrom(cls) || cls.getName().startsWith("java.")) {
+            return ImmutableList.of();
+        }
+
+        try {
+            final DeserializationConfig config = MAPPER.getDeserializationConfig();
+            final BasicBeanDescription description = config.introspect(MAPPER.getTypeFactory().constructType(cls));
+            if (description.findAnySetter() != null) {
+                return ImmutableList.of();
+            }
+
+            final AnnotationIntrospector introspector = config.getAnnotationIntrospector();
+            final VisibilityChecker<?> visibility = introspector.findAutoDetectVisibility(description.getClassInfo(), config.getDefaultVisibilityChecker());
+
+            final Set<String> fields = new LinkedHashSet<String>(description.findCreatorPropertyNames());
+            fields.addAll(description.findSetters(visibility).keySet());
+            fields.addAll(description.findDeserializableFields(visibility, null).keySet());
+
+            final String[] ignored = introspector.findPropertiesToIgnore(description.getClassInfo());
+            if (ignored != null) {
+                fields.removeAll(Arrays.asList(ignored));
+            }
+            return ImmutableList.copyOf(fields);
+        } catch (IllegalArgumentException e) {
+            //Jackson can't bind the class as a bean either, so there's nothing to select
+            return ImmutableList.of();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.socrata.api;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.socrata.exceptions.DoesNotExistException;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.SodaErrorResponse;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of the rows looked up with {@link Soda2Consumer#getById(String, String, Class)}, set on a
+ * consumer with {@link Soda2Consumer#setRowCache(RowCache)}.<p/>
+ *
+ * Each row is kept with its version, i.e. its {@code :updated_at} and {@code :updated_meta}.  Rows are not
+ * expired by time; instead {@link Soda2Consumer#revalidateRowCache()} checks the versions of every cached row
+ * with a few batched queries of just the ids and versions, and only fetches again the rows that changed.  Rows
+ * that were deleted are dropped.<p/>
+ *
+ * The cached objects are handed out as is, so they should be treated as read-only.
+ */
+public class RowCache
+{
+    public static final String          UPDATED_AT = ":updated_at";
+    public static final String          UPDATED_META = ":updated_meta";
+
+    static final List<String> VERSION_FIELDS = ImmutableList.of(UPDATED_AT, UPDATED_META);
+
+    private final Cache<Key, Entry> cache;
+
+    /**
+     * Constructor
+     *
+     * @param maximumSize the most rows to keep.  The least recently used rows are evicted first.
+     */
+    public RowCache(final long maximumSize)
+    {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * The number of rows in the cache.
+     * @return the number of rows in the cache.
+     */
+    public long size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Drops a row from the cache.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param id the id the row was looked up with
+     */
+    public void invalidate(final String resourceId, final String id)
+    {
+        cache.invalidate(new Key(resourceId, id));
+    }
+
+    /**
+     * Drops every row from the cache.
+     */
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Gets a row from the cache, or fetches it (with its version) and caches it.
+     */
+    <T> T get(final Soda2Consumer consumer, final String idField, final String resourceId, final String id, final Class<T> cls) throws SodaError, InterruptedException
+    {
+        final Key key = new Key(resourceId, id);
+        final Entry entry = cache.getIfPresent(key);
+        if (entry != null && entry.cls == cls) {
+            return cls.cast(entry.row);
+        }
+
+        //Ids that aren't numbers can't identify a row of a number column
+        final boolean numeric = consumer.isNumberColumn(resourceId, idField);
+        final String idKey = BatchedIdLookup.keyOf(id, numeric);
+        final ObjectNode row = (idKey == null) ? null :
+                BatchedIdLookup.queryRows(consumer, resourceId, BatchedIdLookup.queryFor(idField, numeric, ImmutableList.of(idKey), VERSION_FIELDS, true), idField, numeric).get(idKey);
+        if (row == null) {
+            throw new DoesNotExistException(new SodaErrorResponse("not_found", "Row " + id + " does not exist in " + resourceId, null, null));
+        }
+        return store(key, idField, row, cls);
+    }
+
+    /**
+     * Checks the version of every cached row, and fetches again the rows that have changed.
+     *
+     * @return the number of rows that were fetched again or dropped.
+     */
+    int revalidate(final Soda2Consumer consumer, final RowIdentifiers rowIdentifiers) throws SodaError, InterruptedException
+    {
+        final Map<String, Map<String, Entry>> resources = new HashMap<String, Map<String, Entry>>();
+        for (Map.Entry<Key, Entry> cached : cache.asMap().entrySet()) {
+            Map<String, Entry> entries = resources.get(cached.getKey().resourceId);
+            if (entries == null) {
+                entries = new HashMap<String, Entry>();
+                resources.put(cached.getKey().resourceId, entries);
+            }
+            entries.put(cached.getKey().id, cached.getValue());
+        }
+
+        int changed = 0;
+        for (Map.Entry<String, Map<String, Entry>> resource : resources.entrySet()) {
+            final String resourceId = resource.getKey();
+            final Map<String, Entry> entries = resource.getValue();
+            final String idField = rowIdentifiers.getFieldName(resourceId);
+            final boolean numeric = consumer.isNumberColumn(resourceId, idField);
+
+            for (List<String> chunk : BatchedIdLookup.chunk(consumer.getHttpLowLevel(), resourceId, idField, new ArrayList<String>(entries.keySet()))) {
+                final Map<String, ObjectNode> versions = BatchedIdLookup.queryRows(consumer, resourceId, BatchedIdLookup.queryFor(idField, numeric, chunk, VERSION_FIELDS, false), idField, numeric);
+
+                final List<String> stale = new ArrayList<String>();
+                for (String id : chunk) {
+                    final ObjectNode version = versions.get(BatchedIdLookup.keyOf(id, numeric));
+                    if (version == null) {
+                        cache.invalidate(new Key(resourceId, id));
+                        changed++;
+                    } else if (!versionOf(version).equals(entries.get(id).version)) {
+                        stale.add(id);
+                    }
+                }
+                if (stale.isEmpty()) {
+                    continue;
+                }
+
+                final Map<String, ObjectNode> rows = BatchedIdLookup.queryRows(consumer, resourceId, BatchedIdLookup.queryFor(idField, numeric, stale, VERSION_FIELDS, true), idField, numeric);
+                for (String id : stale) {
+                    final Key key = new Key(resourceId, id);
+                    final ObjectNode row = rows.get(BatchedIdLookup.keyOf(id, numeric));
+                    if (row != null) {
+                        store(key, idField, row, entries.get(id).cls);
+                    } else {
+                        cache.invalidate(key);
+                    }
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Binds a fetched row, and caches it with its version.
+     */
+    private <T> T store(final Key key, final String idField, final ObjectNode row, final Class<T> cls) throws SodaError
+    {
+        final String version = versionOf(row);
+        final List<String> added = new ArrayList<String>(VERSION_FIELDS);
+        if (idField.startsWith(":")) {
+            added.add(idField);
+        }
+
+        final T value = BatchedIdLookup.bind(row, BatchedIdLookup.unboundFields(cls, added), cls);
+        cache.put(key, new Entry(value, cls, version));
+        return value;
+    }
+
+    /**
+     * The version of a row, from its version fields.
+     */
+    static String versionOf(final ObjectNode row)
+    {
+        final StringBuilder version = new StringBuilder();
+        for (String field : VERSION_FIELDS) {
+            final JsonNode value = row.get(field);
+            if (version.length() > 0) {
+                version.append('|');
+            }
+            version.append((value != null && !value.isNull()) ? value.getValueAsText() : "");
+        }
+        return version.toString();
+    }
+
+    private static final class Key
+    {
+        final String resourceId;
+        final String id;
+
+        Key(final String resourceId, final String id)
+        {
+            this.resourceId = resourceId;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return resourceId.equals(key.resourceId) && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * resourceId.hashCode() + id.hashCode();
+        }
+    }
+
+    private static final class Entry
+    {
+        final Object row;
+        final Class<?> cls;
+        final String version;
+
+        Entry(final Object row, final Class<?> cls, final String version)
+        {
+            this.row = row;
+            this.cls = cls;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.importer.Column;
+import com.socrata.model.importer.Dataset;
+import com.socrata.model.importer.DatasetInfo;
+import com.socrata.model.importer.Metadata;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Looks up (and remembers) the field name that identifies rows in a dataset.  This is the field name of the
+ * dataset's Row Identifier column if it has one, otherwise the system id, {@code :id}.
+ */
+class RowIdentifiers
+{
+    public static final String SYSTEM_ID = ":id";
+
+    private final HttpLowLevel httpLowLevel;
+    private final ConcurrentMap<String, String> fieldNames = new ConcurrentHashMap<String, String>();
+
+    RowIdentifiers(final HttpLowLevel httpLowLevel)
+    {
+        this.httpLowLevel = httpLowLevel;
+    }
+
+    /**
+     * Gets the field name that identifies rows in a dataset.
+     *
+     * @param resourceId id of the dataset
+     * @return the field name of the dataset's Row Identifier column, or {@code :id} if it doesn't have one.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    String getFieldName(final String resourceId) throws SodaError, InterruptedException
+    {
+        final String cached = fieldNames.get(resourceId);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String fieldName = lookup(new SodaDdl(httpLowLevel).loadDatasetInfo(resourceId));
+        fieldNames.putIfAbsent(resourceId, fieldName);
+        return fieldName;
+    }
+
+    /**
+     * Works out the row identifier field of a dataset.  The metadata may hold either the id of the
+     * Row Identifier column, or its field name.
+     */
+    static String lookup(final DatasetInfo datasetInfo)
+    {
+        final Metadata metadata = datasetInfo.getMetadata();
+        if (metadata == null || StringUtils.isEmpty(metadata.getRowIdentifier())) {
+            return SYSTEM_ID;
+        }
+
+        final String rowIdentifier = metadata.getRowIdentifier();
+        if (datasetInfo instanceof Dataset && ((Dataset) datasetInfo).getColumns() != null) {
+            for (Column column : ((Dataset) datasetInfo).getColumns()) {
+                if (column.getId() != null && rowIdentifier.equals(column.getId().toString())) {
+                    return column.getFieldName();
+                }
+            }
+        }
+        return rowIdentifier;
+    }
+}
@@ -0,0 +1,445 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.LongRunningQueryException;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.requests.SodaRequest;
+import com.socrata.utils.BufferPool;
+import com.socrata.utils.GeneralUtils;
+import com.socrata.utils.NioUtils;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a large resource over several connections at once, using HTTP Range requests.<p/>
+ *
+ * The size of the resource is probed with a one byte range request, the target file is preallocated, and then
+ * each segment is fetched on its own connection and written straight into its region of the file with positional
+ * FileChannel writes.<p/>
+ *
+ * Progress of each segment is recorded in a checkpoint file next to the target (the target's name + ".segments"),
+ * along with the resource's ETag (or Last-Modified date).  If a download is interrupted, calling download again with
+ * the same target picks up each segment where it left off, as long as the resource still has the same size and
+ * validator, and the target still holds the progress recorded.  Otherwise the download starts over.  Every range
+ * request carries the validator in If-Range, so a resource that changes part way through fails the download rather
+ * than mixing old and new bytes.  The checkpoint is removed once the download completes.  Resources without a
+ * strong ETag or a Last-Modified date can't be checked for changes, so their downloads are never resumed.<p/>
+ *
+ * If the server ignores the Range header, this falls back to downloading the resource on a single stream.
+ */
+public class SegmentedDownloader
+{
+    public static final int     DEFAULT_SEGMENTS = 4;
+    public static final String  CHECKPOINT_SUFFIX = ".segments";
+
+    protected static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    protected static final long CHECKPOINT_INTERVAL = 4 * 1024 * 1024;
+
+    //"SEG2", then the total length, segment count and validator length, then the validator
+    private static final int    CHECKPOINT_MAGIC = 0x53454732;
+    private static final int    HEADER_SIZE = 4 + 8 + 4 + 4;
+    private static final int    SEGMENT_RECORD_SIZE = 8 * 3;
+
+    private final HttpLowLevel httpLowLevel;
+    private final int segments;
+
+    /**
+     * Constructor
+     *
+     * @param httpLowLevel the HttpLowLevel this uses to contact the server
+     * @param segments the maximum number of segments to download concurrently
+     */
+    public SegmentedDownloader(@Nonnull final HttpLowLevel httpLowLevel, final int segments)
+    {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Need at least one segment to download with.");
+        }
+        this.httpLowLevel = httpLowLevel;
+        this.segments = segments;
+    }
+
+    /**
+     * Downloads a resource into a file.
+     *
+     * @param uri the URI of the resource to download
+     * @param file the file to download into.  If a checkpoint file from an earlier, interrupted download of the same
+     *             size exists, the download resumes from it.
+     * @return the number of bytes in the downloaded file.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public long download(@Nonnull final URI uri, @Nonnull final File file) throws SodaError, InterruptedException
+    {
+        final long total;
+        final String validator;
+        try {
+            final ClientResponse probe = httpLowLevel.queryRangeRaw(uri, MediaType.WILDCARD_TYPE, 0, 0);
+            if (probe.getStatus() != 206) {
+                //Server ignored the range, so this response already has the whole resource
+                return writeWhole(probe, file);
+            }
+
+            total = parseTotalLength(probe.getHeaders().getFirst(HttpLowLevel.CONTENT_RANGE_HEADER));
+            validator = validatorOf(probe.getHeaders().getFirst(HttpLowLevel.ETAG_HEADER), probe.getHeaders().getFirst(HttpLowLevel.LAST_MODIFIED_HEADER));
+            probe.close();
+        } catch (LongRunningQueryException e) {
+            final SodaRequest requester = new SodaRequest<URI>(null, uri)
+            {
+                public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
+                { return httpLowLevel.queryRaw(payload, MediaType.WILDCARD_TYPE); }
+            };
+            return writeWhole(httpLowLevel.getAsyncResults(e.location, MediaType.WILDCARD_TYPE, e.timeToRetry, httpLowLevel.getMaxRetries(), requester), file);
+        }
+
+        if (total < 0) {
+            try {
+                return writeWhole(httpLowLevel.queryRaw(uri, MediaType.WILDCARD_TYPE), file);
+            } catch (LongRunningQueryException e) {
+                throw new SodaError("Unexpected long running response while downloading " + uri);
+            }
+        }
+
+        try {
+            return downloadSegments(uri, file, total, validator);
+        } catch (IOException e) {
+            throw new SodaError("Unable to write the download to " + GeneralUtils.bestFilePath(file) + ".  Error message: " + e.getLocalizedMessage());
+        }
+    }
+
+    private long downloadSegments(final URI uri, final File file, final long total, final String validator) throws IOException, SodaError, InterruptedException
+    {
+        final File checkpointFile = new File(file.getPath() + CHECKPOINT_SUFFIX);
+        //A target that was deleted or replaced since the checkpoint was written no longer holds its progress
+        final long existingLength = file.isFile() ? file.length() : 0;
+        final RandomAccessFile target = new RandomAccessFile(file, "rw");
+        final RandomAccessFile checkpoint = new RandomAccessFile(checkpointFile, "rw");
+        final ExecutorService executor = Executors.newFixedThreadPool(segments);
+
+        try {
+            final FileChannel targetChannel = target.getChannel();
+            final FileChannel checkpointChannel = checkpoint.getChannel();
+            Plan loaded = loadPlan(checkpointChannel, total, validator, existingLength);
+            if (loaded == null) {
+                loaded = createPlan(checkpointChannel, total, validator);
+            }
+            final Plan plan = loaded;
+            if (target.length() != total) {
+                target.setLength(total);
+            }
+
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i=0; i<plan.segments.length; i++) {
+                final int segment = i;
+                final long[] region = plan.segments[i];
+                if (region[2] < region[1] - region[0]) {
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception
+                        {
+                            downloadSegment(uri, validator, targetChannel, checkpointChannel, plan.progressOffset(segment), segment, region);
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+
+            targetChannel.force(false);
+        } finally {
+            executor.shutdownNow();
+            GeneralUtils.closeQuietly(checkpoint);
+            GeneralUtils.closeQuietly(target);
+        }
+
+        checkpointFile.delete();
+        return total;
+    }
+
+    /**
+     * Downloads one segment, writing it into its region of the target and recording progress in the checkpoint.
+     *
+     * @param progressOffset where the segment's progress is recorded in the checkpoint
+     * @param region {start, end (exclusive), bytes already done}
+     */
+    private void downloadSegment(final URI uri, final String validator, final FileChannel target, final FileChannel checkpoint,
+                                 final long progressOffset, final int segment, final long[] region) throws IOException, SodaError
+    {
+        final long start = region[0];
+        final long end = region[1];
+        final long first = start + region[2];
+
+        final ClientResponse response;
+        try {
+            response = httpLowLevel.queryRangeRaw(uri, MediaType.WILDCARD_TYPE, first, end - 1, validator);
+        } catch (LongRunningQueryException e) {
+            throw new SodaError("Unexpected long running response while downloading " + uri);
+        }
+
+        if (response.getStatus() != 206) {
+            response.close();
+            if (validator != null) {
+                //With If-Range, a full response means the resource no longer matches what has been downloaded
+                throw new SodaError("Resource " + uri + " changed while it was being downloaded.");
+            }
+            throw new SodaError("Server stopped honoring range requests while downloading " + uri);
+        }
+
+        final long rangeStart = parseRangeStart(response.getHeaders().getFirst(HttpLowLevel.CONTENT_RANGE_HEADER));
+        if (rangeStart != first) {
+            response.close();
+            throw new SodaError("Server sent the range starting at " + rangeStart + " rather than " + first + " while downloading " + uri);
+        }
+
+        final InputStream is = response.getEntityInputStream();
+        final ReadableByteChannel source = Channels.newChannel(is);
+        final ByteBuffer buffer = BufferPool.DIRECT.acquire();
+        try {
+            long sinceCheckpoint = 0;
+            while (start + region[2] < end && source.read(buffer) != -1) {
+                buffer.flip();
+                if (buffer.remaining() > end - start - region[2]) {
+                    buffer.limit(buffer.position() + (int) (end - start - region[2]));
+                }
+
+                while (buffer.hasRemaining()) {
+                    final int written = target.write(buffer, start + region[2]);
+                    region[2] += written;
+                    sinceCheckpoint += written;
+                }
+                buffer.clear();
+
+                if (sinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                    target.force(false);
+                    writeProgress(checkpoint, progressOffset, region[2]);
+                    sinceCheckpoint = 0;
+                }
+            }
+        } finally {
+            BufferPool.DIRECT.release(buffer);
+            GeneralUtils.closeQuietly(is);
+            writeProgress(checkpoint, progressOffset, region[2]);
+        }
+
+        if (start + region[2] < end) {
+            throw new SodaError("Connection closed before segment " + segment + " of " + uri + " was complete.");
+        }
+    }
+
+    /**
+     * Loads the segment plan from an existing checkpoint, if it describes a download of the same resource, and the
+     * target still holds all the progress it records.
+     *
+     * @param checkpoint the checkpoint file
+     * @param total the length of the resource
+     * @param validator the ETag or Last-Modified date of the resource, or {@code null} if it has neither
+     * @param targetLength the length of the target before the download started, or 0 if it didn't exist
+     * @return the plan, or {@code null} if the checkpoint can't be resumed from.
+     */
+    static Plan loadPlan(final FileChannel checkpoint, final long total, final String validator, final long targetLength) throws IOException
+    {
+        if (validator == null || checkpoint.size() < HEADER_SIZE) {
+            return null;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(checkpoint, header, 0);
+        header.flip();
+        final int magic = header.getInt();
+        final long savedTotal = header.getLong();
+        final int savedSegments = header.getInt();
+        final int validatorLength = header.getInt();
+
+        if (magic != CHECKPOINT_MAGIC || savedTotal != total || savedSegments <= 0 || validatorLength < 0 ||
+                checkpoint.size() != HEADER_SIZE + validatorLength + savedSegments * (long) SEGMENT_RECORD_SIZE) {
+            return null;
+        }
+
+        final ByteBuffer savedValidator = ByteBuffer.allocate(validatorLength);
+        readFully(checkpoint, savedValidator, HEADER_SIZE);
+        if (!validator.equals(new String(savedValidator.array(), "UTF-8"))) {
+            return null;
+        }
+
+        final ByteBuffer records = ByteBuffer.allocate(savedSegments * SEGMENT_RECORD_SIZE);
+        readFully(checkpoint, records, HEADER_SIZE + validatorLength);
+        records.flip();
+
+        final long[][] segments = new long[savedSegments][];
+        for (int i=0; i<savedSegments; i++) {
+            segments[i] = new long[] { records.getLong(), records.getLong(), records.getLong() };
+            if (segments[i][2] > 0 && segments[i][0] + segments[i][2] > targetLength) {
+                return null;
+            }
+        }
+        return new Plan(segments, HEADER_SIZE + validatorLength);
+    }
+
+    /**
+     * Creates a new segment plan, and writes it into the checkpoint.
+     */
+    Plan createPlan(final FileChannel checkpoint, final long total, final String validator) throws IOException
+    {
+        final byte[] validatorBytes = (validator == null) ? new byte[0] : validator.getBytes("UTF-8");
+        final int count = (int) Math.max(1, Math.min(segments, (total + MIN_SEGMENT_SIZE - 1) / MIN_SEGMENT_SIZE));
+        final long segmentSize = (total + count - 1) / count;
+        final long[][] plan = new long[count][];
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + validatorBytes.length + count * SEGMENT_RECORD_SIZE);
+        buffer.putInt(CHECKPOINT_MAGIC).putLong(total).putInt(count).putInt(validatorBytes.length).put(validatorBytes);
+        for (int i=0; i<count; i++) {
+            final long start = Math.min(total, i * segmentSize);
+            final long end = Math.min(total, start + segmentSize);
+            plan[i] = new long[] { start, end, 0 };
+            buffer.putLong(start).putLong(end).putLong(0);
+        }
+        buffer.flip();
+
+        checkpoint.truncate(0);
+        while (buffer.hasRemaining()) {
+            checkpoint.write(buffer, buffer.position());
+        }
+        checkpoint.force(false);
+        return new Plan(plan, HEADER_SIZE + validatorBytes.length);
+    }
+
+    static void writeProgress(final FileChannel checkpoint, final long progressOffset, final long done) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(done).flip();
+        checkpoint.write(buffer, progressOffset);
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("The checkpoint ended early.");
+            }
+        }
+    }
+
+    /**
+     * Picks what identifies the version of a resource: its ETag, unless that is weak (weak ETags can't be used in
+     * If-Range), or else its Last-Modified date.
+     *
+     * @return the validator, or {@code null} if the resource has neither.
+     */
+    static String validatorOf(final String etag, final String lastModified)
+    {
+        if (StringUtils.isNotEmpty(etag) && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return StringUtils.isNotEmpty(lastModified) ? lastModified : null;
+    }
+
+    private static long writeWhole(final ClientResponse response, final File file) throws SodaError
+    {
+        final InputStream is = response.getEntityInputStream();
+        try {
+            return NioUtils.transferFrom(is, file);
+        } catch (IOException e) {
+            throw new SodaError("Unable to write the download to " + GeneralUtils.bestFilePath(file) + ".  Error message: " + e.getLocalizedMessage());
+        } finally {
+            GeneralUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Parses the complete length out of a Content-Range header, e.g. {@code bytes 0-0/12345}
+     *
+     * @return the complete length, or -1 if it is not known
+     */
+    static long parseTotalLength(final String contentRange)
+    {
+        if (StringUtils.isEmpty(contentRange)) {
+            return -1;
+        }
+
+        final int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+
+        final String total = contentRange.substring(slash + 1).trim();
+        return StringUtils.isNumeric(total) && !total.isEmpty() ? Long.parseLong(total) : -1;
+    }
+
+    /**
+     * Parses the first byte out of a Content-Range header, e.g. {@code bytes 100-199/12345}
+     *
+     * @return the first byte of the range, or -1 if it is not known
+     */
+    static long parseRangeStart(final String contentRange)
+    {
+        if (StringUtils.isEmpty(contentRange)) {
+            return -1;
+        }
+
+        final String range = contentRange.trim();
+        final int space = range.indexOf(' ');
+        final int dash = range.indexOf('-', space + 1);
+        if (space < 0 || dash < 0) {
+            return -1;
+        }
+
+        final String first = range.substring(space + 1, dash).trim();
+        return StringUtils.isNumeric(first) && !first.isEmpty() ? Long.parseLong(first) : -1;
+    }
+
+    /**
+     * The segments of a download, and where their progress is recorded in the checkpoint.
+     */
+    static final class Plan
+    {
+        //One {start, end (exclusive), bytes done} triple per segment
+        final long[][] segments;
+        final long recordsOffset;
+
+        Plan(final long[][] segments, final long recordsOffset)
+        {
+            this.segments = segments;
+            this.recordsOffset = recordsOffset;
+        }
+
+        long progressOffset(final int segment)
+        {
+            return recordsOffset + segment * (long) SEGMENT_RECORD_SIZE + 16;
+        }
+    }
+
+    private static SodaError unwrap(final ExecutionException e)
+    {
+        final Throwable cause = e.getCause();
+        if (cause instanceof SodaError) {
+            return (SodaError) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new SodaError(cause);
+    }
+}
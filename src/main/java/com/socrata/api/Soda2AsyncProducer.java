@@ -0,0 +1,458 @@
+package com.socrata.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertOperation;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.utils.BufferPool;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import com.socrata.utils.PooledBufferOutputStream;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A write-behind producer that sits in front of {@link Soda2Producer#upsert(String, List)}.<p/>
+ *
+ * Rows are handed to {@link #submit(Object)} one at a time, and are serialized right away on the calling thread.
+ * A background thread gathers the buffered rows into batches, and sends a batch once it has
+ * {@code maxBatchRows} rows, {@code maxBatchBytes} bytes of JSON, or the oldest row in it has waited
+ * {@code lingerMillis}.  Up to {@code maxInFlight} batches are sent at once.<p/>
+ *
+ * The buffer holds at most {@code bufferRows} rows.  When it is full, {@link #submit(Object)} blocks until
+ * a batch is sent, so a slow server slows the callers down rather than growing the buffer without bound.<p/>
+ *
+ * Each submitted row gets a future for its own slice of its batch's UpsertResult, i.e. a result with a single
+ * insert, update or delete, or a single error (whose index is 0).  If the server only returns the summary form
+ * of the upsert result, rows without errors get an empty result.  If the whole batch fails, every row in it fails
+ * with the same SodaError.
+ */
+public class Soda2AsyncProducer implements Closeable
+{
+    public static final int     DEFAULT_MAX_BATCH_ROWS = 1000;
+    public static final long    DEFAULT_MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    public static final long    DEFAULT_LINGER_MILLIS = 50;
+    public static final int     DEFAULT_MAX_IN_FLIGHT = 2;
+    public static final int     DEFAULT_BUFFER_ROWS = 10000;
+
+    private static final UpsertResult EMPTY_RESULT = new UpsertResult(0, 0, 0, null);
+    private static final UpsertResult INSERT_RESULT = new UpsertResult(1, 0, 0, null);
+    private static final UpsertResult UPDATE_RESULT = new UpsertResult(0, 1, 0, null);
+    private static final UpsertResult DELETE_RESULT = new UpsertResult(0, 0, 1, null);
+
+    private final Soda2Producer producer;
+    private final String resourceId;
+    private final int maxBatchRows;
+    private final long maxBatchBytes;
+    private final long lingerMillis;
+    private final int maxInFlight;
+
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+    private final BlockingQueue<PendingRow> buffer;
+    private final Semaphore inFlight;
+    private final ExecutorService senders;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+    //Set once the dispatcher has stopped, with why it stopped
+    private volatile Throwable dispatcherStopped;
+
+    /**
+     * Constructor, using the default batching settings.
+     *
+     * @param producer the producer to send the batches with
+     * @param resourceId unique id or resource name of the dataset to upsert into
+     */
+    public Soda2AsyncProducer(@Nonnull final Soda2Producer producer, @Nonnull final String resourceId)
+    {
+        this(producer, resourceId, DEFAULT_MAX_BATCH_ROWS, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LINGER_MILLIS, DEFAULT_MAX_IN_FLIGHT, DEFAULT_BUFFER_ROWS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param producer the producer to send the batches with
+     * @param resourceId unique id or resource name of the dataset to upsert into
+     * @param maxBatchRows the most rows to send in one batch
+     * @param maxBatchBytes the most bytes of JSON to send in one batch.  A single row larger than this is sent on its own.
+     * @param lingerMillis the longest a row waits for its batch to fill up before the batch is sent anyway
+     * @param maxInFlight the most batches to send at once
+     * @param bufferRows the most rows to buffer before {@link #submit(Object)} blocks
+     */
+    public Soda2AsyncProducer(@Nonnull final Soda2Producer producer, @Nonnull final String resourceId, final int maxBatchRows,
+                              final long maxBatchBytes, final long lingerMillis, final int maxInFlight, final int bufferRows)
+    {
+        if (maxBatchRows < 1 || maxBatchBytes < 1 || lingerMillis < 0 || maxInFlight < 1 || bufferRows < 1) {
+            throw new IllegalArgumentException("Batch sizes, in-flight batches and buffer size must be positive, and the linger time can't be negative.");
+        }
+
+        this.producer = producer;
+        this.resourceId = resourceId;
+        this.maxBatchRows = maxBatchRows;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = lingerMillis;
+        this.maxInFlight = maxInFlight;
+
+        buffer = new ArrayBlockingQueue<PendingRow>(bufferRows);
+        inFlight = new Semaphore(maxInFlight);
+        senders = Executors.newFixedThreadPool(maxInFlight);
+        dispatcher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                dispatch();
+            }
+        }, "Soda2AsyncProducer-" + resourceId);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Adds a row to the buffer, to be upserted in a later batch.  This only blocks if the buffer is full.
+     *
+     * @param row the row to upsert.  This is serialized before the method returns, so it is safe to change it afterwards.
+     * @return a future for the row's slice of the batch result
+     * @throws SodaError  thrown if the row cannot be serialized.
+     * @throws IllegalStateException if the producer has been closed, or has stopped after an unexpected error.
+     * @throws InterruptedException throws is the thread is interrupted while waiting for room in the buffer.
+     */
+    public ListenableFuture<UpsertResult> submit(final Object row) throws SodaError, InterruptedException
+    {
+        final PendingRow pending = new PendingRow(serialize(row), PendingRow.Kind.Row);
+        checkOpen();
+        enqueue(pending, -1);
+        return pending.future;
+    }
+
+    /**
+     * Adds a row to the buffer, to be upserted in a later batch, waiting at most the given time for room in the buffer.
+     *
+     * @param row the row to upsert.  This is serialized before the method returns, so it is safe to change it afterwards.
+     * @param timeout how long to wait for room in the buffer
+     * @param unit the unit of the timeout
+     * @return a future for the row's slice of the batch result, or {@code null} if the buffer stayed full.
+     * @throws SodaError  thrown if the row cannot be serialized.
+     * @throws IllegalStateException if the producer has been closed, or has stopped after an unexpected error.
+     * @throws InterruptedException throws is the thread is interrupted while waiting for room in the buffer.
+     */
+    public ListenableFuture<UpsertResult> offer(final Object row, final long timeout, final TimeUnit unit) throws SodaError, InterruptedException
+    {
+        final PendingRow pending = new PendingRow(serialize(row), PendingRow.Kind.Row);
+        checkOpen();
+        return enqueue(pending, unit.toMillis(timeout)) ? pending.future : null;
+    }
+
+    /**
+     * Sends everything that is buffered, and waits until every batch sent so far has completed.
+     *
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public void flush() throws InterruptedException
+    {
+        checkOpen();
+        awaitMarker(PendingRow.Kind.Flush);
+    }
+
+    /**
+     * Sends everything that is buffered, waits for it to complete, then stops the background threads.
+     * No more rows can be submitted afterwards.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            try {
+                awaitMarker(PendingRow.Kind.Close);
+            } catch (IllegalStateException e) {
+                //The dispatcher already stopped, and failed whatever was left in the buffer
+            }
+            senders.shutdown();
+            senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatcher.interrupt();
+            senders.shutdownNow();
+            throw new IOException("Interrupted while closing the producer for " + resourceId);
+        }
+    }
+
+    /**
+     * The number of rows waiting in the buffer.
+     * @return the number of rows waiting in the buffer.
+     */
+    public int getBufferedRows()
+    {
+        return buffer.size();
+    }
+
+    private void awaitMarker(final PendingRow.Kind kind) throws InterruptedException
+    {
+        final PendingRow marker = new PendingRow(null, kind);
+        enqueue(marker, -1);
+        try {
+            marker.future.get();
+        } catch (ExecutionException e) {
+            //Markers are only ever completed successfully
+        }
+    }
+
+    private void checkOpen()
+    {
+        if (closed) {
+            throw new IllegalStateException("The producer for " + resourceId + " has been closed.");
+        }
+        checkDispatcher();
+    }
+
+    private void checkDispatcher()
+    {
+        final Throwable stopped = dispatcherStopped;
+        if (stopped != null) {
+            throw new IllegalStateException("The producer for " + resourceId + " has stopped.", stopped);
+        }
+    }
+
+    /**
+     * Puts a row or marker in the buffer, as long as the dispatcher is still running to take it out again.  A row
+     * that lands in the buffer just as the dispatcher stops is either failed by the dispatcher on its way out, or
+     * taken back out here.
+     *
+     * @param timeout the most milliseconds to wait for room in the buffer, or -1 to wait as long as it takes
+     * @return {@code false} if the buffer stayed full for the whole timeout.
+     */
+    private boolean enqueue(final PendingRow pending, final long timeout) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (!buffer.offer(pending, (timeout < 0) ? 100 : Math.min(100, Math.max(0, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS)) {
+            checkDispatcher();
+            if (timeout >= 0 && System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+        }
+
+        if (dispatcherStopped != null && buffer.remove(pending)) {
+            checkDispatcher();
+        }
+        return true;
+    }
+
+    private byte[] serialize(final Object row) throws SodaError
+    {
+        try {
+            return mapper.writeValueAsBytes(row);
+        } catch (IOException e) {
+            throw new SodaError("Unable to serialize row for " + resourceId + ".  Error message: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * The body of the dispatcher thread.  Gathers rows into batches and hands full (or lingering) batches to the senders.
+     */
+    private void dispatch()
+    {
+        List<PendingRow> batch = new ArrayList<PendingRow>();
+        long batchBytes = 0;
+        long deadline = 0;
+
+        try {
+            while (true) {
+                final PendingRow row;
+                if (batch.isEmpty()) {
+                    row = buffer.take();
+                } else {
+                    row = buffer.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                }
+
+                if (row == null) {
+                    //Lingered long enough
+                    send(batch);
+                    batch = new ArrayList<PendingRow>();
+                    batchBytes = 0;
+                    continue;
+                }
+
+                if (row.kind != PendingRow.Kind.Row) {
+                    send(batch);
+                    batch = new ArrayList<PendingRow>();
+                    batchBytes = 0;
+
+                    //Holding every permit means every batch sent so far has completed
+                    inFlight.acquire(maxInFlight);
+                    inFlight.release(maxInFlight);
+                    row.future.set(EMPTY_RESULT);
+
+                    if (row.kind == PendingRow.Kind.Close) {
+                        //Anything that raced into the buffer behind the close marker fails rather than hanging
+                        stopDispatcher(batch, new IllegalStateException("The producer for " + resourceId + " has been closed."));
+                        return;
+                    }
+                    continue;
+                }
+
+                if (!batch.isEmpty() && batchBytes + row.json.length > maxBatchBytes) {
+                    send(batch);
+                    batch = new ArrayList<PendingRow>();
+                    batchBytes = 0;
+                }
+
+                if (batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + lingerMillis;
+                }
+                batch.add(row);
+                batchBytes += row.json.length + 1;
+
+                if (batch.size() >= maxBatchRows || batchBytes >= maxBatchBytes) {
+                    send(batch);
+                    batch = new ArrayList<PendingRow>();
+                    batchBytes = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            stopDispatcher(batch, e);
+        } catch (RuntimeException e) {
+            stopDispatcher(batch, e);
+        } catch (Error e) {
+            stopDispatcher(batch, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Marks the dispatcher as stopped, and fails every row it will no longer send.
+     */
+    private void stopDispatcher(final List<PendingRow> batch, final Throwable cause)
+    {
+        dispatcherStopped = cause;
+
+        for (PendingRow row : batch) {
+            row.future.setException(cause);
+        }
+
+        final List<PendingRow> remaining = new ArrayList<PendingRow>();
+        buffer.drainTo(remaining);
+        for (PendingRow row : remaining) {
+            row.future.setException(cause);
+        }
+    }
+
+    /**
+     * Hands a batch to the senders, waiting for an in-flight slot first.
+     */
+    private void send(final List<PendingRow> batch) throws InterruptedException
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        inFlight.acquire();
+        try {
+            senders.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        upsertBatch(batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            for (PendingRow row : batch) {
+                row.future.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Upserts one batch, and completes the futures of its rows.
+     */
+    private void upsertBatch(final List<PendingRow> batch)
+    {
+        final UpsertResult[] results = new UpsertResult[batch.size()];
+
+        final PooledBufferOutputStream body = new PooledBufferOutputStream(BufferPool.HEAP);
+        try {
+            body.write('[');
+            for (int i=0; i<batch.size(); i++) {
+                if (i > 0) {
+                    body.write(',');
+                }
+                body.write(batch.get(i).json);
+            }
+            body.write(']');
+
+            producer.upsertStream(resourceId, HttpLowLevel.JSON_TYPE, ReplayableBody.fromBuffers(body.getBuffers()), new UpsertRowListener()
+            {
+                @Override
+                public void onRow(int index, UpsertOperation operation, String id, String error)
+                {
+                    if (index >= 0 && index < results.length) {
+                        results[index] = sliceResult(operation, id, error);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            for (PendingRow row : batch) {
+                row.future.setException(e);
+            }
+            return;
+        } finally {
+            body.release();
+        }
+
+        for (int i=0; i<batch.size(); i++) {
+            batch.get(i).future.set(results[i] != null ? results[i] : EMPTY_RESULT);
+        }
+    }
+
+    private static UpsertResult sliceResult(final UpsertOperation operation, final String id, final String error)
+    {
+        switch (operation) {
+            case Insert: return INSERT_RESULT;
+            case Update: return UPDATE_RESULT;
+            case Delete: return DELETE_RESULT;
+            default: return new UpsertResult(0, 0, 0, Collections.singletonList(new UpsertError(error, 0, id)));
+        }
+    }
+
+    /**
+     * A serialized row waiting in the buffer, or a flush/close marker.
+     */
+    private static final class PendingRow
+    {
+        enum Kind { Row, Flush, Close }
+
+        final byte[] json;
+        final Kind kind;
+        final SettableFuture<UpsertResult> future = SettableFuture.create();
+
+        PendingRow(final byte[] json, final Kind kind)
+        {
+            this.json = json;
+            this.kind = kind;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.socrata.exceptions.LongRunningQueryException;
 import com.socrata.exceptions.SodaError;
 import com.socrata.model.Meta;
 import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.model.soql.PreparedSoqlQuery;
 import com.socrata.model.soql.SoqlQuery;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.GenericType;
@@ -83,6 +85,27 @@ public class Soda2Base
         return httpLowLevel.queryRaw(builder.build(), mediaType);
     }
 
+    /**
+     * Runs a prepared query against a SODA2 resource.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param bindings The prepared query, with a value set for each of its parameters.
+     *
+     * @return a response containing the response stream, if the request is successful
+     * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
+     * the caller likely wants to call follow202.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     */
+    public ClientResponse query(String resourceId, MediaType mediaType, PreparedSoqlQuery.Bindings bindings) throws LongRunningQueryException, SodaError
+    {
+        final UriBuilder builder = httpLowLevel.uriBuilder()
+                                             .path(SODA_BASE_PATH)
+                                             .path(resourceId);
+
+        return httpLowLevel.queryRaw(bindings.toSodaUri(builder), mediaType);
+    }
+
     /**
      * Load a single object based on it's unique ID.  This id can either be based on a dataset specific unique column,
      * or the system ID created for each row.
@@ -215,6 +238,31 @@ public class Soda2Base
 
     }
 
+    /**
+     * Adds a collection of rows to a dataset, streaming a body that can be re-sent if the request needs to be
+     * re-issued.  Whether the body is JSON or CSV is set by the mediaType
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param mediaType The media type for the body (normally JSON or CSV)
+     * @param body The objects to add, already serialized.
+     *
+     * @return The results from the operation
+     * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
+     * the caller likely wants to call follow202.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     */
+    public ClientResponse doAddStream(String resourceId, MediaType mediaType, ReplayableBody body) throws LongRunningQueryException, SodaError
+    {
+
+        final UriBuilder builder = httpLowLevel.uriBuilder()
+                                             .path(SODA_BASE_PATH)
+                                             .path(resourceId);
+
+        return httpLowLevel.postRaw(builder.build(), mediaType, body);
+
+    }
+
 
 
     /**
@@ -265,6 +313,31 @@ public class Soda2Base
 
     }
 
+    /**
+     * Replaces the contents of a dataset, streaming a body that can be re-sent if the request needs to be
+     * re-issued.  Whether the body is JSON or CSV is set by the mediaType
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param mediaType The media type for the body (normally JSON or CSV)
+     * @param body The objects to replace the dataset's rows with, already serialized.
+     *
+     * @return The results from the operation
+     * @throws LongRunningQueryException thrown if this query is long running and a 202 is returned.  In this case,
+     * the caller likely wants to call follow202.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     */
+    public ClientResponse doReplaceStream(String resourceId, MediaType mediaType, ReplayableBody body) throws LongRunningQueryException, SodaError
+    {
+
+        final UriBuilder builder = httpLowLevel.uriBuilder()
+                                               .path(SODA_BASE_PATH)
+                                               .path(resourceId);
+
+        return httpLowLevel.putRaw(builder.build(), mediaType, body);
+
+    }
+
     /**
      * The HttpLowLevel used for communicating with the service.
      * @return HttpLowLevel used for communicating with the service.
@@ -0,0 +1,261 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.utils.GeneralUtils;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs long upserts as a series of chunks, recording each committed chunk in a {@link BulkLoadJournal}, so a load
+ * that dies partway through can be restarted without re-sending what the server already has.<p/>
+ *
+ * The input is split into chunks deterministically, so a restarted load with the same input and settings produces
+ * the same chunks.  Chunks that are already in the journal are skipped, and their recorded results are folded into
+ * the final result.  Because upserts by row identifier are idempotent, re-sending a chunk that was committed but not
+ * journaled (e.g. the process died between the two) is safe.<p/>
+ *
+ * CSV files are split at record boundaries (respecting quoted fields that contain newlines) after every
+ * {@code chunkBytes} bytes, and each chunk is sent with the header line in front of it.  Other input is split every
+ * {@code chunkRows} rows.
+ */
+public class Soda2BulkLoader
+{
+    public static final long    DEFAULT_CHUNK_BYTES = 16 * 1024 * 1024;
+    public static final int     DEFAULT_CHUNK_ROWS = 10000;
+
+    private static final int    SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final Soda2Producer producer;
+    private final long chunkBytes;
+    private final int chunkRows;
+
+    /**
+     * Constructor, using the default chunk sizes.
+     *
+     * @param producer the producer to send the chunks with
+     */
+    public Soda2BulkLoader(@Nonnull final Soda2Producer producer)
+    {
+        this(producer, DEFAULT_CHUNK_BYTES, DEFAULT_CHUNK_ROWS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param producer the producer to send the chunks with
+     * @param chunkBytes the approximate number of bytes in each chunk of a CSV file
+     * @param chunkRows the number of rows in each chunk of other input
+     */
+    public Soda2BulkLoader(@Nonnull final Soda2Producer producer, final long chunkBytes, final int chunkRows)
+    {
+        if (chunkBytes < 1 || chunkRows < 1) {
+            throw new IllegalArgumentException("Chunk sizes must be positive.");
+        }
+        this.producer = producer;
+        this.chunkBytes = chunkBytes;
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Upserts a CSV file in chunks, resuming from the journal if it already has committed chunks.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param csvFile the CSV file to upsert.  The first line must be the header.
+     * @param journalFile the journal for this load.  It is created if it doesn't exist.
+     * @return result of objects added, removed and modified across the whole file.  Error indexes are relative to the
+     * first row after the header.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsertCsv(@Nonnull final String resourceId, @Nonnull final File csvFile, @Nonnull final File journalFile) throws SodaError, InterruptedException
+    {
+        final String loadKey = "csv:" + resourceId + ":" + csvFile.getAbsolutePath() + ":" + csvFile.length() + ":" + csvFile.lastModified() + ":" + chunkBytes;
+        final BulkLoadJournal journal = openJournal(journalFile, loadKey);
+        try {
+            final List<CsvChunk> chunks = planCsvChunks(csvFile, chunkBytes);
+            final UpsertResultAccumulator accumulator = new UpsertResultAccumulator();
+
+            for (int i=1; i<chunks.size(); i++) {
+                final CsvChunk chunk = chunks.get(i);
+                final BulkLoadJournal.Entry committed = journal.get(i - 1);
+                if (committed != null) {
+                    accumulator.add(committed.result, committed.firstRow);
+                    continue;
+                }
+
+                final ReplayableBody body = ReplayableBody.concat(ReplayableBody.fromFile(csvFile, 0, chunks.get(0).end),
+                                                                  ReplayableBody.fromFile(csvFile, chunk.start, chunk.end - chunk.start));
+                final UpsertResult result;
+                try {
+                    result = producer.upsertStream(resourceId, HttpLowLevel.CSV_TYPE, body);
+                } finally {
+                    GeneralUtils.closeQuietly(body);
+                }
+
+                journal.commit(new BulkLoadJournal.Entry(i - 1, chunk.firstRow, chunk.rows, result));
+                accumulator.add(result, chunk.firstRow);
+            }
+
+            return accumulator.getResult();
+        } catch (IOException e) {
+            throw new SodaError("Error bulk loading the file " + GeneralUtils.bestFilePath(csvFile) + ".  Error message: " + e.getLocalizedMessage());
+        } finally {
+            GeneralUtils.closeQuietly(journal);
+        }
+    }
+
+    /**
+     * Upserts a sequence of objects in chunks, resuming from the journal if it already has committed chunks.  The
+     * iterator must return the same objects, in the same order, every time the load is started, since the rows of
+     * committed chunks are skipped by position.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param sourceName a name for the input, which is recorded in the journal so it is not resumed with different input.
+     * @param objects the objects to upsert
+     * @param journalFile the journal for this load.  It is created if it doesn't exist.
+     * @return result of objects added, removed and modified across all the objects.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsert(@Nonnull final String resourceId, @Nonnull final String sourceName, @Nonnull final Iterator<?> objects, @Nonnull final File journalFile) throws SodaError, InterruptedException
+    {
+        final String loadKey = "objects:" + resourceId + ":" + sourceName + ":" + chunkRows;
+        final BulkLoadJournal journal = openJournal(journalFile, loadKey);
+        try {
+            final UpsertResultAccumulator accumulator = new UpsertResultAccumulator();
+
+            int  chunkIndex = 0;
+            long firstRow = 0;
+            while (objects.hasNext()) {
+                final List<Object> chunk = new ArrayList<Object>(chunkRows);
+                while (objects.hasNext() && chunk.size() < chunkRows) {
+                    chunk.add(objects.next());
+                }
+
+                final BulkLoadJournal.Entry committed = journal.get(chunkIndex);
+                if (committed != null) {
+                    accumulator.add(committed.result, committed.firstRow);
+                } else {
+                    final UpsertResult result = producer.upsert(resourceId, chunk);
+                    journal.commit(new BulkLoadJournal.Entry(chunkIndex, firstRow, chunk.size(), result));
+                    accumulator.add(result, firstRow);
+                }
+
+                chunkIndex++;
+                firstRow += chunk.size();
+            }
+
+            return accumulator.getResult();
+        } catch (IOException e) {
+            throw new SodaError("Error writing the bulk load journal " + GeneralUtils.bestFilePath(journalFile) + ".  Error message: " + e.getLocalizedMessage());
+        } finally {
+            GeneralUtils.closeQuietly(journal);
+        }
+    }
+
+    private static BulkLoadJournal openJournal(final File journalFile, final String loadKey) throws SodaError
+    {
+        try {
+            return BulkLoadJournal.open(journalFile, loadKey);
+        } catch (IOException e) {
+            throw new SodaError("Unable to open the bulk load journal " + GeneralUtils.bestFilePath(journalFile) + ".  Error message: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Splits a CSV file into chunks at record boundaries.  The first chunk returned is always the header record,
+     * and each chunk after it ends at the first record boundary at least {@code chunkBytes} past its start.
+     *
+     * @param csvFile the file to split
+     * @param chunkBytes the approximate size of each chunk
+     * @return the header followed by the chunks of data records
+     */
+    static List<CsvChunk> planCsvChunks(final File csvFile, final long chunkBytes) throws IOException
+    {
+        final List<CsvChunk> chunks = new ArrayList<CsvChunk>();
+        final InputStream is = new BufferedInputStream(new FileInputStream(csvFile), SCAN_BUFFER_SIZE);
+        try {
+            final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            boolean inQuotes = false;
+            boolean recordHasData = false;
+            long position = 0;
+            long chunkStart = 0;
+            long rows = 0;
+            long firstRow = 0;
+
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                for (int i=0; i<read; i++, position++) {
+                    final byte b = buffer[i];
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        final long end = position + 1;
+                        if (chunks.isEmpty()) {
+                            chunks.add(new CsvChunk(0, end, 0, 0));
+                            chunkStart = end;
+                        } else {
+                            if (recordHasData) {
+                                rows++;
+                            }
+                            if (end - chunkStart >= chunkBytes) {
+                                chunks.add(new CsvChunk(chunkStart, end, firstRow, rows));
+                                chunkStart = end;
+                                firstRow += rows;
+                                rows = 0;
+                            }
+                        }
+                        recordHasData = false;
+                        continue;
+                    }
+
+                    if (b != '\r') {
+                        recordHasData = true;
+                    }
+                }
+            }
+
+            if (chunks.isEmpty()) {
+                //Only a header, with no newline after it
+                chunks.add(new CsvChunk(0, position, 0, 0));
+            } else if (position > chunkStart) {
+                if (recordHasData) {
+                    rows++;
+                }
+                chunks.add(new CsvChunk(chunkStart, position, firstRow, rows));
+            }
+            return chunks;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A region of a CSV file holding complete records.
+     */
+    static final class CsvChunk
+    {
+        final long start;
+        final long end;
+        final long firstRow;
+        final long rows;
+
+        CsvChunk(final long start, final long end, final long firstRow, final long rows)
+        {
+            this.start = start;
+            this.end = end;
+            this.firstRow = firstRow;
+            this.rows = rows;
+        }
+    }
+}
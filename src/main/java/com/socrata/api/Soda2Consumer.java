@@ -2,12 +2,37 @@ package com.socrata.api;
 
 import com.socrata.exceptions.LongRunningQueryException;
 import com.socrata.exceptions.SodaError;
+import com.socrata.model.IdLookupResult;
+import com.socrata.model.columnar.ColumnarDecoder;
+import com.socrata.model.columnar.ColumnarResult;
+import com.socrata.model.importer.Column;
+import com.socrata.model.importer.Dataset;
+import com.socrata.model.importer.DatasetInfo;
 import com.socrata.model.requests.SodaRequest;
+import com.socrata.model.rows.Row;
+import com.socrata.model.rows.RowDecoder;
+import com.socrata.model.rows.SpillableResultList;
+import com.socrata.model.soql.PreparedSoqlQuery;
 import com.socrata.model.soql.SoqlQuery;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.GenericType;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class to issue SODA2 queries against a service.  All the methods on this class are READ-ONLY, and are only for consumption.
@@ -18,6 +43,11 @@ public class Soda2Consumer extends Soda2Base
 {
     public static final GenericType<List<Object>> HASH_RETURN_TYPE = new GenericType(Object.class) {};
 
+    private final ConcurrentMap<String, Map<String, String>> columnTypes = new ConcurrentHashMap<String, Map<String, String>>();
+    private final RowIdentifiers rowIdentifiers;
+    private volatile RowCache rowCache;
+    private volatile ExecutorService lookupExecutor;
+
     /**
      * Creates a new Soda2Consumer that had no authentication associated with it.  All requests
      * will be done as an anonymous user.
@@ -54,6 +84,7 @@ public class Soda2Consumer extends Soda2Base
     public Soda2Consumer(HttpLowLevel httpLowLevel)
     {
         super(httpLowLevel);
+        rowIdentifiers = new RowIdentifiers(httpLowLevel);
     }
 
     /**
@@ -67,9 +98,14 @@ public class Soda2Consumer extends Soda2Base
      * @return the object retrieved.
      * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
      * @throws InterruptedException throws is the thread is interrupted.
+     * @see #setRowCache(RowCache)
      */
     public <T> T getById(String resourceId, String id, Class<T> cls) throws SodaError, InterruptedException
     {
+        final RowCache cache = rowCache;
+        if (cache != null) {
+            return cache.get(this, rowIdentifiers.getFieldName(resourceId), resourceId, id, cls);
+        }
 
         SodaRequest requester = new SodaRequest<String>(resourceId, id)
         {
@@ -86,6 +122,105 @@ public class Soda2Consumer extends Soda2Base
     }
 
 
+    /**
+     * Sets a cache for the rows retrieved with {@link #getById(String, String, Class)}.  Cached rows are returned
+     * without a request until they are revalidated with {@link #revalidateRowCache()}.
+     *
+     * @param rowCache the cache to use, or {@code null} to stop caching rows.
+     */
+    public void setRowCache(RowCache rowCache)
+    {
+        this.rowCache = rowCache;
+    }
+
+    /**
+     * Gets the cache for the rows retrieved with {@link #getById(String, String, Class)}.
+     *
+     * @return the cache, or {@code null} if rows aren't cached.
+     */
+    public RowCache getRowCache()
+    {
+        return rowCache;
+    }
+
+    /**
+     * Checks every row in the row cache against the current version of the row, with batched queries of only
+     * the ids and versions.  Rows that have changed are retrieved again, and rows that were deleted are dropped.
+     *
+     * @return the number of rows that were retrieved again or dropped.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public int revalidateRowCache() throws SodaError, InterruptedException
+    {
+        final RowCache cache = rowCache;
+        return (cache != null) ? cache.revalidate(this, rowIdentifiers) : 0;
+    }
+
+    /**
+     * Retrieves a number of objects on a resource based on their IDs, with a few batched queries rather than a
+     * request per ID.  The IDs are matched against the dataset's Row Identifier column, or the system ID if it
+     * doesn't have one.  The IDs are split into chunks that keep each query's URL short enough, and the chunks
+     * are queried concurrently.  IDs of a number column are matched as numbers, so {@code 123.0} finds the row
+     * {@code 123}, and IDs that aren't numbers are never found.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param ids Ids based on a dataset specific unique column, or the system ID created for each row.
+     * @param cls The class object the resulting objects should be deserialized as.
+     * @return the objects retrieved, keyed by id, and the ids that no object was found for.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public <T> IdLookupResult<T> getByIds(String resourceId, Collection<String> ids, Class<T> cls) throws SodaError, InterruptedException
+    {
+        if (ids.isEmpty()) {
+            return new IdLookupResult<T>(Collections.<String, T>emptyMap(), Collections.<String>emptyList());
+        }
+        final String idField = rowIdentifiers.getFieldName(resourceId);
+        return new BatchedIdLookup(this, getLookupExecutor()).lookup(resourceId, idField, isNumberColumn(resourceId, idField), ids, cls);
+    }
+
+    /**
+     * Gets the executor that the chunks of {@link #getByIds(String, Collection, Class)} are queried on, creating it
+     * the first time.  It is shared by every lookup, and its threads are daemons that stop once they are idle.
+     */
+    ExecutorService getLookupExecutor()
+    {
+        ExecutorService executor = lookupExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = lookupExecutor;
+                if (executor == null) {
+                    final ThreadPoolExecutor pool = new ThreadPoolExecutor(BatchedIdLookup.DEFAULT_CONCURRENCY, BatchedIdLookup.DEFAULT_CONCURRENCY,
+                                                                           60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                    {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable)
+                        {
+                            final Thread thread = new Thread(runnable, "Soda2Consumer-lookup-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    pool.allowCoreThreadTimeOut(true);
+                    lookupExecutor = executor = pool;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Whether a field of a dataset is a number column.  System fields never are.
+     */
+    boolean isNumberColumn(final String resourceId, final String field) throws SodaError, InterruptedException
+    {
+        return !field.startsWith(":") && ColumnarDecoder.isNumberType(getColumnTypes(resourceId).get(field));
+    }
+
     /**
      *
      * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
@@ -117,6 +252,72 @@ public class Soda2Consumer extends Soda2Base
 
     }
 
+    /**
+     * Runs a prepared query.  Preparing a query once and binding it for each run saves parsing and encoding the
+     * whole query each time, and escapes every value, so none can change the meaning of the query.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param bindings The prepared query, with a value set for each of its parameters.
+     * @param genericType the type of objects that should be returned as a result from this query
+     * @param <T> the type of object that should be returned in the resulting list
+     *
+     * @return results from the query.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public <T> List<T> query(String resourceId, PreparedSoqlQuery.Bindings bindings, GenericType<List<T>> genericType) throws SodaError, InterruptedException
+    {
+        SodaRequest requester = new SodaRequest<PreparedSoqlQuery.Bindings>(resourceId, bindings)
+        {
+            public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
+            { return query(resourceId, HttpLowLevel.JSON_TYPE, payload); }
+        };
+
+        try {
+            final ClientResponse    response = requester.issueRequest();
+            return response.getEntity(genericType);
+        } catch (LongRunningQueryException e) {
+            return getHttpLowLevel().getAsyncResults(e.location, HttpLowLevel.JSON_TYPE, e.timeToRetry, getHttpLowLevel().getMaxRetries(), genericType, requester);
+        }
+    }
+
+    /**
+     * Runs a query that only returns the fields the result type binds, rather than every column.  Unless the query
+     * already has a select (or a group by), a {@code $select} is added of the type's Jackson properties that are
+     * columns of the dataset, or system fields such as {@code :id}.  The properties of each type, and the columns
+     * of each dataset, are only looked up once.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param query The query to be executed against the resource.
+     * @param genericType the type of objects that should be returned as a result from this query
+     * @param <T> the type of object that should be returned in the resulting list
+     *
+     * @return results from the query.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public <T> List<T> queryProjected(String resourceId, SoqlQuery query, GenericType<List<T>> genericType) throws SodaError, InterruptedException
+    {
+        final Class<?> elementClass = QueryProjections.elementClass(genericType.getType());
+        if (elementClass == null || query.selectClause != null || query.groupByClause != null) {
+            return query(resourceId, query, genericType);
+        }
+
+        final List<String> fields = QueryProjections.fieldsFor(elementClass);
+        final Map<String, String> types = fields.isEmpty() ? Collections.<String, String>emptyMap() : getColumnTypes(resourceId);
+        final List<String> selected = new ArrayList<String>(fields.size());
+        for (String field : fields) {
+            if (field.startsWith(":") || types.containsKey(field)) {
+                selected.add(field);
+            }
+        }
+
+        //Without the dataset's columns, a select could name a column that isn't there
+        return query(resourceId, types.isEmpty() ? query : QueryProjections.project(query, selected), genericType);
+    }
+
     /**
      *
      * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
@@ -146,5 +347,147 @@ public class Soda2Consumer extends Soda2Base
         }
     }
 
+    /**
+     * Runs a query, and decodes the response straight into columns of primitive arrays, rather than a Map per row.
+     * The dataset's column types are looked up the first time, and remembered.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param query The query to be executed against the resource.
+     *
+     * @return results from the query, in columns.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see ColumnarDecoder
+     */
+    public ColumnarResult queryColumnar(String resourceId, SoqlQuery query) throws SodaError, InterruptedException
+    {
+        return queryColumnar(resourceId, query, getColumnTypes(resourceId));
+    }
+
+    /**
+     * Runs a query, and decodes the response straight into columns of primitive arrays, rather than a Map per row.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param query The query to be executed against the resource.
+     * @param columnTypes the SODA data type name of each field, by field name.  Fields without a type are typed
+     *                    by their first value.
+     *
+     * @return results from the query, in columns.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see ColumnarDecoder
+     */
+    public ColumnarResult queryColumnar(String resourceId, SoqlQuery query, Map<String, String> columnTypes) throws SodaError, InterruptedException
+    {
+        try {
+            final InputStream stream = issueQuery(resourceId, query).getEntityInputStream();
+            try {
+                return new ColumnarDecoder(columnTypes).decode(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ioe) {
+            throw new SodaError("Error decoding the query results into columns.  Error message: " + ioe.getLocalizedMessage());
+        }
+    }
 
+    /**
+     * Runs a query, and decodes the response into compact {@link Row}s that share one schema, rather than a
+     * separate Map per row.  Each Row can still be used as a read-only Map.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param query The query to be executed against the resource.
+     *
+     * @return results from the query, as rows.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see RowDecoder
+     */
+    public List<Row> queryRows(String resourceId, SoqlQuery query) throws SodaError, InterruptedException
+    {
+        try {
+            final InputStream stream = issueQuery(resourceId, query).getEntityInputStream();
+            try {
+                return new RowDecoder().decode(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ioe) {
+            throw new SodaError("Error decoding the query results into rows.  Error message: " + ioe.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Runs a query whose result may be too large for the heap.  At most {@code maxHeapRows} rows are kept on the
+     * heap; the rest are spilled to a memory-mapped temp file, and decoded again whenever they are read.  The
+     * returned list should be closed once it is no longer needed, to delete the temp file.
+     *
+     * @param resourceId  The id of the resource to query.  This can either be the resource endpoint name
+     *                    set in the metadata, or the unique ID given to the resource.
+     * @param query The query to be executed against the resource.
+     * @param cls The class object each row should be deserialized as.
+     * @param maxHeapRows the most rows to keep on the heap
+     * @param <T> the type of object that should be returned in the resulting list
+     *
+     * @return results from the query.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see SpillableResultList
+     */
+    public <T> SpillableResultList<T> querySpillable(String resourceId, SoqlQuery query, Class<T> cls, int maxHeapRows) throws SodaError, InterruptedException
+    {
+        try {
+            final InputStream stream = issueQuery(resourceId, query).getEntityInputStream();
+            try {
+                return SpillableResultList.decode(stream, cls, maxHeapRows);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ioe) {
+            throw new SodaError("Error decoding the query results.  Error message: " + ioe.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Issues a query, waiting for the results if it turns into a long running query.
+     */
+    ClientResponse issueQuery(final String resourceId, final SoqlQuery query) throws SodaError, InterruptedException
+    {
+        SodaRequest requester = new SodaRequest<SoqlQuery>(resourceId, query)
+        {
+            public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
+            { return query(resourceId, HttpLowLevel.JSON_TYPE, payload); }
+        };
+
+        try {
+            return requester.issueRequest();
+        } catch (LongRunningQueryException e) {
+            return getHttpLowLevel().getAsyncResults(e.location, HttpLowLevel.JSON_TYPE, e.timeToRetry, getHttpLowLevel().getMaxRetries(), requester);
+        }
+    }
+
+    /**
+     * Gets the SODA data type name of each of a dataset's columns, by field name.
+     */
+    private Map<String, String> getColumnTypes(final String resourceId) throws SodaError, InterruptedException
+    {
+        final Map<String, String> cached = columnTypes.get(resourceId);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Map<String, String> types = new HashMap<String, String>();
+        final DatasetInfo datasetInfo = new SodaDdl(getHttpLowLevel()).loadDatasetInfo(resourceId);
+        if (datasetInfo instanceof Dataset && ((Dataset) datasetInfo).getColumns() != null) {
+            for (Column column : ((Dataset) datasetInfo).getColumns()) {
+                types.put(column.getFieldName(), column.getDataTypeName());
+            }
+        }
+
+        columnTypes.putIfAbsent(resourceId, types);
+        return types;
+    }
 }
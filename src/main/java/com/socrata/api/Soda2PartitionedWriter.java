@@ -0,0 +1,282 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Upserts a stream of rows over several concurrent lanes, while keeping every change to the same row in order.<p/>
+ *
+ * Each row's identifier (the dataset's Row Identifier column, or {@code :id}) is hashed to one of N lanes, so all
+ * the changes for a row go through the same lane.  Each lane has a single sending thread, which sends its batches
+ * strictly in the order they were filled, while the lanes run concurrently.  This keeps the last change to a row
+ * the one that wins, as it would with a single sequential writer, but scales with the number of lanes.<p/>
+ *
+ * If any batch fails, no further batches are sent on any lane (as that could apply a later change without an earlier
+ * one), and the error is thrown from {@link #flush()}.  The writer should only be used from one thread at a time.
+ */
+public class Soda2PartitionedWriter implements Closeable
+{
+    public static final int     DEFAULT_LANES = 4;
+    public static final int     DEFAULT_BATCH_SIZE = 1000;
+
+    private final Soda2Producer producer;
+    private final String resourceId;
+    private final int batchSize;
+    private final RowIdentifiers rowIdentifiers;
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    private final Lane[] lanes;
+    private final Semaphore pendingBatches;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private String idField;
+    private long submitted;
+    private UpsertResultAccumulator accumulator = new UpsertResultAccumulator();
+
+    /**
+     * Constructor, using the default number of lanes and batch size.
+     *
+     * @param producer the producer to send the batches with
+     * @param resourceId unique id or resource name of the dataset to upsert into
+     */
+    public Soda2PartitionedWriter(@Nonnull final Soda2Producer producer, @Nonnull final String resourceId)
+    {
+        this(producer, resourceId, DEFAULT_LANES, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param producer the producer to send the batches with
+     * @param resourceId unique id or resource name of the dataset to upsert into
+     * @param lanes the number of lanes, i.e. the most batches to send at once
+     * @param batchSize the number of rows to send in each batch
+     */
+    public Soda2PartitionedWriter(@Nonnull final Soda2Producer producer, @Nonnull final String resourceId, final int lanes, final int batchSize)
+    {
+        if (lanes < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Lanes and batch size must be positive.");
+        }
+
+        this.producer = producer;
+        this.resourceId = resourceId;
+        this.batchSize = batchSize;
+        this.rowIdentifiers = new RowIdentifiers(producer.getHttpLowLevel());
+        this.pendingBatches = new Semaphore(lanes * 2);
+        this.lanes = new Lane[lanes];
+        for (int i=0; i<lanes; i++) {
+            this.lanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * Sets the field that identifies rows, rather than looking up the dataset's Row Identifier.
+     *
+     * @param idField the field name rows are partitioned by
+     */
+    public void setIdField(@Nonnull final String idField)
+    {
+        this.idField = idField;
+    }
+
+    /**
+     * Adds a row to its lane, sending the lane's batch if it is full.  This blocks if too many batches are
+     * waiting to be sent.
+     *
+     * @param row the row to upsert.  It must include the row identifier.
+     * @throws SodaError  thrown if an earlier batch failed, or the dataset's Row Identifier cannot be looked up.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public void submit(@Nonnull final Object row) throws SodaError, InterruptedException
+    {
+        checkFailure();
+        if (idField == null) {
+            idField = rowIdentifiers.getFieldName(resourceId);
+        }
+
+        final Map<?, ?> fields = (row instanceof Map) ? (Map<?, ?>) row : mapper.convertValue(row, Map.class);
+        final Object id = fields.get(idField);
+        if (id == null) {
+            throw new IllegalArgumentException("Row is missing its identifier, " + idField + ": " + fields);
+        }
+
+        final Lane lane = lanes[laneFor(id.toString(), lanes.length)];
+        lane.add(fields, submitted++);
+        if (lane.rows.size() >= batchSize) {
+            lane.send();
+        }
+    }
+
+    /**
+     * Submits every row from an iterator, then flushes.
+     *
+     * @param rows the rows to upsert
+     * @return result of the upserted rows.  Error indexes are relative to the rows submitted since the last flush.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsert(@Nonnull final Iterator<?> rows) throws SodaError, InterruptedException
+    {
+        while (rows.hasNext()) {
+            submit(rows.next());
+        }
+        return flush();
+    }
+
+    /**
+     * Sends the partly filled batches, and waits for every lane to finish.
+     *
+     * @return result of the rows submitted since the last flush.  Error indexes are relative to the rows submitted
+     * since the last flush, in submission order.
+     * @throws SodaError  thrown if any batch failed.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult flush() throws SodaError, InterruptedException
+    {
+        checkFailure();
+        for (Lane lane : lanes) {
+            if (!lane.rows.isEmpty()) {
+                lane.send();
+            }
+        }
+
+        //Each lane runs its tasks in order, so once a marker runs, everything before it is done
+        for (Lane lane : lanes) {
+            try {
+                lane.executor.submit(new Runnable() { public void run() {} }).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        checkFailure();
+
+        final UpsertResult result = accumulator.getResult();
+        accumulator = new UpsertResultAccumulator();
+        submitted = 0;
+        return result;
+    }
+
+    /**
+     * Stops the lanes.  Rows that haven't been flushed are dropped.
+     */
+    @Override
+    public void close()
+    {
+        for (Lane lane : lanes) {
+            lane.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Picks the lane for a row identifier.
+     */
+    static int laneFor(final String id, final int laneCount)
+    {
+        //Spread the bits, the same as HashMap does, so similar ids don't pile into one lane
+        int h = id.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return (h & Integer.MAX_VALUE) % laneCount;
+    }
+
+    private void checkFailure() throws SodaError, InterruptedException
+    {
+        final Throwable cause = failure.get();
+        if (cause == null) {
+            return;
+        } else if (cause instanceof SodaError) {
+            throw (SodaError) cause;
+        } else if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new SodaError(cause);
+    }
+
+    /**
+     * One lane, with the batch being filled and the single thread that sends its batches.  The thread is a daemon,
+     * so a writer that is never closed doesn't keep the JVM running.
+     */
+    private final class Lane
+    {
+        final ExecutorService executor;
+        List<Object> rows = new ArrayList<Object>();
+        int[] indexes = new int[batchSize];
+
+        Lane(final int number)
+        {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "Soda2PartitionedWriter-" + resourceId + "-" + number);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        void add(final Object row, final long index)
+        {
+            indexes[rows.size()] = (int) index;
+            rows.add(row);
+        }
+
+        void send() throws InterruptedException
+        {
+            final List<Object> batch = rows;
+            final int[] batchIndexes = indexes;
+            rows = new ArrayList<Object>();
+            indexes = new int[batchSize];
+
+            pendingBatches.acquire();
+            executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        if (failure.get() == null) {
+                            record(producer.upsert(resourceId, batch), batchIndexes, batch.size());
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        pendingBatches.release();
+                    }
+                }
+            });
+        }
+
+        private void record(final UpsertResult result, final int[] batchIndexes, final int count)
+        {
+            //Map the error indexes from the batch back to the order the rows were submitted in
+            final List<UpsertError> errors = new ArrayList<UpsertError>();
+            if (result.getErrors() != null) {
+                for (UpsertError error : result.getErrors()) {
+                    final int index = (error.getIndex() >= 0 && error.getIndex() < count) ? batchIndexes[error.getIndex()] : error.getIndex();
+                    errors.add(new UpsertError(error.getError(), index, error.getPrimaryKey()));
+                }
+            }
+            accumulator.add(new UpsertResult(result.getRowsCreated(), result.getRowsUpdated(), result.getRowsDeleted(), errors.isEmpty() ? null : errors), 0);
+        }
+    }
+}
@@ -1,19 +1,22 @@
 package com.socrata.api;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
 import com.socrata.exceptions.LongRunningQueryException;
 import com.socrata.exceptions.SodaError;
+import com.socrata.model.DeleteRecord;
 import com.socrata.model.UpsertError;
 import com.socrata.model.UpsertResult;
 import com.socrata.model.Meta;
+import com.socrata.model.requests.ReplayableBody;
 import com.socrata.model.requests.SodaModRequest;
 import com.socrata.model.requests.SodaRequest;
 import com.socrata.model.requests.SodaTypedRequest;
 import com.socrata.utils.GeneralUtils;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import com.socrata.utils.PooledBufferOutputStream;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.GenericType;
-import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -21,11 +24,18 @@ import org.codehaus.jackson.map.ObjectMapper;
 
 import javax.ws.rs.core.MediaType;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * API for sending requests to the SODA server for adding/removing/modifying objects in the datasets.
@@ -34,6 +44,24 @@ import java.util.List;
  */
 public class Soda2Producer extends Soda2Consumer
 {
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 10000;
+    public static final int DEFAULT_BULK_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_REPAIR_ROUNDS = 3;
+
+    /**
+     * Index given by {@link #upsertWithRepair(String, List, UpsertRepairHandler, int)} to errors that the server
+     * didn't tie to one of the submitted rows.
+     */
+    public static final int UNKNOWN_ROW_INDEX = -1;
+
+    private volatile int bulkChunkSize = DEFAULT_BULK_CHUNK_SIZE;
+    private volatile int bulkConcurrency = DEFAULT_BULK_CONCURRENCY;
+    private volatile boolean adaptiveBulkWrites;
+
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+    private final ConcurrentMap<String, AdaptiveBatchController> batchControllers = new ConcurrentHashMap<String, AdaptiveBatchController>();
+
+    private final RowIdentifiers rowIdentifiers;
 
     /**
      * Create a new Soda2Producer object, using the supplied credentials for authentication.
@@ -57,8 +85,14 @@ public class Soda2Producer extends Soda2Consumer
      * @param httpLowLevel HttpLowLevel object to use for connecting to the SODA2 service.
      */
     public Soda2Producer(HttpLowLevel httpLowLevel)
+    {
+        this(httpLowLevel, new RowIdentifiers(httpLowLevel));
+    }
+
+    Soda2Producer(HttpLowLevel httpLowLevel, RowIdentifiers rowIdentifiers)
     {
         super(httpLowLevel);
+        this.rowIdentifiers = rowIdentifiers;
     }
 
 
@@ -111,6 +145,52 @@ public class Soda2Producer extends Soda2Consumer
 
     }
 
+    /**
+     * Deletes a collection of rows from a dataset.  Rather than issuing a DELETE for each row, the rows are
+     * deleted by upserting DeleteRecords in chunks, several chunks at a time.
+     *
+     * @param resourceId resourceId id of the dataset to delete the records from
+     * @param ids ids of the records to delete.  These should be the unique ids of the records, which could be
+     *           either the id the system sets, or the Row Identifier.
+     * @return result of the deletes.  Error indexes are relative to the start of the collection.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see #setBulkChunkSize(int)
+     * @see #setBulkConcurrency(int)
+     */
+    public UpsertResult deleteAll(String resourceId, Collection<String> ids) throws SodaError, InterruptedException
+    {
+        return deleteAll(resourceId, ids.iterator());
+    }
+
+    /**
+     * Deletes a sequence of rows from a dataset.  Rather than issuing a DELETE for each row, the rows are
+     * deleted by upserting DeleteRecords in chunks, several chunks at a time.  The ids are only pulled from the
+     * iterator as they are needed, so this works for more ids than will fit in memory.
+     *
+     * @param resourceId resourceId id of the dataset to delete the records from
+     * @param ids ids of the records to delete.  These should be the unique ids of the records, which could be
+     *           either the id the system sets, or the Row Identifier.
+     * @return result of the deletes.  Error indexes are relative to the start of the sequence.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see #setBulkChunkSize(int)
+     * @see #setBulkConcurrency(int)
+     */
+    public UpsertResult deleteAll(String resourceId, Iterator<String> ids) throws SodaError, InterruptedException
+    {
+        final Iterator<DeleteRecord> deletes = Iterators.transform(ids, new Function<String, DeleteRecord>()
+        {
+            @Override
+            public DeleteRecord apply(String id)
+            {
+                return new DeleteRecord(id, true);
+            }
+        });
+
+        return newBulkUpserter(resourceId).upsert(resourceId, deletes);
+    }
+
     /**
      * Add an object using SODA2, the object will be added to the dataset with the specified resource ID.
      *
@@ -195,7 +275,7 @@ public class Soda2Producer extends Soda2Consumer
 
         try {
             ClientResponse response = requester.issueRequest();
-            return deserializeUpsertResult(response);
+            return deserializeUpsertResult(response, null);
         } catch (LongRunningQueryException e) {
             return getHttpLowLevel().getAsyncResults(e.location, e.timeToRetry, getHttpLowLevel().getMaxRetries(), UpsertResult.class, requester);
         } catch (IOException ioe) {
@@ -203,6 +283,121 @@ public class Soda2Producer extends Soda2Consumer
         }
     }
 
+    /**
+     * "Upserts" a list of objects, the same as {@link #upsert(String, List)}, but also reports what happened to
+     * each individual object to a listener.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param objects  list of objects to upsert
+     * @param listener listener to tell about each object in the list
+     *
+     * @return result of objects added, removed and modified.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsert(String resourceId, List objects, UpsertRowListener listener) throws SodaError, InterruptedException
+    {
+
+        SodaRequest requester = new SodaRequest<List>(resourceId, objects)
+        {
+            public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
+            { return doAddObjects(resourceId, payload); }
+        };
+
+        return issueUpsertRequest(requester, "Error upserting a dataset from this list of objects.", listener);
+    }
+
+
+    /**
+     * "Upserts" a list of objects, the same as {@link #upsert(String, List)}, but hands any rows that fail to a
+     * repair handler, and resubmits only the repaired rows.  This is repeated for up to
+     * {@link #DEFAULT_MAX_REPAIR_ROUNDS} rounds of repairs.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param objects  list of objects to upsert
+     * @param handler handler to repair the rows that fail
+     *
+     * @return combined result of all the rounds.  The errors are only for rows that were never successfully upserted,
+     * and their indexes refer to the original list.  Errors whose index doesn't match any submitted row have an
+     * index of {@link #UNKNOWN_ROW_INDEX}.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public <T> UpsertResult upsertWithRepair(String resourceId, List<T> objects, UpsertRepairHandler<T> handler) throws SodaError, InterruptedException
+    {
+        return upsertWithRepair(resourceId, objects, handler, DEFAULT_MAX_REPAIR_ROUNDS);
+    }
+
+    /**
+     * "Upserts" a list of objects, the same as {@link #upsert(String, List)}, but hands any rows that fail to a
+     * repair handler, and resubmits only the repaired rows.<p/>
+     *
+     * The submitted list is kept for each round, so the failed rows are found by the index in their errors.  Rows
+     * that the handler gives up on, or that still fail after the last round, are left as errors in the result.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param objects  list of objects to upsert
+     * @param handler handler to repair the rows that fail
+     * @param maxRounds the most times to resubmit repaired rows
+     *
+     * @return combined result of all the rounds.  The errors are only for rows that were never successfully upserted,
+     * and their indexes refer to the original list.  Errors whose index doesn't match any submitted row have an
+     * index of {@link #UNKNOWN_ROW_INDEX}.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public <T> UpsertResult upsertWithRepair(String resourceId, List<T> objects, UpsertRepairHandler<T> handler, int maxRounds) throws SodaError, InterruptedException
+    {
+        long rowsCreated = 0;
+        long rowsUpdated = 0;
+        long rowsDeleted = 0;
+        final List<UpsertError> failures = new ArrayList<UpsertError>();
+
+        List<T> pending = objects;
+        int[] originalIndexes = null;  //null while the pending rows are the original list
+        for (int round = 0; !pending.isEmpty(); round++) {
+            final UpsertResult result = upsert(resourceId, pending);
+            rowsCreated += result.getRowsCreated();
+            rowsUpdated += result.getRowsUpdated();
+            rowsDeleted += result.getRowsDeleted();
+            if (result.getErrors() == null) {
+                break;
+            }
+
+            final List<T> repaired = new ArrayList<T>();
+            final int[] repairedIndexes = new int[result.getErrors().size()];
+            for (UpsertError error : result.getErrors()) {
+                if (error.getIndex() < 0 || error.getIndex() >= pending.size()) {
+                    //There's no row to map it back to, so it can't be confused with a row of the original list
+                    failures.add(new UpsertError(error.getError(), UNKNOWN_ROW_INDEX, error.getPrimaryKey()));
+                    continue;
+                }
+
+                final int originalIndex = (originalIndexes != null) ? originalIndexes[error.getIndex()] : error.getIndex();
+                final UpsertError originalError = new UpsertError(error.getError(), originalIndex, error.getPrimaryKey());
+                final T row = (round < maxRounds) ? handler.repair(pending.get(error.getIndex()), originalError) : null;
+                if (row == null) {
+                    failures.add(originalError);
+                } else {
+                    repairedIndexes[repaired.size()] = originalIndex;
+                    repaired.add(row);
+                }
+            }
+
+            pending = repaired;
+            originalIndexes = repairedIndexes;
+        }
+
+        Collections.sort(failures, new Comparator<UpsertError>()
+        {
+            @Override
+            public int compare(UpsertError o1, UpsertError o2)
+            {
+                return (o1.getIndex() < o2.getIndex()) ? -1 : ((o1.getIndex() == o2.getIndex()) ? 0 : 1);
+            }
+        });
+        return new UpsertResult(rowsCreated, rowsUpdated, rowsDeleted, failures.isEmpty() ? null : failures);
+    }
 
     /**
      * Replaces a dataset with a list of objects.  This is the same as doing a truncate, followed by an upsert, except
@@ -225,7 +420,7 @@ public class Soda2Producer extends Soda2Consumer
 
         try {
             ClientResponse response = requester.issueRequest();
-            return deserializeUpsertResult(response);
+            return deserializeUpsertResult(response, null);
         } catch (LongRunningQueryException e) {
             return getHttpLowLevel().getAsyncResults(e.location, e.timeToRetry, getHttpLowLevel().getMaxRetries(), UpsertResult.class, requester);
         } catch (IOException ioe) {
@@ -243,6 +438,9 @@ public class Soda2Producer extends Soda2Consumer
      *   <br/>
      *   In order to delete objects using the Upsert function, use the DeleteRecord object to map ":deleted" to
      *   an :id.
+     *   <br/>
+     *   The stream is spooled as it is sent (in memory for small payloads, to a temp file for larger ones), so
+     *   the request can be re-issued if the server asks for it.
      *
      * @param resourceId unique id or resource name of the dataset
      * @param mediaType what the format of the stream is.  Normally, HttpLowLevel.JSON_TYPE or HttpLowLevel.CSV_TYPE
@@ -254,23 +452,54 @@ public class Soda2Producer extends Soda2Consumer
      */
     public UpsertResult upsertStream(String resourceId, MediaType mediaType, InputStream stream) throws SodaError, InterruptedException
     {
+        final ReplayableBody body = ReplayableBody.fromStream(stream);
+        try {
+            return upsertStream(resourceId, mediaType, body);
+        } finally {
+            GeneralUtils.closeQuietly(body);
+        }
+    }
+
+    /**
+     * "Upserts" the objects serialized in a replayable body.  This behaves the same as the InputStream version,
+     * but the caller controls how the body is re-read if the request needs to be re-issued.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param mediaType what the format of the body is.  Normally, HttpLowLevel.JSON_TYPE or HttpLowLevel.CSV_TYPE
+     * @param body  objects to update, already serialized
+     *
+     * @return result of objects added, removed and modified.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+    {
+        return upsertStream(resourceId, mediaType, body, null);
+    }
 
-        SodaRequest requester = new SodaTypedRequest<InputStream>(resourceId, stream, mediaType)
+    /**
+     * "Upserts" the objects serialized in a replayable body, and reports what happened to each individual
+     * object to a listener.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param mediaType what the format of the body is.  Normally, HttpLowLevel.JSON_TYPE or HttpLowLevel.CSV_TYPE
+     * @param body  objects to update, already serialized
+     * @param listener listener to tell about each object in the body.  May be {@code null}.
+     *
+     * @return result of objects added, removed and modified.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body, UpsertRowListener listener) throws SodaError, InterruptedException
+    {
+
+        SodaRequest requester = new SodaTypedRequest<ReplayableBody>(resourceId, body, mediaType)
         {
             public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
             { return doAddStream(resourceId, mediaType, payload); }
         };
 
-        try {
-
-            ClientResponse response = requester.issueRequest();
-            return deserializeUpsertResult(response);
-
-        } catch (LongRunningQueryException e) {
-            return getHttpLowLevel().getAsyncResults(e.location, mediaType, e.timeToRetry, getHttpLowLevel().getMaxRetries(), new GenericType<UpsertResult>(InputStream.class), requester);
-        } catch (IOException ioe) {
-            throw new SodaError("Error upserting a dataset from this stream.  Error message: " + ioe.getLocalizedMessage());
-        }
+        return issueUpsertRequest(requester, "Error upserting a dataset from this stream.", listener);
     }
 
 
@@ -278,6 +507,9 @@ public class Soda2Producer extends Soda2Consumer
      * Replaces a dataset with a the objects serialized in an input stream.  This is the same as doing a truncate, followed by an upsert, except
      * that it will happen atomically (so you cannot have a failure that puts the dataset in a half state)
      *
+     * The stream is spooled as it is sent (in memory for small payloads, to a temp file for larger ones), so
+     * the request can be re-issued if the server asks for it.
+     *
      * @param resourceId unique id or resource name of the dataset
      * @param mediaType what the format of the stream is.  Normally, HttpLowLevel.JSON_TYPE or HttpLowLevel.CSV_TYPE
      * @param stream  JSON stream of objects to replace the existing dataset with.
@@ -288,23 +520,36 @@ public class Soda2Producer extends Soda2Consumer
      */
     public UpsertResult replaceStream(String resourceId, MediaType mediaType, InputStream stream) throws SodaError, InterruptedException
     {
+        final ReplayableBody body = ReplayableBody.fromStream(stream);
+        try {
+            return replaceStream(resourceId, mediaType, body);
+        } finally {
+            GeneralUtils.closeQuietly(body);
+        }
+    }
 
-        SodaRequest requester = new SodaTypedRequest<InputStream>(resourceId, stream, mediaType)
+    /**
+     * Replaces a dataset with the objects serialized in a replayable body.  This behaves the same as the
+     * InputStream version, but the caller controls how the body is re-read if the request needs to be re-issued.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param mediaType what the format of the body is.  Normally, HttpLowLevel.JSON_TYPE or HttpLowLevel.CSV_TYPE
+     * @param body  objects to replace the existing dataset with, already serialized.
+     *
+     * @return Upsert result describing number of objects added/removed as well as errors.
+     * @throws SodaError
+     * @throws InterruptedException
+     */
+    public UpsertResult replaceStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+    {
+
+        SodaRequest requester = new SodaTypedRequest<ReplayableBody>(resourceId, body, mediaType)
         {
             public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
             { return doReplaceStream(resourceId, mediaType, payload); }
         };
 
-        try {
-
-            ClientResponse response = requester.issueRequest();
-            return deserializeUpsertResult(response);
-
-        } catch (LongRunningQueryException e) {
-            return getHttpLowLevel().getAsyncResults(e.location, mediaType, e.timeToRetry, getHttpLowLevel().getMaxRetries(), new GenericType<UpsertResult>(InputStream.class), requester);
-        } catch (IOException ioe) {
-            throw new SodaError("Error replacing a dataset from this stream.  Error message: " + ioe.getLocalizedMessage());
-        }
+        return issueUpsertRequest(requester, "Error replacing a dataset from this stream.", null);
     }
 
     /**
@@ -327,28 +572,101 @@ public class Soda2Producer extends Soda2Consumer
      */
     public UpsertResult upsertCsv(String resourceId, File csvFile) throws SodaError, InterruptedException
     {
-        try {
-            InputStream is = new FileInputStream(csvFile);
+        return upsertStream(resourceId, HttpLowLevel.CSV_TYPE, csvBody(csvFile));
+    }
 
-            SodaRequest requester = new SodaTypedRequest<InputStream>(resourceId, is, HttpLowLevel.CSV_TYPE)
-            {
-                public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
-                { return doAddStream(resourceId, mediaType, payload); }
-            };
 
-            try {
-                ClientResponse response = requester.issueRequest();
-                return deserializeUpsertResult(response);
-            } catch (LongRunningQueryException e) {
-                return getHttpLowLevel().getAsyncResults(e.location, HttpLowLevel.CSV_TYPE, e.timeToRetry, getHttpLowLevel().getMaxRetries(), new GenericType<UpsertResult>(InputStream.class), requester);
-            } finally {
-                GeneralUtils.closeQuietly(is);
-            }
-        } catch (IOException ioe) {
-            throw new SodaError("Cannot load CSV from the file " + GeneralUtils.bestFilePath(csvFile) + ".  Error message: " + ioe.getLocalizedMessage());
+    /**
+     * "Upserts" a list of objects, the same as {@link #upsert(String, List)}, but sends them as CSV rather than JSON.
+     * For wide datasets this is about half the size on the wire.<p/>
+     *
+     * The columns are worked out from the first object: the Jackson properties of its class, or the keys of a Map.
+     * Since a CSV row can't leave a column out, a null property is sent empty, which clears it, and every Map has to
+     * set the same keys; a key that is left out of only some Maps would be cleared on those rows, so that is an
+     * error.  To send rows that update different fields, use {@link #upsertAsCsv(String, List, List)} or
+     * {@link #upsert(String, List)}.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param objects  list of objects to upsert
+     *
+     * @return result of objects added, removed and modified.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsertAsCsv(String resourceId, List objects) throws SodaError, InterruptedException
+    {
+        return upsertCsvRows(resourceId, CsvRowEncoder.forObjects(objects, mapper), objects);
+    }
+
+    /**
+     * "Upserts" a list of objects, the same as {@link #upsert(String, List)}, but sends them as CSV rather than JSON.
+     * For wide datasets this is about half the size on the wire.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param columns the field names to send, in order.  Objects may not have non-null fields that aren't in this list,
+     *                and any of these fields that an object doesn't set are sent empty, which clears them.
+     * @param objects  list of objects to upsert
+     *
+     * @return result of objects added, removed and modified.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult upsertAsCsv(String resourceId, List<String> columns, List objects) throws SodaError, InterruptedException
+    {
+        return upsertCsvRows(resourceId, new CsvRowEncoder(columns, mapper), objects);
+    }
+
+    /**
+     * Replaces a dataset with a list of objects, the same as {@link #replace(String, List)}, but sends them as CSV
+     * rather than JSON.  The columns are worked out from the first object, as {@link #upsertAsCsv(String, List)} does.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param objects list of objects to replace the contents of the dataset with
+     * @return Upsert result describing number of objects added/removed as well as errors.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult replaceAsCsv(String resourceId, List objects) throws SodaError, InterruptedException
+    {
+        return replaceCsvRows(resourceId, CsvRowEncoder.forObjects(objects, mapper), objects);
+    }
+
+    /**
+     * Replaces a dataset with a list of objects, the same as {@link #replace(String, List)}, but sends them as CSV
+     * rather than JSON.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param columns the field names to send, in order.  Objects may not have non-null fields that aren't in this list,
+     *                and any of these fields that an object doesn't set are sent empty.
+     * @param objects list of objects to replace the contents of the dataset with
+     * @return Upsert result describing number of objects added/removed as well as errors.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult replaceAsCsv(String resourceId, List<String> columns, List objects) throws SodaError, InterruptedException
+    {
+        return replaceCsvRows(resourceId, new CsvRowEncoder(columns, mapper), objects);
+    }
+
+    private UpsertResult upsertCsvRows(final String resourceId, final CsvRowEncoder encoder, final List<?> objects) throws SodaError, InterruptedException
+    {
+        final PooledBufferOutputStream encoded = encoder.encode(objects);
+        try {
+            return upsertStream(resourceId, HttpLowLevel.CSV_TYPE, ReplayableBody.fromBuffers(encoded.getBuffers()));
+        } finally {
+            encoded.release();
         }
     }
 
+    private UpsertResult replaceCsvRows(final String resourceId, final CsvRowEncoder encoder, final List<?> objects) throws SodaError, InterruptedException
+    {
+        final PooledBufferOutputStream encoded = encoder.encode(objects);
+        try {
+            return replaceStream(resourceId, HttpLowLevel.CSV_TYPE, ReplayableBody.fromBuffers(encoded.getBuffers()));
+        } finally {
+            encoded.release();
+        }
+    }
 
     /**
      * Replaces a dataset with the rows defined in the provided CSV.  This is logically the same thing
@@ -363,26 +681,7 @@ public class Soda2Producer extends Soda2Consumer
      */
     public UpsertResult replaceCsv(String resourceId, File csvFile) throws SodaError, InterruptedException
     {
-        try {
-            InputStream is = new FileInputStream(csvFile);
-
-            SodaRequest requester = new SodaTypedRequest<InputStream>(resourceId, is, HttpLowLevel.CSV_TYPE)
-            {
-                public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
-                { return doReplaceStream(resourceId, mediaType, payload); }
-            };
-
-            try {
-                ClientResponse response = requester.issueRequest();
-                return deserializeUpsertResult(response);
-            } catch (LongRunningQueryException e) {
-                return getHttpLowLevel().getAsyncResults(e.location, HttpLowLevel.CSV_TYPE, e.timeToRetry, getHttpLowLevel().getMaxRetries(), new GenericType<UpsertResult>(InputStream.class), requester);
-            } finally {
-                GeneralUtils.closeQuietly(is);
-            }
-        } catch (IOException ioe) {
-            throw new SodaError("Cannot load CSV from the file " + GeneralUtils.bestFilePath(csvFile) + ".  Error message: " + ioe.getLocalizedMessage());
-        }
+        return replaceStream(resourceId, HttpLowLevel.CSV_TYPE, csvBody(csvFile));
     }
 
 
@@ -416,53 +715,213 @@ public class Soda2Producer extends Soda2Consumer
     }
 
     /**
-     * THis will return an upsert result, regardless of whether it is
-     * using the original response, or the new return from SODA Server
+     * Updates many rows in a dataset.  Rather than issuing a request per row, each partial object is merged with
+     * its id under the dataset's Row Identifier field (or {@code :id} if the dataset doesn't have one), and the rows
+     * are upserted in chunks, several chunks at a time.<p/>
      *
-     * @param response
-     * @return
+     * If the same id appears more than once, its partial objects are merged field by field, with later values
+     * for a field replacing earlier ones, and sent as one row.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param updates pairs of the id of a row, and the partial object to update it with.  The partial objects
+     *                should only contain the fields to change.
+     * @return result of the updates.  Error indexes are relative to the coalesced updates, in the order each id
+     * first appeared.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     * @see #setBulkChunkSize(int)
+     * @see #setBulkConcurrency(int)
      */
-    private UpsertResult deserializeUpsertResult(ClientResponse response) throws IOException
+    public UpsertResult updateAll(String resourceId, Iterable<? extends Map.Entry<?, ?>> updates) throws SodaError, InterruptedException
     {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonParser parser = mapper.getJsonFactory().createJsonParser(response.getEntityInputStream());
+        final String idField = rowIdentifiers.getFieldName(resourceId);
+
+        final Map<Object, Map<String, Object>> coalesced = new LinkedHashMap<Object, Map<String, Object>>();
+        for (Map.Entry<?, ?> update : updates) {
+            Map<String, Object> row = coalesced.get(update.getKey());
+            if (row == null) {
+                row = new LinkedHashMap<String, Object>();
+                coalesced.put(update.getKey(), row);
+            }
+            if (update.getValue() != null) {
+                row.putAll(mapper.convertValue(update.getValue(), Map.class));
+            }
+        }
 
+        final Iterator<Map<String, Object>> rows = Iterators.transform(coalesced.entrySet().iterator(), new Function<Map.Entry<Object, Map<String, Object>>, Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> apply(Map.Entry<Object, Map<String, Object>> update)
+            {
+                final Map<String, Object> row = update.getValue();
+                row.put(idField, update.getKey());
+                return row;
+            }
+        });
 
-        if (parser.nextToken() == JsonToken.START_ARRAY) {
+        return newBulkUpserter(resourceId).upsert(resourceId, rows);
+    }
 
-            int     count = 0;
-            long    inserts = 0;
-            long    updates = 0;
-            long    deletes = 0;
-            List<UpsertError> errors = new LinkedList<UpsertError>();
+    /**
+     * The number of rows sent in each request by the bulk operations, such as {@link #deleteAll(String, Iterator)}.
+     * @return the number of rows sent in each request by the bulk operations
+     */
+    public int getBulkChunkSize()
+    {
+        return bulkChunkSize;
+    }
 
-            if (parser.nextToken() == JsonToken.START_ARRAY) {
+    /**
+     * Sets the number of rows sent in each request by the bulk operations, such as {@link #deleteAll(String, Iterator)}.
+     * @param bulkChunkSize the number of rows sent in each request by the bulk operations
+     */
+    public void setBulkChunkSize(int bulkChunkSize)
+    {
+        if (bulkChunkSize < 1) {
+            throw new IllegalArgumentException("Bulk chunk size must be positive.");
+        }
+        this.bulkChunkSize = bulkChunkSize;
+    }
 
-                while (parser.nextToken() != JsonToken.END_ARRAY) {
-                    NewUpsertRow row = parser.readValueAs(NewUpsertRow.class);
-                    if ("insert".equals(row.typ)) {
-                        inserts++;
-                    } else if ("update".equals(row.typ)) {
-                        updates++;
-                    } else if ("delete".equals(row.typ)) {
-                        deletes++;
-                    } else if ("error".equals(row.typ)) {
-                        errors.add(new UpsertError(row.err, count, row.id));
-                    }
+    /**
+     * The number of requests the bulk operations, such as {@link #deleteAll(String, Iterator)}, have in flight at once.
+     * @return the number of requests the bulk operations have in flight at once
+     */
+    public int getBulkConcurrency()
+    {
+        return bulkConcurrency;
+    }
 
-                    count++;
-                }
+    /**
+     * Sets the number of requests the bulk operations, such as {@link #deleteAll(String, Iterator)}, have in flight at once.
+     * @param bulkConcurrency the number of requests the bulk operations have in flight at once
+     */
+    public void setBulkConcurrency(int bulkConcurrency)
+    {
+        if (bulkConcurrency < 1) {
+            throw new IllegalArgumentException("Bulk concurrency must be positive.");
+        }
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    /**
+     * Whether the bulk operations, such as {@link #deleteAll(String, Iterator)}, tune their chunk size and concurrency
+     * for each dataset, rather than using the fixed bulk chunk size and concurrency.
+     * @return {@code true} if the bulk operations tune their chunk size and concurrency
+     */
+    public boolean isAdaptiveBulkWrites()
+    {
+        return adaptiveBulkWrites;
+    }
+
+    /**
+     * Sets whether the bulk operations, such as {@link #deleteAll(String, Iterator)}, tune their chunk size and
+     * concurrency for each dataset with an {@link AdaptiveBatchController}.  When this is on, chunks the server
+     * pushes back on (HTTP 408, 429, 502, 503 or 504) are retried after backing off.
+     *
+     * @param adaptiveBulkWrites {@code true} to tune the chunk size and concurrency for each dataset
+     */
+    public void setAdaptiveBulkWrites(boolean adaptiveBulkWrites)
+    {
+        this.adaptiveBulkWrites = adaptiveBulkWrites;
+    }
+
+    /**
+     * Gets the controller tuning the bulk writes to a dataset, creating it with the default settings if needed.
+     * The controller remembers what it learned about the dataset between bulk operations.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @return the controller for the dataset
+     */
+    public AdaptiveBatchController getBatchController(String resourceId)
+    {
+        final AdaptiveBatchController controller = batchControllers.get(resourceId);
+        if (controller != null) {
+            return controller;
+        }
+
+        batchControllers.putIfAbsent(resourceId, new AdaptiveBatchController());
+        return batchControllers.get(resourceId);
+    }
+
+    /**
+     * Sets the controller tuning the bulk writes to a dataset, e.g. to use different limits than the defaults.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param controller the controller for the dataset
+     */
+    public void setBatchController(String resourceId, AdaptiveBatchController controller)
+    {
+        batchControllers.put(resourceId, controller);
+    }
+
+    /**
+     * Creates the upserter used by the bulk operations on a dataset.
+     */
+    ChunkedUpserter newBulkUpserter(String resourceId)
+    {
+        return adaptiveBulkWrites ?
+                new ChunkedUpserter(this, getBatchController(resourceId)) :
+                new ChunkedUpserter(this, bulkChunkSize, bulkConcurrency);
+    }
+
+    /**
+     * Issues a request that returns an upsert result, following any 202s.  Because the requester is
+     * re-issued when there is no location to follow, its payload needs to be replayable.
+     *
+     * @param requester the request to issue
+     * @param errorMessage the message to use if the response cannot be read
+     * @param listener listener to tell about each row in the response.  May be {@code null}.
+     * @return the upsert result
+     */
+    private UpsertResult issueUpsertRequest(final SodaRequest requester, final String errorMessage, final UpsertRowListener listener) throws SodaError, InterruptedException
+    {
+        try {
+            ClientResponse response;
+            try {
+                response = requester.issueRequest();
+            } catch (LongRunningQueryException e) {
+                response = getHttpLowLevel().getAsyncResults(e.location, HttpLowLevel.JSON_TYPE, e.timeToRetry, getHttpLowLevel().getMaxRetries(), requester);
             }
+            return deserializeUpsertResult(response, listener);
+        } catch (IOException ioe) {
+            throw new SodaError(errorMessage + "  Error message: " + ioe.getLocalizedMessage());
+        }
+    }
 
-            return new UpsertResult(inserts, updates, deletes, errors.size() > 0 ? errors : null);
+    private ReplayableBody csvBody(final File csvFile) throws SodaError
+    {
+        try {
+            return ReplayableBody.fromFile(csvFile);
+        } catch (IOException ioe) {
+            throw new SodaError("Cannot load CSV from the file " + GeneralUtils.bestFilePath(csvFile) + ".  Error message: " + ioe.getLocalizedMessage());
         }
+    }
 
-        return parser.readValueAs(UpsertResult.class);
+    /**
+     * THis will return an upsert result, regardless of whether it is
+     * using the original response, or the new return from SODA Server
+     *
+     * @param response
+     * @param listener listener to tell about each row in the response.  May be {@code null}.
+     * @return
+     */
+    private UpsertResult deserializeUpsertResult(ClientResponse response, UpsertRowListener listener) throws IOException
+    {
+        final InputStream is = response.getEntityInputStream();
+        try {
+            return new UpsertResultDecoder(listener).decode(is);
+        } finally {
+            is.close();
+        }
     }
 
     /**
      * Class that represents a row in the new upsert response stream.
+     *
+     * @deprecated no longer used; upsert responses are read row by row by the decoder, without binding each row.
      */
+    @Deprecated
     @JsonIgnoreProperties(ignoreUnknown=true)
     static public class NewUpsertRow {
         public final String typ;
@@ -0,0 +1,787 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.ConflictOperationException;
+import com.socrata.exceptions.LongRunningRequestStatusCheckException;
+import com.socrata.exceptions.QueryTimeoutException;
+import com.socrata.exceptions.ServiceUnavailableException;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.utils.BufferPool;
+import com.socrata.utils.GeneralUtils;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import com.socrata.utils.PooledBufferOutputStream;
+import com.sun.jersey.api.client.ClientHandlerException;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A store-and-forward producer, that accepts writes even while the SODA server is unavailable.<p/>
+ *
+ * Each row written is serialized to JSON and appended to a local spool, and a background drainer sends the spooled
+ * rows to the dataset, in order, in batches of upserts.  If a batch fails (the server is down, overloaded, or can't be
+ * reached), the drainer backs off and retries the same batch until it succeeds, so the writers never see the outage.<p/>
+ *
+ * The spool is a directory of memory-mapped segment files.  Each segment holds records of {length, CRC32, JSON}, and
+ * the length is written last, so a record that was only partly written when the process died is never read.  The
+ * position of the last row the server accepted is kept in a cursor file, and segments are deleted once they have been
+ * completely drained.  Rows written before a crash are sent when the spool is opened again.  Rows are in the OS page
+ * cache as soon as {@link #write(Object)} returns, so they survive the process dying; call {@link #sync()} to make
+ * sure they also survive the machine dying.<p/>
+ *
+ * Rows that the server rejects individually (i.e. errors in the UpsertResult) are counted, but not retried, since
+ * sending them again won't change the answer.  A batch that fails for a reason that may pass (the server is
+ * unavailable or erroring, or can't be reached) is retried until it goes through, and the error is available from
+ * {@link #getLastError()}.  A batch the server rejects outright (a 400, 403 or 404) won't go through however often it
+ * is sent, so it is moved to the {@code dead-letter} directory inside the spool, counted, and skipped.<p/>
+ *
+ * A record whose CRC doesn't match is skipped and counted, rather than holding up the rest of the spool.  If the
+ * drainer can't go on at all (e.g. the cursor can't be written), {@link #write(Object)} and
+ * {@link #awaitDrained(long, TimeUnit)} throw, rather than letting rows pile up that will never be sent.
+ */
+public class Soda2SpoolingProducer implements Closeable
+{
+    public static final int     DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final int     DEFAULT_BATCH_ROWS = 5000;
+
+    protected static final long BASE_BACKOFF_MILLIS = 1000;
+    protected static final long MAX_BACKOFF_MILLIS = 60000;
+    protected static final long IDLE_POLL_MILLIS = 1000;
+
+    private static final String  CURSOR_FILE = "spool.cursor";
+    private static final String  DEAD_LETTER_DIRECTORY = "dead-letter";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("spool-(\\d+)\\.seg");
+    private static final int     RECORD_HEADER_SIZE = 4 + 4;
+    private static final double  RATE_ALPHA = 0.2;
+
+    private final Soda2Producer producer;
+    private final String resourceId;
+    private final File directory;
+    private final int segmentBytes;
+    private final int batchRows;
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+    private final RandomAccessFile cursorFile;
+
+    //Guarded by this
+    private Segment writeSegment;
+    private int writePosition;
+    private boolean closed;
+
+    //Only used by the drainer thread
+    private long readSegment;
+    private int readPosition;
+    private int skippedRows;
+    private int skippedBytes;
+
+    private final AtomicLong spooledRows = new AtomicLong();
+    private final AtomicLong spooledBytes = new AtomicLong();
+    private final AtomicLong drainedRows = new AtomicLong();
+    private final AtomicLong failedRows = new AtomicLong();
+    private final AtomicLong deadLetterRows = new AtomicLong();
+    private final AtomicLong deadLetterBatches = new AtomicLong();
+    private final AtomicLong corruptRows = new AtomicLong();
+    private volatile double drainRate;
+    private volatile Exception lastError;
+    private volatile Exception drainerFailure;
+
+    private final Thread drainer;
+
+    /**
+     * Opens a spool with the default segment size and batch size, and starts draining it.
+     *
+     * @param producer the producer to send the spooled rows with
+     * @param resourceId unique id or resource name of the dataset to upsert into
+     * @param directory the directory holding the spool.  It is created if needed, and should only be used by one spool.
+     * @throws IOException if the spool cannot be opened.
+     */
+    public Soda2SpoolingProducer(@Nonnull final Soda2Producer producer, @Nonnull final String resourceId, @Nonnull final File directory) throws IOException
+    {
+        this(producer, resourceId, directory, DEFAULT_SEGMENT_BYTES, DEFAULT_BATCH_ROWS);
+    }
+
+    /**
+     * Opens a spool, and starts draining it.  Any rows left in the spool from before are drained first.
+     *
+     * @param producer the producer to send the spooled rows with
+     * @param resourceId unique id or resource name of the dataset to upsert into
+     * @param directory the directory holding the spool.  It is created if needed, and should only be used by one spool.
+     * @param segmentBytes the size of each segment file.  Rows bigger than this get a segment of their own.
+     * @param batchRows the most rows to send in one upsert
+     * @throws IOException if the spool cannot be opened.
+     */
+    public Soda2SpoolingProducer(@Nonnull final Soda2Producer producer, @Nonnull final String resourceId, @Nonnull final File directory,
+                                 final int segmentBytes, final int batchRows) throws IOException
+    {
+        if (segmentBytes <= RECORD_HEADER_SIZE || batchRows < 1) {
+            throw new IllegalArgumentException("Segment size and batch size must be positive.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the spool directory " + GeneralUtils.bestFilePath(directory));
+        }
+
+        this.producer = producer;
+        this.resourceId = resourceId;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.batchRows = batchRows;
+
+        cursorFile = new RandomAccessFile(new File(directory, CURSOR_FILE), "rw");
+        try {
+            recover();
+        } catch (IOException e) {
+            closeSegments();
+            cursorFile.close();
+            throw e;
+        }
+
+        drainer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "Soda2SpoolingProducer-" + resourceId);
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Appends a row to the spool.  This never waits on the server.
+     *
+     * @param row the row to upsert.  It is serialized before the method returns, so it is safe to change it afterwards.
+     * @throws SodaError if the row cannot be serialized, the spool cannot be written, or the drainer has stopped.
+     */
+    public void write(@Nonnull final Object row) throws SodaError
+    {
+        checkDrainer();
+
+        final byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(row);
+        } catch (IOException e) {
+            throw new SodaError("Unable to serialize a row as JSON.  Error message: " + e.getLocalizedMessage());
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(json);
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The spool has been closed.");
+            }
+
+            final int size = RECORD_HEADER_SIZE + json.length;
+            try {
+                if (writePosition + size > writeSegment.capacity) {
+                    endSegment(writeSegment, writePosition);
+                    writeSegment = openSegment(writeSegment.sequence + 1, Math.max(segmentBytes, size + 4));
+                    writePosition = 0;
+                }
+            } catch (IOException e) {
+                throw new SodaError("Unable to add a segment to the spool in " + GeneralUtils.bestFilePath(directory) + ".  Error message: " + e.getLocalizedMessage());
+            }
+
+            //The length goes in last, so a partly written record is never read
+            final ByteBuffer target = writeSegment.map.duplicate();
+            target.position(writePosition + RECORD_HEADER_SIZE);
+            target.put(json);
+            writeSegment.map.putInt(writePosition + 4, (int) crc.getValue());
+            writeSegment.map.putInt(writePosition, json.length);
+            writePosition += size;
+
+            spooledRows.incrementAndGet();
+            spooledBytes.addAndGet(size);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forces the segment being written to disk, so the rows written so far survive the machine crashing.
+     */
+    public synchronized void sync()
+    {
+        if (!closed) {
+            writeSegment.map.force();
+        }
+    }
+
+    /**
+     * Waits until every row written so far has been sent.
+     *
+     * @param timeout the longest to wait
+     * @param unit the unit of the timeout
+     * @return {@code true} if the spool was drained, {@code false} if the time ran out first.
+     * @throws SodaError if the drainer has stopped, so the spool will never drain.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public boolean awaitDrained(final long timeout, final TimeUnit unit) throws SodaError, InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (this) {
+            while (spooledRows.get() > 0) {
+                checkDrainer();
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The number of rows in the spool that haven't been sent yet.
+     * @return the number of rows in the spool that haven't been sent yet.
+     */
+    public long getSpoolDepth()
+    {
+        return spooledRows.get();
+    }
+
+    /**
+     * The number of bytes in the spool that haven't been sent yet.
+     * @return the number of bytes in the spool that haven't been sent yet.
+     */
+    public long getSpoolBytes()
+    {
+        return spooledBytes.get();
+    }
+
+    /**
+     * The number of rows sent since the spool was opened, including ones the server rejected.
+     * @return the number of rows sent since the spool was opened.
+     */
+    public long getDrainedRows()
+    {
+        return drainedRows.get();
+    }
+
+    /**
+     * The number of rows the server rejected since the spool was opened.
+     * @return the number of rows the server rejected since the spool was opened.
+     */
+    public long getFailedRows()
+    {
+        return failedRows.get();
+    }
+
+    /**
+     * The number of rows in batches the server rejected outright, which were moved to the dead-letter directory.
+     * @return the number of rows moved to the dead-letter directory since the spool was opened.
+     */
+    public long getDeadLetterRows()
+    {
+        return deadLetterRows.get();
+    }
+
+    /**
+     * The number of batches the server rejected outright, which were moved to the dead-letter directory.
+     * @return the number of batches moved to the dead-letter directory since the spool was opened.
+     */
+    public long getDeadLetterBatches()
+    {
+        return deadLetterBatches.get();
+    }
+
+    /**
+     * The directory that batches the server rejected outright are moved to.  Each batch is a JSON file of its rows,
+     * with a {@code .error} file next to it holding the error.  It only exists once a batch has been moved there.
+     * @return the dead-letter directory
+     */
+    public File getDeadLetterDirectory()
+    {
+        return new File(directory, DEAD_LETTER_DIRECTORY);
+    }
+
+    /**
+     * The number of spooled records that were skipped because they failed their CRC check.
+     * @return the number of corrupt records skipped since the spool was opened.
+     */
+    public long getCorruptRows()
+    {
+        return corruptRows.get();
+    }
+
+    /**
+     * A moving average of the rows per second sent by recent batches.
+     * @return a moving average of the rows per second sent by recent batches.
+     */
+    public double getDrainRate()
+    {
+        return drainRate;
+    }
+
+    /**
+     * The error from the last batch that failed, or {@code null} if the last batch succeeded.
+     * @return the error from the last batch that failed, or {@code null} if the last batch succeeded.
+     */
+    public Exception getLastError()
+    {
+        return lastError;
+    }
+
+    /**
+     * Whether the drainer is still sending rows.  Once it has stopped (other than by the spool being closed), the
+     * reason is in {@link #getLastError()}.
+     * @return {@code false} if the drainer has stopped because it couldn't go on.
+     */
+    public boolean isDraining()
+    {
+        return drainerFailure == null;
+    }
+
+    /**
+     * Stops the drainer and closes the spool.  Rows that haven't been sent stay in the spool, and are sent the next
+     * time it is opened.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        drainer.interrupt();
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            writeSegment.map.force();
+            closeSegments();
+            cursorFile.close();
+        }
+    }
+
+    /**
+     * Sends batches until the spool is closed.
+     */
+    private void drain()
+    {
+        int attempt = 0;
+        PooledBufferOutputStream body = null;
+        int rows = 0;
+        int bytes = 0;
+
+        try {
+            while (!isClosed()) {
+                if (body == null) {
+                    body = new PooledBufferOutputStream(BufferPool.HEAP);
+                    rows = 0;
+                    bytes = 0;
+                    body.write('[');
+                    while (rows < batchRows) {
+                        final ByteBuffer record = nextRecord();
+                        if (record == null) {
+                            break;
+                        }
+                        if (rows > 0) {
+                            body.write(',');
+                        }
+                        bytes += RECORD_HEADER_SIZE + record.remaining();
+                        body.write(record);
+                        rows++;
+                    }
+                    body.write(']');
+
+                    if (rows == 0) {
+                        body.release();
+                        body = null;
+                        if (skippedRows > 0) {
+                            //Nothing but corrupt records, which still need to be moved past
+                            commit(0, 0, drainedRows);
+                        } else {
+                            waitForRows();
+                        }
+                        continue;
+                    }
+                }
+
+                final long start = System.currentTimeMillis();
+                try {
+                    final UpsertResult result = producer.upsertStream(resourceId, HttpLowLevel.JSON_TYPE, ReplayableBody.fromBuffers(body.getBuffers()));
+                    commit(rows, bytes, drainedRows);
+                    failedRows.addAndGet(result.errorCount());
+                    updateDrainRate(rows, System.currentTimeMillis() - start);
+                    lastError = null;
+                    attempt = 0;
+                    body.release();
+                    body = null;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    lastError = e;
+                    if (isTransient(e)) {
+                        //Keep the batch and try it again
+                        Thread.sleep(backoff(e, attempt++));
+                    } else {
+                        //Sending it again won't change the answer, so set it aside and move on
+                        deadLetter(body, e);
+                        deadLetterBatches.incrementAndGet();
+                        commit(rows, bytes, deadLetterRows);
+                        attempt = 0;
+                        body.release();
+                        body = null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //Closed
+        } catch (Exception e) {
+            lastError = e;
+            synchronized (this) {
+                drainerFailure = e;
+                notifyAll();
+            }
+        } finally {
+            if (body != null) {
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * Gets the next record after the read position, or {@code null} if the drainer has caught up with the writers.
+     */
+    private ByteBuffer nextRecord() throws IOException
+    {
+        while (true) {
+            final Segment segment = segments.get(readSegment);
+            final long writeSequence;
+            final int limit;
+            synchronized (this) {
+                writeSequence = writeSegment.sequence;
+                limit = (readSegment == writeSequence) ? writePosition : segment.capacity;
+            }
+
+            final int length = recordLength(segment, readPosition, limit);
+            if (length < 0) {
+                if (readSegment == writeSequence) {
+                    return null;
+                }
+                readSegment++;
+                readPosition = 0;
+                continue;
+            }
+
+            final ByteBuffer record = segment.map.duplicate();
+            record.position(readPosition + RECORD_HEADER_SIZE);
+            record.limit(readPosition + RECORD_HEADER_SIZE + length);
+            final boolean valid = checkCrc(record, segment.map.getInt(readPosition + 4));
+
+            readPosition += RECORD_HEADER_SIZE + length;
+
+            //Move on from a finished segment right away, so the cursor doesn't hold on to it
+            if (readSegment != writeSequence && recordLength(segment, readPosition, limit) < 0) {
+                readSegment++;
+                readPosition = 0;
+            }
+
+            if (valid) {
+                return record;
+            }
+            //Skip it, rather than holding up everything after it
+            skippedRows++;
+            skippedBytes += RECORD_HEADER_SIZE + length;
+            corruptRows.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the length of the record at a position, or -1 if there isn't a complete record there.
+     */
+    private static int recordLength(final Segment segment, final int position, final int limit)
+    {
+        final int length = (position + RECORD_HEADER_SIZE <= limit) ? segment.map.getInt(position) : 0;
+        return (length <= 0 || position + RECORD_HEADER_SIZE + length > limit) ? -1 : length;
+    }
+
+    /**
+     * Records that the batch up to the read position is done with, and deletes the segments before it.  Corrupt
+     * records skipped along the way are taken off the spool as well.
+     *
+     * @param counter the count to add the batch's rows to, before anyone waiting for the spool to drain is woken
+     */
+    private void commit(final int rows, final int bytes, final AtomicLong counter) throws IOException
+    {
+        final int removedRows = rows + skippedRows;
+        final int removedBytes = bytes + skippedBytes;
+        skippedRows = 0;
+        skippedBytes = 0;
+
+        cursorFile.seek(0);
+        cursorFile.writeLong(readSegment);
+        cursorFile.writeInt(readPosition);
+        cursorFile.getChannel().force(false);
+
+        for (Map.Entry<Long, Segment> entry : segments.headMap(readSegment).entrySet()) {
+            segments.remove(entry.getKey());
+            entry.getValue().close();
+            entry.getValue().file.delete();
+        }
+
+        counter.addAndGet(rows);
+        spooledBytes.addAndGet(-removedBytes);
+        synchronized (this) {
+            spooledRows.addAndGet(-removedRows);
+            notifyAll();
+        }
+    }
+
+    private void updateDrainRate(final int rows, final long elapsedMillis)
+    {
+        final double rowsPerSecond = rows * 1000.0 / Math.max(1, elapsedMillis);
+        drainRate = (drainRate == 0) ? rowsPerSecond : RATE_ALPHA * rowsPerSecond + (1 - RATE_ALPHA) * drainRate;
+    }
+
+    /**
+     * Writes a batch the server rejected to the dead-letter directory, along with the error, before the cursor moves
+     * past it.
+     */
+    private void deadLetter(final PooledBufferOutputStream body, final Exception error) throws IOException
+    {
+        final File deadLetters = getDeadLetterDirectory();
+        if (!deadLetters.isDirectory() && !deadLetters.mkdirs()) {
+            throw new IOException("Unable to create the dead-letter directory " + GeneralUtils.bestFilePath(deadLetters));
+        }
+
+        final String name = String.format("batch-%020d-%d", System.currentTimeMillis(), deadLetterBatches.get());
+        final FileOutputStream errorOut = new FileOutputStream(new File(deadLetters, name + ".error"));
+        try {
+            errorOut.write(String.valueOf(error).getBytes("UTF-8"));
+        } finally {
+            errorOut.close();
+        }
+
+        final FileOutputStream out = new FileOutputStream(new File(deadLetters, name + ".json"));
+        try {
+            final FileChannel channel = out.getChannel();
+            for (ByteBuffer buffer : body.getBuffers()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Whether a batch that failed is worth sending again.  The server being unavailable or erroring (a plain
+     * SodaError is a 5xx, or a response that couldn't be read), timeouts, conflicts and network errors may pass;
+     * anything else, such as the 400, 403 and 404 errors, won't change however often the batch is sent.
+     *
+     * @param error the reason the batch failed
+     * @return {@code true} to retry the batch, {@code false} to move it to the dead-letter directory.
+     */
+    protected boolean isTransient(final Exception error)
+    {
+        return error instanceof ServiceUnavailableException || error instanceof QueryTimeoutException ||
+               error instanceof ConflictOperationException || error instanceof LongRunningRequestStatusCheckException ||
+               error instanceof IOException || error instanceof ClientHandlerException ||
+               error.getClass() == SodaError.class;
+    }
+
+    private void checkDrainer() throws SodaError
+    {
+        final Exception failure = drainerFailure;
+        if (failure != null) {
+            throw new SodaError("The spool in " + GeneralUtils.bestFilePath(directory) + " has stopped draining.  Error message: " + failure.getLocalizedMessage());
+        }
+    }
+
+    private long backoff(final Exception error, final int attempt)
+    {
+        final long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        if (error instanceof ServiceUnavailableException && ((ServiceUnavailableException) error).retryAt > 0) {
+            return Math.max(backoff, ((ServiceUnavailableException) error).retryAt - System.currentTimeMillis());
+        }
+        return backoff;
+    }
+
+    private synchronized void waitForRows() throws InterruptedException
+    {
+        if (!closed && writeSegment.sequence == readSegment && writePosition == readPosition) {
+            wait(IDLE_POLL_MILLIS);
+        }
+    }
+
+    private synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Opens the existing segments, working out where the drainer and the writers left off.
+     */
+    private void recover() throws IOException
+    {
+        if (cursorFile.length() >= 12) {
+            readSegment = cursorFile.readLong();
+            readPosition = cursorFile.readInt();
+        }
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (!matcher.matches()) {
+                    continue;
+                }
+
+                final long sequence = Long.parseLong(matcher.group(1));
+                if (sequence < readSegment) {
+                    file.delete();
+                } else {
+                    segments.put(sequence, new Segment(sequence, file, (int) file.length()));
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            //Nothing left from the cursor on, so start fresh from the cursor's segment
+            readPosition = 0;
+            writeSegment = openSegment(readSegment, segmentBytes);
+            writePosition = 0;
+            return;
+        } else if (segments.firstKey() != readSegment) {
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+
+        //Count what is left to drain, and find the end of the last segment
+        for (Segment segment : segments.values()) {
+            final Long next = segments.higherKey(segment.sequence);
+            if (next != null && next != segment.sequence + 1) {
+                throw new IOException("Spool segments in " + GeneralUtils.bestFilePath(directory) + " are not contiguous after " + segment.file.getName());
+            }
+
+            int position = (segment.sequence == readSegment) ? readPosition : 0;
+            while (true) {
+                final int length = recordLength(segment, position, segment.capacity);
+                if (length < 0) {
+                    break;
+                }
+
+                final ByteBuffer record = segment.map.duplicate();
+                record.position(position + RECORD_HEADER_SIZE);
+                record.limit(position + RECORD_HEADER_SIZE + length);
+                if (!checkCrc(record, segment.map.getInt(position + 4))) {
+                    break;
+                }
+
+                position += RECORD_HEADER_SIZE + length;
+                spooledRows.incrementAndGet();
+                spooledBytes.addAndGet(RECORD_HEADER_SIZE + length);
+            }
+
+            writeSegment = segment;
+            writePosition = position;
+        }
+        endSegment(writeSegment, writePosition);
+    }
+
+    private Segment openSegment(final long sequence, final int capacity) throws IOException
+    {
+        final File file = new File(directory, String.format("spool-%020d.seg", sequence));
+        final Segment segment = new Segment(sequence, file, capacity);
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    /**
+     * Marks the end of the records in a segment, in case there is anything after it from before a crash.
+     */
+    private static void endSegment(final Segment segment, final int position)
+    {
+        if (position + 4 <= segment.capacity) {
+            segment.map.putInt(position, 0);
+        }
+    }
+
+    private static boolean checkCrc(final ByteBuffer record, final int expected)
+    {
+        final CRC32 crc = new CRC32();
+        if (record.hasArray()) {
+            crc.update(record.array(), record.arrayOffset() + record.position(), record.remaining());
+        } else {
+            final byte[] chunk = new byte[Math.min(record.remaining(), 8192)];
+            final ByteBuffer view = record.duplicate();
+            while (view.hasRemaining()) {
+                final int n = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+            }
+        }
+        return (int) crc.getValue() == expected;
+    }
+
+    private void closeSegments()
+    {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * One memory-mapped segment file.
+     */
+    private static final class Segment
+    {
+        final long sequence;
+        final File file;
+        final int capacity;
+        final RandomAccessFile raf;
+        final MappedByteBuffer map;
+
+        Segment(final long sequence, final File file, final int capacity) throws IOException
+        {
+            this.sequence = sequence;
+            this.file = file;
+            this.capacity = capacity;
+            this.raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < capacity) {
+                    raf.setLength(capacity);
+                }
+                this.map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        void close()
+        {
+            GeneralUtils.closeQuietly(raf);
+        }
+    }
+}
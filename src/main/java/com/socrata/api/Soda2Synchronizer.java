@@ -0,0 +1,158 @@
+package com.socrata.api;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.DeleteRecord;
+import com.socrata.model.UpsertResult;
+import com.socrata.utils.FingerprintIndex;
+import com.socrata.utils.GeneralUtils;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps a dataset in sync with a series of full snapshots, by sending only what changed since the last snapshot
+ * rather than replacing the whole dataset each time.<p/>
+ *
+ * A {@link FingerprintIndex} file records the identifier and a hash of every row sent by the last successful sync.
+ * Each row of a new snapshot is hashed and checked against it: new and changed rows are upserted, unchanged rows are skipped, and rows
+ * that are in the index but not in the snapshot are deleted with DeleteRecords.  The delta is sent through chunked,
+ * concurrent upserts, using the producer's bulk write settings.<p/>
+ *
+ * The new index is only moved into place if the whole delta is applied without any row errors, so a failed sync is
+ * simply repeated in full next time.  The first sync (with no index yet) sends every row, but doesn't delete
+ * anything, since the index is empty.
+ */
+public class Soda2Synchronizer
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Soda2Producer producer;
+    private final RowIdentifiers rowIdentifiers;
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    /**
+     * Constructor
+     *
+     * @param producer the producer to send the deltas with
+     */
+    public Soda2Synchronizer(@Nonnull final Soda2Producer producer)
+    {
+        this(producer, new RowIdentifiers(producer.getHttpLowLevel()));
+    }
+
+    Soda2Synchronizer(final Soda2Producer producer, final RowIdentifiers rowIdentifiers)
+    {
+        this.producer = producer;
+        this.rowIdentifiers = rowIdentifiers;
+    }
+
+    /**
+     * Brings a dataset in line with a new snapshot, sending only the rows that changed since the last sync.
+     *
+     * @param resourceId unique id or resource name of the dataset
+     * @param snapshot every row the dataset should contain.  Each row must include the dataset's Row Identifier
+     *                 (or {@code :id} if the dataset doesn't have one).
+     * @param indexFile the fingerprint index for this dataset.  It is created by the first sync.
+     * @return result of the rows added, modified and removed.
+     * @throws SodaError  thrown if there is an error.  Investigate the structure for more information.
+     * @throws InterruptedException throws is the thread is interrupted.
+     */
+    public UpsertResult sync(@Nonnull final String resourceId, @Nonnull final Iterator<?> snapshot, @Nonnull final File indexFile) throws SodaError, InterruptedException
+    {
+        final String idField = rowIdentifiers.getFieldName(resourceId);
+
+        final FingerprintIndex index;
+        final FingerprintIndex.Writer writer;
+        try {
+            index = FingerprintIndex.load(indexFile);
+            writer = FingerprintIndex.newWriter(indexFile);
+        } catch (IOException e) {
+            throw new SodaError("Unable to open the fingerprint index " + GeneralUtils.bestFilePath(indexFile) + ".  Error message: " + e.getLocalizedMessage());
+        }
+
+        try {
+            final Iterator<Object> delta = Iterators.concat(new ChangedRows(snapshot, idField, index, writer), new AbstractIterator<Object>()
+            {
+                Iterator<byte[]> deletes;
+
+                @Override
+                protected Object computeNext()
+                {
+                    //Only look for deletes once the whole snapshot has been checked against the index
+                    if (deletes == null) {
+                        deletes = index.unseenKeys();
+                    }
+                    return deletes.hasNext() ? new DeleteRecord(new String(deletes.next(), UTF_8), true) : endOfData();
+                }
+            });
+
+            final UpsertResult result = producer.newBulkUpserter(resourceId).upsert(resourceId, delta);
+            if (result.errorCount() == 0) {
+                writer.commit();
+            }
+            return result;
+        } catch (IOException e) {
+            throw new SodaError("Unable to write the fingerprint index " + GeneralUtils.bestFilePath(indexFile) + ".  Error message: " + e.getLocalizedMessage());
+        } finally {
+            GeneralUtils.closeQuietly(writer);
+            GeneralUtils.closeQuietly(index);
+        }
+    }
+
+    /**
+     * Goes through a snapshot, recording every row in the new index, and only returning the rows that are new or changed.
+     */
+    private class ChangedRows extends AbstractIterator<Object>
+    {
+        private final Iterator<?> snapshot;
+        private final String idField;
+        private final FingerprintIndex index;
+        private final FingerprintIndex.Writer writer;
+
+        ChangedRows(final Iterator<?> snapshot, final String idField, final FingerprintIndex index, final FingerprintIndex.Writer writer)
+        {
+            this.snapshot = snapshot;
+            this.idField = idField;
+            this.index = index;
+            this.writer = writer;
+        }
+
+        @Override
+        protected Object computeNext()
+        {
+            while (snapshot.hasNext()) {
+                final Object row = snapshot.next();
+
+                //Sort the fields, so the same contents always hash the same
+                final Map<String, Object> fields = new TreeMap<String, Object>(mapper.convertValue(row, Map.class));
+                final Object id = fields.get(idField);
+                if (id == null) {
+                    throw new IllegalArgumentException("Row is missing its identifier, " + idField + ": " + fields);
+                }
+
+                try {
+                    final byte[] key = id.toString().getBytes(UTF_8);
+                    final long keyHash = FingerprintIndex.hashKey(key);
+                    final long contentHash = FingerprintIndex.hashContent(mapper.writeValueAsBytes(fields));
+                    writer.add(key, keyHash, contentHash);
+
+                    if (index.check(key, keyHash, contentHash) != FingerprintIndex.UNCHANGED) {
+                        return fields;
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to write the fingerprint index.", e);
+                }
+            }
+            return endOfData();
+        }
+    }
+}
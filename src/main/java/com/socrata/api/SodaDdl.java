@@ -7,6 +7,8 @@ import com.socrata.model.SearchResults;
 import com.socrata.model.importer.*;
 import com.socrata.model.requests.SodaRequest;
 import com.socrata.model.search.SearchClause;
+import com.socrata.utils.GeneralUtils;
+import com.socrata.utils.NioUtils;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.GenericType;
 import org.codehaus.jackson.JsonParseException;
@@ -359,8 +361,90 @@ public class SodaDdl extends SodaWorkflow
      */
     public InputStream getAsset(final String id) throws SodaError, InterruptedException
     {
+        return issueDownloadRequest(assetRequest(id)).getEntity(InputStream.class);
+    }
+
+    /**
+     * Downloads an asset straight into a file.  The response is read into a pooled heap buffer and written with
+     * positional FileChannel writes (see {@link NioUtils#transferFrom(InputStream, File)}), rather than handing the
+     * caller a stream to copy.
+     *
+     * @param id id of the asset to load
+     * @param file file to write the asset to.  If it already exists, it will be overwritten.
+     * @return the number of bytes written to the file
+     */
+    public long downloadAsset(final String id, final File file) throws SodaError, InterruptedException
+    {
+        return writeResponse(issueDownloadRequest(assetRequest(id)), file);
+    }
+
+    /**
+     * Downloads an asset straight into a file, fetching ranges of it over several connections at once.  If the
+     * download is interrupted, calling this again with the same file resumes it.
+     *
+     * @param id id of the asset to load
+     * @param file file to write the asset to.  If it already exists, it will be overwritten.
+     * @param connections the maximum number of connections to download with
+     * @return the number of bytes written to the file
+     * @see SegmentedDownloader
+     */
+    public long downloadAsset(final String id, final File file, final int connections) throws SodaError, InterruptedException
+    {
+        final URI uri = UriBuilder.fromUri(assetUri)
+                                  .path(id)
+                                  .build();
+        return new SegmentedDownloader(getHttpLowLevel(), connections).download(uri, file);
+    }
 
-        SodaRequest requester = new SodaRequest<File>(id, null)
+    /**
+     * Downloads a file blob, based on the NonDataFileDataset it's part of.
+     * @return
+     */
+    public InputStream getFileBlob(final NonDataFileDataset dataset) throws SodaError, InterruptedException
+    {
+        return issueDownloadRequest(fileBlobRequest(dataset)).getEntity(InputStream.class);
+    }
+
+    /**
+     * Downloads a file blob straight into a file.  The response is read into a pooled heap buffer and written with
+     * positional FileChannel writes (see {@link NioUtils#transferFrom(InputStream, File)}), rather than handing the
+     * caller a stream to copy.
+     *
+     * @param dataset the NonDataFileDataset the blob is part of
+     * @param file file to write the blob to.  If it already exists, it will be overwritten.
+     * @return the number of bytes written to the file
+     */
+    public long downloadFileBlob(final NonDataFileDataset dataset, final File file) throws SodaError, InterruptedException
+    {
+        return writeResponse(issueDownloadRequest(fileBlobRequest(dataset)), file);
+    }
+
+    /**
+     * Downloads a file blob straight into a file, fetching ranges of it over several connections at once.  If the
+     * download is interrupted, calling this again with the same file resumes it.
+     *
+     * @param dataset the NonDataFileDataset the blob is part of
+     * @param file file to write the blob to.  If it already exists, it will be overwritten.
+     * @param connections the maximum number of connections to download with
+     * @return the number of bytes written to the file
+     * @see SegmentedDownloader
+     */
+    public long downloadFileBlob(final NonDataFileDataset dataset, final File file, final int connections) throws SodaError, InterruptedException
+    {
+        Preconditions.checkArgument(dataset.getBlobId()!=null, "Dataset MUST be imported already before calling this.  Otherwise, the file doesn't have a Blob ID yet.");
+
+        final URI uri = UriBuilder.fromUri(fileResourceUri)
+                                  .path(dataset.getBlobId())
+                                  .build();
+        return new SegmentedDownloader(getHttpLowLevel(), connections).download(uri, file);
+    }
+
+    /**
+     * Creates the request for loading an asset.
+     */
+    private SodaRequest assetRequest(final String id)
+    {
+        return new SodaRequest<File>(id, null)
         {
             public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
             {
@@ -371,25 +455,16 @@ public class SodaDdl extends SodaWorkflow
                 return httpLowLevel.queryRaw(uri, MediaType.WILDCARD_TYPE);
             }
         };
-
-        try {
-            final ClientResponse response = requester.issueRequest();
-            return response.getEntity(InputStream.class);
-        } catch (LongRunningQueryException e) {
-            return getHttpLowLevel().getAsyncResults(e.location, e.timeToRetry, getHttpLowLevel().getMaxRetries(), InputStream.class, requester);
-        }
     }
 
     /**
-     * Downloads a file blob, based on the NonDataFileDataset it's part of.
-     * @return
+     * Creates the request for loading the blob of a NonDataFileDataset.
      */
-    public InputStream getFileBlob(final NonDataFileDataset dataset) throws SodaError, InterruptedException
+    private SodaRequest fileBlobRequest(final NonDataFileDataset dataset)
     {
         Preconditions.checkArgument(dataset.getBlobId()!=null, "Dataset MUST be imported already before calling this.  Otherwise, the file doesn't have a Blob ID yet.");
 
-
-        SodaRequest requester = new SodaRequest<File>(dataset.getBlobId(), null)
+        return new SodaRequest<File>(dataset.getBlobId(), null)
         {
             public ClientResponse issueRequest() throws LongRunningQueryException, SodaError
             {
@@ -400,12 +475,32 @@ public class SodaDdl extends SodaWorkflow
                 return httpLowLevel.queryRaw(uri, MediaType.WILDCARD_TYPE);
             }
         };
+    }
 
+    /**
+     * Issues a download request, following any 202s.
+     */
+    private ClientResponse issueDownloadRequest(final SodaRequest requester) throws SodaError, InterruptedException
+    {
         try {
-            final ClientResponse response = requester.issueRequest();
-            return response.getEntity(InputStream.class);
+            return requester.issueRequest();
         } catch (LongRunningQueryException e) {
-            return getHttpLowLevel().getAsyncResults(e.location, e.timeToRetry, getHttpLowLevel().getMaxRetries(), InputStream.class, requester);
+            return getHttpLowLevel().getAsyncResults(e.location, MediaType.WILDCARD_TYPE, e.timeToRetry, getHttpLowLevel().getMaxRetries(), requester);
+        }
+    }
+
+    /**
+     * Writes the body of a response to a file.
+     */
+    private long writeResponse(final ClientResponse response, final File file) throws SodaError
+    {
+        final InputStream is = response.getEntityInputStream();
+        try {
+            return NioUtils.transferFrom(is, file);
+        } catch (IOException e) {
+            throw new SodaError("Unable to write the download to " + GeneralUtils.bestFilePath(file) + ".  Error message: " + e.getLocalizedMessage());
+        } finally {
+            GeneralUtils.closeQuietly(is);
         }
     }
 
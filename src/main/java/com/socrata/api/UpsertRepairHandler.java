@@ -0,0 +1,21 @@
+package com.socrata.api;
+
+import com.socrata.model.UpsertError;
+
+/**
+ * Callback for fixing rows that failed an upsert, so they can be resubmitted on their own rather than
+ * re-uploading the whole batch.
+ *
+ * @see Soda2Producer#upsertWithRepair(String, java.util.List, UpsertRepairHandler)
+ */
+public interface UpsertRepairHandler<T>
+{
+    /**
+     * Called once for each row that failed an upsert.
+     *
+     * @param row the row that failed, as it was submitted
+     * @param error the error for the row.  The index is the row's index in the original list.
+     * @return the repaired row to resubmit, or {@code null} to give up on the row, leaving its error in the result.
+     */
+    T repair(T row, UpsertError error);
+}
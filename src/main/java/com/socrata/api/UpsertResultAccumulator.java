@@ -0,0 +1,47 @@
+package com.socrata.api;
+
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds up the UpsertResults of several chunks of a larger upsert.  Error indexes are shifted
+ * by the offset of each chunk, so they refer to rows in the complete input.
+ */
+class UpsertResultAccumulator
+{
+    private long rowsCreated;
+    private long rowsUpdated;
+    private long rowsDeleted;
+    private final List<UpsertError> errors = new ArrayList<UpsertError>();
+
+    /**
+     * Adds the result of one chunk.
+     *
+     * @param result the result of upserting the chunk
+     * @param indexOffset the index of the chunk's first row in the complete input
+     */
+    synchronized void add(final UpsertResult result, final long indexOffset)
+    {
+        rowsCreated += result.getRowsCreated();
+        rowsUpdated += result.getRowsUpdated();
+        rowsDeleted += result.getRowsDeleted();
+
+        if (result.getErrors() != null) {
+            for (UpsertError error : result.getErrors()) {
+                errors.add(new UpsertError(error.getError(), (int) (error.getIndex() + indexOffset), error.getPrimaryKey()));
+            }
+        }
+    }
+
+    /**
+     * The combined result of every chunk added so far.
+     * @return the combined result of every chunk added so far.
+     */
+    synchronized UpsertResult getResult()
+    {
+        return new UpsertResult(rowsCreated, rowsUpdated, rowsDeleted, errors.size() > 0 ? new ArrayList<UpsertError>(errors) : null);
+    }
+}
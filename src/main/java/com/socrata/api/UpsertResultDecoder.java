@@ -0,0 +1,231 @@
+package com.socrata.api;
+
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertOperation;
+import com.socrata.model.UpsertResult;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes an upsert response straight from the parser tokens.<p/>
+ *
+ * The SODA server returns one small object per row ({@code {"typ":"insert","id":"...","ver":"..."}}), so binding
+ * each of them to an object just to count the inserts adds up for large upserts.  Instead, the "typ" values are
+ * compared against the parser's character buffer, and the id and error strings are only created for rows that had
+ * errors (or when a listener wants them).  Errors are collected in primitive arrays until the end of the response.<p/>
+ *
+ * The older summary form of the upsert result is still bound with the ObjectMapper.
+ */
+class UpsertResultDecoder
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory  JSON_FACTORY = MAPPER.getJsonFactory();
+
+    private static final char[] INSERT = "insert".toCharArray();
+    private static final char[] UPDATE = "update".toCharArray();
+    private static final char[] DELETE = "delete".toCharArray();
+    private static final char[] ERROR = "error".toCharArray();
+
+    private final UpsertRowListener listener;
+
+    private long inserts;
+    private long updates;
+    private long deletes;
+
+    private int     errorCount;
+    private int[]   errorIndexes = new int[8];
+    private String[] errorMessages = new String[8];
+    private String[] errorIds = new String[8];
+
+    private final FieldBuffer id = new FieldBuffer();
+    private final FieldBuffer err = new FieldBuffer();
+
+    /**
+     * Constructor
+     *
+     * @param listener listener to tell about each row in the response.  May be {@code null}.
+     */
+    UpsertResultDecoder(final UpsertRowListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Decodes an upsert response.
+     *
+     * @param stream the body of the response.  This is NOT closed.
+     * @return the result of the upsert
+     * @throws IOException if the response cannot be read or parsed.
+     */
+    UpsertResult decode(final InputStream stream) throws IOException
+    {
+        final JsonParser parser = JSON_FACTORY.createJsonParser(stream);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return decodeSummary(parser);
+            }
+
+            if (parser.nextToken() == JsonToken.START_ARRAY) {
+                int index = 0;
+                JsonToken token;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new JsonParseException("Expected a row object in the upsert response, but found " + token, parser.getCurrentLocation());
+                    }
+                    decodeRow(parser, index++);
+                }
+            }
+            return buildResult();
+        } finally {
+            parser.close();
+        }
+    }
+
+    private UpsertResult decodeSummary(final JsonParser parser) throws IOException
+    {
+        final UpsertResult result = parser.readValueAs(UpsertResult.class);
+        if (listener != null && result.getErrors() != null) {
+            for (UpsertError error : result.getErrors()) {
+                listener.onRow(error.getIndex(), UpsertOperation.Error, error.getPrimaryKey(), error.getError());
+            }
+        }
+        return result;
+    }
+
+    private void decodeRow(final JsonParser parser, final int index) throws IOException
+    {
+        UpsertOperation operation = null;
+        id.reset();
+        err.reset();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+
+            if (value == JsonToken.VALUE_STRING) {
+                if ("typ".equals(field)) {
+                    operation = matchOperation(parser);
+                } else if ("id".equals(field)) {
+                    id.set(parser);
+                } else if ("err".equals(field)) {
+                    err.set(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (operation == UpsertOperation.Insert) {
+            inserts++;
+        } else if (operation == UpsertOperation.Update) {
+            updates++;
+        } else if (operation == UpsertOperation.Delete) {
+            deletes++;
+        }
+
+        if (operation == UpsertOperation.Error || (listener != null && operation != null)) {
+            final String idValue = id.toStringOrNull();
+            final String errValue = err.toStringOrNull();
+            if (operation == UpsertOperation.Error) {
+                addError(index, errValue, idValue);
+            }
+            if (listener != null) {
+                listener.onRow(index, operation, idValue, errValue);
+            }
+        }
+    }
+
+    private static UpsertOperation matchOperation(final JsonParser parser) throws IOException
+    {
+        final char[] text = parser.getTextCharacters();
+        final int offset = parser.getTextOffset();
+        final int length = parser.getTextLength();
+
+        if (matches(INSERT, text, offset, length)) {
+            return UpsertOperation.Insert;
+        } else if (matches(UPDATE, text, offset, length)) {
+            return UpsertOperation.Update;
+        } else if (matches(DELETE, text, offset, length)) {
+            return UpsertOperation.Delete;
+        } else if (matches(ERROR, text, offset, length)) {
+            return UpsertOperation.Error;
+        }
+        return null;
+    }
+
+    private static boolean matches(final char[] expected, final char[] text, final int offset, final int length)
+    {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (expected[i] != text[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addError(final int index, final String message, final String primaryKey)
+    {
+        if (errorCount == errorIndexes.length) {
+            final int newLength = errorIndexes.length * 2;
+            errorIndexes = Arrays.copyOf(errorIndexes, newLength);
+            errorMessages = Arrays.copyOf(errorMessages, newLength);
+            errorIds = Arrays.copyOf(errorIds, newLength);
+        }
+        errorIndexes[errorCount] = index;
+        errorMessages[errorCount] = message;
+        errorIds[errorCount] = primaryKey;
+        errorCount++;
+    }
+
+    private UpsertResult buildResult()
+    {
+        List<UpsertError> errors = null;
+        if (errorCount > 0) {
+            errors = new ArrayList<UpsertError>(errorCount);
+            for (int i=0; i<errorCount; i++) {
+                errors.add(new UpsertError(errorMessages[i], errorIndexes[i], errorIds[i]));
+            }
+        }
+        return new UpsertResult(inserts, updates, deletes, errors);
+    }
+
+    /**
+     * Holds a copy of a string value from the parser, so a String only needs to be created if it is used.
+     */
+    private static final class FieldBuffer
+    {
+        private char[] chars = new char[64];
+        private int length = -1;
+
+        void reset()
+        {
+            length = -1;
+        }
+
+        void set(final JsonParser parser) throws IOException
+        {
+            length = parser.getTextLength();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            System.arraycopy(parser.getTextCharacters(), parser.getTextOffset(), chars, 0, length);
+        }
+
+        String toStringOrNull()
+        {
+            return length < 0 ? null : new String(chars, 0, length);
+        }
+    }
+}
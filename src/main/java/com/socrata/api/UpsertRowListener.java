@@ -0,0 +1,23 @@
+package com.socrata.api;
+
+import com.socrata.model.UpsertOperation;
+
+/**
+ * Callback for learning what an upsert did with each row of its payload, rather than just the totals
+ * in the UpsertResult.<p/>
+ *
+ * If the server only returns the summary form of the upsert result, the listener is only called for
+ * the rows that had errors.
+ */
+public interface UpsertRowListener
+{
+    /**
+     * Called once for each row reported in an upsert response, in payload order.
+     *
+     * @param index the 0-based index of the row in the upsert payload
+     * @param operation what the upsert did with the row
+     * @param id the row identifier the server reported for the row.  May be {@code null}.
+     * @param error the error message, if the operation is {@link UpsertOperation#Error}.  Otherwise {@code null}.
+     */
+    void onRow(int index, UpsertOperation operation, String id, String error);
+}
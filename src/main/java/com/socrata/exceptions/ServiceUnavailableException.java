@@ -0,0 +1,30 @@
+package com.socrata.exceptions;
+
+import com.socrata.model.SodaErrorResponse;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Thrown if the server is overloaded or temporarily unavailable (HTTP 429, 502, 503 or 504).  The request
+ * can be retried, ideally after backing off.
+ */
+public class ServiceUnavailableException extends SodaError
+{
+    public final int  status;
+    public final long retryAt;
+
+    /**
+     * Constructor
+     *
+     * @param sodaErrorResponse the error from the server
+     * @param status the HTTP status of the response
+     * @param retryAt the time the server asked to be retried after, in milliseconds since the epoch, or {@code 0} if
+     *                the server didn't ask for a specific time.
+     */
+    public ServiceUnavailableException(@Nonnull final SodaErrorResponse sodaErrorResponse, final int status, final long retryAt)
+    {
+        super(sodaErrorResponse);
+        this.status = status;
+        this.retryAt = retryAt;
+    }
+}
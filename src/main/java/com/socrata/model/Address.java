@@ -1,5 +1,6 @@
 package com.socrata.model;
 
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -10,6 +11,7 @@ import org.codehaus.jackson.map.annotate.JsonSerialize;
  */
 @JsonIgnoreProperties(ignoreUnknown=true)
 @JsonSerialize(include= JsonSerialize.Inclusion.NON_NULL)
+@GenerateBinding
 public class Address
 {
     protected final String streetAddress;
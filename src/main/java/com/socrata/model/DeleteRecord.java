@@ -1,5 +1,6 @@
 package com.socrata.model;
 
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -7,6 +8,7 @@ import org.codehaus.jackson.annotate.JsonProperty;
 /**
  */
 @JsonIgnoreProperties(ignoreUnknown=true)
+@GenerateBinding
 public class DeleteRecord
 {
     String  rowIdentifier;
@@ -0,0 +1,56 @@
+package com.socrata.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of looking up a number of rows by id: the rows that were found, keyed by id, and the ids that
+ * weren't.
+ *
+ * @param <T> the type the rows were decoded as
+ */
+@Immutable
+public class IdLookupResult<T>
+{
+    private final ImmutableMap<String, T> rows;
+    private final ImmutableList<String> missingIds;
+
+    public IdLookupResult(final Map<String, T> rows, final List<String> missingIds)
+    {
+        this.rows = ImmutableMap.copyOf(rows);
+        this.missingIds = ImmutableList.copyOf(missingIds);
+    }
+
+    /**
+     * The rows that were found, keyed by id, in the order the ids were asked for.
+     * @return the rows that were found
+     */
+    public Map<String, T> getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Gets the row for an id.
+     *
+     * @param id the id of the row
+     * @return the row, or {@code null} if it wasn't found.
+     */
+    public T get(final String id)
+    {
+        return rows.get(id);
+    }
+
+    /**
+     * The ids that no row was found for, in the order they were asked for.
+     * @return the ids that weren't found
+     */
+    public List<String> getMissingIds()
+    {
+        return missingIds;
+    }
+}
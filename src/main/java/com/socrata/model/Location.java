@@ -5,6 +5,10 @@ import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
+/**
+ * A SODA location.  Locations are read and written by the {@link com.socrata.utils.LocationCodec}, which keeps the
+ * address in the nested {@code human_address} document SODA uses.
+ */
 @JsonIgnoreProperties(ignoreUnknown=true)
 @JsonSerialize(include= JsonSerialize.Inclusion.NON_NULL)
 public class Location
@@ -1,5 +1,6 @@
 package com.socrata.model;
 
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -9,6 +10,7 @@ import org.codehaus.jackson.annotate.JsonProperty;
  * an upsert operation.
  */
 @JsonIgnoreProperties(ignoreUnknown=true)
+@GenerateBinding
 public class UpsertError
 {
     final String error;
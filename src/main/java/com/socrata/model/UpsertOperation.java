@@ -0,0 +1,32 @@
+package com.socrata.model;
+
+/**
+ * What an upsert did with a single row of its payload.  These match the "typ" values in the
+ * per-row upsert response from the SODA server.
+ */
+public enum UpsertOperation {
+    Insert,
+    Update,
+    Delete,
+    Error;
+
+    /**
+     * Gets the operation for the "typ" value of a row in an upsert response.
+     *
+     * @param typ the "typ" value from the response
+     * @return the matching operation, or {@code null} if the value is not recognized.
+     */
+    public static UpsertOperation fromTyp(final String typ)
+    {
+        if ("insert".equals(typ)) {
+            return Insert;
+        } else if ("update".equals(typ)) {
+            return Update;
+        } else if ("delete".equals(typ)) {
+            return Delete;
+        } else if ("error".equals(typ)) {
+            return Error;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.socrata.model.columnar;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * A column of booleans (checkboxes), held as a bitmap.
+ */
+public class BooleanColumn extends ColumnVector
+{
+    private final BitSet values = new BitSet();
+
+    public BooleanColumn(final String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Gets the value in a row.
+     *
+     * @param row the 0-based row
+     * @return the value, or {@code false} if it is null.
+     */
+    public boolean getBoolean(final int row)
+    {
+        checkRow(row);
+        return values.get(row);
+    }
+
+    /**
+     * The number of rows that are {@code true}.
+     * @return the number of rows that are {@code true}.
+     */
+    public int getTrueCount()
+    {
+        return values.cardinality();
+    }
+
+    @Override
+    void append(final JsonParser parser) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_TRUE || (token == JsonToken.VALUE_STRING && "true".equalsIgnoreCase(parser.getText()))) {
+            values.set(size);
+        } else if (token != JsonToken.VALUE_FALSE && token != JsonToken.VALUE_STRING) {
+            throw new IOException("Column " + name + " expected a boolean, but got " + token);
+        }
+        size++;
+    }
+
+    @Override
+    void ensureCapacity(final int rows)
+    {
+    }
+
+    @Override
+    void trim()
+    {
+    }
+}
@@ -0,0 +1,107 @@
+package com.socrata.model.columnar;
+
+import org.codehaus.jackson.JsonParser;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * One column of a columnar query result.  Each subclass holds its values in a primitive array (or, for text, codes
+ * into a dictionary), and nulls are tracked in a bitmap.  Null cells hold a zero value in the array.
+ */
+public abstract class ColumnVector
+{
+    protected static final int INITIAL_CAPACITY = 64;
+
+    protected final String name;
+    protected final BitSet nulls = new BitSet();
+    protected int size;
+
+    protected ColumnVector(final String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * The field name of the column.
+     * @return the field name of the column.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * The number of rows in the column.
+     * @return the number of rows in the column.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks whether the value in a row is null.
+     *
+     * @param row the 0-based row
+     * @return {@code true} if the value is null.
+     */
+    public boolean isNull(final int row)
+    {
+        checkRow(row);
+        return nulls.get(row);
+    }
+
+    /**
+     * The number of null values in the column.
+     * @return the number of null values in the column.
+     */
+    public int getNullCount()
+    {
+        return nulls.cardinality();
+    }
+
+    /**
+     * Adds nulls until the column has a number of rows.
+     */
+    void padTo(final int rows)
+    {
+        while (size < rows) {
+            appendNull();
+        }
+    }
+
+    void appendNull()
+    {
+        ensureCapacity(size + 1);
+        nulls.set(size);
+        size++;
+    }
+
+    /**
+     * Adds the parser's current value to the end of the column.
+     */
+    abstract void append(JsonParser parser) throws IOException;
+
+    /**
+     * Makes sure the arrays have room for a number of rows.
+     */
+    abstract void ensureCapacity(int rows);
+
+    /**
+     * Shrinks the arrays to the number of rows, once the column is complete.
+     */
+    abstract void trim();
+
+    protected void checkRow(final int row)
+    {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " is outside of the " + size + " rows in column " + name);
+        }
+    }
+
+    protected static int grow(final int current, final int needed)
+    {
+        return Math.max(needed, Math.max(INITIAL_CAPACITY, current + (current >> 1)));
+    }
+}
@@ -0,0 +1,142 @@
+package com.socrata.model.columnar;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes a SODA2 JSON query response (an array of row objects) straight into columns, without building a Map per row.<p/>
+ *
+ * Each field is decoded according to its column's SODA data type name (see {@code Column.getDataTypeName()}):
+ * <ul>
+ *     <li>number, money, double, percent and stars become {@link NumberColumn}s</li>
+ *     <li>calendar_date, date, floating_timestamp and fixed_timestamp become {@link TimestampColumn}s</li>
+ *     <li>text, html, flag and drop_down_list become dictionary encoded {@link TextColumn}s</li>
+ *     <li>checkbox and boolean become {@link BooleanColumn}s</li>
+ *     <li>anything else (location, url, phone...) becomes an {@link ObjectColumn}</li>
+ * </ul>
+ * Fields without a known type, such as aliases and aggregates in a $select, are typed by their first non-null value.
+ * Since SODA2 sends numbers as strings, those come out as text unless a type is given for them.
+ */
+public class ColumnarDecoder
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, String> columnTypes;
+
+    /**
+     * Constructor
+     *
+     * @param columnTypes the SODA data type name of each field, by field name
+     */
+    public ColumnarDecoder(@Nonnull final Map<String, String> columnTypes)
+    {
+        this.columnTypes = Collections.unmodifiableMap(new LinkedHashMap<String, String>(columnTypes));
+    }
+
+    /**
+     * Decodes a query response.
+     *
+     * @param stream the body of the response.  This is NOT closed.
+     * @return the columns of the result
+     * @throws IOException if the response cannot be read, or a value doesn't match its column's type.
+     */
+    public ColumnarResult decode(@Nonnull final InputStream stream) throws IOException
+    {
+        final Map<String, ColumnVector> columns = new LinkedHashMap<String, ColumnVector>();
+        final JsonParser parser = MAPPER.getJsonFactory().createJsonParser(stream);
+        int rows = 0;
+
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected the query response to be an array of rows.");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    final JsonToken token = parser.nextToken();
+
+                    ColumnVector column = columns.get(field);
+                    if (column == null) {
+                        if (token == JsonToken.VALUE_NULL) {
+                            continue;
+                        }
+                        column = newColumn(field, columnTypes.get(field), token);
+                        columns.put(field, column);
+                    }
+
+                    column.padTo(rows);
+                    if (token == JsonToken.VALUE_NULL) {
+                        column.appendNull();
+                    } else {
+                        column.append(parser);
+                    }
+                }
+                rows++;
+            }
+        } finally {
+            parser.close();
+        }
+
+        for (ColumnVector column : columns.values()) {
+            column.padTo(rows);
+            column.trim();
+        }
+        return new ColumnarResult(rows, columns);
+    }
+
+    /**
+     * Whether a SODA data type holds numbers, and so is decoded into a {@link NumberColumn} and compared as a
+     * number in queries.
+     *
+     * @param dataTypeName the SODA data type name, e.g. {@code money}
+     * @return whether the type holds numbers.  Unknown types, and {@code null}, don't.
+     */
+    public static boolean isNumberType(final String dataTypeName)
+    {
+        if (dataTypeName == null) {
+            return false;
+        }
+        final String type = dataTypeName.toLowerCase();
+        return type.equals("number") || type.equals("money") || type.equals("double") || type.equals("percent") || type.equals("stars");
+    }
+
+    /**
+     * Creates the column for a SODA data type name, or for the first value if the type isn't known.
+     */
+    static ColumnVector newColumn(final String name, final String dataTypeName, final JsonToken firstValue)
+    {
+        if (dataTypeName == null) {
+            switch (firstValue) {
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:    return new NumberColumn(name);
+                case VALUE_STRING:          return new TextColumn(name);
+                case VALUE_TRUE:
+                case VALUE_FALSE:           return new BooleanColumn(name);
+                default:                    return new ObjectColumn(name);
+            }
+        }
+
+        final String type = dataTypeName.toLowerCase();
+        if (isNumberType(type)) {
+            return new NumberColumn(name);
+        } else if (type.equals("calendar_date") || type.equals("date") || type.equals("floating_timestamp") || type.equals("fixed_timestamp")) {
+            return new TimestampColumn(name);
+        } else if (type.equals("text") || type.equals("html") || type.equals("flag") || type.equals("drop_down_list")) {
+            return new TextColumn(name);
+        } else if (type.equals("checkbox") || type.equals("boolean")) {
+            return new BooleanColumn(name);
+        } else if (type.equals("location")) {
+            return new LocationColumn(name);
+        }
+        return new ObjectColumn(name);
+    }
+}
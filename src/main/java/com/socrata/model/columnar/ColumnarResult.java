@@ -0,0 +1,110 @@
+package com.socrata.model.columnar;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of a query decoded into columns.  Every column has {@link #getRowCount()} rows, so the same index
+ * in each column is the same row.
+ */
+public class ColumnarResult
+{
+    private final int rowCount;
+    private final Map<String, ColumnVector> columns;
+
+    public ColumnarResult(final int rowCount, final Map<String, ColumnVector> columns)
+    {
+        this.rowCount = rowCount;
+        this.columns = Collections.unmodifiableMap(new LinkedHashMap<String, ColumnVector>(columns));
+    }
+
+    /**
+     * The number of rows in the result.
+     * @return the number of rows in the result.
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * The columns of the result, by field name, in the order they first appeared in the response.
+     * @return the columns of the result.
+     */
+    public Map<String, ColumnVector> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Gets a column by field name.
+     *
+     * @param name the field name of the column
+     * @return the column, or {@code null} if no row had a value for it.
+     */
+    public ColumnVector getColumn(final String name)
+    {
+        return columns.get(name);
+    }
+
+    /**
+     * Gets a number column by field name.
+     *
+     * @param name the field name of the column
+     * @return the column, or {@code null} if no row had a value for it.
+     * @throws ClassCastException if the column isn't a number column.
+     */
+    public NumberColumn getNumberColumn(final String name)
+    {
+        return (NumberColumn) columns.get(name);
+    }
+
+    /**
+     * Gets a timestamp column by field name.
+     *
+     * @param name the field name of the column
+     * @return the column, or {@code null} if no row had a value for it.
+     * @throws ClassCastException if the column isn't a timestamp column.
+     */
+    public TimestampColumn getTimestampColumn(final String name)
+    {
+        return (TimestampColumn) columns.get(name);
+    }
+
+    /**
+     * Gets a text column by field name.
+     *
+     * @param name the field name of the column
+     * @return the column, or {@code null} if no row had a value for it.
+     * @throws ClassCastException if the column isn't a text column.
+     */
+    public TextColumn getTextColumn(final String name)
+    {
+        return (TextColumn) columns.get(name);
+    }
+
+    /**
+     * Gets a boolean column by field name.
+     *
+     * @param name the field name of the column
+     * @return the column, or {@code null} if no row had a value for it.
+     * @throws ClassCastException if the column isn't a boolean column.
+     */
+    public BooleanColumn getBooleanColumn(final String name)
+    {
+        return (BooleanColumn) columns.get(name);
+    }
+
+    /**
+     * Gets a location column by field name.
+     *
+     * @param name the field name of the column
+     * @return the column, or {@code null} if no row had a value for it.
+     * @throws ClassCastException if the column isn't a location column.
+     */
+    public LocationColumn getLocationColumn(final String name)
+    {
+        return (LocationColumn) columns.get(name);
+    }
+}
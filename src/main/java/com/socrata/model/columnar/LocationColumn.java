@@ -0,0 +1,96 @@
+package com.socrata.model.columnar;
+
+import com.socrata.utils.LocationCodec;
+import org.codehaus.jackson.JsonParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A column of locations, held as their latitudes and longitudes.  The {@code human_address} of each location is
+ * skipped without being parsed, and locations without both coordinates are null.
+ */
+public class LocationColumn extends ColumnVector
+{
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private final double[] coordinates = new double[2];
+
+    public LocationColumn(final String name)
+    {
+        super(name);
+    }
+
+    /**
+     * The latitudes.  The array is NOT a copy, and null cells are 0.
+     * @return the latitudes
+     */
+    public double[] getLatitudes()
+    {
+        return latitudes;
+    }
+
+    /**
+     * The longitudes.  The array is NOT a copy, and null cells are 0.
+     * @return the longitudes
+     */
+    public double[] getLongitudes()
+    {
+        return longitudes;
+    }
+
+    /**
+     * Gets the latitude in a row.
+     *
+     * @param row the 0-based row
+     * @return the latitude, or 0 if the location is null.
+     */
+    public double getLatitude(final int row)
+    {
+        checkRow(row);
+        return latitudes[row];
+    }
+
+    /**
+     * Gets the longitude in a row.
+     *
+     * @param row the 0-based row
+     * @return the longitude, or 0 if the location is null.
+     */
+    public double getLongitude(final int row)
+    {
+        checkRow(row);
+        return longitudes[row];
+    }
+
+    @Override
+    void append(final JsonParser parser) throws IOException
+    {
+        if (!LocationCodec.readCoordinates(parser, coordinates)) {
+            appendNull();
+            return;
+        }
+
+        ensureCapacity(size + 1);
+        latitudes[size] = coordinates[0];
+        longitudes[size] = coordinates[1];
+        size++;
+    }
+
+    @Override
+    void ensureCapacity(final int rows)
+    {
+        if (latitudes.length < rows) {
+            final int capacity = grow(latitudes.length, rows);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+        }
+    }
+
+    @Override
+    void trim()
+    {
+        latitudes = Arrays.copyOf(latitudes, size);
+        longitudes = Arrays.copyOf(longitudes, size);
+    }
+}
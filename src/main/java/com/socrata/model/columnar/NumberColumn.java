@@ -0,0 +1,199 @@
+package com.socrata.model.columnar;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A column of numbers.  SODA2 sends numbers as strings, so they are parsed straight from the parser's buffer.<p/>
+ *
+ * The values are kept as a {@code long[]} as long as every value is a whole number that fits, so ids and counts
+ * keep their precision.  The first value that isn't switches the column to a {@code double[]}.
+ */
+public class NumberColumn extends ColumnVector
+{
+    private long[] longs = new long[0];
+    private double[] doubles;
+    private double[] converted;
+
+    public NumberColumn(final String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Whether every value in the column is a whole number, so {@link #getLongs()} can be used.
+     * @return {@code true} if every value is a whole number.
+     */
+    public boolean isIntegral()
+    {
+        return doubles == null;
+    }
+
+    /**
+     * The values as longs.  The array is NOT a copy, and null cells are 0.
+     *
+     * @return the values
+     * @throws IllegalStateException if the column has values that aren't whole numbers.
+     */
+    public long[] getLongs()
+    {
+        if (doubles != null) {
+            throw new IllegalStateException("Column " + name + " has values that aren't whole numbers.");
+        }
+        return longs;
+    }
+
+    /**
+     * The values as doubles.  The array is NOT a copy, and null cells are 0.  For an integral column, this converts
+     * the values the first time it is called.
+     *
+     * @return the values
+     */
+    public double[] getDoubles()
+    {
+        if (doubles != null) {
+            return doubles;
+        }
+
+        if (converted == null) {
+            converted = new double[size];
+            for (int i=0; i<size; i++) {
+                converted[i] = longs[i];
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Gets the value in a row as a double.
+     *
+     * @param row the 0-based row
+     * @return the value, or 0 if it is null.
+     */
+    public double getDouble(final int row)
+    {
+        checkRow(row);
+        return (doubles != null) ? doubles[row] : longs[row];
+    }
+
+    /**
+     * Gets the value in a row as a long, truncating it if it isn't a whole number.
+     *
+     * @param row the 0-based row
+     * @return the value, or 0 if it is null.
+     */
+    public long getLong(final int row)
+    {
+        checkRow(row);
+        return (doubles != null) ? (long) doubles[row] : longs[row];
+    }
+
+    @Override
+    void append(final JsonParser parser) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        ensureCapacity(size + 1);
+
+        if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+            appendLong(parser.getLongValue());
+        } else if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            appendDouble(parser.getDoubleValue());
+        } else if (token == JsonToken.VALUE_STRING) {
+            appendText(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } else {
+            throw new IOException("Column " + name + " expected a number, but got " + token);
+        }
+        size++;
+    }
+
+    private void appendText(final char[] text, final int offset, final int length) throws IOException
+    {
+        //Most values are plain integers, so try that without creating a String.  This accumulates negatively, the
+        //same as Long.parseLong, so the whole range of longs is exact, and anything bigger goes on to be a double.
+        if (length > 0) {
+            final int end = offset + length;
+            int i = offset;
+            final boolean negative = text[i] == '-';
+            if (negative || text[i] == '+') {
+                i++;
+            }
+
+            final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            final long multiplyLimit = limit / 10;
+            long value = 0;
+            boolean integral = i < end;
+            for (; i<end && integral; i++) {
+                final int digit = text[i] - '0';
+                if (digit < 0 || digit > 9 || value < multiplyLimit || value * 10 < limit + digit) {
+                    integral = false;
+                } else {
+                    value = value * 10 - digit;
+                }
+            }
+
+            if (integral) {
+                appendLong(negative ? value : -value);
+                return;
+            }
+        }
+
+        try {
+            appendDouble(Double.parseDouble(new String(text, offset, length)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Column " + name + " has a value that isn't a number: " + new String(text, offset, length));
+        }
+    }
+
+    private void appendLong(final long value)
+    {
+        if (doubles != null) {
+            doubles[size] = value;
+        } else {
+            longs[size] = value;
+        }
+    }
+
+    private void appendDouble(final double value)
+    {
+        if (doubles == null) {
+            if (value == Math.rint(value) && Math.abs(value) < (double) Long.MAX_VALUE) {
+                longs[size] = (long) value;
+                return;
+            }
+            toDoubles();
+        }
+        doubles[size] = value;
+    }
+
+    private void toDoubles()
+    {
+        doubles = new double[longs.length];
+        for (int i=0; i<size; i++) {
+            doubles[i] = longs[i];
+        }
+        longs = null;
+    }
+
+    @Override
+    void ensureCapacity(final int rows)
+    {
+        if (doubles != null && doubles.length < rows) {
+            doubles = Arrays.copyOf(doubles, grow(doubles.length, rows));
+        } else if (doubles == null && longs.length < rows) {
+            longs = Arrays.copyOf(longs, grow(longs.length, rows));
+        }
+    }
+
+    @Override
+    void trim()
+    {
+        if (doubles != null) {
+            doubles = Arrays.copyOf(doubles, size);
+        } else {
+            longs = Arrays.copyOf(longs, size);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.socrata.model.columnar;
+
+import org.codehaus.jackson.JsonParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A column of values that don't have a primitive form, such as urls or phone numbers.  Each value is
+ * bound the same way as with {@code Soda2Consumer.HASH_RETURN_TYPE}, i.e. to Maps, Lists and Strings.
+ */
+public class ObjectColumn extends ColumnVector
+{
+    private Object[] values = new Object[0];
+
+    public ObjectColumn(final String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Gets the value in a row.
+     *
+     * @param row the 0-based row
+     * @return the value, or {@code null} if it is null.
+     */
+    public Object getValue(final int row)
+    {
+        checkRow(row);
+        return values[row];
+    }
+
+    @Override
+    void append(final JsonParser parser) throws IOException
+    {
+        ensureCapacity(size + 1);
+        values[size++] = parser.readValueAs(Object.class);
+    }
+
+    @Override
+    void ensureCapacity(final int rows)
+    {
+        if (values.length < rows) {
+            values = Arrays.copyOf(values, grow(values.length, rows));
+        }
+    }
+
+    @Override
+    void trim()
+    {
+        values = Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,112 @@
+package com.socrata.model.columnar;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A column of text, dictionary encoded: each distinct value is held once, and each row holds an int code into the
+ * dictionary.  For low-cardinality columns (categories, codes, names of places) this is a small fraction of the
+ * size of a String per row.  Null cells have the code -1.
+ */
+public class TextColumn extends ColumnVector
+{
+    private int[] codes = new int[0];
+    private final List<String> dictionary = new ArrayList<String>();
+    private final Map<String, Integer> lookup = new HashMap<String, Integer>();
+
+    public TextColumn(final String name)
+    {
+        super(name);
+    }
+
+    /**
+     * The dictionary codes of the values.  The array is NOT a copy, and null cells are -1.
+     * @return the codes of the values
+     */
+    public int[] getCodes()
+    {
+        return codes;
+    }
+
+    /**
+     * The distinct values in the column, indexed by code.
+     * @return the distinct values in the column
+     */
+    public List<String> getDictionary()
+    {
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    /**
+     * The number of distinct values in the column.
+     * @return the number of distinct values in the column.
+     */
+    public int getCardinality()
+    {
+        return dictionary.size();
+    }
+
+    /**
+     * Gets the value in a row.
+     *
+     * @param row the 0-based row
+     * @return the value, or {@code null} if it is null.
+     */
+    public String getString(final int row)
+    {
+        checkRow(row);
+        return (codes[row] < 0) ? null : dictionary.get(codes[row]);
+    }
+
+    @Override
+    void appendNull()
+    {
+        ensureCapacity(size + 1);
+        codes[size] = -1;
+        super.appendNull();
+    }
+
+    @Override
+    void append(final JsonParser parser) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        final String value;
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            value = parser.readValueAsTree().toString();
+        } else {
+            value = parser.getText();
+        }
+
+        Integer code = lookup.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            lookup.put(value, code);
+        }
+
+        ensureCapacity(size + 1);
+        codes[size++] = code;
+    }
+
+    @Override
+    void ensureCapacity(final int rows)
+    {
+        if (codes.length < rows) {
+            codes = Arrays.copyOf(codes, grow(codes.length, rows));
+        }
+    }
+
+    @Override
+    void trim()
+    {
+        codes = Arrays.copyOf(codes, size);
+    }
+}
@@ -0,0 +1,99 @@
+package com.socrata.model.columnar;
+
+import com.socrata.utils.SodaDateCodec;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A column of timestamps, held as milliseconds since the epoch.<p/>
+ *
+ * Timestamps with a zone ("Z" or an offset) are exact.  Floating timestamps, which is what SODA2 returns for
+ * calendar_date columns, are taken to be in the local time zone, and plain dates are midnight UTC, the same as the
+ * rest of the API does.
+ */
+public class TimestampColumn extends ColumnVector
+{
+    private long[] millis = new long[0];
+    private final TimeZone floatingZone = TimeZone.getDefault();
+
+    public TimestampColumn(final String name)
+    {
+        super(name);
+    }
+
+    /**
+     * The values as milliseconds since the epoch.  The array is NOT a copy, and null cells are 0.
+     * @return the values
+     */
+    public long[] getMillis()
+    {
+        return millis;
+    }
+
+    /**
+     * Gets the value in a row, as milliseconds since the epoch.
+     *
+     * @param row the 0-based row
+     * @return the value, or 0 if it is null.
+     */
+    public long getTime(final int row)
+    {
+        checkRow(row);
+        return millis[row];
+    }
+
+    /**
+     * Gets the value in a row as a Date.
+     *
+     * @param row the 0-based row
+     * @return the value, or {@code null} if it is null.
+     */
+    public Date getDate(final int row)
+    {
+        return isNull(row) ? null : new Date(millis[row]);
+    }
+
+    @Override
+    void append(final JsonParser parser) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        ensureCapacity(size + 1);
+
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            millis[size] = parser.getLongValue();
+        } else if (token == JsonToken.VALUE_STRING) {
+            millis[size] = parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } else {
+            throw new IOException("Column " + name + " expected a timestamp, but got " + token);
+        }
+        size++;
+    }
+
+    private long parse(final char[] text, final int offset, final int length) throws IOException
+    {
+        final long parsed = SodaDateCodec.parse(text, offset, length, floatingZone, SodaDateCodec.UTC);
+        if (parsed == SodaDateCodec.INVALID) {
+            throw new IOException("Column " + name + " has a value that isn't a timestamp: " + new String(text, offset, length));
+        }
+        return parsed;
+    }
+
+    @Override
+    void ensureCapacity(final int rows)
+    {
+        if (millis.length < rows) {
+            millis = Arrays.copyOf(millis, grow(millis.length, rows));
+        }
+    }
+
+    @Override
+    void trim()
+    {
+        millis = Arrays.copyOf(millis, size);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Columnar query results, where each column is held in a primitive array rather than each row in a Map.  These
+ * are for analytic queries that pull many rows of a few numeric, time or low-cardinality text columns.
+ **/
+package com.socrata.model.columnar;
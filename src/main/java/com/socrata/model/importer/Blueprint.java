@@ -1,5 +1,6 @@
 package com.socrata.model.importer;
 
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
@@ -9,6 +10,7 @@ import java.util.List;
  * A structure that defines how a CSV should be imported.
  *
  */
+@GenerateBinding
 public class Blueprint
 {
 
@@ -1,5 +1,6 @@
 package com.socrata.model.importer;
 
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
@@ -8,6 +9,7 @@ import java.util.Map;
 /**
  * A defintion for how to import a particular column in the dataset.
  */
+@GenerateBinding
 public class BlueprintColumn
 {
     private final String name;
@@ -1,11 +1,13 @@
 package com.socrata.model.importer;
 
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 /**
  * The results of a server scan over the csv, this is needed before importing a CSV
  */
+@GenerateBinding
 public class ScanResults
 {
 
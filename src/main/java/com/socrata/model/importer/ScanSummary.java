@@ -1,6 +1,7 @@
 package com.socrata.model.importer;
 
 import com.socrata.model.Location;
+import com.socrata.utils.bindings.GenerateBinding;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -11,6 +12,7 @@ import java.util.List;
  * The summary of the results returned by scanning a CSV.
  */
 @JsonIgnoreProperties(ignoreUnknown=true)
+@GenerateBinding
 public class ScanSummary
 {
 
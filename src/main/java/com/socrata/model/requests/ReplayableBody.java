@@ -0,0 +1,575 @@
+package com.socrata.model.requests;
+
+import com.socrata.utils.GeneralUtils;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * A request body that can be sent more than once.  A plain InputStream can only be read
+ * once, so if a request has to be re-issued (e.g. after a 202 with no Location, or a retry) the
+ * payload is gone.  A ReplayableBody can be opened again for every attempt.
+ *
+ * There are two flavors:
+ * <ul>
+ *     <li>File backed bodies, which simply re-open the file at the right position for each attempt.</li>
+ *     <li>Stream backed bodies, which spool the stream as it is sent the first time.  Small payloads are kept
+ *     in memory, once the payload grows above a threshold it is spilled to a temp file.</li>
+ * </ul>
+ *
+ * Only one stream returned from {@link #open()} should be in use at a time.  Closing the body releases any
+ * temp files it created.
+ */
+abstract public class ReplayableBody implements Closeable
+{
+    public static final long DEFAULT_MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
+    protected static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Creates a body that sends the contents of a file.
+     *
+     * @param file the file to send
+     * @return the body
+     * @throws FileNotFoundException if the file does not exist or is not a normal file.
+     */
+    public static ReplayableBody fromFile(@Nonnull final File file) throws FileNotFoundException
+    {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(GeneralUtils.bestFilePath(file));
+        }
+        return new FileBody(file, 0, file.length());
+    }
+
+    /**
+     * Creates a body that sends a region of a file.
+     *
+     * @param file the file to send
+     * @param position the offset in the file the region starts at
+     * @param length the number of bytes in the region
+     * @return the body
+     * @throws FileNotFoundException if the file does not exist or is not a normal file.
+     */
+    public static ReplayableBody fromFile(@Nonnull final File file, final long position, final long length) throws FileNotFoundException
+    {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(GeneralUtils.bestFilePath(file));
+        }
+
+        if (position < 0 || length < 0 || position + length > file.length()) {
+            throw new IllegalArgumentException("Region [" + position + ", " + (position + length) + ") is outside of " + GeneralUtils.bestFilePath(file));
+        }
+        return new FileBody(file, position, length);
+    }
+
+    /**
+     * Creates a body that sends a region of a byte array.  The array is NOT copied, so it should not
+     * be changed while the body is in use.
+     *
+     * @param bytes the bytes to send
+     * @param offset the offset in the array the region starts at
+     * @param length the number of bytes in the region
+     * @return the body
+     */
+    public static ReplayableBody fromBytes(@Nonnull final byte[] bytes, final int offset, final int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("Region [" + offset + ", " + (offset + length) + ") is outside of the array.");
+        }
+        return new BytesBody(bytes, offset, length);
+    }
+
+    /**
+     * Creates a body that sends the remaining bytes of several buffers, one after the other.  The buffers are NOT
+     * copied (or moved), so they should not be changed while the body is in use.
+     *
+     * @param buffers the buffers to send
+     * @return the body
+     */
+    public static ReplayableBody fromBuffers(@Nonnull final List<ByteBuffer> buffers)
+    {
+        final ByteBuffer[] views = new ByteBuffer[buffers.size()];
+        for (int i=0; i<views.length; i++) {
+            views[i] = buffers.get(i).asReadOnlyBuffer();
+        }
+        return new BuffersBody(views);
+    }
+
+    /**
+     * Creates a body that sends several bodies, one after the other.
+     *
+     * @param parts the bodies to send.  They are closed when this body is closed.
+     * @return the body
+     */
+    public static ReplayableBody concat(@Nonnull final ReplayableBody... parts)
+    {
+        return new CompositeBody(parts.clone());
+    }
+
+    /**
+     * Creates a body that spools an arbitrary stream the first time it is sent, using the default
+     * memory threshold.
+     *
+     * @param stream the stream to send.  This will NOT be closed when the body is closed.
+     * @return the body
+     */
+    public static ReplayableBody fromStream(@Nonnull final InputStream stream)
+    {
+        return new SpooledBody(stream, DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Creates a body that spools an arbitrary stream the first time it is sent.
+     *
+     * @param stream the stream to send.  This will NOT be closed when the body is closed.
+     * @param memoryThreshold the number of bytes to hold in memory before the spool is moved to a temp file.
+     * @return the body
+     */
+    public static ReplayableBody fromStream(@Nonnull final InputStream stream, final long memoryThreshold)
+    {
+        return new SpooledBody(stream, memoryThreshold);
+    }
+
+    /**
+     * Opens a new stream over the complete body.  Each call starts from the beginning.
+     *
+     * @return a stream over the body.  The caller is responsible for closing it.
+     * @throws IOException if the body could not be opened.
+     */
+    abstract public InputStream open() throws IOException;
+
+    /**
+     * The number of bytes in the body, if it is known.
+     *
+     * @return the number of bytes in the body, or {@code -1} if this is not known yet.
+     */
+    abstract public long length();
+
+    /**
+     * Releases any resources held by the body.
+     */
+    @Override
+    public void close() throws IOException
+    {
+    }
+
+    /**
+     * Opens a stream over a region of a file through its FileChannel.
+     */
+    protected static InputStream openRegion(final File file, final long position, final long length) throws IOException
+    {
+        final FileInputStream fis = new FileInputStream(file);
+        try {
+            final FileChannel channel = fis.getChannel();
+            channel.position(position);
+            return new BoundedInputStream(Channels.newInputStream(channel), length) {
+                @Override public void close() throws IOException { fis.close(); }
+            };
+        } catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A body backed by a region of a file.
+     */
+    public static class FileBody extends ReplayableBody
+    {
+        final File file;
+        final long position;
+        final long length;
+
+        FileBody(final File file, final long position, final long length)
+        {
+            this.file = file;
+            this.position = position;
+            this.length = length;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public long getPosition()
+        {
+            return position;
+        }
+
+        @Override
+        public InputStream open() throws IOException
+        {
+            return openRegion(file, position, length);
+        }
+
+        @Override
+        public long length()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * A body backed by a region of a byte array.
+     */
+    static class BytesBody extends ReplayableBody
+    {
+        final byte[] bytes;
+        final int offset;
+        final int length;
+
+        BytesBody(final byte[] bytes, final int offset, final int length)
+        {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public InputStream open() throws IOException
+        {
+            return new ByteArrayInputStream(bytes, offset, length);
+        }
+
+        @Override
+        public long length()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * A body backed by a series of ByteBuffers, which may be heap or direct buffers.
+     */
+    static class BuffersBody extends ReplayableBody
+    {
+        final ByteBuffer[] buffers;
+
+        BuffersBody(final ByteBuffer[] buffers)
+        {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public InputStream open() throws IOException
+        {
+            return new InputStream()
+            {
+                int index;
+                ByteBuffer current = nextBuffer();
+
+                @Override
+                public int read()
+                {
+                    while (current != null && !current.hasRemaining()) {
+                        current = nextBuffer();
+                    }
+                    return (current == null) ? -1 : current.get() & 0xff;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len)
+                {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    while (current != null && !current.hasRemaining()) {
+                        current = nextBuffer();
+                    }
+                    if (current == null) {
+                        return -1;
+                    }
+
+                    final int n = Math.min(len, current.remaining());
+                    current.get(b, off, n);
+                    return n;
+                }
+
+                @Override
+                public int available()
+                {
+                    return (current == null) ? 0 : current.remaining();
+                }
+
+                private ByteBuffer nextBuffer()
+                {
+                    //Each stream reads through its own duplicates, so the body can be opened again
+                    return (index < buffers.length) ? buffers[index++].duplicate() : null;
+                }
+            };
+        }
+
+        @Override
+        public long length()
+        {
+            long length = 0;
+            for (ByteBuffer buffer : buffers) {
+                length += buffer.remaining();
+            }
+            return length;
+        }
+    }
+
+    /**
+     * A body made up of several other bodies.
+     */
+    static class CompositeBody extends ReplayableBody
+    {
+        final ReplayableBody[] parts;
+
+        CompositeBody(final ReplayableBody[] parts)
+        {
+            this.parts = parts;
+        }
+
+        @Override
+        public InputStream open() throws IOException
+        {
+            final Vector<InputStream> streams = new Vector<InputStream>(parts.length);
+            try {
+                for (ReplayableBody part : parts) {
+                    streams.add(part.open());
+                }
+            } catch (IOException e) {
+                for (InputStream stream : streams) {
+                    GeneralUtils.closeQuietly(stream);
+                }
+                throw e;
+            }
+            return new SequenceInputStream(streams.elements());
+        }
+
+        @Override
+        public long length()
+        {
+            long length = 0;
+            for (ReplayableBody part : parts) {
+                final long partLength = part.length();
+                if (partLength < 0) {
+                    return -1;
+                }
+                length += partLength;
+            }
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (ReplayableBody part : parts) {
+                GeneralUtils.closeQuietly(part);
+            }
+        }
+    }
+
+    /**
+     * A body backed by a stream, that is spooled the first time it is read.  The first call to
+     * open() tees the stream into the spool as it is read.  Later calls make sure the entire
+     * source has been spooled, then read from the spool.
+     */
+    static class SpooledBody extends ReplayableBody
+    {
+        private final InputStream source;
+        private final long memoryThreshold;
+
+        private byte[] memory = new byte[0];
+        private int memoryLength;
+        private File spillFile;
+        private OutputStream spillStream;
+        private long spooledLength;
+        private boolean sourceExhausted;
+        private boolean opened;
+
+        SpooledBody(final InputStream source, final long memoryThreshold)
+        {
+            this.source = source;
+            this.memoryThreshold = memoryThreshold;
+        }
+
+        @Override
+        public synchronized InputStream open() throws IOException
+        {
+            if (!opened) {
+                opened = true;
+                return new TeeInputStream();
+            }
+
+            drainSource();
+            if (spillFile != null) {
+                return openRegion(spillFile, 0, spooledLength);
+            }
+            return new ByteArrayInputStream(memory, 0, memoryLength);
+        }
+
+        @Override
+        public synchronized long length()
+        {
+            return sourceExhausted ? spooledLength : -1;
+        }
+
+        @Override
+        public synchronized void close() throws IOException
+        {
+            try {
+                if (spillStream != null) {
+                    spillStream.close();
+                }
+            } finally {
+                spillStream = null;
+                memory = null;
+                if (spillFile != null) {
+                    spillFile.delete();
+                }
+            }
+        }
+
+        private void drainSource() throws IOException
+        {
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while (!sourceExhausted && (read = source.read(buffer)) != -1) {
+                spool(buffer, 0, read);
+            }
+            sourceExhausted = true;
+            if (spillStream != null) {
+                spillStream.flush();
+            }
+        }
+
+        private void spool(final byte[] buffer, final int offset, final int length) throws IOException
+        {
+            if (spillStream == null && memoryLength + (long) length > memoryThreshold) {
+                spillFile = File.createTempFile("soda-body", ".spool");
+                spillFile.deleteOnExit();
+                spillStream = new FileOutputStream(spillFile);
+                spillStream.write(memory, 0, memoryLength);
+                memory = null;
+                memoryLength = 0;
+            }
+
+            if (spillStream != null) {
+                spillStream.write(buffer, offset, length);
+            } else {
+                if (memoryLength + length > memory.length) {
+                    final int newSize = (int) Math.min(memoryThreshold, Math.max(memory.length * 2L, memoryLength + (long) length));
+                    memory = Arrays.copyOf(memory, newSize);
+                }
+                System.arraycopy(buffer, offset, memory, memoryLength, length);
+                memoryLength += length;
+            }
+            spooledLength += length;
+        }
+
+        /**
+         * Reads the source on the first attempt, while keeping a copy of everything in the spool.
+         */
+        private class TeeInputStream extends InputStream
+        {
+            @Override
+            public int read() throws IOException
+            {
+                final byte[] single = new byte[1];
+                final int read = read(single, 0, 1);
+                return (read == -1) ? -1 : (single[0] & 0xff);
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException
+            {
+                synchronized (SpooledBody.this) {
+                    if (sourceExhausted) {
+                        return -1;
+                    }
+
+                    final int read = source.read(b, off, len);
+                    if (read == -1) {
+                        sourceExhausted = true;
+                        if (spillStream != null) {
+                            spillStream.flush();
+                        }
+                    } else {
+                        spool(b, off, read);
+                    }
+                    return read;
+                }
+            }
+        }
+    }
+
+    /**
+     * An InputStream that stops after a fixed number of bytes.
+     */
+    protected static class BoundedInputStream extends FilterInputStream
+    {
+        private long remaining;
+
+        protected BoundedInputStream(final InputStream in, final long limit)
+        {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int retVal = in.read();
+            if (retVal != -1) {
+                remaining--;
+            }
+            return retVal;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read != -1) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+}
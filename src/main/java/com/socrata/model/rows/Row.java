@@ -0,0 +1,275 @@
+package com.socrata.model.rows;
+
+import com.socrata.utils.SodaDateCodec;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * One row of an untyped query result.  The field names live in the {@link RowSchema} shared by every row of the
+ * result, so a row only holds a flat array of its values, in the same form Jackson binds them for
+ * {@code Soda2Consumer.HASH_RETURN_TYPE}: Strings, Booleans, Numbers, and Maps and Lists for things like locations.<p/>
+ *
+ * SODA2 sends numbers and dates as strings.  {@link #getDouble(String)}, {@link #getLong(String)} and
+ * {@link #getDate(String)} parse them on first use, and keep the parsed value for the next call.<p/>
+ *
+ * A row is also a read-only {@code Map} from field name to value, for code written against the Map results.
+ * As with those, null fields are left out of the Map.
+ */
+public final class Row extends AbstractMap<String, Object>
+{
+    private final RowSchema schema;
+    private final Object[] values;
+    private final int size;
+
+    //Parsed numbers and dates, only allocated once a typed getter is used
+    private volatile Object[] parsed;
+    private Set<Entry<String, Object>> entrySet;
+
+    /**
+     * Constructor
+     *
+     * @param schema the schema of the row
+     * @param values the values, by ordinal.  This is used as is, not copied.  It may be shorter than the
+     *               schema, in which case the remaining fields are null.
+     */
+    public Row(@Nonnull final RowSchema schema, @Nonnull final Object[] values)
+    {
+        if (values.length > schema.size()) {
+            throw new IllegalArgumentException("Row has " + values.length + " values, but the schema only has " + schema.size() + " fields.");
+        }
+
+        this.schema = schema;
+        this.values = values;
+
+        int count = 0;
+        for (Object value : values) {
+            if (value != null) {
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    /**
+     * The schema of the row.
+     * @return the schema of the row.
+     */
+    public RowSchema getSchema()
+    {
+        return schema;
+    }
+
+    /**
+     * Gets the value at an ordinal of the schema.
+     *
+     * @param ordinal the ordinal of the field
+     * @return the value, or null if the field is null.
+     */
+    public Object get(final int ordinal)
+    {
+        return (ordinal >= 0 && ordinal < values.length) ? values[ordinal] : null;
+    }
+
+    @Override
+    public Object get(final Object name)
+    {
+        return get(schema.ordinal(name));
+    }
+
+    @Override
+    public boolean containsKey(final Object name)
+    {
+        return get(name) != null;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Gets a field as a String.
+     *
+     * @param name the field name
+     * @return the field as a String, or null if the field is null.
+     */
+    public String getString(@Nonnull final String name)
+    {
+        final Object value = get(name);
+        return (value != null) ? value.toString() : null;
+    }
+
+    /**
+     * Gets a numeric field as a Double, parsing it on first use.
+     *
+     * @param name the field name
+     * @return the field as a Double, or null if the field is null.
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public Double getDouble(@Nonnull final String name)
+    {
+        final int ordinal = schema.ordinal(name);
+        final Object value = get(ordinal);
+        if (value == null || value instanceof Double) {
+            return (Double) value;
+        }
+
+        final Object cached = getParsed(ordinal);
+        if (cached instanceof Double) {
+            return (Double) cached;
+        }
+
+        final Double parsedValue = (value instanceof Number) ? ((Number) value).doubleValue() : Double.valueOf(value.toString());
+        setParsed(ordinal, parsedValue);
+        return parsedValue;
+    }
+
+    /**
+     * Gets a numeric field as a Long, parsing it on first use.
+     *
+     * @param name the field name
+     * @return the field as a Long, or null if the field is null.
+     * @throws NumberFormatException if the field is not a whole number.
+     */
+    public Long getLong(@Nonnull final String name)
+    {
+        final int ordinal = schema.ordinal(name);
+        final Object value = get(ordinal);
+        if (value == null || value instanceof Long) {
+            return (Long) value;
+        }
+
+        final Object cached = getParsed(ordinal);
+        if (cached instanceof Long) {
+            return (Long) cached;
+        }
+
+        final Long parsedValue;
+        if (value instanceof Double || value instanceof Float) {
+            throw new NumberFormatException("Field " + name + " is not a whole number: " + value);
+        } else if (value instanceof Number) {
+            parsedValue = ((Number) value).longValue();
+        } else {
+            parsedValue = Long.valueOf(value.toString());
+        }
+        setParsed(ordinal, parsedValue);
+        return parsedValue;
+    }
+
+    /**
+     * Gets a date or timestamp field as a Date, parsing it on first use.  Floating timestamps (without a time zone)
+     * are taken as local time.
+     *
+     * @param name the field name
+     * @return the field as a Date, or null if the field is null.
+     * @throws IllegalArgumentException if the field is not a date.
+     */
+    public Date getDate(@Nonnull final String name)
+    {
+        final int ordinal = schema.ordinal(name);
+        final Object value = get(ordinal);
+        if (value == null) {
+            return null;
+        }
+
+        final Object cached = getParsed(ordinal);
+        if (cached instanceof Date) {
+            return new Date(((Date) cached).getTime());
+        }
+
+        final Date parsedValue;
+        if (value instanceof Number) {
+            parsedValue = new Date(((Number) value).longValue());
+        } else {
+            parsedValue = SodaDateCodec.parseDate(value.toString(), TimeZone.getDefault(), SodaDateCodec.UTC);
+        }
+        setParsed(ordinal, parsedValue);
+        return new Date(parsedValue.getTime());
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, Object>>()
+            {
+                @Override
+                public Iterator<Entry<String, Object>> iterator()
+                {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private Object getParsed(final int ordinal)
+    {
+        final Object[] current = parsed;
+        return (current != null) ? current[ordinal] : null;
+    }
+
+    private void setParsed(final int ordinal, final Object value)
+    {
+        //Racing threads parse the same value, so losing a write only costs parsing it again
+        Object[] current = parsed;
+        if (current == null) {
+            current = new Object[values.length];
+            parsed = current;
+        }
+        current[ordinal] = value;
+    }
+
+    /**
+     * Goes through the non-null fields, in ordinal order.
+     */
+    private final class EntryIterator implements Iterator<Entry<String, Object>>
+    {
+        private int next = advance(0);
+
+        @Override
+        public boolean hasNext()
+        {
+            return next < values.length;
+        }
+
+        @Override
+        public Entry<String, Object> next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(schema.name(next), values[next]);
+            next = advance(next + 1);
+            return entry;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("Rows are read-only.");
+        }
+
+        private int advance(int ordinal)
+        {
+            while (ordinal < values.length && values[ordinal] == null) {
+                ordinal++;
+            }
+            return ordinal;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.socrata.model.rows;
+
+import com.socrata.utils.JacksonObjectMapperProvider;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a SODA2 JSON query response (an array of row objects) into {@link Row}s that share one schema.<p/>
+ *
+ * The schema holds every field that appears in the response, in the order each first appeared.  Values are bound
+ * the same way as for {@code Soda2Consumer.HASH_RETURN_TYPE}, but scalar values are read straight off the parser.
+ */
+public class RowDecoder
+{
+    private static final ObjectMapper MAPPER = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    /**
+     * Decodes a query response.
+     *
+     * @param stream the body of the response.  This is NOT closed.
+     * @return the rows of the result, all sharing one schema
+     * @throws IOException if the response cannot be read.
+     */
+    public List<Row> decode(@Nonnull final InputStream stream) throws IOException
+    {
+        final Map<String, Integer> ordinals = new LinkedHashMap<String, Integer>();
+        final List<Object[]> rowValues = new ArrayList<Object[]>();
+        final JsonParser parser = MAPPER.getJsonFactory().createJsonParser(stream);
+        Object[] scratch = new Object[16];
+
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected the query response to be an array of rows.");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                int width = 0;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    final Object value = readValue(parser, parser.nextToken());
+                    if (value == null) {
+                        continue;
+                    }
+
+                    Integer ordinal = ordinals.get(field);
+                    if (ordinal == null) {
+                        ordinal = ordinals.size();
+                        ordinals.put(field, ordinal);
+                    }
+                    if (ordinal >= scratch.length) {
+                        scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, ordinal + 1));
+                    }
+                    scratch[ordinal] = value;
+                    width = Math.max(width, ordinal + 1);
+                }
+
+                //Each row only keeps as many slots as it needs, the rest of the schema reads as null
+                rowValues.add(Arrays.copyOf(scratch, width));
+                Arrays.fill(scratch, 0, width, null);
+            }
+        } finally {
+            parser.close();
+        }
+
+        final RowSchema schema = new RowSchema(new ArrayList<String>(ordinals.keySet()));
+        final List<Row> rows = new ArrayList<Row>(rowValues.size());
+        for (int i=0; i<rowValues.size(); i++) {
+            rows.add(new Row(schema, rowValues.get(i)));
+            rowValues.set(i, null);
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private static Object readValue(final JsonParser parser, final JsonToken token) throws IOException
+    {
+        switch (token) {
+            case VALUE_NULL:        return null;
+            case VALUE_STRING:      return parser.getText();
+            case VALUE_TRUE:        return Boolean.TRUE;
+            case VALUE_FALSE:       return Boolean.FALSE;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:return parser.getNumberValue();
+            default:                return parser.readValueAs(Object.class);
+        }
+    }
+}
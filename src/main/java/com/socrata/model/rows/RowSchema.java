@@ -0,0 +1,83 @@
+package com.socrata.model.rows;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The field names of a set of rows, and the ordinal each one's value is held at.  One schema is shared by every
+ * row of a result.
+ */
+@Immutable
+public final class RowSchema
+{
+    private final List<String> names;
+    private final Map<String, Integer> ordinals;
+
+    /**
+     * Constructor
+     *
+     * @param names the field names, in ordinal order
+     */
+    public RowSchema(@Nonnull final List<String> names)
+    {
+        this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+        this.ordinals = new HashMap<String, Integer>(names.size() * 2);
+        for (int i=0; i<names.size(); i++) {
+            if (ordinals.put(names.get(i), i) != null) {
+                throw new IllegalArgumentException("Field " + names.get(i) + " is in the schema more than once.");
+            }
+        }
+    }
+
+    /**
+     * The field names, in ordinal order.
+     * @return the field names, in ordinal order.
+     */
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+    /**
+     * The number of fields in the schema.
+     * @return the number of fields in the schema.
+     */
+    public int size()
+    {
+        return names.size();
+    }
+
+    /**
+     * Gets the ordinal of a field.
+     *
+     * @param name the field name
+     * @return the ordinal of the field, or -1 if it isn't in the schema.
+     */
+    public int ordinal(final Object name)
+    {
+        final Integer ordinal = ordinals.get(name);
+        return (ordinal != null) ? ordinal : -1;
+    }
+
+    /**
+     * Gets the name of the field at an ordinal.
+     *
+     * @param ordinal the ordinal of the field
+     * @return the field name
+     */
+    public String name(final int ordinal)
+    {
+        return names.get(ordinal);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RowSchema" + names;
+    }
+}
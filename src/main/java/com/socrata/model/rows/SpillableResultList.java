@@ -0,0 +1,251 @@
+package com.socrata.model.rows;
+
+import com.google.common.io.CountingOutputStream;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A query result that keeps at most a fixed number of rows on the heap, and spills the rest to disk.<p/>
+ *
+ * The first {@code maxHeapRows} rows are decoded as usual.  Every row after that is copied, still encoded as JSON,
+ * to a temp file, with its offset in an index.  Getting one of those rows maps the file (in windows of up to 1GB,
+ * so results larger than 2GB work too) and decodes the row from there.  Spilled rows are decoded each time they
+ * are read, and not kept, so the heap holds only the first rows and 8 bytes of index per spilled row.<p/>
+ *
+ * The list is read-only, and safe to read from several threads.  It should be closed once it is no longer
+ * needed, which deletes the temp file.
+ *
+ * @param <T> the type the rows are decoded as
+ */
+public final class SpillableResultList<T> extends AbstractList<T> implements RandomAccess, Closeable
+{
+    private static final ObjectMapper MAPPER = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    static final int        DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final Class<T> type;
+    private final List<T> heapRows;
+    private final long[] offsets;
+    private final int spilledRows;
+    private final int maxRowLength;
+    private final int windowSize;
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer[] windows;
+
+    /**
+     * Decodes a query response.
+     *
+     * @param stream the body of the response.  This is NOT closed.
+     * @param type the type each row is decoded as
+     * @param maxHeapRows the most rows to keep on the heap
+     * @param <T> the type each row is decoded as
+     * @return the rows of the result.  Close it once it is no longer needed.
+     * @throws IOException if the response cannot be read, or the temp file cannot be written.
+     */
+    public static <T> SpillableResultList<T> decode(@Nonnull final InputStream stream, @Nonnull final Class<T> type, final int maxHeapRows) throws IOException
+    {
+        return decode(stream, type, maxHeapRows, DEFAULT_WINDOW_SIZE);
+    }
+
+    static <T> SpillableResultList<T> decode(final InputStream stream, final Class<T> type, final int maxHeapRows, final int windowSize) throws IOException
+    {
+        if (maxHeapRows < 0) {
+            throw new IllegalArgumentException("The most rows to keep on the heap can't be negative.");
+        }
+
+        final List<T> heapRows = new ArrayList<T>(Math.min(maxHeapRows, 1024));
+        final JsonParser parser = MAPPER.getJsonFactory().createJsonParser(stream);
+        File file = null;
+        CountingOutputStream out = null;
+        JsonGenerator generator = null;
+        long[] offsets = new long[] { 0 };
+        int spilledRows = 0;
+        int maxRowLength = 0;
+
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected the query response to be an array of rows.");
+            }
+
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IOException("The query response ended before the end of the array of rows.");
+                }
+                if (heapRows.size() < maxHeapRows) {
+                    heapRows.add(parser.readValueAs(type));
+                    continue;
+                }
+
+                if (generator == null) {
+                    file = File.createTempFile("soda-result", ".json");
+                    file.deleteOnExit();
+                    out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+                    generator = MAPPER.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+                    generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+                }
+
+                //The row is copied token by token, without binding it
+                generator.copyCurrentStructure(parser);
+                generator.flush();
+
+                final long end = out.getCount();
+                final long length = end - offsets[spilledRows];
+                if (length > Integer.MAX_VALUE - windowSize) {
+                    throw new IOException("Row " + (maxHeapRows + spilledRows) + " is too large to spill to disk.");
+                }
+                maxRowLength = Math.max(maxRowLength, (int) length);
+
+                if (++spilledRows == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length + Math.max(1024, offsets.length >> 1));
+                }
+                offsets[spilledRows] = end;
+            }
+
+            if (generator != null) {
+                generator.close();
+                generator = null;
+            }
+        } catch (IOException e) {
+            if (file != null) {
+                if (generator != null) {
+                    generator.close();
+                }
+                file.delete();
+            }
+            throw e;
+        } finally {
+            parser.close();
+        }
+
+        return new SpillableResultList<T>(type, heapRows, file, Arrays.copyOf(offsets, spilledRows + 1), spilledRows, maxRowLength, windowSize);
+    }
+
+    private SpillableResultList(final Class<T> type, final List<T> heapRows, final File file, final long[] offsets,
+                                final int spilledRows, final int maxRowLength, final int windowSize) throws IOException
+    {
+        this.type = type;
+        this.heapRows = heapRows;
+        this.file = file;
+        this.offsets = offsets;
+        this.spilledRows = spilledRows;
+        this.maxRowLength = maxRowLength;
+        this.windowSize = windowSize;
+
+        if (file != null) {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            windows = new MappedByteBuffer[(int) ((offsets[spilledRows] + windowSize - 1) / windowSize)];
+        }
+    }
+
+    /**
+     * The number of rows that were spilled to disk.
+     * @return the number of rows that were spilled to disk.
+     */
+    public int getSpilledCount()
+    {
+        return spilledRows;
+    }
+
+    @Override
+    public int size()
+    {
+        return heapRows.size() + spilledRows;
+    }
+
+    /**
+     * Gets a row.  Spilled rows are decoded from the temp file each time.
+     *
+     * @param index the 0-based row
+     * @return the row
+     * @throws IllegalStateException if a spilled row is read after the list is closed, or cannot be decoded.
+     */
+    @Override
+    public T get(final int index)
+    {
+        if (index < heapRows.size()) {
+            return heapRows.get(index);
+        }
+
+        final int spilled = index - heapRows.size();
+        if (spilled >= spilledRows) {
+            throw new IndexOutOfBoundsException("Row " + index + " is outside of the " + size() + " rows in the result.");
+        }
+
+        final long start = offsets[spilled];
+        final byte[] encoded = new byte[(int) (offsets[spilled + 1] - start)];
+        final ByteBuffer window = window((int) (start / windowSize)).duplicate();
+        window.position((int) (start % windowSize));
+        window.get(encoded);
+
+        try {
+            return MAPPER.readValue(encoded, 0, encoded.length, type);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to decode spilled row " + index + ".  Error message: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes the temp file.  Rows on the heap can still be read, but reading a spilled row fails.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            windows = null;
+            randomAccessFile.close();
+        } finally {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * Maps a window of the file.  Each window also covers the longest row past its end, so any row starting
+     * in it can be read from it.
+     */
+    private synchronized ByteBuffer window(final int index)
+    {
+        if (windows == null) {
+            throw new IllegalStateException("The result has been closed.");
+        }
+
+        if (windows[index] == null) {
+            final long start = (long) index * windowSize;
+            final long length = Math.min(offsets[spilledRows] - start, (long) windowSize + maxRowLength);
+            try {
+                windows[index] = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to map the spilled rows.  Error message: " + e.getLocalizedMessage(), e);
+            }
+        }
+        return windows[index];
+    }
+}
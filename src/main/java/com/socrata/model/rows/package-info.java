@@ -0,0 +1,6 @@
+/**
+ * Compact rows for untyped query results.  The rows of a result share one {@link com.socrata.model.rows.RowSchema},
+ * and each row only holds its values, rather than a Map with its own keys and hash table.  Results too large for
+ * the heap can be held in a {@link com.socrata.model.rows.SpillableResultList}, which spills rows to disk.
+ **/
+package com.socrata.model.rows;
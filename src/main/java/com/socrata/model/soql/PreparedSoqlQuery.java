@@ -0,0 +1,457 @@
+package com.socrata.model.soql;
+
+import com.google.common.collect.ImmutableList;
+import com.socrata.utils.SodaDateCodec;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.UriBuilder;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A SoQL query with named parameters, parsed and URL encoded once, and then run many times with different values.<p/>
+ *
+ * Parameters are written as <code>${name}</code> anywhere in the query outside of string literals, e.g.
+ * <pre>
+ * PreparedSoqlQuery byType = PreparedSoqlQuery.prepare(new SoqlQueryBuilder()
+ *         .setWhereClause(new ConditionalExpression("primary_type = ${type} and date &gt; ${since}"))
+ *         .build());
+ * consumer.query(resourceId, byType.bind().set("type", "THEFT").set("since", date), Crime.LIST_TYPE);
+ * </pre>
+ * Each value is written as a SoQL literal of its type, so strings are quoted and escaped, and can't change the
+ * meaning of the query.  A collection is written as a comma separated list of literals, for use in
+ * {@code in (${ids})}.  In the full text search clause, values are used as is, since that clause is not SoQL.<p/>
+ *
+ * The constant parts of the query string are encoded when the query is prepared, so binding only encodes the
+ * values.
+ */
+@Immutable
+public final class PreparedSoqlQuery
+{
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    //Each part is either a constant, already encoded String, or the Integer index of a parameter
+    private final ImmutableList<Object> parts;
+    private final ImmutableList<String> names;
+    private final boolean[] literalParameters;
+    private final String template;
+
+    /**
+     * Prepares a query.  Parameters can appear in any of its clauses.
+     *
+     * @param query the query, with <code>${name}</code> for each parameter
+     * @return the prepared query
+     * @throws IllegalArgumentException if a parameter is malformed.
+     */
+    public static PreparedSoqlQuery prepare(@Nonnull final SoqlQuery query)
+    {
+        final Parser parser = new Parser();
+        if (query.selectClause != null) {
+            parser.clause(SoqlClauses.select.urlParam, StringUtils.join(query.selectClause, ", "), true);
+        }
+        if (query.whereClause != null) {
+            parser.clause(SoqlClauses.where.urlParam, query.whereClause.toString(), true);
+        }
+        if (query.groupByClause != null) {
+            parser.clause(SoqlClauses.groupBy.urlParam, StringUtils.join(query.groupByClause, ", "), true);
+        }
+        if (query.havingClause != null) {
+            parser.clause(SoqlClauses.having.urlParam, query.havingClause.toString(), true);
+        }
+        if (query.fullTextSearchClause != null) {
+            parser.clause(SoqlClauses.fullText.urlParam, query.fullTextSearchClause, false);
+        }
+        if (query.orderByClause != null) {
+            parser.clause(SoqlClauses.orderBy.urlParam, StringUtils.join(query.orderByClause, ", "), true);
+        }
+        if (query.offset != null) {
+            parser.clause(SoqlClauses.offset.urlParam, query.offset.toString(), true);
+        }
+        if (query.limit != null) {
+            parser.clause(SoqlClauses.limit.urlParam, query.limit.toString(), true);
+        }
+        return parser.build(query.toString());
+    }
+
+    /**
+     * Prepares a full SoQL query string, sent as {@code $query}.
+     *
+     * @param soql the query, with <code>${name}</code> for each parameter
+     * @return the prepared query
+     * @throws IllegalArgumentException if a parameter is malformed.
+     */
+    public static PreparedSoqlQuery prepare(@Nonnull final String soql)
+    {
+        final Parser parser = new Parser();
+        parser.clause("$query", soql, true);
+        return parser.build(soql);
+    }
+
+    private PreparedSoqlQuery(final List<Object> parts, final List<String> names, final boolean[] literalParameters, final String template)
+    {
+        this.parts = ImmutableList.copyOf(parts);
+        this.names = ImmutableList.copyOf(names);
+        this.literalParameters = literalParameters;
+        this.template = template;
+    }
+
+    /**
+     * The names of the parameters, in the order they first appear.
+     * @return the names of the parameters
+     */
+    public List<String> getParameterNames()
+    {
+        return names;
+    }
+
+    /**
+     * Starts binding values to the parameters, for one run of the query.
+     * @return the bindings, with no values set
+     */
+    public Bindings bind()
+    {
+        return new Bindings();
+    }
+
+    @Override
+    public String toString()
+    {
+        return template;
+    }
+
+    /**
+     * Writes a value as a SoQL literal.
+     */
+    static String toLiteral(@Nullable final Object value)
+    {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof String || value instanceof Character) {
+            return SoqlLiterals.quote(value.toString());
+        } else if (value instanceof Boolean) {
+            return value.toString();
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof BigInteger) {
+            return value.toString();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        } else if (value instanceof Double || value instanceof Float) {
+            final double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new IllegalArgumentException("SoQL has no literal for " + number);
+            }
+            return BigDecimal.valueOf(number).stripTrailingZeros().toPlainString();
+        } else if (value instanceof Date) {
+            //Dates are written as floating timestamps in local time, the same as they are read
+            final char[] text = new char[SodaDateCodec.FLOATING_LENGTH];
+            final int length = SodaDateCodec.formatFloating(((Date) value).getTime(), TimeZone.getDefault(), text, 0);
+            return SoqlLiterals.quote(new String(text, 0, length));
+        } else if (value instanceof Collection) {
+            final Collection<?> values = (Collection<?>) value;
+            if (values.isEmpty()) {
+                throw new IllegalArgumentException("SoQL has no literal for an empty list.");
+            }
+            final StringBuilder builder = new StringBuilder();
+            for (Object element : values) {
+                if (element instanceof Collection) {
+                    throw new IllegalArgumentException("SoQL has no literal for a nested list.");
+                }
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(toLiteral(element));
+            }
+            return builder.toString();
+        }
+        throw new IllegalArgumentException("SoQL has no literal for a " + value.getClass().getName());
+    }
+
+    /**
+     * Percent encodes a string for a query parameter value.
+     */
+    static void encode(final StringBuilder out, final String value)
+    {
+        final byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (byte b : bytes) {
+            final int c = b & 0xFF;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~') {
+                out.append((char) c);
+            } else {
+                out.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+    }
+
+    /**
+     * Values for the parameters of a prepared query.  Bindings are not thread safe, but each run of a query
+     * can have its own, and a prepared query can be bound on any number of threads at once.
+     */
+    public final class Bindings
+    {
+        private final String[] encoded = new String[names.size()];
+
+        private Bindings()
+        {
+        }
+
+        /**
+         * Sets a string parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value, written as a quoted string literal
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, @Nullable final String value)
+        {
+            return setValue(name, value);
+        }
+
+        /**
+         * Sets a number parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, final long value)
+        {
+            return setValue(name, value);
+        }
+
+        /**
+         * Sets a number parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value.  It must be finite.
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, final double value)
+        {
+            return setValue(name, value);
+        }
+
+        /**
+         * Sets a number parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, @Nullable final BigDecimal value)
+        {
+            return setValue(name, value);
+        }
+
+        /**
+         * Sets a boolean parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, final boolean value)
+        {
+            return setValue(name, value);
+        }
+
+        /**
+         * Sets a timestamp parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value, written as a floating timestamp in local time
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, @Nullable final Date value)
+        {
+            return setValue(name, value);
+        }
+
+        /**
+         * Sets a list parameter, e.g. for {@code in (${ids})}.
+         *
+         * @param name the name of the parameter
+         * @param values the values, each written as a literal of its type.  It can't be empty.
+         * @return these bindings
+         */
+        public Bindings set(@Nonnull final String name, @Nonnull final Collection<?> values)
+        {
+            return setValue(name, values);
+        }
+
+        private Bindings setValue(final String name, final Object value)
+        {
+            final int index = names.indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("The query has no parameter " + name);
+            }
+
+            final String text;
+            if (literalParameters[index]) {
+                text = toLiteral(value);
+            } else if (value == null || value instanceof Collection) {
+                throw new IllegalArgumentException("Parameter " + name + " in the search clause must be a single value.");
+            } else {
+                //The search clause isn't SoQL, so values are used as is
+                text = (value instanceof Date) ? toLiteral(value).replace("'", "") : String.valueOf(value);
+            }
+
+            final StringBuilder builder = new StringBuilder(text.length() + 16);
+            encode(builder, text);
+            encoded[index] = builder.toString();
+            return this;
+        }
+
+        /**
+         * Builds the encoded query string, without the leading "?".
+         *
+         * @return the encoded query string
+         * @throws IllegalStateException if a parameter hasn't been set.
+         */
+        public String toQueryString()
+        {
+            int length = 0;
+            for (Object part : parts) {
+                length += (part instanceof String) ? ((String) part).length() : encodedValue((Integer) part).length();
+            }
+
+            final StringBuilder builder = new StringBuilder(length);
+            for (Object part : parts) {
+                builder.append((part instanceof String) ? (String) part : encodedValue((Integer) part));
+            }
+            return builder.toString();
+        }
+
+        /**
+         * Builds the URI of the query against a resource.
+         *
+         * @param baseUri the URI of the resource, without a query string
+         * @return the URI of the query
+         * @throws IllegalStateException if a parameter hasn't been set.
+         */
+        public URI toSodaUri(@Nonnull final UriBuilder baseUri)
+        {
+            return URI.create(baseUri.build().toString() + "?" + toQueryString());
+        }
+
+        private String encodedValue(final int index)
+        {
+            if (encoded[index] == null) {
+                throw new IllegalStateException("Parameter " + names.get(index) + " has not been set.");
+            }
+            return encoded[index];
+        }
+    }
+
+    /**
+     * Splits clauses into constant parts and parameters.
+     */
+    private static final class Parser
+    {
+        private final List<Object> parts = new ArrayList<Object>();
+        private final Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+        private final List<Boolean> literal = new ArrayList<Boolean>();
+        private final StringBuilder constant = new StringBuilder();
+
+        void clause(final String urlParam, final String text, final boolean soql)
+        {
+            if (!parts.isEmpty() || constant.length() > 0) {
+                constant.append('&');
+            }
+            constant.append(urlParam).append('=');
+
+            boolean inLiteral = false;
+            int start = 0;
+            int i = 0;
+            while (i < text.length()) {
+                final char c = text.charAt(i);
+                if (soql && c == '\'') {
+                    inLiteral = !inLiteral;
+                    i++;
+                } else if (!inLiteral && c == '$' && i + 1 < text.length() && text.charAt(i + 1) == '{') {
+                    final int end = text.indexOf('}', i + 2);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated parameter at " + i + " in: " + text);
+                    }
+                    final String name = text.substring(i + 2, end);
+                    if (!isName(name)) {
+                        throw new IllegalArgumentException("Bad parameter name \"" + name + "\" in: " + text);
+                    }
+
+                    encode(constant, text.substring(start, i));
+                    parameter(name, soql);
+                    i = end + 1;
+                    start = i;
+                } else {
+                    i++;
+                }
+            }
+            if (inLiteral) {
+                throw new IllegalArgumentException("Unterminated string literal in: " + text);
+            }
+            encode(constant, text.substring(start));
+        }
+
+        PreparedSoqlQuery build(final String template)
+        {
+            flush();
+            final boolean[] literalParameters = new boolean[literal.size()];
+            for (int i=0; i<literalParameters.length; i++) {
+                literalParameters[i] = literal.get(i);
+            }
+            return new PreparedSoqlQuery(parts, new ArrayList<String>(indexes.keySet()), literalParameters, template);
+        }
+
+        private void parameter(final String name, final boolean soql)
+        {
+            Integer index = indexes.get(name);
+            if (index == null) {
+                index = indexes.size();
+                indexes.put(name, index);
+                literal.add(soql);
+            } else if (literal.get(index) != soql) {
+                throw new IllegalArgumentException("Parameter " + name + " can't be used both in and out of the search clause.");
+            }
+
+            flush();
+            parts.add(index);
+        }
+
+        private void flush()
+        {
+            if (constant.length() > 0) {
+                parts.add(constant.toString());
+                constant.setLength(0);
+            }
+        }
+
+        private static boolean isName(final String name)
+        {
+            if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) {
+                return false;
+            }
+            for (int i=1; i<name.length(); i++) {
+                if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.socrata.model.soql;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Helpers for putting values into SoQL as literals, so they can't change the meaning of the query they are in.
+ */
+public final class SoqlLiterals
+{
+    private SoqlLiterals()
+    {
+    }
+
+    /**
+     * Quotes a string as a SoQL string literal.  Single quotes in the string are doubled.
+     *
+     * @param value the string to quote
+     * @return the string literal, e.g. {@code 'O''Hare'}
+     */
+    public static String quote(@Nonnull final String value)
+    {
+        return appendQuoted(new StringBuilder(value.length() + 2), value).toString();
+    }
+
+    /**
+     * Appends a string to a builder as a SoQL string literal.  Single quotes in the string are doubled.
+     *
+     * @param builder the builder to append to
+     * @param value the string to quote
+     * @return the builder
+     */
+    public static StringBuilder appendQuoted(@Nonnull final StringBuilder builder, @Nonnull final String value)
+    {
+        builder.append('\'');
+        for (int i=0; i<value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\'') {
+                builder.append('\'');
+            }
+            builder.append(c);
+        }
+        return builder.append('\'');
+    }
+}
@@ -0,0 +1,94 @@
+package com.socrata.utils;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of fixed size ByteBuffers, so transfer loops don't allocate (and for direct
+ * buffers, don't have to wait on the GC to free) a new buffer for every call.
+ *
+ * Buffers handed out by {@link #acquire()} should be given back with {@link #release(ByteBuffer)}.  If the pool
+ * is empty, a new buffer is allocated; if it is full, released buffers are simply dropped.
+ */
+public final class BufferPool
+{
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 16;
+
+    /**
+     * The shared pool of direct buffers used for file transfers.
+     */
+    public static final BufferPool DIRECT = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED, true);
+
+    /**
+     * The shared pool of heap buffers used for encoding request bodies.
+     */
+    public static final BufferPool HEAP = new BufferPool(64 * 1024, 4 * DEFAULT_MAX_POOLED, false);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+
+    /**
+     * Constructor
+     *
+     * @param bufferSize the capacity of each buffer in the pool
+     * @param maxPooled the maximum number of idle buffers to keep around
+     * @param direct {@code true} if the pool should hand out direct buffers
+     */
+    public BufferPool(final int bufferSize, final int maxPooled, final boolean direct)
+    {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * Gets a cleared buffer from the pool, or allocates a new one if the pool is empty.
+     *
+     * @return a cleared buffer of {@link #getBufferSize()} bytes.
+     */
+    @Nonnull
+    public ByteBuffer acquire()
+    {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer buffer to return.  Buffers that did not come from this pool are ignored.
+     */
+    public void release(final ByteBuffer buffer)
+    {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * The capacity of the buffers in this pool.
+     * @return the capacity of the buffers in this pool.
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,364 @@
+package com.socrata.utils;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * A compact index of the rows last sent to a dataset: a 64 bit hash of each row's identifier, mapped to a
+ * 64 bit hash of the row's contents.<p/>
+ *
+ * The index is stored in a file of records, each holding {keyHash, contentHash, keyLength, keyBytes}.  When it is
+ * loaded, the hashes are put in an open-addressing hash table in a direct buffer, so even tens of millions of rows
+ * don't put any pressure on the Java heap.  The key bytes stay on disk, and are read back to confirm that a row
+ * whose key hash matches really is the same row, and for rows that turn out to be missing from a new snapshot
+ * (i.e. rows that need to be deleted).  Keys whose hashes collide are kept as separate entries.<p/>
+ *
+ * New indexes are written with a {@link Writer}, which writes to a temp file and only replaces the old index when
+ * it is committed.
+ */
+public final class FingerprintIndex implements Closeable
+{
+    public static final int     ABSENT = 0;
+    public static final int     CHANGED = 1;
+    public static final int     UNCHANGED = 2;
+
+    private static final int    MAGIC = 0x534f4649;  // "SOFI"
+    private static final int    HEADER_SIZE = 4 + 8;
+    private static final int    RECORD_HEADER_SIZE = 8 + 8 + 4;
+    private static final int    SLOT_SIZE = 8 * 3;
+    private static final int    MAX_SLOTS = Integer.MAX_VALUE / SLOT_SIZE;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final RandomAccessFile file;
+    private final ByteBuffer table;
+    private final int mask;
+    private final int size;
+    private final BitSet seen;
+
+    /**
+     * Loads an index from a file.
+     *
+     * @param file the index file.  If it doesn't exist, the index is empty.
+     * @return the loaded index
+     * @throws IOException if the file cannot be read, or isn't an index.
+     */
+    public static FingerprintIndex load(@Nonnull final File file) throws IOException
+    {
+        if (!file.exists()) {
+            return new FingerprintIndex(null, 0, allocateTable(0));
+        }
+
+        final RandomAccessFile keys = new RandomAccessFile(file, "r");
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        boolean loaded = false;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(GeneralUtils.bestFilePath(file) + " is not a fingerprint index.");
+            }
+
+            final long count = in.readLong();
+            final ByteBuffer table = allocateTable(count);
+            if (table == null) {
+                throw new IOException(GeneralUtils.bestFilePath(file) + " has too many rows to load.");
+            }
+
+            final int mask = table.capacity() / SLOT_SIZE - 1;
+            int size = 0;
+            long offset = HEADER_SIZE;
+            for (long i=0; i<count; i++) {
+                final long keyHash = in.readLong();
+                final long contentHash = in.readLong();
+                final byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+
+                final int slot = findSlot(table, mask, keys.getChannel(), key, keyHash);
+                if (table.getLong(slot * SLOT_SIZE + 16) == 0) {
+                    size++;
+                }
+                table.putLong(slot * SLOT_SIZE, keyHash);
+                table.putLong(slot * SLOT_SIZE + 8, contentHash);
+                table.putLong(slot * SLOT_SIZE + 16, offset + 1);
+                offset += RECORD_HEADER_SIZE + key.length;
+            }
+
+            loaded = true;
+            return new FingerprintIndex(keys, size, table);
+        } catch (EOFException e) {
+            throw new IOException(GeneralUtils.bestFilePath(file) + " is truncated.");
+        } finally {
+            in.close();
+            if (!loaded) {
+                keys.close();
+            }
+        }
+    }
+
+    /**
+     * Starts writing a new index.
+     *
+     * @param file the file the index will be committed to.  It is not touched until the writer is committed.
+     * @return the writer
+     * @throws IOException if the temp file cannot be created.
+     */
+    public static Writer newWriter(@Nonnull final File file) throws IOException
+    {
+        return new Writer(file);
+    }
+
+    /**
+     * Hashes a row identifier.
+     *
+     * @param key the row identifier, as bytes
+     * @return the 64 bit hash
+     */
+    public static long hashKey(@Nonnull final byte[] key)
+    {
+        return HASH.hashBytes(key).asLong();
+    }
+
+    /**
+     * Hashes the contents of a row.  The bytes should be a canonical form of the row, so the same contents always
+     * produce the same hash.
+     *
+     * @param content the canonical contents of the row
+     * @return the 64 bit hash
+     */
+    public static long hashContent(@Nonnull final byte[] content)
+    {
+        return HASH.hashBytes(content).asLong();
+    }
+
+    private FingerprintIndex(final RandomAccessFile file, final int size, final ByteBuffer table)
+    {
+        this.file = file;
+        this.size = size;
+        this.table = table;
+        this.mask = table.capacity() / SLOT_SIZE - 1;
+        this.seen = new BitSet(mask + 1);
+    }
+
+    /**
+     * The number of rows in the index.
+     * @return the number of rows in the index.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks a row of a new snapshot against the index, and marks it as seen.
+     *
+     * @param key the row identifier, as bytes
+     * @param keyHash hash of the row identifier
+     * @param contentHash hash of the row's contents
+     * @return {@link #ABSENT} if the row is not in the index, {@link #CHANGED} if it is there with different contents,
+     * or {@link #UNCHANGED}.
+     */
+    public int check(@Nonnull final byte[] key, final long keyHash, final long contentHash)
+    {
+        final int slot;
+        try {
+            slot = findSlot(table, mask, file == null ? null : file.getChannel(), key, keyHash);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read a row identifier from the fingerprint index.", e);
+        }
+        if (table.getLong(slot * SLOT_SIZE + 16) == 0) {
+            return ABSENT;
+        }
+
+        seen.set(slot);
+        return table.getLong(slot * SLOT_SIZE + 8) == contentHash ? UNCHANGED : CHANGED;
+    }
+
+    /**
+     * The identifiers of the rows in the index that have not been passed to {@link #check(byte[], long, long)}.  These are the
+     * rows that are missing from the new snapshot.
+     *
+     * @return iterator over the missing row identifiers, as bytes
+     */
+    public Iterator<byte[]> unseenKeys()
+    {
+        return new AbstractIterator<byte[]>()
+        {
+            int slot = -1;
+
+            @Override
+            protected byte[] computeNext()
+            {
+                while (++slot <= mask) {
+                    final long offset = table.getLong(slot * SLOT_SIZE + 16);
+                    if (offset != 0 && !seen.get(slot)) {
+                        return readKey(offset - 1);
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private byte[] readKey(final long offset)
+    {
+        try {
+            return readKey(file.getChannel(), offset);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read a row identifier from the fingerprint index.", e);
+        }
+    }
+
+    private static byte[] readKey(final FileChannel channel, final long offset) throws IOException
+    {
+        final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        readFully(channel, lengthBuffer, offset + 16);
+
+        final ByteBuffer key = ByteBuffer.allocate(lengthBuffer.getInt(0));
+        readFully(channel, key, offset + RECORD_HEADER_SIZE);
+        return key.array();
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Allocates a table with room for a number of rows, keeping the load factor at or below 3/4.
+     *
+     * @return the table, or {@code null} if that many rows won't fit in a single buffer.
+     */
+    private static ByteBuffer allocateTable(final long count)
+    {
+        int slots = 16;
+        while (slots < count * 4 / 3 + 1) {
+            if (slots > MAX_SLOTS / 2) {
+                return null;
+            }
+            slots <<= 1;
+        }
+        return ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot it should go in.  Slots with the same key hash are only a
+     * match if the key stored in the index file is the same as well.
+     */
+    private static int findSlot(final ByteBuffer table, final int mask, final FileChannel keys, final byte[] key, final long keyHash) throws IOException
+    {
+        int slot = (int) (keyHash ^ (keyHash >>> 32)) & mask;
+        long offset;
+        while ((offset = table.getLong(slot * SLOT_SIZE + 16)) != 0) {
+            if (table.getLong(slot * SLOT_SIZE) == keyHash && Arrays.equals(key, readKey(keys, offset - 1))) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Writes a new index to a temp file next to its target, and moves it into place when it is committed.
+     */
+    public static final class Writer implements Closeable
+    {
+        private final File target;
+        private final File temp;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private long count;
+        private boolean finished;
+
+        private Writer(final File target) throws IOException
+        {
+            this.target = target;
+            this.temp = new File(target.getPath() + ".tmp");
+            this.fileOut = new FileOutputStream(temp);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+
+            out.writeInt(MAGIC);
+            out.writeLong(0);
+        }
+
+        /**
+         * Adds a row to the new index.
+         *
+         * @param key the row identifier, as bytes
+         * @param keyHash hash of the row identifier, from {@link FingerprintIndex#hashKey(byte[])}
+         * @param contentHash hash of the row's contents, from {@link FingerprintIndex#hashContent(byte[])}
+         * @throws IOException if the temp file cannot be written.
+         */
+        public void add(@Nonnull final byte[] key, final long keyHash, final long contentHash) throws IOException
+        {
+            out.writeLong(keyHash);
+            out.writeLong(contentHash);
+            out.writeInt(key.length);
+            out.write(key);
+            count++;
+        }
+
+        /**
+         * Syncs the new index to disk and moves it over the old one.
+         *
+         * @throws IOException if the index cannot be written or moved into place.
+         */
+        public void commit() throws IOException
+        {
+            out.flush();
+            fileOut.getChannel().write((ByteBuffer) ByteBuffer.allocate(8).putLong(0, count).rewind(), 4);
+            fileOut.getChannel().force(true);
+            out.close();
+            finished = true;
+
+            if (!temp.renameTo(target)) {
+                //Some platforms won't rename over an existing file
+                if (!target.delete() || !temp.renameTo(target)) {
+                    throw new IOException("Unable to move " + GeneralUtils.bestFilePath(temp) + " to " + GeneralUtils.bestFilePath(target));
+                }
+            }
+        }
+
+        /**
+         * Throws away the new index, leaving the old one alone.  Does nothing if the writer was committed.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            if (!finished) {
+                finished = true;
+                out.close();
+                temp.delete();
+            }
+        }
+    }
+}
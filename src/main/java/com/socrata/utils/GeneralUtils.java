@@ -37,6 +37,22 @@ public class GeneralUtils
         }
     }
 
+    /**
+     * Closes a resource, while ignoring any exceptions.
+     *
+     * @param closeable resource to close
+     */
+    public static void closeQuietly(final Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+
+        } catch (IOException ioe) {
+            //Ignore
+        }
+    }
+
     /**
      * Returns the canonical path for a file, but if there is an
      * IO exception while trying to get it, will return an absolute path.
@@ -1,17 +1,29 @@
 package com.socrata.utils;
 
+import com.socrata.model.Location;
+import com.socrata.utils.bindings.GeneratedBindingsModule;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.DeserializationContext;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ext.JodaDeserializers;
+import org.codehaus.jackson.map.module.SimpleModule;
 import org.codehaus.jackson.map.util.StdDateFormat;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
 
 import javax.annotation.concurrent.Immutable;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.FieldPosition;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -20,24 +32,64 @@ import java.util.TimeZone;
  * This is required to get "slightly" custom date parsing.  The default Jackson behaviour will
  * turn a floating timestamp <code>2012-06-20T07:00:00</code> into Zulu time <code>2012-06-20T07:00:00<b>Z</b></code>
  *
- * This leads to problems if transforming into a Date or DateTime (although Joda's LocalDateTime would work fine)
+ * This leads to problems if transforming into a Date or DateTime (although Joda's LocalDateTime would work fine)<p/>
+ *
+ * Dates and the Joda DateTime, LocalDateTime and LocalDate types are parsed with the {@link SodaDateCodec}, and
+ * locations are read and written with the {@link LocationCodec}.  Dates read floating timestamps in local time,
+ * while DateTimes read them as UTC, as they always have.  Plain dates, with no time, are midnight UTC for both.
+ * Classes with bindings generated for {@link com.socrata.utils.bindings.GenerateBinding} are bound with those.
  */
 @Immutable
 @Provider
 public class JacksonObjectMapperProvider implements ContextResolver<ObjectMapper>
 {
+    /**
+     * @deprecated no longer used; dates are written with the {@link SodaDateCodec}.  SimpleDateFormat isn't thread
+     * safe, so this should only be used through a clone.
+     */
+    @Deprecated
     protected static final SimpleDateFormat SOCRATA_WRITING_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
+    /**
+     * @deprecated no longer used; floating timestamps are parsed with the {@link SodaDateCodec}.
+     */
+    @Deprecated
     protected static final SimpleDateFormat SOCRATA_FLOATING_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    /**
+     * @deprecated no longer used; floating timestamps are parsed with the {@link SodaDateCodec}.
+     */
+    @Deprecated
     protected static final SimpleDateFormat SOCRATA_FLOATING_FORMAT_MILLIS = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
 
+    /**
+     * @deprecated no longer used; floating timestamps are parsed with the {@link SodaDateCodec}.
+     */
+    @Deprecated
     protected static final DateFormat[] SPECIAL_DATE_LIST = new DateFormat[] {SOCRATA_FLOATING_FORMAT_MILLIS, SOCRATA_FLOATING_FORMAT} ;
+
+    private static final TimeZone        UTC = TimeZone.getTimeZone("UTC");
+
     //  An ObjectMapper with our custom date formatting
     private static final ObjectMapper    OBJECT_MAPPER = new ObjectMapper();
 
     static
     {
         OBJECT_MAPPER.setDateFormat(new SocrataDateFormat());
+
+        final SimpleModule jodaModule = new SimpleModule("SodaJodaDates", new Version(1, 0, 0, null));
+        jodaModule.addDeserializer(DateTime.class, new SodaDateTimeDeserializer());
+        jodaModule.addDeserializer(LocalDateTime.class, new SodaLocalDateTimeDeserializer());
+        jodaModule.addDeserializer(LocalDate.class, new SodaLocalDateDeserializer());
+        OBJECT_MAPPER.registerModule(jodaModule);
+
+        final SimpleModule locationModule = new SimpleModule("SodaLocations", new Version(1, 0, 0, null));
+        locationModule.addDeserializer(Location.class, new LocationCodec.Deserializer());
+        locationModule.addSerializer(Location.class, new LocationCodec.Serializer());
+        OBJECT_MAPPER.registerModule(locationModule);
+
+        //Classes with generated bindings are read and written by those, rather than by reflection
+        OBJECT_MAPPER.registerModule(GeneratedBindingsModule.load());
     }
 
 
@@ -52,23 +104,27 @@ public class JacksonObjectMapperProvider implements ContextResolver<ObjectMapper
      * A class that special cases ISO 8601 dates, and assumes that no "Z" at
      * the end means that it should be translated as local time instead of Zulu time.
      *
-     * This makes the Socrata floating date types work.
+     * This makes the Socrata floating date types work.  SODA timestamps are parsed and written with the
+     * {@link SodaDateCodec}, anything else is left to StdDateFormat.  Plain dates, with no time, are midnight UTC,
+     * the same as StdDateFormat reads them.
      */
     protected static class SocrataDateFormat extends StdDateFormat
     {
-
-        //Although, SimpleDateFormat is not thread safe, the entire SocrataDateFormat should be getting cloned by Jackson.
-        final SimpleDateFormat SOCRATA_WRITE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-        final SimpleDateFormat SOCRATA_FLOATING_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        final SimpleDateFormat SOCRATA_FLOATING_FORMAT_MILLIS = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
-
-        final DateFormat[] SPECIAL_DATE_LIST = new DateFormat[] {SOCRATA_FLOATING_FORMAT_MILLIS, SOCRATA_FLOATING_FORMAT} ;
-
+        private final TimeZone localTimezone;
 
         public SocrataDateFormat()
         {
-            final TimeZone localTimezone = TimeZone.getDefault();
-            SOCRATA_WRITE_FORMAT.setTimeZone(localTimezone);
+            localTimezone = TimeZone.getDefault();
+        }
+
+        @Override
+        public Date parse(String dateStr, ParsePosition pos)
+        {
+            final Date retVal = parseAsSodaTimestamp(dateStr, pos);
+            if (retVal != null) {
+                return retVal;
+            }
+            return super.parse(dateStr, pos);
         }
 
         /**
@@ -82,7 +138,7 @@ public class JacksonObjectMapperProvider implements ContextResolver<ObjectMapper
         @Override
         protected Date parseAsISO8601(String dateStr, ParsePosition pos)
         {
-            final Date retVal = parseAsFloatingISO8601(dateStr, pos);
+            final Date retVal = parseAsSodaTimestamp(dateStr, pos);
             if (retVal != null) {
                 return retVal;
             }
@@ -92,35 +148,27 @@ public class JacksonObjectMapperProvider implements ContextResolver<ObjectMapper
         @Override
         public StringBuffer format(Date date, StringBuffer toAppendTo, FieldPosition fieldPosition)
         {
-            return SOCRATA_WRITING_FORMAT.format(date, toAppendTo, fieldPosition);
+            SodaDateCodec.format(date.getTime(), localTimezone, toAppendTo);
+            return toAppendTo;
         }
 
         /**
-         * Parses an ISO8601 that does not contain a Z as a floating type.
+         * Parses the rest of the string as a SODA timestamp, with floating timestamps in local time.
          *
          * @param dateString the date string to parse
-         * @param pos the position to start parsin gat.
-         * @return
+         * @param pos the position to start parsing at.
+         * @return the Date, or null if the rest of the string isn't a SODA timestamp.
          */
-        private Date parseAsFloatingISO8601(final String dateString, final ParsePosition pos)
+        private Date parseAsSodaTimestamp(final String dateString, final ParsePosition pos)
         {
-            final int len = dateString.length();
-            final char c = dateString.charAt(len-1);
-            if (c != 'z' && c != 'Z') {
-
-                for (DateFormat format : SPECIAL_DATE_LIST)
-                {
-                    final ParsePosition testPos = new ParsePosition(pos.getIndex());
-                    final DateFormat safeFormat = (DateFormat) format.clone();
-                    final Date retVal = safeFormat.parse(dateString, testPos);
-
-                    if (retVal != null && testPos.getIndex()==len) {
-                        pos.setIndex(testPos.getIndex());
-                        return retVal;
-                    }
-                }
+            final int start = pos.getIndex();
+            final long millis = SodaDateCodec.parse(dateString, start, dateString.length() - start, localTimezone, SodaDateCodec.UTC);
+            if (millis == SodaDateCodec.INVALID) {
+                return null;
             }
-            return null;
+
+            pos.setIndex(dateString.length());
+            return new Date(millis);
         }
 
         /**
@@ -135,4 +183,72 @@ public class JacksonObjectMapperProvider implements ContextResolver<ObjectMapper
         }
     }
 
+    /**
+     * Reads DateTimes from SODA timestamps.  Floating timestamps and plain dates are read as UTC, as Joda always has,
+     * unlike Dates, which read floating timestamps in local time.
+     */
+    private static class SodaDateTimeDeserializer extends JodaDeserializers.DateTimeDeserializer<DateTime>
+    {
+        SodaDateTimeDeserializer()
+        {
+            super(DateTime.class);
+        }
+
+        @Override
+        public DateTime deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException
+        {
+            if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                final long millis = parseText(jp, UTC);
+                if (millis != SodaDateCodec.INVALID) {
+                    return new DateTime(millis, DateTimeZone.UTC);
+                }
+            }
+            return super.deserialize(jp, ctxt);
+        }
+    }
+
+    /**
+     * Reads LocalDateTimes from SODA timestamps.
+     */
+    private static class SodaLocalDateTimeDeserializer extends JodaDeserializers.LocalDateTimeDeserializer
+    {
+        @Override
+        public LocalDateTime deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException
+        {
+            if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                final long millis = parseText(jp, UTC);
+                if (millis != SodaDateCodec.INVALID) {
+                    return new LocalDateTime(millis, DateTimeZone.UTC);
+                }
+            }
+            return super.deserialize(jp, ctxt);
+        }
+    }
+
+    /**
+     * Reads LocalDates from SODA timestamps.
+     */
+    private static class SodaLocalDateDeserializer extends JodaDeserializers.LocalDateDeserializer
+    {
+        @Override
+        public LocalDate deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException
+        {
+            if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                final long millis = parseText(jp, UTC);
+                if (millis != SodaDateCodec.INVALID) {
+                    return new LocalDate(millis, DateTimeZone.UTC);
+                }
+            }
+            return super.deserialize(jp, ctxt);
+        }
+    }
+
+    /**
+     * Parses the current string straight from the parser's buffer.
+     */
+    private static long parseText(final JsonParser jp, final TimeZone floatingZone) throws IOException
+    {
+        return SodaDateCodec.parse(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength(), floatingZone);
+    }
+
 }
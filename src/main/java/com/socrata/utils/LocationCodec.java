@@ -0,0 +1,581 @@
+package com.socrata.utils;
+
+import com.socrata.model.Address;
+import com.socrata.model.Location;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Streaming reader and writer for SODA location values.<p/>
+ *
+ * SODA sends a location as an object with the latitude and longitude as strings, and the address as a JSON
+ * document inside a string:
+ * <pre>
+ * {"latitude":"41.8","longitude":"-87.6","human_address":"{\"address\":\"\",\"city\":\"Chicago\",...}"}
+ * </pre>
+ * Rather than binding the {@code human_address} string and then parsing it again, the nested document is scanned
+ * straight out of the parser's character buffer, and the coordinates are parsed from the buffer without creating
+ * Strings.  The address can also be skipped entirely, with {@link CoordinatesDeserializer}, or the coordinates read
+ * into primitives with {@link #readCoordinates(JsonParser, double[])}.<p/>
+ *
+ * Locations are written the same way, with the address as a JSON string.  The {@link JacksonObjectMapperProvider}
+ * uses this codec for every {@link Location}.
+ */
+public final class LocationCodec
+{
+    public static final String  LATITUDE = "latitude";
+    public static final String  LONGITUDE = "longitude";
+    public static final String  HUMAN_ADDRESS = "human_address";
+
+    private static final String[] ADDRESS_FIELDS = { "address", "city", "state", "zip" };
+
+    //Powers of ten that are exact as doubles
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i=1; i<POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private LocationCodec()
+    {
+    }
+
+    /**
+     * Reads a location.  The parser must be on the start of the location object (or a null), and is left on its end.
+     *
+     * @param parser the parser to read from
+     * @param withAddress {@code false} to skip the address without parsing it
+     * @return the location, or {@code null} if the value is null.
+     * @throws IOException if the value isn't a valid location.
+     */
+    public static Location read(final JsonParser parser, final boolean withAddress) throws IOException
+    {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a location object, but got " + token, parser.getCurrentLocation());
+        }
+
+        Double latitude = null;
+        Double longitude = null;
+        Address address = null;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            token = parser.nextToken();
+            if (LATITUDE.equals(field)) {
+                latitude = readNumber(parser, token);
+            } else if (LONGITUDE.equals(field)) {
+                longitude = readNumber(parser, token);
+            } else if (withAddress && HUMAN_ADDRESS.equals(field)) {
+                address = readAddress(parser, token);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new Location(longitude, latitude, address);
+    }
+
+    /**
+     * Reads only the coordinates of a location, skipping everything else, including the address.  The parser must
+     * be on the start of the location object, and is left on its end.
+     *
+     * @param parser the parser to read from
+     * @param latitudeLongitude receives the latitude at index 0 and the longitude at index 1, each {@code NaN} if
+     *                          it is missing.
+     * @return {@code true} if the location had both coordinates.
+     * @throws IOException if the value isn't a valid location.
+     */
+    public static boolean readCoordinates(final JsonParser parser, final double[] latitudeLongitude) throws IOException
+    {
+        latitudeLongitude[0] = Double.NaN;
+        latitudeLongitude[1] = Double.NaN;
+
+        JsonToken token = parser.getCurrentToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a location object, but got " + token, parser.getCurrentLocation());
+        }
+
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            token = parser.nextToken();
+            if (LATITUDE.equals(field)) {
+                latitudeLongitude[0] = readDouble(parser, token);
+            } else if (LONGITUDE.equals(field)) {
+                latitudeLongitude[1] = readDouble(parser, token);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return !Double.isNaN(latitudeLongitude[0]) && !Double.isNaN(latitudeLongitude[1]);
+    }
+
+    /**
+     * Parses a {@code human_address} document from a range of characters, e.g. the text of the string token that
+     * holds it, without copying the range first.
+     *
+     * @param text the characters
+     * @param offset the start of the document
+     * @param length the length of the document
+     * @return the address, or {@code null} if the range is empty or the document is null.
+     * @throws IOException if the range isn't a valid address document.
+     */
+    public static Address parseAddress(final char[] text, final int offset, final int length) throws IOException
+    {
+        final AddressScanner scanner = new AddressScanner(text, offset, offset + length);
+        if (scanner.scan()) {
+            return scanner.toAddress();
+        }
+
+        //Anything the scanner doesn't handle, such as nested values, gets a full parse
+        final JsonParser parser = new JacksonObjectMapperProvider().getContext(Object.class).getJsonFactory().createJsonParser(new String(text, offset, length));
+        try {
+            parser.nextToken();
+            return parser.readValueAs(Address.class);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Writes a location, with the address as a JSON string.  Null fields are left out.
+     *
+     * @param location the location to write
+     * @param generator the generator to write to
+     * @throws IOException if the generator fails.
+     */
+    public static void write(final Location location, final JsonGenerator generator) throws IOException
+    {
+        generator.writeStartObject();
+        if (location.getLongitude() != null) {
+            generator.writeNumberField(LONGITUDE, location.getLongitude());
+        }
+        if (location.getLatitude() != null) {
+            generator.writeNumberField(LATITUDE, location.getLatitude());
+        }
+        if (location.getAddress() != null) {
+            generator.writeStringField(HUMAN_ADDRESS, formatAddress(location.getAddress()));
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Formats an address as a {@code human_address} document.  Null fields are left out.
+     *
+     * @param address the address to format
+     * @return the JSON document
+     */
+    public static String formatAddress(final Address address)
+    {
+        final String[] values = { address.getStreetAddress(), address.getCity(), address.getState(), address.getZip() };
+        final StringBuilder builder = new StringBuilder(64);
+        builder.append('{');
+        for (int i=0; i<values.length; i++) {
+            if (values[i] != null) {
+                if (builder.length() > 1) {
+                    builder.append(',');
+                }
+                builder.append('"').append(ADDRESS_FIELDS[i]).append("\":");
+                appendQuoted(builder, values[i]);
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Formats a location the way SODA reads it from a CSV: the street address, then the city, state and zip, then
+     * the coordinates in parentheses, each on its own line.  Parts that aren't set are left out, e.g.
+     * <pre>
+     * 1600 Pennsylvania Ave
+     * Washington, DC 20500
+     * (38.8977, -77.0365)
+     * </pre>
+     *
+     * @param location the location to format
+     * @return the text of the location
+     */
+    public static String formatText(final Location location)
+    {
+        final StringBuilder builder = new StringBuilder(64);
+        final Address address = location.getAddress();
+        if (address != null) {
+            if (address.getStreetAddress() != null) {
+                builder.append(address.getStreetAddress());
+            }
+
+            final StringBuilder cityLine = new StringBuilder();
+            if (address.getCity() != null) {
+                cityLine.append(address.getCity());
+            }
+            if (address.getState() != null) {
+                cityLine.append(cityLine.length() > 0 ? ", " : "").append(address.getState());
+            }
+            if (address.getZip() != null) {
+                cityLine.append(cityLine.length() > 0 ? " " : "").append(address.getZip());
+            }
+            if (cityLine.length() > 0) {
+                builder.append(builder.length() > 0 ? "\n" : "").append(cityLine);
+            }
+        }
+
+        if (location.getLatitude() != null && location.getLongitude() != null) {
+            builder.append(builder.length() > 0 ? "\n" : "")
+                   .append('(').append(location.getLatitude()).append(", ").append(location.getLongitude()).append(')');
+        }
+        return builder.toString();
+    }
+
+    private static Address readAddress(final JsonParser parser, final JsonToken token) throws IOException
+    {
+        switch (token) {
+            case VALUE_NULL:    return null;
+            case VALUE_STRING:  return parseAddress(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            case START_OBJECT:  return parser.readValueAs(Address.class);
+            default:            throw new JsonParseException("Expected an address, but got " + token, parser.getCurrentLocation());
+        }
+    }
+
+    private static Double readNumber(final JsonParser parser, final JsonToken token) throws IOException
+    {
+        final double value = readDouble(parser, token);
+        return Double.isNaN(value) ? null : value;
+    }
+
+    private static double readDouble(final JsonParser parser, final JsonToken token) throws IOException
+    {
+        switch (token) {
+            case VALUE_NULL:            return Double.NaN;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:    return parser.getDoubleValue();
+            case VALUE_STRING:
+                final double value = parseDouble(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                if (Double.isInfinite(value)) {
+                    throw new JsonParseException("Not a coordinate: " + parser.getText(), parser.getCurrentLocation());
+                }
+                return value;
+            default:
+                throw new JsonParseException("Expected a coordinate, but got " + token, parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Parses a decimal number from a range of characters.  Plain decimals with up to 15 digits, which covers any
+     * coordinate SODA sends, are exact divisions of a whole number by a power of ten, and round the same as
+     * {@link Double#parseDouble(String)}; anything else is handed to it.
+     */
+    static double parseDouble(final char[] text, final int offset, final int length) throws IOException
+    {
+        final int end = offset + length;
+        int i = offset;
+        final boolean negative = i < end && text[i] == '-';
+        if (i < end && (negative || text[i] == '+')) {
+            i++;
+        }
+
+        long digits = 0;
+        int count = 0;
+        int scale = -1;
+        for (; i<end; i++) {
+            final char c = text[i];
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                count++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (i == end && count > 0 && count <= 15) {
+            final double value = (scale > 0) ? digits / POWERS_OF_TEN[scale] : digits;
+            return negative ? -value : value;
+        }
+
+        final String number = new String(text, offset, length).trim();
+        if (number.length() == 0) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Not a coordinate: " + number, null);
+        }
+    }
+
+    private static void appendQuoted(final StringBuilder builder, final String value)
+    {
+        builder.append('"');
+        for (int i=0; i<value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * Scans a flat {@code human_address} document of string, null or scalar values.  Only the values themselves
+     * become Strings; keys are matched in place.
+     */
+    private static final class AddressScanner
+    {
+        private final char[] text;
+        private final int end;
+        private final String[] values = new String[ADDRESS_FIELDS.length];
+        private int pos;
+        private boolean isNull;
+
+        AddressScanner(final char[] text, final int offset, final int end)
+        {
+            this.text = text;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        Address toAddress()
+        {
+            return isNull ? null : new Address(values[0], values[1], values[2], values[3]);
+        }
+
+        /**
+         * Scans the document.
+         *
+         * @return {@code false} if the document isn't a flat object (or empty or null), and needs a full parse.
+         */
+        boolean scan() throws IOException
+        {
+            skipWhitespace();
+            if (pos == end || matches("null")) {
+                isNull = true;
+                return pos == end || skipWhitespace() == end;
+            }
+            if (text[pos++] != '{') {
+                return false;
+            }
+
+            if (skipWhitespace() < end && text[pos] == '}') {
+                pos++;
+                return skipWhitespace() == end;
+            }
+
+            while (true) {
+                if (skipWhitespace() == end || text[pos] != '"') {
+                    return false;
+                }
+                final int keyStart = ++pos;
+                while (pos < end && text[pos] != '"' && text[pos] != '\\') {
+                    pos++;
+                }
+                if (pos == end || text[pos] == '\\') {
+                    return false;
+                }
+                final int field = fieldIndex(keyStart, pos++);
+
+                if (skipWhitespace() == end || text[pos++] != ':') {
+                    return false;
+                }
+                if (skipWhitespace() == end) {
+                    return false;
+                }
+
+                final String value;
+                final char c = text[pos];
+                if (c == '"') {
+                    value = readString();
+                    if (value == null) {
+                        return false;
+                    }
+                } else if (matches("null")) {
+                    value = null;
+                } else if (c == '{' || c == '[') {
+                    return false;
+                } else {
+                    //Numbers and booleans are kept as their text, the same as Jackson binds them to Strings
+                    final int start = pos;
+                    while (pos < end && text[pos] != ',' && text[pos] != '}' && !Character.isWhitespace(text[pos])) {
+                        pos++;
+                    }
+                    value = new String(text, start, pos - start);
+                }
+                if (field >= 0) {
+                    values[field] = value;
+                }
+
+                if (skipWhitespace() == end) {
+                    return false;
+                }
+                final char separator = text[pos++];
+                if (separator == '}') {
+                    return skipWhitespace() == end;
+                } else if (separator != ',') {
+                    return false;
+                }
+            }
+        }
+
+        private int fieldIndex(final int start, final int stop)
+        {
+            for (int i=0; i<ADDRESS_FIELDS.length; i++) {
+                final String name = ADDRESS_FIELDS[i];
+                if (name.length() == stop - start) {
+                    int j = 0;
+                    while (j < name.length() && name.charAt(j) == text[start + j]) {
+                        j++;
+                    }
+                    if (j == name.length()) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Reads a quoted string, unescaping it only if it has escapes.
+         *
+         * @return the string, or {@code null} if it is malformed.
+         */
+        private String readString()
+        {
+            final int start = ++pos;
+            while (pos < end && text[pos] != '"' && text[pos] != '\\') {
+                pos++;
+            }
+            if (pos == end) {
+                return null;
+            }
+            if (text[pos] == '"') {
+                return new String(text, start, pos++ - start);
+            }
+
+            final StringBuilder builder = new StringBuilder(pos - start + 16);
+            builder.append(text, start, pos - start);
+            while (pos < end) {
+                final char c = text[pos++];
+                if (c == '"') {
+                    return builder.toString();
+                } else if (c != '\\') {
+                    builder.append(c);
+                } else if (pos == end) {
+                    return null;
+                } else {
+                    final char escaped = text[pos++];
+                    switch (escaped) {
+                        case 'b':   builder.append('\b'); break;
+                        case 'f':   builder.append('\f'); break;
+                        case 'n':   builder.append('\n'); break;
+                        case 'r':   builder.append('\r'); break;
+                        case 't':   builder.append('\t'); break;
+                        case 'u':
+                            if (pos + 4 > end) {
+                                return null;
+                            }
+                            int code = 0;
+                            for (int i=0; i<4; i++) {
+                                final int digit = Character.digit(text[pos++], 16);
+                                if (digit < 0) {
+                                    return null;
+                                }
+                                code = (code << 4) | digit;
+                            }
+                            builder.append((char) code);
+                            break;
+                        default:    builder.append(escaped);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(final String literal)
+        {
+            if (end - pos < literal.length()) {
+                return false;
+            }
+            for (int i=0; i<literal.length(); i++) {
+                if (text[pos + i] != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            pos += literal.length();
+            return true;
+        }
+
+        private int skipWhitespace()
+        {
+            while (pos < end && Character.isWhitespace(text[pos])) {
+                pos++;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Jackson deserializer that reads locations with this codec.
+     */
+    public static class Deserializer extends JsonDeserializer<Location>
+    {
+        private final boolean withAddress;
+
+        public Deserializer()
+        {
+            this(true);
+        }
+
+        protected Deserializer(final boolean withAddress)
+        {
+            this.withAddress = withAddress;
+        }
+
+        @Override
+        public Location deserialize(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+        {
+            return read(parser, withAddress);
+        }
+    }
+
+    /**
+     * Jackson deserializer that reads only the coordinates of locations, skipping the address.  Use it on a
+     * property with {@code @JsonDeserialize(using=LocationCodec.CoordinatesDeserializer.class)}.
+     */
+    public static class CoordinatesDeserializer extends Deserializer
+    {
+        public CoordinatesDeserializer()
+        {
+            super(false);
+        }
+    }
+
+    /**
+     * Jackson serializer that writes locations with this codec.
+     */
+    public static class Serializer extends JsonSerializer<Location>
+    {
+        @Override
+        public void serialize(final Location value, final JsonGenerator generator, final SerializerProvider provider) throws IOException
+        {
+            write(value, generator);
+        }
+    }
+}
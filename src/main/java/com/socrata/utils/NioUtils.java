@@ -0,0 +1,221 @@
+package com.socrata.utils;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Helpers for moving file contents to and from the network with NIO channels, rather than copying
+ * everything through byte arrays on the heap.  Copies between two plain streams gain nothing from channels, so
+ * those go through a pooled heap buffer.
+ */
+public class NioUtils
+{
+
+    /**
+     * Sends a region of a file to an OutputStream with {@code FileChannel.transferTo}.  The JDK can do this
+     * without pulling the file contents through the Java heap.
+     *
+     * @param file file to send
+     * @param position offset in the file to start sending at
+     * @param count number of bytes to send
+     * @param out stream to send to.  This is NOT closed.
+     * @throws IOException if the file could not be read or the stream written.
+     */
+    public static void transferTo(@Nonnull final File file, final long position, final long count, @Nonnull final OutputStream out) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final WritableByteChannel target = Channels.newChannel(out);
+
+            long sent = 0;
+            while (sent < count) {
+                final long transferred = channel.transferTo(position + sent, count - sent, target);
+                if (transferred <= 0) {
+                    //transferTo can send nothing without being at the end of the file, so copy the rest by hand
+                    //rather than spinning on it
+                    sent += copyRegion(channel, position + sent, count - sent, out);
+                    if (sent < count) {
+                        throw new IOException("File " + GeneralUtils.bestFilePath(file) + " was truncated while it was being sent.");
+                    }
+                    break;
+                }
+                sent += transferred;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copies a stream to an OutputStream.  If the stream is a file, it is sent with {@code FileChannel.transferTo},
+     * otherwise it is copied through a pooled heap buffer, as wrapping plain streams in channels would only add a
+     * copy through a direct buffer.
+     *
+     * @param in stream to read from.  This is NOT closed.
+     * @param out stream to write to.  This is NOT closed.
+     * @return the number of bytes copied
+     * @throws IOException if the copy fails
+     */
+    public static long copy(@Nonnull final InputStream in, @Nonnull final OutputStream out) throws IOException
+    {
+        long copied = 0;
+        if (in instanceof FileInputStream) {
+            final FileChannel channel = ((FileInputStream) in).getChannel();
+            final long start = channel.position();
+            final long count = channel.size() - start;
+            final WritableByteChannel target = Channels.newChannel(out);
+
+            long transferred;
+            while (copied < count && (transferred = channel.transferTo(start + copied, count - copied, target)) > 0) {
+                copied += transferred;
+            }
+            //Anything transferTo didn't send is copied below
+            channel.position(start + copied);
+        }
+
+        final ByteBuffer buffer = BufferPool.HEAP.acquire();
+        try {
+            final byte[] bytes = buffer.array();
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                out.write(bytes, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the contents of a stream to a file, replacing anything already in it.
+     *
+     * @param in stream to read from.  This is NOT closed.
+     * @param file file to write to
+     * @return the number of bytes written
+     * @throws IOException if the stream could not be read or the file written.
+     */
+    public static long transferFrom(@Nonnull final InputStream in, @Nonnull final File file) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            final long written = transferFrom(in, channel, 0);
+            channel.force(false);
+            return written;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the contents of a stream into a FileChannel, starting at a position.  File streams go through
+     * {@code FileChannel.transferFrom}; other streams are read into a pooled heap buffer and written from there,
+     * rather than through a channel wrapper that would copy every byte through a direct buffer as well.
+     *
+     * @param in stream to read from.  This is NOT closed.
+     * @param target file to write to
+     * @param position position in the file to start writing at
+     * @return the number of bytes written
+     * @throws IOException if the stream could not be read or the file written.
+     */
+    public static long transferFrom(@Nonnull final InputStream in, @Nonnull final FileChannel target, final long position) throws IOException
+    {
+        if (in instanceof FileInputStream) {
+            return transferFrom(((FileInputStream) in).getChannel(), target, position);
+        }
+
+        final ByteBuffer buffer = BufferPool.HEAP.acquire();
+        try {
+            final byte[] bytes = buffer.array();
+            long written = 0;
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                final ByteBuffer chunk = ByteBuffer.wrap(bytes, 0, read);
+                while (chunk.hasRemaining()) {
+                    written += target.write(chunk, position + written);
+                }
+            }
+            return written;
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+
+    /**
+     * Writes everything from a channel into a FileChannel, starting at a position.  Positional writes are used,
+     * so the FileChannel's own position is not changed, and several callers can fill different regions of the same
+     * file at once.
+     *
+     * @param source channel to read from.  This is NOT closed.
+     * @param target file to write to
+     * @param position position in the file to start writing at
+     * @return the number of bytes written
+     * @throws IOException if the channel could not be read or the file written.
+     */
+    public static long transferFrom(@Nonnull final ReadableByteChannel source, @Nonnull final FileChannel target, final long position) throws IOException
+    {
+        long written = 0;
+        if (source instanceof FileChannel) {
+            final FileChannel sourceFile = (FileChannel) source;
+            final long count = sourceFile.size() - sourceFile.position();
+            long transferred;
+            while (written < count && (transferred = target.transferFrom(sourceFile, position + written, count - written)) > 0) {
+                written += transferred;
+            }
+            //Anything transferFrom didn't move is copied below
+        }
+
+        final ByteBuffer buffer = BufferPool.DIRECT.acquire();
+        try {
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += target.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+            return written;
+        } finally {
+            BufferPool.DIRECT.release(buffer);
+        }
+    }
+
+    /**
+     * Copies a region of a file to a stream through a pooled heap buffer, stopping early at the end of the file.
+     *
+     * @return the number of bytes copied
+     */
+    private static long copyRegion(final FileChannel channel, final long position, final long count, final OutputStream out) throws IOException
+    {
+        final ByteBuffer buffer = BufferPool.HEAP.acquire();
+        try {
+            long copied = 0;
+            while (copied < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - copied));
+                final int read = channel.read(buffer, position + copied);
+                if (read == -1) {
+                    break;
+                }
+                out.write(buffer.array(), 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.socrata.utils;
+
+import javax.annotation.Nonnull;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An OutputStream that writes into a chain of buffers taken from a {@link BufferPool}, rather than growing
+ * (and copying) a single byte array.  Once the stream is written, {@link #getBuffers()} hands out read-only
+ * views of the buffers, and {@link #release()} gives the buffers back to the pool.<p/>
+ *
+ * This is meant for request bodies that are encoded once, sent (possibly more than once), and then thrown away,
+ * so the same few buffers are reused batch after batch.
+ */
+public final class PooledBufferOutputStream extends OutputStream
+{
+    private final BufferPool pool;
+    private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    private ByteBuffer current;
+    private long size;
+    private boolean released;
+
+    /**
+     * Constructor
+     *
+     * @param pool the pool to take the buffers from
+     */
+    public PooledBufferOutputStream(@Nonnull final BufferPool pool)
+    {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(final int b)
+    {
+        ensureRoom().put((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(@Nonnull final byte[] b, int off, int len)
+    {
+        size += len;
+        while (len > 0) {
+            final ByteBuffer buffer = ensureRoom();
+            final int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer, without copying them through a byte array.
+     *
+     * @param src the bytes to write.  Its position is moved to its limit.
+     */
+    public void write(@Nonnull final ByteBuffer src)
+    {
+        size += src.remaining();
+        while (src.hasRemaining()) {
+            final ByteBuffer buffer = ensureRoom();
+            if (src.remaining() <= buffer.remaining()) {
+                buffer.put(src);
+            } else {
+                final ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + buffer.remaining());
+                buffer.put(slice);
+                src.position(slice.position());
+            }
+        }
+    }
+
+    /**
+     * The number of bytes written.
+     * @return the number of bytes written.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Read-only views of the bytes written so far, one per buffer, in order.  The views share the pooled buffers,
+     * so they are only valid until {@link #release()} is called.
+     *
+     * @return views of the bytes written
+     */
+    public List<ByteBuffer> getBuffers()
+    {
+        checkNotReleased();
+
+        final List<ByteBuffer> views = new ArrayList<ByteBuffer>(buffers.size());
+        for (ByteBuffer buffer : buffers) {
+            final ByteBuffer view = buffer.asReadOnlyBuffer();
+            view.flip();
+            views.add(view);
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Gives the buffers back to the pool.  Nothing can be written or read afterwards.
+     */
+    public void release()
+    {
+        if (released) {
+            return;
+        }
+
+        released = true;
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        buffers.clear();
+        current = null;
+    }
+
+    private ByteBuffer ensureRoom()
+    {
+        checkNotReleased();
+        if (current == null || !current.hasRemaining()) {
+            current = pool.acquire();
+            buffers.add(current);
+        }
+        return current;
+    }
+
+    private void checkNotReleased()
+    {
+        if (released) {
+            throw new IllegalStateException("The buffers have already been released.");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.socrata.utils;
+
+import com.socrata.model.requests.ReplayableBody;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Class to let Jersey send a ReplayableBody as a request entity.<p/>
+ *
+ * Each time a request is sent, the body is re-opened from the beginning.  When the length of the body is
+ * known, it is reported to Jersey, so the connection can stream the body with a fixed length rather than
+ * buffering the whole thing in memory first.
+ *
+ * File backed bodies are sent with {@code FileChannel.transferTo}, other bodies are copied through pooled
+ * heap buffers.
+ */
+@Provider
+@Produces("*/*")
+public class ReplayableBodyProvider implements MessageBodyWriter<ReplayableBody>
+{
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return ReplayableBody.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(ReplayableBody body, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return body.length();
+    }
+
+    @Override
+    public void writeTo(ReplayableBody body, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException
+    {
+        if (body instanceof ReplayableBody.FileBody) {
+            final ReplayableBody.FileBody fileBody = (ReplayableBody.FileBody) body;
+            NioUtils.transferTo(fileBody.getFile(), fileBody.getPosition(), fileBody.length(), entityStream);
+            return;
+        }
+
+        final InputStream is = body.open();
+        try {
+            NioUtils.copy(is, entityStream);
+        } finally {
+            GeneralUtils.closeQuietly(is);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.socrata.utils;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Parses and formats SODA timestamps, working directly on characters, without SimpleDateFormat or Calendar.<p/>
+ *
+ * Parses {@code yyyy-MM-dd['T'HH:mm[:ss[.SSS]]][Z|(+|-)HH[[:]mm]]}.  Timestamps with a zone ("Z" or an offset)
+ * are exact.  Floating timestamps, which is what SODA2 returns for calendar_date columns, are taken to be in the
+ * zone passed in, normally the local one.  Plain dates, with no time, may be given a zone of their own, normally
+ * UTC, so a date reads as the same day everywhere.  Month, day and time fields may have one or two digits, and any number
+ * of fraction digits is allowed, although only milliseconds are kept.<p/>
+ *
+ * All the methods are static and thread safe.  Parsing a char range and formatting into a char array don't
+ * allocate anything; the String versions copy through a per-thread buffer.  Dates are in the proleptic Gregorian
+ * calendar, so they differ from SimpleDateFormat before the Gregorian cutover in 1582.
+ */
+public final class SodaDateCodec
+{
+    /**
+     * Returned by the parse methods when the text isn't a timestamp.
+     */
+    public static final long    INVALID = Long.MIN_VALUE;
+
+    /**
+     * The length of a formatted timestamp, {@code yyyy-MM-dd'T'HH:mm:ss.SSS+hhmm}.
+     */
+    public static final int     FORMATTED_LENGTH = 28;
+
+    /**
+     * The length of a formatted floating timestamp, {@code yyyy-MM-dd'T'HH:mm:ss.SSS}.
+     */
+    public static final int     FLOATING_LENGTH = 23;
+
+    private static final int    MAX_LENGTH = 64;
+    private static final long   MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int[]  DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>()
+    {
+        @Override
+        protected char[] initialValue()
+        {
+            return new char[MAX_LENGTH];
+        }
+    };
+
+    private SodaDateCodec()
+    {
+    }
+
+    /**
+     * The zone plain dates are normally read in.
+     */
+    public static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Parses a timestamp.
+     *
+     * @param text the characters holding the timestamp
+     * @param offset the first character of the timestamp
+     * @param length the number of characters in the timestamp
+     * @param floatingZone the zone floating timestamps, and plain dates, are in
+     * @return milliseconds since the epoch, or {@link #INVALID} if the text isn't a timestamp.
+     */
+    public static long parse(@Nonnull final char[] text, final int offset, final int length, @Nonnull final TimeZone floatingZone)
+    {
+        return parse(text, offset, length, floatingZone, floatingZone);
+    }
+
+    /**
+     * Parses a timestamp, with plain dates in a different zone than floating timestamps.
+     *
+     * @param text the characters holding the timestamp
+     * @param offset the first character of the timestamp
+     * @param length the number of characters in the timestamp
+     * @param floatingZone the zone floating timestamps are in
+     * @param dateZone the zone plain dates, with no time, are in
+     * @return milliseconds since the epoch, or {@link #INVALID} if the text isn't a timestamp.
+     */
+    public static long parse(@Nonnull final char[] text, final int offset, final int length, @Nonnull final TimeZone floatingZone, @Nonnull final TimeZone dateZone)
+    {
+        final int end = offset + length;
+        if (length < 8 || end > text.length) {
+            return INVALID;
+        }
+
+        //The date, which is all that's required
+        int i = offset;
+        int n = countDigits(text, i, 4, end);
+        final int year = number(text, i, n);
+        i += n;
+        if (n != 4 || i >= end || text[i++] != '-') {
+            return INVALID;
+        }
+
+        n = countDigits(text, i, 2, end);
+        final int month = number(text, i, n);
+        i += n;
+        if (n == 0 || month < 1 || month > 12 || i >= end || text[i++] != '-') {
+            return INVALID;
+        }
+
+        n = countDigits(text, i, 2, end);
+        final int day = number(text, i, n);
+        i += n;
+        if (n == 0 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID;
+        }
+
+        //Then the optional time
+        int hour = 0, minute = 0, second = 0, milli = 0;
+        final boolean hasTime = i < end && (text[i] == 'T' || text[i] == 't' || text[i] == ' ');
+        if (hasTime) {
+            n = countDigits(text, ++i, 2, end);
+            hour = number(text, i, n);
+            i += n;
+            if (n == 0 || hour > 23 || i >= end || text[i++] != ':') {
+                return INVALID;
+            }
+
+            n = countDigits(text, i, 2, end);
+            minute = number(text, i, n);
+            i += n;
+            if (n == 0 || minute > 59) {
+                return INVALID;
+            }
+
+            if (i < end && text[i] == ':') {
+                n = countDigits(text, ++i, 2, end);
+                second = number(text, i, n);
+                i += n;
+                if (n == 0 || second > 59) {
+                    return INVALID;
+                }
+
+                if (i < end && (text[i] == '.' || text[i] == ',')) {
+                    final int start = ++i;
+                    for (int scale = 100; i < end && text[i] >= '0' && text[i] <= '9'; i++, scale /= 10) {
+                        milli += (text[i] - '0') * scale;
+                    }
+                    if (i == start) {
+                        return INVALID;
+                    }
+                }
+            }
+        }
+
+        final long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY + ((hour * 60L + minute) * 60L + second) * 1000L + milli;
+        if (i == end) {
+            return floatingToUtc(local, hasTime ? floatingZone : dateZone);
+        }
+
+        //Then the optional zone
+        if ((text[i] == 'Z' || text[i] == 'z') && i + 1 == end) {
+            return local;
+        } else if (text[i] != '+' && text[i] != '-') {
+            return INVALID;
+        }
+
+        final int sign = (text[i++] == '-') ? -1 : 1;
+        n = countDigits(text, i, 2, end);
+        final int offsetHours = number(text, i, n);
+        i += n;
+        if (i < end && text[i] == ':') {
+            i++;
+        }
+        final int minutesDigits = countDigits(text, i, 2, end);
+        final int offsetMinutes = number(text, i, minutesDigits);
+        i += minutesDigits;
+        if (n != 2 || (minutesDigits != 0 && minutesDigits != 2) || offsetHours > 23 || offsetMinutes > 59 || i != end) {
+            return INVALID;
+        }
+        return local - sign * (offsetHours * 60L + offsetMinutes) * 60000L;
+    }
+
+    /**
+     * Parses a timestamp from part of a String.
+     *
+     * @param text the text holding the timestamp
+     * @param offset the first character of the timestamp
+     * @param length the number of characters in the timestamp
+     * @param floatingZone the zone floating timestamps, and plain dates, are in
+     * @return milliseconds since the epoch, or {@link #INVALID} if the text isn't a timestamp.
+     */
+    public static long parse(@Nonnull final String text, final int offset, final int length, @Nonnull final TimeZone floatingZone)
+    {
+        return parse(text, offset, length, floatingZone, floatingZone);
+    }
+
+    /**
+     * Parses a timestamp from part of a String, with plain dates in a different zone than floating timestamps.
+     *
+     * @param text the text holding the timestamp
+     * @param offset the first character of the timestamp
+     * @param length the number of characters in the timestamp
+     * @param floatingZone the zone floating timestamps are in
+     * @param dateZone the zone plain dates, with no time, are in
+     * @return milliseconds since the epoch, or {@link #INVALID} if the text isn't a timestamp.
+     */
+    public static long parse(@Nonnull final String text, final int offset, final int length, @Nonnull final TimeZone floatingZone, @Nonnull final TimeZone dateZone)
+    {
+        if (length > MAX_LENGTH || offset < 0 || offset + length > text.length()) {
+            return INVALID;
+        }
+
+        final char[] buffer = BUFFERS.get();
+        text.getChars(offset, offset + length, buffer, 0);
+        return parse(buffer, 0, length, floatingZone, dateZone);
+    }
+
+    /**
+     * Parses a timestamp as a Date.
+     *
+     * @param text the timestamp
+     * @param floatingZone the zone floating timestamps, and plain dates, are in
+     * @return the timestamp as a Date
+     * @throws IllegalArgumentException if the text isn't a timestamp.
+     */
+    public static Date parseDate(@Nonnull final String text, @Nonnull final TimeZone floatingZone)
+    {
+        return parseDate(text, floatingZone, floatingZone);
+    }
+
+    /**
+     * Parses a timestamp as a Date, with plain dates in a different zone than floating timestamps.
+     *
+     * @param text the timestamp
+     * @param floatingZone the zone floating timestamps are in
+     * @param dateZone the zone plain dates, with no time, are in
+     * @return the timestamp as a Date
+     * @throws IllegalArgumentException if the text isn't a timestamp.
+     */
+    public static Date parseDate(@Nonnull final String text, @Nonnull final TimeZone floatingZone, @Nonnull final TimeZone dateZone)
+    {
+        final long millis = parse(text, 0, text.length(), floatingZone, dateZone);
+        if (millis == INVALID) {
+            throw new IllegalArgumentException("Not a SODA timestamp: " + text);
+        }
+        return new Date(millis);
+    }
+
+    /**
+     * Formats a timestamp as {@code yyyy-MM-dd'T'HH:mm:ss.SSS+hhmm}, in a zone.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone the zone to write the timestamp in
+     * @param out the array to write into.  It needs {@link #FORMATTED_LENGTH} characters from the offset.
+     * @param offset where to start writing
+     * @return the offset after the timestamp
+     * @throws IllegalArgumentException if the year is outside 0 to 9999.
+     */
+    public static int format(final long millis, @Nonnull final TimeZone zone, @Nonnull final char[] out, final int offset)
+    {
+        final int zoneOffset = zone.getOffset(millis);
+        int i = formatFloating(millis + zoneOffset, out, offset);
+
+        final int offsetMinutes = Math.abs(zoneOffset) / 60000;
+        out[i++] = (zoneOffset < 0) ? '-' : '+';
+        i = pad2(offsetMinutes / 60, out, i);
+        return pad2(offsetMinutes % 60, out, i);
+    }
+
+    /**
+     * Formats a timestamp as a floating timestamp, {@code yyyy-MM-dd'T'HH:mm:ss.SSS}, as it reads in a zone.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone the zone to write the timestamp in
+     * @param out the array to write into.  It needs {@link #FLOATING_LENGTH} characters from the offset.
+     * @param offset where to start writing
+     * @return the offset after the timestamp
+     * @throws IllegalArgumentException if the year is outside 0 to 9999.
+     */
+    public static int formatFloating(final long millis, @Nonnull final TimeZone zone, @Nonnull final char[] out, final int offset)
+    {
+        return formatFloating(millis + zone.getOffset(millis), out, offset);
+    }
+
+    /**
+     * Formats a timestamp as {@code yyyy-MM-dd'T'HH:mm:ss.SSS+hhmm}, in a zone.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone the zone to write the timestamp in
+     * @param out the buffer to append to
+     * @throws IllegalArgumentException if the year is outside 0 to 9999.
+     */
+    public static void format(final long millis, @Nonnull final TimeZone zone, @Nonnull final StringBuffer out)
+    {
+        final char[] buffer = BUFFERS.get();
+        out.append(buffer, 0, format(millis, zone, buffer, 0));
+    }
+
+    /**
+     * Formats a timestamp as {@code yyyy-MM-dd'T'HH:mm:ss.SSS+hhmm}, in a zone.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone the zone to write the timestamp in
+     * @return the formatted timestamp
+     * @throws IllegalArgumentException if the year is outside 0 to 9999.
+     */
+    public static String format(final long millis, @Nonnull final TimeZone zone)
+    {
+        final char[] buffer = BUFFERS.get();
+        return new String(buffer, 0, format(millis, zone, buffer, 0));
+    }
+
+    /**
+     * Converts wall clock milliseconds in a zone to milliseconds since the epoch.
+     */
+    private static long floatingToUtc(final long local, final TimeZone zone)
+    {
+        //Guess with the offset at the wall clock time, then correct it if that crossed a transition
+        final int guessOffset = zone.getOffset(local);
+        final long guess = local - guessOffset;
+        final int actualOffset = zone.getOffset(guess);
+        if (actualOffset == guessOffset) {
+            return guess;
+        }
+
+        final long corrected = local - actualOffset;
+        return (zone.getOffset(corrected) == actualOffset) ? corrected : guess;
+    }
+
+    private static int formatFloating(final long local, final char[] out, final int offset)
+    {
+        final long days = floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+        //Civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+        final long z = days + 719468;
+        final long era = floorDiv(z, 146097);
+        final int dayOfEra = (int) (z - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        final int month = (mp < 10) ? mp + 3 : mp - 9;
+        final long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("Year " + year + " can't be written as a SODA timestamp.");
+        }
+
+        int i = offset;
+        i = pad2((int) year / 100, out, i);
+        i = pad2((int) year % 100, out, i);
+        out[i++] = '-';
+        i = pad2(month, out, i);
+        out[i++] = '-';
+        i = pad2(day, out, i);
+        out[i++] = 'T';
+        i = pad2(millisOfDay / 3600000, out, i);
+        millisOfDay %= 3600000;
+        out[i++] = ':';
+        i = pad2(millisOfDay / 60000, out, i);
+        millisOfDay %= 60000;
+        out[i++] = ':';
+        i = pad2(millisOfDay / 1000, out, i);
+        millisOfDay %= 1000;
+        out[i++] = '.';
+        out[i++] = (char) ('0' + millisOfDay / 100);
+        return pad2(millisOfDay % 100, out, i);
+    }
+
+    /**
+     * Days since the epoch of a civil date, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(final int year, final int month, final int day)
+    {
+        final int y = (month <= 2) ? year - 1 : year;
+        final int era = ((y >= 0) ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * ((month > 2) ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(final int year, final int month)
+    {
+        if (month == 2 && (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * Counts the digits at an offset, up to a maximum.
+     */
+    private static int countDigits(final char[] text, final int offset, final int max, final int end)
+    {
+        int i = offset;
+        while (i < end && i < offset + max && text[i] >= '0' && text[i] <= '9') {
+            i++;
+        }
+        return i - offset;
+    }
+
+    private static int number(final char[] text, final int offset, final int count)
+    {
+        int value = 0;
+        for (int i=offset; i<offset + count; i++) {
+            value = value * 10 + (text[i] - '0');
+        }
+        return value;
+    }
+
+    private static int pad2(final int value, final char[] out, final int offset)
+    {
+        out[offset] = (char) ('0' + value / 10);
+        out[offset + 1] = (char) ('0' + value % 10);
+        return offset + 2;
+    }
+
+    private static long floorDiv(final long x, final long y)
+    {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+}
@@ -0,0 +1,617 @@
+package com.socrata.utils.bindings;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@link JsonBinding} for every class annotated with {@link GenerateBinding}, and lists them in
+ * {@code META-INF/services} so {@link GeneratedBindingsModule#load()} can find them.<p/>
+ *
+ * The reader goes through the fields of an object once, reading each straight into a local variable with the
+ * parser's own accessors, then calls the {@link JsonCreator} constructor.  The writer calls each getter and writes
+ * the value with the generator.  Property values that aren't simple (Strings, numbers, booleans and Dates) are
+ * passed back to the mapper, so they use its bindings as usual.<p/>
+ *
+ * This class is published in the {@code processor} classifier jar rather than the main jar, and registered in its
+ * {@code META-INF/services/javax.annotation.processing.Processor}.  To generate bindings for your own classes, add
+ * that jar as a {@code provided} dependency, so the compiler finds and runs the processor.
+ */
+@SupportedAnnotationTypes("com.socrata.utils.bindings.GenerateBinding")
+public class BindingProcessor extends AbstractProcessor
+{
+    private static final String SERVICE_FILE = "META-INF/services/" + JsonBinding.class.getName();
+    private static final String SUFFIX = "JsonBinding";
+
+    //Jackson annotations that change binding in ways the generated code doesn't copy
+    private static final Set<String> UNSUPPORTED = new HashSet<String>(Arrays.asList(
+            "JsonAnyGetter", "JsonAnySetter", "JsonAutoDetect", "JsonBackReference", "JsonDeserialize", "JsonFilter",
+            "JsonGetter", "JsonManagedReference", "JsonRawValue", "JsonSetter", "JsonSubTypes", "JsonTypeInfo",
+            "JsonTypeName", "JsonTypeResolver", "JsonValue", "JsonView", "JsonWriteNullProperties"));
+
+    private final Set<String> generated = new LinkedHashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv)
+    {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateBinding.class)) {
+            try {
+                if (element.getKind() != ElementKind.CLASS) {
+                    throw new BindingException("Only classes can have generated bindings.", element);
+                }
+                generate((TypeElement) element);
+            } catch (BindingException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write the binding: " + e.getLocalizedMessage(), element);
+            }
+        }
+
+        if (roundEnv.processingOver() && !generated.isEmpty()) {
+            try {
+                writeServiceFile();
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + SERVICE_FILE + ": " + e.getLocalizedMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates the binding for one class.
+     */
+    private void generate(final TypeElement type) throws BindingException, IOException
+    {
+        if (type.getModifiers().contains(Modifier.PRIVATE) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new BindingException("Classes with generated bindings can't be private or abstract.", type);
+        }
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+            throw new BindingException("Nested classes with generated bindings must be static.", type);
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new BindingException("Generic classes can't have generated bindings.", type);
+        }
+        checkSupported(type);
+
+        final JsonIgnoreProperties ignoreProperties = type.getAnnotation(JsonIgnoreProperties.class);
+        final boolean ignoreUnknown = ignoreProperties != null && ignoreProperties.ignoreUnknown();
+        final Set<String> ignored = new HashSet<String>();
+        if (ignoreProperties != null) {
+            ignored.addAll(Arrays.asList(ignoreProperties.value()));
+        }
+
+        final ExecutableElement creator = findCreator(type);
+        final List<Property> readProperties = new ArrayList<Property>();
+        for (VariableElement parameter : creator.getParameters()) {
+            final JsonProperty jsonProperty = parameter.getAnnotation(JsonProperty.class);
+            if (jsonProperty == null || jsonProperty.value().length() == 0) {
+                throw new BindingException("Every parameter of the JsonCreator needs a JsonProperty name.", parameter);
+            }
+            readProperties.add(new Property(jsonProperty.value(), parameter.asType(), null, parameter));
+        }
+
+        final List<Property> writeProperties = findWriteProperties(type, ignored);
+        final boolean nonNull = isNonNull(type);
+
+        final PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        final String packageName = packageElement.getQualifiedName().toString();
+        final String simpleName = flatName(type, packageName) + SUFFIX;
+        final String bindingName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        final Writer writer = processingEnv.getFiler().createSourceFile(bindingName, type).openWriter();
+        try {
+            writer.write(new BindingSource(type, packageName, simpleName, readProperties, writeProperties, ignored, ignoreUnknown, nonNull).toString());
+        } finally {
+            writer.close();
+        }
+        generated.add(bindingName);
+    }
+
+    /**
+     * Adds the generated bindings to the service file, keeping any listed by an earlier compile.
+     */
+    private void writeServiceFile() throws IOException
+    {
+        final Set<String> entries = new LinkedHashSet<String>();
+        try {
+            final FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            final BufferedReader reader = new BufferedReader(existing.openReader(true));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().length() > 0) {
+                        entries.add(line.trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            //No earlier file
+        }
+        entries.addAll(generated);
+
+        final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+        final Writer writer = file.openWriter();
+        try {
+            for (String entry : entries) {
+                writer.write(entry);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private ExecutableElement findCreator(final TypeElement type) throws BindingException
+    {
+        ExecutableElement creator = null;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getAnnotation(JsonCreator.class) != null) {
+                if (creator != null) {
+                    throw new BindingException("Only one constructor can be the JsonCreator.", constructor);
+                }
+                creator = constructor;
+            }
+        }
+
+        if (creator == null) {
+            throw new BindingException("Classes with generated bindings need a JsonCreator constructor.", type);
+        }
+        if (creator.getModifiers().contains(Modifier.PRIVATE)) {
+            throw new BindingException("The JsonCreator constructor can't be private.", creator);
+        }
+        return creator;
+    }
+
+    /**
+     * Finds the properties Jackson would write: getters, then fields that don't have a getter.
+     */
+    private List<Property> findWriteProperties(final TypeElement type, final Set<String> ignored) throws BindingException
+    {
+        final Map<String, Property> properties = new LinkedHashMap<String, Property>();
+        final List<? extends Element> members = processingEnv.getElementUtils().getAllMembers(type);
+
+        for (ExecutableElement method : ElementFilter.methodsIn(members)) {
+            if (isObjectMember(method) || method.getModifiers().contains(Modifier.STATIC) || !method.getParameters().isEmpty() ||
+                method.getReturnType().getKind() == TypeKind.VOID || method.getAnnotation(JsonIgnore.class) != null) {
+                continue;
+            }
+
+            final String name = getterName(method);
+            if (name == null || ignored.contains(name)) {
+                continue;
+            }
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new BindingException("Getters of classes with generated bindings can't be private.", method);
+            }
+            if (properties.put(name, new Property(name, method.getReturnType(), method.getSimpleName() + "()", method)) != null) {
+                throw new BindingException("More than one getter is named " + name + ".", method);
+            }
+        }
+
+        for (VariableElement field : ElementFilter.fieldsIn(members)) {
+            final Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || field.getAnnotation(JsonIgnore.class) != null) {
+                continue;
+            }
+
+            final JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+            if (jsonProperty == null && (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.TRANSIENT))) {
+                continue;
+            }
+
+            final String name = (jsonProperty != null && jsonProperty.value().length() > 0) ? jsonProperty.value() : field.getSimpleName().toString();
+            if (properties.containsKey(name) || ignored.contains(name)) {
+                continue;
+            }
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                throw new BindingException("Fields of classes with generated bindings can't be private.", field);
+            }
+            properties.put(name, new Property(name, field.asType(), field.getSimpleName().toString(), field));
+        }
+        return new ArrayList<Property>(properties.values());
+    }
+
+    /**
+     * The property name of a getter, following the Jackson rules, or null if the method isn't a getter.
+     */
+    private static String getterName(final ExecutableElement method)
+    {
+        final String methodName = method.getSimpleName().toString();
+        final JsonProperty jsonProperty = method.getAnnotation(JsonProperty.class);
+        if (jsonProperty != null && jsonProperty.value().length() > 0) {
+            return jsonProperty.value();
+        }
+
+        String name = null;
+        if (methodName.startsWith("get") && methodName.length() > 3) {
+            name = manglePropertyName(methodName.substring(3));
+        } else if (methodName.startsWith("is") && methodName.length() > 2 &&
+                   (method.getReturnType().getKind() == TypeKind.BOOLEAN || method.getReturnType().toString().equals("java.lang.Boolean"))) {
+            name = manglePropertyName(methodName.substring(2));
+        }
+
+        if (name == null && jsonProperty != null) {
+            return methodName;
+        }
+        return (jsonProperty != null || method.getModifiers().contains(Modifier.PUBLIC)) ? name : null;
+    }
+
+    /**
+     * Lower cases the leading upper case letters, the way Jackson names bean properties.
+     */
+    private static String manglePropertyName(final String name)
+    {
+        final StringBuilder mangled = new StringBuilder(name);
+        for (int i=0; i<mangled.length(); i++) {
+            final char lower = Character.toLowerCase(mangled.charAt(i));
+            if (lower == mangled.charAt(i)) {
+                break;
+            }
+            mangled.setCharAt(i, lower);
+        }
+        return mangled.toString();
+    }
+
+    private static boolean isObjectMember(final Element member)
+    {
+        return ((TypeElement) member.getEnclosingElement()).getQualifiedName().contentEquals("java.lang.Object");
+    }
+
+    /**
+     * Whether the class is annotated to leave out null properties.
+     */
+    private static boolean isNonNull(final TypeElement type)
+    {
+        final JsonSerialize jsonSerialize = type.getAnnotation(JsonSerialize.class);
+        return jsonSerialize != null && jsonSerialize.include() == JsonSerialize.Inclusion.NON_NULL;
+    }
+
+    /**
+     * Fails on Jackson annotations that the generated code wouldn't honour.
+     */
+    private void checkSupported(final TypeElement type) throws BindingException
+    {
+        for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+            final String name = annotation.getAnnotationType().asElement().getSimpleName().toString();
+            if (UNSUPPORTED.contains(name)) {
+                throw new BindingException(name + " is not supported by generated bindings.", type);
+            }
+            if (name.equals("JsonSerialize")) {
+                for (ExecutableElement attribute : annotation.getElementValues().keySet()) {
+                    if (!attribute.getSimpleName().contentEquals("include")) {
+                        throw new BindingException("Only JsonSerialize(include) is supported by generated bindings.", type);
+                    }
+                }
+            }
+        }
+
+        final List<Element> members = new ArrayList<Element>(processingEnv.getElementUtils().getAllMembers(type));
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            members.addAll(constructor.getParameters());
+        }
+        for (Element member : members) {
+            for (AnnotationMirror annotation : member.getAnnotationMirrors()) {
+                final String name = annotation.getAnnotationType().asElement().getSimpleName().toString();
+                if (UNSUPPORTED.contains(name) || name.equals("JsonSerialize")) {
+                    throw new BindingException(name + " is not supported by generated bindings.", member);
+                }
+            }
+        }
+    }
+
+    /**
+     * The name of a class, with nested classes joined by underscores.
+     */
+    private static String flatName(final TypeElement type, final String packageName)
+    {
+        final String qualifiedName = type.getQualifiedName().toString();
+        return (packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1)).replace('.', '_');
+    }
+
+    /**
+     * One property of the class, with the code to get it for writing.
+     */
+    private static final class Property
+    {
+        final String name;
+        final TypeMirror type;
+        final String accessor;
+        final Element element;
+
+        Property(final String name, final TypeMirror type, final String accessor, final Element element)
+        {
+            this.name = name;
+            this.type = type;
+            this.accessor = accessor;
+            this.element = element;
+        }
+    }
+
+    /**
+     * The source of one generated binding.
+     */
+    private static final class BindingSource
+    {
+        private final StringBuilder out = new StringBuilder();
+        private final List<String> typeReferences = new ArrayList<String>();
+
+        BindingSource(final TypeElement type, final String packageName, final String simpleName, final List<Property> readProperties,
+                      final List<Property> writeProperties, final Set<String> ignored, final boolean ignoreUnknown, final boolean nonNull)
+                throws BindingException
+        {
+            final String typeName = type.getQualifiedName().toString();
+
+            final StringBuilder reader = new StringBuilder();
+            reader.append("        @Override\n");
+            reader.append("        public ").append(typeName).append(" deserialize(final JsonParser parser, final DeserializationContext ctxt) throws IOException\n");
+            reader.append("        {\n");
+            for (int i=0; i<readProperties.size(); i++) {
+                final TypeMirror propertyType = readProperties.get(i).type;
+                reader.append("            ").append(propertyType).append(" p").append(i).append(" = ").append(defaultValue(propertyType)).append(";\n");
+            }
+            reader.append("\n");
+            reader.append("            for (JsonToken token = BindingSupport.startObject(parser, ctxt, ").append(typeName).append(".class); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {\n");
+            reader.append("                final String field = parser.getCurrentName();\n");
+            reader.append("                parser.nextToken();\n");
+            reader.append("                ");
+            for (int i=0; i<readProperties.size(); i++) {
+                final Property property = readProperties.get(i);
+                reader.append("if (field.equals(").append(quote(property.name)).append(")) {\n");
+                reader.append("                    p").append(i).append(" = ").append(readExpression(property)).append(";\n");
+                reader.append("                } else ");
+            }
+            if (!ignored.isEmpty()) {
+                reader.append("if (IGNORED.contains(field)) {\n");
+                reader.append("                    parser.skipChildren();\n");
+                reader.append("                } else ");
+            }
+            reader.append("{\n");
+            if (ignoreUnknown) {
+                reader.append("                    parser.skipChildren();\n");
+            } else {
+                reader.append("                    BindingSupport.unknownField(parser, ctxt, ").append(typeName).append(".class, field);\n");
+            }
+            reader.append("                }\n");
+            reader.append("            }\n");
+            reader.append("            return new ").append(typeName).append("(");
+            for (int i=0; i<readProperties.size(); i++) {
+                reader.append((i > 0) ? ", p" : "p").append(i);
+            }
+            reader.append(");\n");
+            reader.append("        }\n");
+
+            final StringBuilder writer = new StringBuilder();
+            writer.append("        @Override\n");
+            writer.append("        public void serialize(final ").append(typeName).append(" value, final JsonGenerator generator, final SerializerProvider provider) throws IOException\n");
+            writer.append("        {\n");
+            writer.append("            final boolean skipNulls = BindingSupport.skipNulls(provider, ").append(nonNull).append(");\n");
+            writer.append("            generator.writeStartObject();\n");
+            for (int i=0; i<writeProperties.size(); i++) {
+                writer.append(writeStatement(writeProperties.get(i), i));
+            }
+            writer.append("            generator.writeEndObject();\n");
+            writer.append("        }\n");
+
+            if (!packageName.isEmpty()) {
+                out.append("package ").append(packageName).append(";\n\n");
+            }
+            out.append("import com.socrata.utils.bindings.BindingSupport;\n");
+            out.append("import com.socrata.utils.bindings.JsonBinding;\n");
+            out.append("import org.codehaus.jackson.JsonGenerator;\n");
+            out.append("import org.codehaus.jackson.JsonParser;\n");
+            out.append("import org.codehaus.jackson.JsonToken;\n");
+            out.append("import org.codehaus.jackson.map.DeserializationContext;\n");
+            out.append("import org.codehaus.jackson.map.JsonDeserializer;\n");
+            out.append("import org.codehaus.jackson.map.JsonSerializer;\n");
+            out.append("import org.codehaus.jackson.map.SerializerProvider;\n");
+            out.append("import org.codehaus.jackson.type.TypeReference;\n\n");
+            out.append("import java.io.IOException;\n\n");
+            out.append("/**\n");
+            out.append(" * Streaming reader and writer for {@link ").append(typeName).append("}.  Generated by BindingProcessor, do not edit.\n");
+            out.append(" */\n");
+            out.append("public final class ").append(simpleName).append(" implements JsonBinding<").append(typeName).append(">\n");
+            out.append("{\n");
+            if (!ignored.isEmpty()) {
+                out.append("    private static final java.util.Set<String> IGNORED = new java.util.HashSet<String>(java.util.Arrays.asList(");
+                int i = 0;
+                for (String name : ignored) {
+                    out.append((i++ > 0) ? ", " : "").append(quote(name));
+                }
+                out.append("));\n");
+            }
+            for (int i=0; i<typeReferences.size(); i++) {
+                out.append("    private static final TypeReference<").append(typeReferences.get(i)).append("> TYPE_").append(i)
+                   .append(" = new TypeReference<").append(typeReferences.get(i)).append(">() {};\n");
+            }
+            if (!ignored.isEmpty() || !typeReferences.isEmpty()) {
+                out.append("\n");
+            }
+            out.append("    private static final JsonDeserializer<").append(typeName).append("> READER = new JsonDeserializer<").append(typeName).append(">()\n");
+            out.append("    {\n");
+            out.append(reader);
+            out.append("    };\n\n");
+            out.append("    private static final JsonSerializer<").append(typeName).append("> WRITER = new JsonSerializer<").append(typeName).append(">()\n");
+            out.append("    {\n");
+            out.append(writer);
+            out.append("    };\n\n");
+            out.append("    @Override\n");
+            out.append("    public Class<").append(typeName).append("> getType()\n");
+            out.append("    {\n");
+            out.append("        return ").append(typeName).append(".class;\n");
+            out.append("    }\n\n");
+            out.append("    @Override\n");
+            out.append("    public JsonDeserializer<").append(typeName).append("> getReader()\n");
+            out.append("    {\n");
+            out.append("        return READER;\n");
+            out.append("    }\n\n");
+            out.append("    @Override\n");
+            out.append("    public JsonSerializer<").append(typeName).append("> getWriter()\n");
+            out.append("    {\n");
+            out.append("        return WRITER;\n");
+            out.append("    }\n");
+            out.append("}\n");
+        }
+
+        @Override
+        public String toString()
+        {
+            return out.toString();
+        }
+
+        private String readExpression(final Property property) throws BindingException
+        {
+            final TypeMirror type = property.type;
+            switch (type.getKind()) {
+                case BOOLEAN:   return "BindingSupport.readBoolean(parser, ctxt)";
+                case INT:       return "BindingSupport.readInt(parser, ctxt)";
+                case LONG:      return "BindingSupport.readLong(parser, ctxt)";
+                case DOUBLE:    return "BindingSupport.readDouble(parser, ctxt)";
+                case FLOAT:     return "BindingSupport.readFloat(parser, ctxt)";
+                case DECLARED:
+                case ARRAY:     break;
+                default:        throw new BindingException("Properties of type " + type + " are not supported by generated bindings.", property.element);
+            }
+
+            final String simple = simpleType(type);
+            if (simple != null) {
+                return "BindingSupport.read" + simple + "(parser, ctxt)";
+            }
+            if (type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).getTypeArguments().isEmpty()) {
+                return "parser.readValueAs(" + type + ".class)";
+            }
+            typeReferences.add(type.toString());
+            return "parser.<" + type + ">readValueAs(TYPE_" + (typeReferences.size() - 1) + ")";
+        }
+
+        private static String writeStatement(final Property property, final int index)
+        {
+            final String name = quote(property.name);
+            final String value = "value." + property.accessor;
+            switch (property.type.getKind()) {
+                case BOOLEAN:   return "            generator.writeBooleanField(" + name + ", " + value + ");\n";
+                case INT:
+                case LONG:
+                case DOUBLE:
+                case FLOAT:     return "            generator.writeNumberField(" + name + ", " + value + ");\n";
+                case BYTE:
+                case SHORT:     return "            generator.writeNumberField(" + name + ", (int) " + value + ");\n";
+                case CHAR:      return "            generator.writeStringField(" + name + ", String.valueOf(" + value + "));\n";
+                default:        break;
+            }
+
+            final String simple = simpleType(property.type);
+            final String local = "v" + index;
+            if (simple == null || simple.equals("Date")) {
+                return "            BindingSupport.write" + ((simple == null) ? "Object" : "Date") + "(generator, provider, " + name + ", " + value + ", skipNulls);\n";
+            }
+
+            final String write = simple.equals("String") ? "writeStringField" : simple.equals("BooleanObject") ? "writeBooleanField" : "writeNumberField";
+            return "            final " + property.type + " " + local + " = " + value + ";\n" +
+                   "            if (" + local + " != null) {\n" +
+                   "                generator." + write + "(" + name + ", " + local + ");\n" +
+                   "            } else {\n" +
+                   "                BindingSupport.writeNull(generator, " + name + ", skipNulls);\n" +
+                   "            }\n";
+        }
+
+        /**
+         * The suffix of the BindingSupport method for a simple declared type, or null if it isn't one.
+         */
+        private static String simpleType(final TypeMirror type)
+        {
+            final String name = type.toString();
+            if (name.equals("java.lang.String"))         return "String";
+            else if (name.equals("java.lang.Long"))      return "LongObject";
+            else if (name.equals("java.lang.Integer"))   return "IntegerObject";
+            else if (name.equals("java.lang.Double"))    return "DoubleObject";
+            else if (name.equals("java.lang.Float"))     return "FloatObject";
+            else if (name.equals("java.lang.Boolean"))   return "BooleanObject";
+            else if (name.equals("java.util.Date"))      return "Date";
+            return null;
+        }
+
+        private static String defaultValue(final TypeMirror type)
+        {
+            switch (type.getKind()) {
+                case BOOLEAN:   return "false";
+                case INT:
+                case LONG:
+                case DOUBLE:
+                case FLOAT:     return "0";
+                default:        return "null";
+            }
+        }
+
+        private static String quote(final String value)
+        {
+            final StringBuilder quoted = new StringBuilder("\"");
+            for (int i=0; i<value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    quoted.append('\\').append(c);
+                } else if (c < 0x20 || c > 0x7e) {
+                    quoted.append(String.format("\\u%04x", (int) c));
+                } else {
+                    quoted.append(c);
+                }
+            }
+            return quoted.append('"').toString();
+        }
+    }
+
+    /**
+     * A class that can't have a binding generated, and the element at fault.
+     */
+    private static final class BindingException extends Exception
+    {
+        final transient Element element;
+
+        BindingException(final String message, final Element element)
+        {
+            super(message);
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.socrata.utils.bindings;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Reads and writes the simple value types for generated bindings, with the same coercions Jackson's own
+ * deserializers make (such as numbers sent as strings, which SODA2 does for every number).  This is only meant
+ * to be called from generated code.
+ */
+public final class BindingSupport
+{
+    private BindingSupport()
+    {
+    }
+
+    /**
+     * Moves onto the first field of an object.
+     *
+     * @param parser the parser, on the START_OBJECT, or on the first FIELD_NAME
+     * @param ctxt the context of the read
+     * @param type the class being read
+     * @return the token after the START_OBJECT
+     * @throws IOException if the current token doesn't start an object.
+     */
+    public static JsonToken startObject(final JsonParser parser, final DeserializationContext ctxt, final Class<?> type) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return parser.nextToken();
+        } else if (token == JsonToken.FIELD_NAME || token == JsonToken.END_OBJECT) {
+            return token;
+        }
+        throw ctxt.mappingException(type);
+    }
+
+    /**
+     * Handles a field the class doesn't have, by failing if the mapper is set to fail on them, or skipping it.
+     *
+     * @param parser the parser, on the field's value
+     * @param ctxt the context of the read
+     * @param type the class being read
+     * @param field the name of the field
+     * @throws IOException if the mapper is set to fail on unknown fields.
+     */
+    public static void unknownField(final JsonParser parser, final DeserializationContext ctxt, final Class<?> type, final String field) throws IOException
+    {
+        if (ctxt.isEnabled(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES)) {
+            throw ctxt.unknownFieldException(type, field);
+        }
+        parser.skipChildren();
+    }
+
+    /**
+     * Reads a String.  Scalars are read as their text.
+     */
+    public static String readString(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.START_ARRAY || token == JsonToken.START_OBJECT || token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            throw ctxt.mappingException(String.class);
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Reads a Long from a number or a numeric string.  Null and empty strings are read as null.
+     */
+    public static Long readLongObject(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getLongValue();
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_STRING) {
+            final String text = parser.getText().trim();
+            if (text.length() == 0) {
+                return null;
+            }
+            try {
+                return Long.valueOf(text);
+            } catch (NumberFormatException e) {
+                throw ctxt.weirdStringException(Long.class, "not a valid Long value");
+            }
+        }
+        throw ctxt.mappingException(Long.class);
+    }
+
+    /**
+     * Reads a long from a number or a numeric string.  Null and empty strings are read as 0.
+     */
+    public static long readLong(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final Long value = readLongObject(parser, ctxt);
+        return (value != null) ? value : 0L;
+    }
+
+    /**
+     * Reads an Integer from a number or a numeric string.  Null and empty strings are read as null.
+     */
+    public static Integer readIntegerObject(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getIntValue();
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_STRING) {
+            final String text = parser.getText().trim();
+            if (text.length() == 0) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(text);
+            } catch (NumberFormatException e) {
+                throw ctxt.weirdStringException(Integer.class, "not a valid Integer value");
+            }
+        }
+        throw ctxt.mappingException(Integer.class);
+    }
+
+    /**
+     * Reads an int from a number or a numeric string.  Null and empty strings are read as 0.
+     */
+    public static int readInt(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final Integer value = readIntegerObject(parser, ctxt);
+        return (value != null) ? value : 0;
+    }
+
+    /**
+     * Reads a Double from a number or a numeric string.  Null and empty strings are read as null.
+     */
+    public static Double readDoubleObject(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_STRING) {
+            final String text = parser.getText().trim();
+            if (text.length() == 0) {
+                return null;
+            }
+            try {
+                return Double.valueOf(text);
+            } catch (NumberFormatException e) {
+                throw ctxt.weirdStringException(Double.class, "not a valid Double value");
+            }
+        }
+        throw ctxt.mappingException(Double.class);
+    }
+
+    /**
+     * Reads a double from a number or a numeric string.  Null and empty strings are read as 0.
+     */
+    public static double readDouble(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final Double value = readDoubleObject(parser, ctxt);
+        return (value != null) ? value : 0.0;
+    }
+
+    /**
+     * Reads a Float from a number or a numeric string.  Null and empty strings are read as null.
+     */
+    public static Float readFloatObject(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final Double value = readDoubleObject(parser, ctxt);
+        return (value != null) ? value.floatValue() : null;
+    }
+
+    /**
+     * Reads a float from a number or a numeric string.  Null and empty strings are read as 0.
+     */
+    public static float readFloat(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final Double value = readDoubleObject(parser, ctxt);
+        return (value != null) ? value.floatValue() : 0.0f;
+    }
+
+    /**
+     * Reads a Boolean from a boolean, a number, or "true" or "false".  Null and empty strings are read as null.
+     */
+    public static Boolean readBooleanObject(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_TRUE) {
+            return Boolean.TRUE;
+        } else if (token == JsonToken.VALUE_FALSE) {
+            return Boolean.FALSE;
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getIntValue() != 0;
+        } else if (token == JsonToken.VALUE_STRING) {
+            final String text = parser.getText().trim();
+            if (text.length() == 0) {
+                return null;
+            } else if ("true".equals(text)) {
+                return Boolean.TRUE;
+            } else if ("false".equals(text)) {
+                return Boolean.FALSE;
+            }
+            throw ctxt.weirdStringException(Boolean.class, "only \"true\" or \"false\" recognized");
+        }
+        throw ctxt.mappingException(Boolean.class);
+    }
+
+    /**
+     * Reads a boolean from a boolean, a number, or "true" or "false".  Null and empty strings are read as false.
+     */
+    public static boolean readBoolean(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final Boolean value = readBooleanObject(parser, ctxt);
+        return (value != null) && value;
+    }
+
+    /**
+     * Reads a Date from a number of milliseconds, or a string in the mapper's date format.
+     */
+    public static Date readDate(final JsonParser parser, final DeserializationContext ctxt) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return new Date(parser.getLongValue());
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_STRING) {
+            final String text = parser.getText().trim();
+            if (text.length() == 0) {
+                return null;
+            }
+            try {
+                return ctxt.parseDate(text);
+            } catch (IllegalArgumentException e) {
+                throw ctxt.weirdStringException(Date.class, "not a valid representation (error: " + e.getMessage() + ")");
+            }
+        }
+        throw ctxt.mappingException(Date.class);
+    }
+
+    /**
+     * Whether null properties should be left out.
+     *
+     * @param provider the provider of the write
+     * @param nonNullClass whether the class is annotated to leave out nulls
+     * @return whether null properties should be left out
+     */
+    public static boolean skipNulls(final SerializerProvider provider, final boolean nonNullClass)
+    {
+        return nonNullClass || provider.getConfig().getSerializationInclusion() == JsonSerialize.Inclusion.NON_NULL;
+    }
+
+    /**
+     * Writes a null property, unless nulls are being left out.
+     */
+    public static void writeNull(final JsonGenerator generator, final String field, final boolean skipNulls) throws IOException
+    {
+        if (!skipNulls) {
+            generator.writeNullField(field);
+        }
+    }
+
+    /**
+     * Writes a Date property, in the mapper's date format.
+     */
+    public static void writeDate(final JsonGenerator generator, final SerializerProvider provider, final String field, final Date value, final boolean skipNulls) throws IOException
+    {
+        if (value != null) {
+            generator.writeFieldName(field);
+            provider.defaultSerializeDateValue(value, generator);
+        } else {
+            writeNull(generator, field, skipNulls);
+        }
+    }
+
+    /**
+     * Writes any other property, with whatever serializer the mapper has for it.
+     */
+    public static void writeObject(final JsonGenerator generator, final SerializerProvider provider, final String field, final Object value, final boolean skipNulls) throws IOException
+    {
+        if (value != null) {
+            provider.defaultSerializeField(field, value, generator);
+        } else {
+            writeNull(generator, field, skipNulls);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.socrata.utils.bindings;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class to have a {@link JsonBinding} generated for it by the binding processor,
+ * {@code com.socrata.utils.bindings.BindingProcessor}.  The processor isn't in the main jar, as it is only needed
+ * while compiling; it is published as the {@code processor} classifier of this artifact, and registered so the
+ * compiler runs it as soon as that jar is on the classpath.<p/>
+ *
+ * The class must have a {@link org.codehaus.jackson.annotate.JsonCreator} constructor whose parameters are all
+ * named with {@link org.codehaus.jackson.annotate.JsonProperty}.  It is written with the same properties Jackson
+ * would find by reflection: public getters, getters annotated with {@code JsonProperty}, and public fields.
+ * {@code JsonIgnoreProperties} and a class level {@code JsonSerialize(include=NON_NULL)} are honoured.  Other
+ * annotations that change how properties are bound (such as {@code JsonSerialize} on a property, or
+ * {@code JsonTypeInfo}) are not supported, and fail the build.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateBinding
+{
+}
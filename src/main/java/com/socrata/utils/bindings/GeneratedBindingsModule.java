@@ -0,0 +1,112 @@
+package com.socrata.utils.bindings;
+
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.BeanDescription;
+import org.codehaus.jackson.map.BeanProperty;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.DeserializerProvider;
+import org.codehaus.jackson.map.Deserializers;
+import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.Module;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.Serializers;
+import org.codehaus.jackson.type.JavaType;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * A Jackson module that reads and writes classes with their generated {@link JsonBinding}s.<p/>
+ *
+ * Unlike a SimpleModule, a binding is only used for its exact class.  A subclass may have properties of its own,
+ * so it is still bound by reflection.
+ */
+public class GeneratedBindingsModule extends Module
+{
+    private final Map<Class<?>, JsonDeserializer<?>> readers = new HashMap<Class<?>, JsonDeserializer<?>>();
+    private final Map<Class<?>, JsonSerializer<?>> writers = new HashMap<Class<?>, JsonSerializer<?>>();
+
+    /**
+     * Creates a module with every binding listed on the classpath.  Bindings that can't be loaded are left out,
+     * so those classes are bound by reflection as usual.
+     *
+     * @return the module with the bindings found
+     */
+    public static GeneratedBindingsModule load()
+    {
+        final GeneratedBindingsModule module = new GeneratedBindingsModule();
+        final Iterator<JsonBinding> bindings = ServiceLoader.load(JsonBinding.class).iterator();
+        while (true) {
+            try {
+                if (!bindings.hasNext()) {
+                    break;
+                }
+                module.add(bindings.next());
+            } catch (ServiceConfigurationError e) {
+                //Skip the broken entry, and carry on with the rest
+            }
+        }
+        return module;
+    }
+
+    /**
+     * Adds a binding to the module.
+     *
+     * @param binding the binding to add
+     */
+    public void add(final JsonBinding<?> binding)
+    {
+        readers.put(binding.getType(), binding.getReader());
+        writers.put(binding.getType(), binding.getWriter());
+    }
+
+    /**
+     * The classes the module has bindings for.
+     * @return the classes the module has bindings for.
+     */
+    public Set<Class<?>> getTypes()
+    {
+        return Collections.unmodifiableSet(readers.keySet());
+    }
+
+    @Override
+    public String getModuleName()
+    {
+        return "GeneratedBindings";
+    }
+
+    @Override
+    public Version version()
+    {
+        return new Version(1, 0, 0, null);
+    }
+
+    @Override
+    public void setupModule(final SetupContext context)
+    {
+        context.addDeserializers(new Deserializers.None()
+        {
+            @Override
+            public JsonDeserializer<?> findBeanDeserializer(final JavaType type, final DeserializationConfig config, final DeserializerProvider provider,
+                                                            final BeanDescription beanDesc, final BeanProperty property)
+            {
+                return readers.get(type.getRawClass());
+            }
+        });
+
+        context.addSerializers(new Serializers.None()
+        {
+            @Override
+            public JsonSerializer<?> findSerializer(final SerializationConfig config, final JavaType type, final BeanDescription beanDesc, final BeanProperty property)
+            {
+                return writers.get(type.getRawClass());
+            }
+        });
+    }
+}
@@ -0,0 +1,32 @@
+package com.socrata.utils.bindings;
+
+import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.JsonSerializer;
+
+/**
+ * The generated reader and writer for one class.  Implementations are generated by the binding processor,
+ * and listed in {@code META-INF/services/com.socrata.utils.bindings.JsonBinding} so they can be found with a
+ * {@link java.util.ServiceLoader}.
+ *
+ * @param <T> the class bound
+ */
+public interface JsonBinding<T>
+{
+    /**
+     * The class bound.  Only this exact class is read and written with the binding, not its subclasses.
+     * @return the class bound.
+     */
+    Class<T> getType();
+
+    /**
+     * The streaming reader for the class.
+     * @return the streaming reader for the class.
+     */
+    JsonDeserializer<T> getReader();
+
+    /**
+     * The streaming writer for the class.
+     * @return the streaming writer for the class.
+     */
+    JsonSerializer<T> getWriter();
+}
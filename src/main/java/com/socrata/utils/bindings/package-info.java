@@ -0,0 +1,9 @@
+/**
+ * Jackson bindings generated at build time, so annotated classes are read and written with straight-line streaming
+ * code instead of Jackson's reflection.  Classes opt in with {@link com.socrata.utils.bindings.GenerateBinding},
+ * the binding processor generates their bindings while compiling, and {@code JacksonObjectMapperProvider} picks up
+ * whichever bindings are on the classpath.  The processor is published as the {@code processor} classifier of this
+ * artifact, so it only needs to be on the compile classpath of projects that generate bindings for their own
+ * classes.
+ **/
+package com.socrata.utils.bindings;
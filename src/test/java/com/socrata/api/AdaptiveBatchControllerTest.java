@@ -0,0 +1,75 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.ServiceUnavailableException;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.SodaErrorResponse;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Tests the batch size and window adjustments of the adaptive batch controller.
+ */
+public class AdaptiveBatchControllerTest
+{
+    @Test
+    public void testGrowsOnFastBatches()
+    {
+        final AdaptiveBatchController controller = new AdaptiveBatchController(1000, 100, 1500, 3, 1000, 5);
+        TestCase.assertEquals(1000, controller.getBatchSize());
+        TestCase.assertEquals(1, controller.getWindow());
+
+        controller.onSuccess(1000, 100);
+        TestCase.assertEquals(1100, controller.getBatchSize());
+        TestCase.assertEquals(2, controller.getWindow());
+
+        //A short batch, e.g. the last one, doesn't grow the batch size
+        controller.onSuccess(50, 100);
+        TestCase.assertEquals(1100, controller.getBatchSize());
+
+        for (int i=0; i<20; i++) {
+            controller.onSuccess(controller.getBatchSize(), 100);
+        }
+        TestCase.assertEquals(1500, controller.getBatchSize());
+        TestCase.assertEquals(3, controller.getWindow());
+        TestCase.assertTrue(controller.getThroughput() > 0);
+    }
+
+    @Test
+    public void testShrinksOnSlowBatches()
+    {
+        final AdaptiveBatchController controller = new AdaptiveBatchController(1000, 100, 5000, 4, 1000, 5);
+        controller.onSuccess(1000, 5000);
+        TestCase.assertEquals(750, controller.getBatchSize());
+        TestCase.assertEquals(1, controller.getWindow());
+    }
+
+    @Test
+    public void testBacksOff()
+    {
+        final AdaptiveBatchController controller = new AdaptiveBatchController(1000, 300, 5000, 4, 1000, 5);
+        for (int i=0; i<10; i++) {
+            controller.onSuccess(controller.getBatchSize(), 10);
+        }
+        TestCase.assertEquals(4, controller.getWindow());
+
+        final SodaError busy = new ServiceUnavailableException(new SodaErrorResponse("429", "Too many requests", null, null), 429, 0);
+        TestCase.assertTrue(AdaptiveBatchController.isRetryable(busy));
+        TestCase.assertFalse(AdaptiveBatchController.isRetryable(new SodaError("Bad row")));
+
+        final int before = controller.getBatchSize();
+        final long wait = controller.onBackoff(busy, 0);
+        TestCase.assertEquals(before / 2, controller.getBatchSize());
+        TestCase.assertEquals(2, controller.getWindow());
+        TestCase.assertTrue(wait >= 500 && wait <= 1000);
+
+        //Never below the minimum, and the server's Retry-After wins if it is longer
+        for (int i=1; i<5; i++) {
+            controller.onBackoff(busy, i);
+        }
+        TestCase.assertEquals(300, controller.getBatchSize());
+        TestCase.assertEquals(1, controller.getWindow());
+
+        final SodaError retryLater = new ServiceUnavailableException(new SodaErrorResponse("503", "Unavailable", null, null), 503, System.currentTimeMillis() + 30000);
+        TestCase.assertTrue(controller.onBackoff(retryLater, 0) > 20000);
+    }
+}
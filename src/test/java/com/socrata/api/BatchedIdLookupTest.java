@@ -0,0 +1,150 @@
+package com.socrata.api;
+
+import com.google.common.collect.ImmutableList;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.IdLookupResult;
+import com.socrata.model.Meta;
+import com.socrata.model.soql.SoqlQuery;
+import junit.framework.TestCase;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests splitting, querying and decoding batched id lookups.
+ */
+public class BatchedIdLookupTest
+{
+    @Test
+    public void testQuery()
+    {
+        final SoqlQuery query = BatchedIdLookup.queryFor(":id", false, Arrays.asList("row-1", "O'Hare"));
+        TestCase.assertEquals(":id in ('row-1', 'O''Hare')", query.whereClause.toString());
+        TestCase.assertEquals(ImmutableList.of(":id", "*"), query.selectClause);
+        TestCase.assertEquals(Integer.valueOf(2), query.limit);
+
+        TestCase.assertNull(BatchedIdLookup.queryFor("case_number", false, Arrays.asList("1")).selectClause);
+    }
+
+    @Test
+    public void testChunk()
+    {
+        final List<String> ids = new ArrayList<String>();
+        for (int i=0; i<2500; i++) {
+            ids.add("row-" + i);
+        }
+
+        final List<List<String>> chunks = BatchedIdLookup.chunk(ids, 200 + BatchedIdLookup.encodedLength(":id in ()"));
+        final List<String> joined = new ArrayList<String>();
+        for (List<String> chunk : chunks) {
+            TestCase.assertTrue(chunk.size() <= BatchedIdLookup.MAX_CHUNK_SIZE);
+            final String where = BatchedIdLookup.queryFor(":id", false, chunk).whereClause.toString();
+            TestCase.assertTrue(200 + BatchedIdLookup.encodedLength(where) <= BatchedIdLookup.MAX_URL_LENGTH);
+            joined.addAll(chunk);
+        }
+        TestCase.assertEquals(ids, joined);
+        TestCase.assertTrue(chunks.size() > 3);
+
+        //Ids that need encoding take more room
+        TestCase.assertEquals(1 + 3 + 1 + 3 + 6, BatchedIdLookup.encodedLength("a b'é"));
+        TestCase.assertTrue(BatchedIdLookup.chunk(Arrays.asList("é", "é"), BatchedIdLookup.MAX_URL_LENGTH - 10).size() == 2);
+    }
+
+    @Test
+    public void testDecode() throws IOException, SodaError
+    {
+        final String response = "[{\":id\":\"row-1\",\":updated_at\":1347667200000}," +
+                "{\":id\":\"row-2\"},{\"other\":\"no id\"}]";
+
+        final Map<String, ObjectNode> rows = BatchedIdLookup.readRows(new ByteArrayInputStream(response.getBytes("UTF-8")), ":id", false);
+        TestCase.assertEquals(2, rows.size());
+
+        final Meta meta = BatchedIdLookup.bind(rows.get("row-1"), BatchedIdLookup.unboundFields(Meta.class, Arrays.asList(":id")), Meta.class);
+        TestCase.assertEquals("row-1", meta.getId());
+        TestCase.assertEquals(1347667200000L, meta.getUpdatedAt().getTime());
+
+        //Classes that don't bind the system fields don't get them, but Maps keep them
+        TestCase.assertEquals(Arrays.asList(":updated_at"), BatchedIdLookup.unboundFields(QueryProjectionsTest.Bean.class, Arrays.asList(":updated_at")));
+        TestCase.assertTrue(BatchedIdLookup.unboundFields(Map.class, Arrays.asList(":id")).isEmpty());
+        TestCase.assertEquals("row-2", BatchedIdLookup.bind(rows.get("row-2"), Collections.<String>emptyList(), Map.class).get(":id"));
+    }
+
+    @Test
+    public void testSystemFieldQuery()
+    {
+        final List<String> ids = Arrays.asList("1");
+        TestCase.assertEquals(ImmutableList.of("case_number", ":updated_at"),
+                BatchedIdLookup.queryFor("case_number", false, ids, Arrays.asList(":updated_at"), false).selectClause);
+        TestCase.assertEquals(ImmutableList.of(":updated_at", "*"),
+                BatchedIdLookup.queryFor("case_number", false, ids, Arrays.asList(":updated_at"), true).selectClause);
+        TestCase.assertEquals(ImmutableList.of(":id", ":updated_at", "*"),
+                BatchedIdLookup.queryFor(":id", false, ids, Arrays.asList(":updated_at"), true).selectClause);
+    }
+
+    @Test
+    public void testNumberIds() throws IOException
+    {
+        TestCase.assertEquals("123", BatchedIdLookup.keyOf("123.0", true));
+        TestCase.assertEquals("1200", BatchedIdLookup.keyOf(" 1.2e3 ", true));
+        TestCase.assertEquals("0", BatchedIdLookup.keyOf("-0.00", true));
+        TestCase.assertNull(BatchedIdLookup.keyOf("12 or 1=1", true));
+        TestCase.assertEquals("123.0", BatchedIdLookup.keyOf("123.0", false));
+
+        TestCase.assertEquals("num_col in (123, -4.5)",
+                BatchedIdLookup.queryFor("num_col", true, Arrays.asList("123.00", "-4.50")).whereClause.toString());
+        try {
+            BatchedIdLookup.queryFor("num_col", true, Arrays.asList("123) or (1=1"));
+            TestCase.fail("The id isn't a number.");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+
+        final String response = "[{\"num_col\":\"123.0\"},{\"num_col\":4.5}]";
+        final Map<String, ObjectNode> rows = BatchedIdLookup.readRows(new ByteArrayInputStream(response.getBytes("UTF-8")), "num_col", true);
+        TestCase.assertEquals(2, rows.size());
+        TestCase.assertTrue(rows.containsKey("123"));
+        TestCase.assertTrue(rows.containsKey("4.5"));
+    }
+
+    @Test
+    public void testLookupNumberIds() throws Exception
+    {
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        final Soda2Consumer consumer = new Soda2Consumer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            ClientResponse issueQuery(final String resourceId, final SoqlQuery query)
+            {
+                queries.add(query.whereClause.toString());
+                final String response = "[{\"num_col\":\"123\",\"name\":\"first\"}]";
+                return new ClientResponse(200, new InBoundHeaders(), new ByteArrayInputStream(response.getBytes()), null);
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final IdLookupResult<Map> result = new BatchedIdLookup(consumer, executor)
+                    .lookup("abcd-1234", "num_col", true, Arrays.asList("123.0", "123", "two"), Map.class);
+            TestCase.assertEquals(Arrays.asList("num_col in (123)"), queries);
+            TestCase.assertEquals("first", result.getRows().get("123.0").get("name"));
+            TestCase.assertEquals("first", result.getRows().get("123").get("name"));
+            TestCase.assertEquals(Arrays.asList("two"), result.getMissingIds());
+
+            //The executor belongs to the caller, so it is still running
+            TestCase.assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.socrata.api;
+
+import com.google.common.collect.Lists;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests splitting, sending and combining the chunks of a bulk upsert, against a producer that never goes to the
+ * network.
+ */
+public class ChunkedUpserterTest
+{
+    @Test
+    public void testChunksAndErrorIndexes() throws Exception
+    {
+        final StubProducer producer = new StubProducer();
+        final UpsertResult result = new ChunkedUpserter(producer, 10, 3).upsert("abcd-1234", rows(25, 0).iterator());
+
+        final List<Integer> sizes = Lists.newArrayList();
+        final List<Integer> ids = Lists.newArrayList();
+        for (List<Integer> chunk : producer.sortedChunks()) {
+            sizes.add(chunk.size());
+            ids.addAll(chunk);
+        }
+        TestCase.assertEquals(Lists.newArrayList(10, 10, 5), sizes);
+        TestCase.assertEquals(rowIds(25), ids);
+
+        //Rows whose id is a multiple of 7 fail, and their indexes refer to the whole sequence
+        TestCase.assertEquals(21, result.getRowsCreated());
+        TestCase.assertEquals(4, result.errorCount());
+        final List<Integer> errorIndexes = Lists.newArrayList();
+        for (UpsertError error : result.getErrors()) {
+            TestCase.assertEquals(Integer.toString(error.getIndex()), error.getPrimaryKey());
+            errorIndexes.add(error.getIndex());
+        }
+        Collections.sort(errorIndexes);
+        TestCase.assertEquals(Lists.newArrayList(0, 7, 14, 21), errorIndexes);
+    }
+
+    @Test
+    public void testFailureStopsLaterChunks() throws Exception
+    {
+        final StubProducer producer = new StubProducer();
+        producer.failChunkStartingAt = 20;
+        try {
+            new ChunkedUpserter(producer, 10, 1).upsert("abcd-1234", rows(100, 0).iterator());
+            TestCase.fail("The third chunk fails.");
+        } catch (SodaError e) {
+            TestCase.assertEquals("chunk failed", e.getMessage());
+        }
+
+        //With one chunk in flight, nothing after the failed chunk is started
+        TestCase.assertEquals(3, producer.calls.get());
+    }
+
+    @Test
+    public void testOnlyTheWindowIsHeld() throws Exception
+    {
+        final StubProducer producer = new StubProducer();
+        producer.blockUntil = new CountDownLatch(1);
+        final AtomicInteger pulled = new AtomicInteger();
+        final Iterator<Map<String, Object>> source = rows(100, 0).iterator();
+        final Iterator<Map<String, Object>> counting = new Iterator<Map<String, Object>>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return source.hasNext();
+            }
+
+            @Override
+            public Map<String, Object> next()
+            {
+                pulled.incrementAndGet();
+                return source.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final Thread upserter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    new ChunkedUpserter(producer, 10, 2).upsert("abcd-1234", counting);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        upserter.start();
+
+        //Both chunks in flight are stuck, so only a third chunk should be pulled, to wait for room
+        TestCase.assertTrue(producer.started.tryAcquire(2, 5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        TestCase.assertEquals(30, pulled.get());
+
+        producer.blockUntil.countDown();
+        upserter.join(5000);
+        TestCase.assertEquals(100, pulled.get());
+        TestCase.assertEquals(10, producer.calls.get());
+    }
+
+    @Test
+    public void testNextChunkIsEncodedDuringSend() throws Exception
+    {
+        final StubProducer producer = new StubProducer();
+        producer.blockUntil = new CountDownLatch(1);
+        final AtomicInteger encoded = new AtomicInteger();
+        final List<Counted> objects = Lists.newArrayList();
+        for (int i=1; i<=30; i++) {
+            objects.add(new Counted(i, encoded));
+        }
+
+        final Thread upserter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    new ChunkedUpserter(producer, 10, 1).upsert("abcd-1234", objects.iterator());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        upserter.start();
+
+        //The first chunk is stuck on the wire, and the second is encoded in the meantime
+        TestCase.assertTrue(producer.started.tryAcquire(1, 5, TimeUnit.SECONDS));
+        for (int i=0; i<500 && encoded.get() < 20; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        TestCase.assertEquals(20, encoded.get());
+        TestCase.assertEquals(1, producer.calls.get());
+
+        producer.blockUntil.countDown();
+        upserter.join(5000);
+        TestCase.assertEquals(30, encoded.get());
+        TestCase.assertEquals(3, producer.calls.get());
+    }
+
+    /**
+     * Row that counts the times it is encoded.
+     */
+    public static class Counted
+    {
+        private final int id;
+        private final AtomicInteger encoded;
+
+        Counted(final int id, final AtomicInteger encoded)
+        {
+            this.id = id;
+            this.encoded = encoded;
+        }
+
+        public int getId()
+        {
+            encoded.incrementAndGet();
+            return id;
+        }
+    }
+
+    private static List<Map<String, Object>> rows(final int count, final int firstId)
+    {
+        final List<Map<String, Object>> rows = Lists.newArrayList();
+        for (int i=0; i<count; i++) {
+            rows.add(Collections.<String, Object>singletonMap("id", firstId + i));
+        }
+        return rows;
+    }
+
+    private static List<Integer> rowIds(final int count)
+    {
+        final List<Integer> ids = Lists.newArrayList();
+        for (int i=0; i<count; i++) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Producer that records the ids in each chunk, and fails the rows whose id is a multiple of 7.
+     */
+    private static class StubProducer extends Soda2Producer
+    {
+        final List<List<Integer>> chunks = Collections.synchronizedList(Lists.<List<Integer>>newArrayList());
+        final AtomicInteger calls = new AtomicInteger();
+        final Semaphore started = new Semaphore(0);
+        volatile CountDownLatch blockUntil;
+        volatile int failChunkStartingAt = -1;
+
+        StubProducer()
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+        }
+
+        List<List<Integer>> sortedChunks()
+        {
+            final List<List<Integer>> sorted = Lists.newArrayList(chunks);
+            Collections.sort(sorted, new Comparator<List<Integer>>()
+            {
+                @Override
+                public int compare(final List<Integer> a, final List<Integer> b)
+                {
+                    return a.get(0).compareTo(b.get(0));
+                }
+            });
+            return sorted;
+        }
+
+        @Override
+        public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+        {
+            calls.incrementAndGet();
+            started.release();
+            if (blockUntil != null) {
+                blockUntil.await();
+            }
+
+            final List<Map<String, Object>> rows;
+            try {
+                final InputStream is = body.open();
+                try {
+                    rows = new ObjectMapper().readValue(IOUtils.toByteArray(is), List.class);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                throw new SodaError(e);
+            }
+
+            final List<Integer> ids = Lists.newArrayList();
+            final List<UpsertError> errors = Lists.newArrayList();
+            for (int i=0; i<rows.size(); i++) {
+                final int id = ((Number) rows.get(i).get("id")).intValue();
+                ids.add(id);
+                if (id % 7 == 0) {
+                    errors.add(new UpsertError("bad row", i, Integer.toString(id)));
+                }
+            }
+            if (ids.get(0) == failChunkStartingAt) {
+                throw new SodaError("chunk failed");
+            }
+            chunks.add(ids);
+            return new UpsertResult(rows.size() - errors.size(), 0, 0, errors.isEmpty() ? null : errors);
+        }
+    }
+}
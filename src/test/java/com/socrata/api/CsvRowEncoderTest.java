@@ -0,0 +1,170 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.Address;
+import com.socrata.model.DeleteRecord;
+import com.socrata.model.Location;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import com.socrata.utils.PooledBufferOutputStream;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests encoding objects as CSV upsert bodies.
+ */
+public class CsvRowEncoderTest
+{
+    public static class Crime
+    {
+        @JsonProperty("id")
+        public final int id;
+        @JsonProperty("description")
+        public final String description;
+
+        public Crime(int id, String description)
+        {
+            this.id = id;
+            this.description = description;
+        }
+    }
+
+    @Test
+    public void testEncode() throws Exception
+    {
+        final CsvRowEncoder encoder = new CsvRowEncoder(Arrays.asList("description", "id", "location"), new JacksonObjectMapperProvider().getContext(Object.class));
+
+        final Map<String, Object> located = new LinkedHashMap<String, Object>();
+        located.put("id", 3);
+        located.put("location", new LinkedHashMap<String, Object>() {{ put("latitude", 47.6); put("longitude", -122.3); }});
+
+        final PooledBufferOutputStream encoded = encoder.encode(Arrays.asList(
+                new Crime(1, "Plain"),
+                new Crime(2, "Has \"quotes\", commas\nand lines"),
+                located));
+
+        TestCase.assertEquals("description,id,location\n" +
+                              "Plain,1,\n" +
+                              "\"Has \"\"quotes\"\", commas\nand lines\",2,\n" +
+                              ",3,\"(47.6, -122.3)\"\n",
+                              text(encoded));
+        TestCase.assertEquals(encoded.size(), text(encoded).getBytes("UTF-8").length);
+        encoded.release();
+    }
+
+    @Test
+    public void testColumnsOfBeans() throws Exception
+    {
+        final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+        //Beans give their Jackson properties, once per class, and null properties are written empty
+        final CsvRowEncoder encoder = CsvRowEncoder.forObjects(Arrays.asList(new Sparse(1, null)), mapper);
+        TestCase.assertEquals(Arrays.asList("id", "status"), encoder.getColumns());
+        TestCase.assertSame(encoder.getColumns().get(0), CsvRowEncoder.columnsOf(Sparse.class, mapper).get(0));
+        TestCase.assertEquals("id,status\n1,\n2,open\n", text(encoder.encode(Arrays.asList(new Sparse(1, null), new Sparse(2, "open")))));
+
+        try {
+            CsvRowEncoder.columnsOf(String.class, mapper);
+            TestCase.fail("Strings have no columns.");
+        } catch (SodaError e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testColumnsOfMaps() throws Exception
+    {
+        final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+        //Partial Maps only send what they set
+        final Map<String, Object> first = new LinkedHashMap<String, Object>();
+        first.put("id", 1);
+        first.put("status", "open");
+        final Map<String, Object> second = new LinkedHashMap<String, Object>();
+        second.put("status", null);
+        second.put("id", 2);
+        final CsvRowEncoder encoder = CsvRowEncoder.forObjects(Arrays.asList(first, second), mapper);
+        TestCase.assertEquals(Arrays.asList("id", "status"), encoder.getColumns());
+        TestCase.assertEquals("id,status\n1,open\n2,\n", text(encoder.encode(Arrays.asList(first, second))));
+
+        //Leaving a field out of one row would clear it
+        second.remove("status");
+        try {
+            CsvRowEncoder.forObjects(Arrays.asList(first, second), mapper).encode(Arrays.asList(first, second));
+            TestCase.fail("The second row doesn't set status.");
+        } catch (SodaError e) {
+            TestCase.assertTrue(e.getMessage().contains("status"));
+        }
+    }
+
+    @Test
+    public void testLocations() throws Exception
+    {
+        final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+        final Location full = new Location(-77.0365, 38.8977, new Address("1600 Pennsylvania Ave", "Washington", "DC", "20500"));
+
+        //Both as a value in a Map, and as a bean property serialized along with its bean
+        final Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("place", full);
+        final List<?> rows = Arrays.asList(row, new Place(new Location(null, null, new Address(null, "Seattle", "WA", null))));
+
+        TestCase.assertEquals("place\n" +
+                              "\"1600 Pennsylvania Ave\nWashington, DC 20500\n(38.8977, -77.0365)\"\n" +
+                              "\"Seattle, WA\"\n",
+                              text(new CsvRowEncoder(Arrays.asList("place"), mapper).encode(rows)));
+    }
+
+    public static class Place
+    {
+        @JsonProperty("place")
+        public final Location place;
+
+        public Place(Location place)
+        {
+            this.place = place;
+        }
+    }
+
+    @Test
+    public void testUnknownField() throws Exception
+    {
+        final CsvRowEncoder encoder = new CsvRowEncoder(Arrays.asList("id", "description"), new JacksonObjectMapperProvider().getContext(Object.class));
+        try {
+            encoder.encode(Arrays.asList(new DeleteRecord("1", true)));
+            TestCase.fail("Fields that aren't columns should not be silently dropped");
+        } catch (SodaError e) {
+            //expected
+        }
+
+        final CsvRowEncoder systemEncoder = new CsvRowEncoder(Arrays.asList(":id", ":deleted"), new JacksonObjectMapperProvider().getContext(Object.class));
+        TestCase.assertEquals(":id,:deleted\n1,true\n", text(systemEncoder.encode(Arrays.asList(new DeleteRecord("1", true)))));
+    }
+
+    public static class Sparse
+    {
+        @JsonProperty("id")
+        public final int id;
+        @JsonProperty("status")
+        public final String status;
+
+        public Sparse(int id, String status)
+        {
+            this.id = id;
+            this.status = status;
+        }
+    }
+
+    private static String text(final PooledBufferOutputStream encoded) throws IOException
+    {
+        return IOUtils.toString(ReplayableBody.fromBuffers(encoded.getBuffers()).open(), "UTF-8");
+    }
+}
@@ -0,0 +1,90 @@
+package com.socrata.api;
+
+import com.socrata.model.requests.ReplayableBody;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests how request bodies are streamed, against a local server.
+ */
+public class HttpLowLevelTest
+{
+    private HttpServer server;
+    private final List<String> transferEncodings = new ArrayList<String>();
+    private final List<String> contentLengths = new ArrayList<String>();
+    private final List<String> bodies = new ArrayList<String>();
+
+    @Before
+    public void startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException
+            {
+                transferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                contentLengths.add(exchange.getRequestHeaders().getFirst("Content-Length"));
+
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final InputStream in = exchange.getRequestBody();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                bodies.add(body.toString("UTF-8"));
+
+                final byte[] response = "{}".getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void testStreamBodyIsChunkedUntilLengthIsKnown() throws Exception
+    {
+        final HttpLowLevel httpLowLevel = HttpLowLevel.instantiate("http://localhost:" + server.getAddress().getPort());
+        final URI uri = httpLowLevel.uriBuilder().path("resource").path("abcd-1234").build();
+        final ReplayableBody body = ReplayableBody.fromStream(new ByteArrayInputStream("[{\"a\":1}]".getBytes("UTF-8")));
+
+        //The first send doesn't know the length, so it is streamed rather than buffered to count it
+        httpLowLevel.postRaw(uri, HttpLowLevel.JSON_TYPE, body).close();
+        TestCase.assertEquals("chunked", transferEncodings.get(0));
+
+        //Once spooled, the length is known and sent up front
+        httpLowLevel.putRaw(uri, HttpLowLevel.JSON_TYPE, body).close();
+        TestCase.assertNull(transferEncodings.get(1));
+        TestCase.assertEquals("9", contentLengths.get(1));
+
+        TestCase.assertEquals("[{\"a\":1}]", bodies.get(0));
+        TestCase.assertEquals("[{\"a\":1}]", bodies.get(1));
+        body.close();
+    }
+}
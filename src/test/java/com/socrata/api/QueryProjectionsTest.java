@@ -0,0 +1,87 @@
+package com.socrata.api;
+
+import com.google.common.collect.ImmutableList;
+import com.socrata.builders.SoqlQueryBuilder;
+import com.socrata.model.Meta;
+import com.socrata.model.soql.ConditionalExpression;
+import com.socrata.model.soql.SoqlQuery;
+import junit.framework.TestCase;
+import org.codehaus.jackson.annotate.JsonAnySetter;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.junit.Test;
+import test.model.Nomination;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests working out the $select for the class results are bound to.
+ */
+public class QueryProjectionsTest
+{
+    @Test
+    public void testFields()
+    {
+        TestCase.assertEquals(Arrays.asList("name", "position", "agency_name", "agency_website", "nomination_date", "confirmation_vote", "confirmed", "holdover"),
+                QueryProjections.fieldsFor(Nomination.class));
+        TestCase.assertSame(QueryProjections.fieldsFor(Nomination.class), QueryProjections.fieldsFor(Nomination.class));
+        TestCase.assertEquals(Arrays.asList(":id", ":updated_meta", ":created_meta", ":updated_at", ":created_at"), QueryProjections.fieldsFor(Meta.class));
+
+        TestCase.assertEquals(Arrays.asList("count", "label"), QueryProjections.fieldsFor(Bean.class));
+        TestCase.assertTrue(QueryProjections.fieldsFor(Map.class).isEmpty());
+        TestCase.assertTrue(QueryProjections.fieldsFor(Object.class).isEmpty());
+        TestCase.assertTrue(QueryProjections.fieldsFor(String.class).isEmpty());
+        TestCase.assertTrue(QueryProjections.fieldsFor(AnyBean.class).isEmpty());
+    }
+
+    @Test
+    public void testElementClass()
+    {
+        TestCase.assertEquals(Nomination.class, QueryProjections.elementClass(Nomination.LIST_TYPE.getType()));
+        TestCase.assertNull(QueryProjections.elementClass(Soda2Consumer.HASH_RETURN_TYPE.getType()));
+    }
+
+    @Test
+    public void testProject()
+    {
+        final SoqlQuery query = new SoqlQueryBuilder().setWhereClause(new ConditionalExpression("confirmed = true")).setLimit(5).build();
+        final SoqlQuery projected = QueryProjections.project(query, Arrays.asList("name", "position"));
+        TestCase.assertEquals(ImmutableList.of("name", "position"), projected.selectClause);
+        TestCase.assertSame(query.whereClause, projected.whereClause);
+        TestCase.assertEquals(Integer.valueOf(5), projected.limit);
+
+        TestCase.assertSame(query, QueryProjections.project(query, Collections.<String>emptyList()));
+        final SoqlQuery grouped = new SoqlQueryBuilder().addGroupByPhrase("position").build();
+        TestCase.assertSame(grouped, QueryProjections.project(grouped, Arrays.asList("name")));
+    }
+
+    @JsonIgnoreProperties({"ignored"})
+    public static class Bean
+    {
+        private int count;
+
+        @JsonProperty("label")
+        public String label;
+
+        public String ignored;
+
+        public void setCount(final int count)
+        {
+            this.count = count;
+        }
+    }
+
+    public static class AnyBean
+    {
+        @JsonProperty("name")
+        public String name;
+
+        @JsonAnySetter
+        public void set(final String field, final Object value)
+        {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.DoesNotExistException;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.soql.SoqlQuery;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import junit.framework.TestCase;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests caching rows looked up by id, and revalidating them by version.
+ */
+public class RowCacheTest
+{
+    @Test
+    public void testCache() throws SodaError, InterruptedException
+    {
+        final StubConsumer consumer = new StubConsumer();
+        consumer.put("row-1", "100", "first");
+        consumer.put("row-2", "200", "second");
+        consumer.put("row-3", "300", "third");
+
+        final RowCache cache = new RowCache(10);
+        final Item first = cache.get(consumer, ":id", "abcd-1234", "row-1", Item.class);
+        TestCase.assertEquals("first", first.name);
+        TestCase.assertSame(first, cache.get(consumer, ":id", "abcd-1234", "row-1", Item.class));
+        cache.get(consumer, ":id", "abcd-1234", "row-2", Item.class);
+        cache.get(consumer, ":id", "abcd-1234", "row-3", Item.class);
+        TestCase.assertEquals(3, consumer.queries);
+        TestCase.assertEquals(3, cache.size());
+
+        try {
+            cache.get(consumer, ":id", "abcd-1234", "row-4", Item.class);
+            TestCase.fail("row-4 doesn't exist");
+        } catch (DoesNotExistException e) {
+            //Expected
+        }
+
+        //Nothing changed, so one versions query and no fetches
+        consumer.queries = 0;
+        TestCase.assertEquals(0, cache.revalidate(consumer, new StubRowIdentifiers()));
+        TestCase.assertEquals(1, consumer.queries);
+
+        //One row changed, one was deleted
+        consumer.put("row-2", "201", "second, updated");
+        consumer.rows.remove("row-3");
+        consumer.queries = 0;
+        TestCase.assertEquals(2, cache.revalidate(consumer, new StubRowIdentifiers()));
+        TestCase.assertEquals(2, consumer.queries);
+        TestCase.assertEquals(2, cache.size());
+
+        consumer.queries = 0;
+        TestCase.assertEquals("second, updated", cache.get(consumer, ":id", "abcd-1234", "row-2", Item.class).name);
+        TestCase.assertSame(first, cache.get(consumer, ":id", "abcd-1234", "row-1", Item.class));
+        TestCase.assertEquals(0, consumer.queries);
+    }
+
+    @Test
+    public void testEviction() throws SodaError, InterruptedException
+    {
+        final StubConsumer consumer = new StubConsumer();
+        final RowCache cache = new RowCache(5);
+        for (int i=0; i<20; i++) {
+            consumer.put("row-" + i, "1", "name");
+            cache.get(consumer, ":id", "abcd-1234", "row-" + i, Item.class);
+        }
+        TestCase.assertTrue(cache.size() <= 5);
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown=true)
+    public static class Item
+    {
+        @JsonProperty("name")
+        public String name;
+    }
+
+    private static class StubRowIdentifiers extends RowIdentifiers
+    {
+        StubRowIdentifiers()
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+        }
+
+        @Override
+        String getFieldName(final String resourceId)
+        {
+            return SYSTEM_ID;
+        }
+    }
+
+    /**
+     * Answers "where :id in (...)" queries from a map of rows.
+     */
+    private static class StubConsumer extends Soda2Consumer
+    {
+        private static final Pattern ID = Pattern.compile("'((?:[^']|'')*)'");
+
+        final Map<String, String[]> rows = new HashMap<String, String[]>();
+        int queries;
+
+        StubConsumer()
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+        }
+
+        void put(final String id, final String version, final String name)
+        {
+            rows.put(id, new String[] { version, name });
+        }
+
+        @Override
+        ClientResponse issueQuery(final String resourceId, final SoqlQuery query)
+        {
+            queries++;
+            final boolean allColumns = query.selectClause.contains("*");
+            final StringBuilder response = new StringBuilder("[");
+            final Matcher matcher = ID.matcher(query.whereClause.toString());
+            while (matcher.find()) {
+                final String id = matcher.group(1).replace("''", "'");
+                final String[] row = rows.get(id);
+                if (row != null) {
+                    response.append(response.length() > 1 ? "," : "")
+                            .append("{\":id\":\"").append(id).append("\",\":updated_at\":").append(row[0]);
+                    if (allColumns) {
+                        response.append(",\"name\":\"").append(row[1]).append('"');
+                    }
+                    response.append('}');
+                }
+            }
+            response.append(']');
+
+            try {
+                return new ClientResponse(200, new InBoundHeaders(), new ByteArrayInputStream(response.toString().getBytes("UTF-8")), null);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
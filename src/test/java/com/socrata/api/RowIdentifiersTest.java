@@ -0,0 +1,108 @@
+package com.socrata.api;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.importer.Column;
+import com.socrata.model.importer.Dataset;
+import com.socrata.model.importer.Metadata;
+import com.socrata.model.requests.ReplayableBody;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests working out a dataset's row identifier, and the bulk updates keyed by it.
+ */
+public class RowIdentifiersTest
+{
+    @Test
+    public void testLookup()
+    {
+        final Dataset dataset = new Dataset();
+        TestCase.assertEquals(RowIdentifiers.SYSTEM_ID, RowIdentifiers.lookup(dataset));
+
+        dataset.setMetadata(new Metadata());
+        TestCase.assertEquals(RowIdentifiers.SYSTEM_ID, RowIdentifiers.lookup(dataset));
+
+        dataset.setColumns(Lists.newArrayList(new Column(1001, "Name", "name", null, "text", 1, 10),
+                                              new Column(1002, "Case Number", "case_number", null, "text", 2, 10)));
+
+        //The metadata may hold either the column id or the field name
+        dataset.getMetadata().setRowIdentifier("1002");
+        TestCase.assertEquals("case_number", RowIdentifiers.lookup(dataset));
+        dataset.getMetadata().setRowIdentifier("name");
+        TestCase.assertEquals("name", RowIdentifiers.lookup(dataset));
+    }
+
+    @Test
+    public void testUpdateAllMergesUpdatesToTheSameRow() throws Exception
+    {
+        final StubProducer producer = new StubProducer();
+        final List<Map.Entry<?, ?>> updates = Lists.newArrayList();
+        updates.add(entry("A-1", ImmutableMap.of("a", 1, "c", "first")));
+        updates.add(entry("B-2", ImmutableMap.of("a", 5)));
+        updates.add(entry("A-1", ImmutableMap.of("b", 2, "c", "second")));
+        updates.add(entry("B-2", null));
+
+        final UpsertResult result = producer.updateAll("abcd-1234", updates);
+        TestCase.assertEquals(2, result.getRowsUpdated());
+
+        TestCase.assertEquals(2, producer.rows.size());
+        TestCase.assertEquals(ImmutableMap.of("a", 1, "c", "second", "b", 2, "case_number", "A-1"), producer.rows.get(0));
+        TestCase.assertEquals(ImmutableMap.of("a", 5, "case_number", "B-2"), producer.rows.get(1));
+    }
+
+    private static Map.Entry<?, ?> entry(final String id, final Object update)
+    {
+        return new AbstractMap.SimpleEntry<String, Object>(id, update);
+    }
+
+    /**
+     * Producer for a dataset keyed by case_number, that records the rows it is asked to upsert.
+     */
+    private static class StubProducer extends Soda2Producer
+    {
+        final List<Map<String, Object>> rows = Collections.synchronizedList(Lists.<Map<String, Object>>newArrayList());
+
+        StubProducer()
+        {
+            super(HttpLowLevel.instantiate("http://localhost"), new RowIdentifiers(HttpLowLevel.instantiate("http://localhost"))
+            {
+                @Override
+                String getFieldName(final String resourceId)
+                {
+                    return "case_number";
+                }
+            });
+        }
+
+        @Override
+        public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+        {
+            final List<Map<String, Object>> chunk;
+            try {
+                final InputStream is = body.open();
+                try {
+                    chunk = new ObjectMapper().readValue(IOUtils.toByteArray(is), List.class);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                throw new SodaError(e);
+            }
+            rows.addAll(chunk);
+            return new UpsertResult(0, chunk.size(), 0, null);
+        }
+    }
+}
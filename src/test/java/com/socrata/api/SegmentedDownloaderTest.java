@@ -0,0 +1,261 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests planning, resuming and validating segmented downloads, against a local server.
+ */
+public class SegmentedDownloaderTest
+{
+    private static final int LENGTH = 3 * 1024 * 1024 + 17;
+
+    private HttpServer server;
+    private URI uri;
+    private File target;
+    private File checkpoint;
+
+    private volatile byte[] content = bytes(LENGTH, 1);
+    private volatile String etag = "\"v1\"";
+    //The ETag switches to this after the first request, if set
+    private volatile String nextEtag;
+    private volatile long rangeStartSkew;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException
+            {
+                serve(exchange);
+            }
+        });
+        server.start();
+        uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/download/file.bin");
+
+        target = File.createTempFile("segmented", ".bin");
+        target.delete();
+        checkpoint = new File(target.getPath() + SegmentedDownloader.CHECKPOINT_SUFFIX);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+        target.delete();
+        checkpoint.delete();
+    }
+
+    @Test
+    public void testParseTotalLength()
+    {
+        TestCase.assertEquals(12345, SegmentedDownloader.parseTotalLength("bytes 0-0/12345"));
+        TestCase.assertEquals(-1, SegmentedDownloader.parseTotalLength("bytes 0-0/*"));
+        TestCase.assertEquals(-1, SegmentedDownloader.parseTotalLength("bytes 0-0"));
+        TestCase.assertEquals(-1, SegmentedDownloader.parseTotalLength(""));
+        TestCase.assertEquals(-1, SegmentedDownloader.parseTotalLength(null));
+    }
+
+    @Test
+    public void testParseRangeStart()
+    {
+        TestCase.assertEquals(100, SegmentedDownloader.parseRangeStart("bytes 100-199/12345"));
+        TestCase.assertEquals(0, SegmentedDownloader.parseRangeStart(" bytes 0-0/*"));
+        TestCase.assertEquals(-1, SegmentedDownloader.parseRangeStart("bytes */12345"));
+        TestCase.assertEquals(-1, SegmentedDownloader.parseRangeStart(null));
+    }
+
+    @Test
+    public void testValidator()
+    {
+        TestCase.assertEquals("\"abc\"", SegmentedDownloader.validatorOf("\"abc\"", "Tue, 15 Nov 1994 12:45:26 GMT"));
+        TestCase.assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", SegmentedDownloader.validatorOf("W/\"abc\"", "Tue, 15 Nov 1994 12:45:26 GMT"));
+        TestCase.assertNull(SegmentedDownloader.validatorOf("W/\"abc\"", null));
+    }
+
+    @Test
+    public void testPlanAndResume() throws IOException
+    {
+        final SegmentedDownloader downloader = new SegmentedDownloader(HttpLowLevel.instantiate("http://localhost"), 4);
+        final RandomAccessFile file = new RandomAccessFile(checkpoint, "rw");
+        try {
+            final FileChannel channel = file.getChannel();
+            final SegmentedDownloader.Plan plan = downloader.createPlan(channel, LENGTH, "\"v1\"");
+            TestCase.assertEquals(4, plan.segments.length);
+            TestCase.assertEquals(0, plan.segments[0][0]);
+            TestCase.assertEquals(LENGTH, plan.segments[3][1]);
+            for (int i=1; i<plan.segments.length; i++) {
+                TestCase.assertEquals(plan.segments[i - 1][1], plan.segments[i][0]);
+            }
+
+            SegmentedDownloader.writeProgress(channel, plan.progressOffset(1), 1000);
+
+            final SegmentedDownloader.Plan resumed = SegmentedDownloader.loadPlan(channel, LENGTH, "\"v1\"", LENGTH);
+            TestCase.assertNotNull(resumed);
+            TestCase.assertEquals(0, resumed.segments[0][2]);
+            TestCase.assertEquals(1000, resumed.segments[1][2]);
+            TestCase.assertTrue(Arrays.equals(plan.segments[3], resumed.segments[3]));
+
+            //A different resource, a changed resource, a target missing its progress, or no way to tell
+            TestCase.assertNull(SegmentedDownloader.loadPlan(channel, LENGTH + 1, "\"v1\"", LENGTH));
+            TestCase.assertNull(SegmentedDownloader.loadPlan(channel, LENGTH, "\"v2\"", LENGTH));
+            TestCase.assertNull(SegmentedDownloader.loadPlan(channel, LENGTH, "\"v1\"", plan.segments[1][0] + 999));
+            TestCase.assertNull(SegmentedDownloader.loadPlan(channel, LENGTH, "\"v1\"", 0));
+            TestCase.assertNull(SegmentedDownloader.loadPlan(channel, LENGTH, null, LENGTH));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testDownload() throws Exception
+    {
+        TestCase.assertEquals(LENGTH, newDownloader().download(uri, target));
+        assertDownloaded(content);
+        TestCase.assertFalse(checkpoint.exists());
+        //The probe, and one request per segment
+        TestCase.assertEquals(5, requests.get());
+    }
+
+    @Test
+    public void testCheckpointWithoutTargetStartsOver() throws Exception
+    {
+        markAllDone("\"v1\"");
+
+        TestCase.assertEquals(LENGTH, newDownloader().download(uri, target));
+        assertDownloaded(content);
+    }
+
+    @Test
+    public void testCheckpointOfChangedResourceStartsOver() throws Exception
+    {
+        markAllDone("\"v1\"");
+        final RandomAccessFile stale = new RandomAccessFile(target, "rw");
+        stale.write(content);
+        stale.close();
+
+        content = bytes(LENGTH, 7);
+        etag = "\"v2\"";
+        TestCase.assertEquals(LENGTH, newDownloader().download(uri, target));
+        assertDownloaded(content);
+    }
+
+    @Test
+    public void testResourceChangingMidDownloadFails() throws Exception
+    {
+        nextEtag = "\"v2\"";
+        try {
+            newDownloader().download(uri, target);
+            TestCase.fail("The resource changed after it was probed.");
+        } catch (SodaError e) {
+            TestCase.assertTrue(e.getMessage().contains("changed"));
+        }
+    }
+
+    @Test
+    public void testWrongRangeFails() throws Exception
+    {
+        rangeStartSkew = 1;
+        try {
+            newDownloader().download(uri, target);
+            TestCase.fail("The server sent a different range than was asked for.");
+        } catch (SodaError e) {
+            TestCase.assertTrue(e.getMessage().contains("range starting at"));
+        }
+    }
+
+    private SegmentedDownloader newDownloader()
+    {
+        return new SegmentedDownloader(HttpLowLevel.instantiate("http://localhost:" + server.getAddress().getPort()), 4);
+    }
+
+    private void markAllDone(final String validator) throws IOException
+    {
+        final SegmentedDownloader downloader = new SegmentedDownloader(HttpLowLevel.instantiate("http://localhost"), 4);
+        final RandomAccessFile file = new RandomAccessFile(checkpoint, "rw");
+        try {
+            final SegmentedDownloader.Plan plan = downloader.createPlan(file.getChannel(), LENGTH, validator);
+            for (int i=0; i<plan.segments.length; i++) {
+                SegmentedDownloader.writeProgress(file.getChannel(), plan.progressOffset(i), plan.segments[i][1] - plan.segments[i][0]);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertDownloaded(final byte[] expected) throws IOException
+    {
+        TestCase.assertEquals(expected.length, target.length());
+        final byte[] actual = new byte[expected.length];
+        final FileInputStream in = new FileInputStream(target);
+        try {
+            int read = 0;
+            while (read < actual.length) {
+                read += in.read(actual, read, actual.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        TestCase.assertTrue(Arrays.equals(expected, actual));
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException
+    {
+        final byte[] body = content;
+        final String currentEtag = etag;
+        if (requests.getAndIncrement() == 0 && nextEtag != null) {
+            etag = nextEtag;
+        }
+
+        exchange.getResponseHeaders().add("ETag", currentEtag);
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        final OutputStream out;
+        if (range == null || (ifRange != null && !ifRange.equals(currentEtag))) {
+            exchange.sendResponseHeaders(200, body.length);
+            out = exchange.getResponseBody();
+            out.write(body);
+        } else {
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            final int first = Integer.parseInt(bounds[0]);
+            final int last = Math.min(body.length - 1, Integer.parseInt(bounds[1]));
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + (first + rangeStartSkew) + "-" + last + "/" + body.length);
+            exchange.sendResponseHeaders(206, last - first + 1);
+            out = exchange.getResponseBody();
+            out.write(body, first, last - first + 1);
+        }
+        out.close();
+    }
+
+    private static byte[] bytes(final int length, final int seed)
+    {
+        final byte[] bytes = new byte[length];
+        for (int i=0; i<length; i++) {
+            bytes[i] = (byte) (i * seed + (i >> 10));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,173 @@
+package com.socrata.api;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertOperation;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the batching of the Soda2AsyncProducer, against a producer that never goes to the network.
+ */
+public class Soda2AsyncProducerTest
+{
+    @Test
+    public void testBatchesByRowCount() throws Exception
+    {
+        final RecordingProducer producer = new RecordingProducer();
+        final Soda2AsyncProducer asyncProducer = new Soda2AsyncProducer(producer, "abcd-1234", 3, 1024 * 1024, 60000, 1, 100);
+
+        final List<ListenableFuture<UpsertResult>> futures = Lists.newArrayList();
+        for (int i=0; i<7; i++) {
+            futures.add(asyncProducer.submit(Collections.singletonMap("id", i)));
+        }
+        asyncProducer.close();
+
+        TestCase.assertEquals(Lists.newArrayList(3, 3, 1), producer.batchSizes);
+        for (int i=0; i<7; i++) {
+            final UpsertResult result = futures.get(i).get();
+            if (i == 4) {
+                TestCase.assertEquals(1, result.errorCount());
+                TestCase.assertEquals(0, result.getErrors().get(0).getIndex());
+                TestCase.assertEquals("4", result.getErrors().get(0).getPrimaryKey());
+            } else {
+                TestCase.assertEquals(1, result.getRowsCreated());
+                TestCase.assertEquals(0, result.errorCount());
+            }
+        }
+    }
+
+    @Test
+    public void testLingerAndFlush() throws Exception
+    {
+        final RecordingProducer producer = new RecordingProducer();
+        final Soda2AsyncProducer asyncProducer = new Soda2AsyncProducer(producer, "abcd-1234", 1000, 1024 * 1024, 10, 2, 100);
+
+        final ListenableFuture<UpsertResult> first = asyncProducer.submit(Collections.singletonMap("id", 0));
+        TestCase.assertEquals(1, first.get().getRowsCreated());
+
+        asyncProducer.submit(Collections.singletonMap("id", 1));
+        asyncProducer.submit(Collections.singletonMap("id", 2));
+        asyncProducer.flush();
+        TestCase.assertEquals(3, producer.rowCount());
+        asyncProducer.close();
+    }
+
+    @Test
+    public void testSubmitRacingClose() throws Exception
+    {
+        for (int attempt=0; attempt<20; attempt++) {
+            final RecordingProducer producer = new RecordingProducer();
+            final Soda2AsyncProducer asyncProducer = new Soda2AsyncProducer(producer, "abcd-1234", 10, 1024 * 1024, 1, 2, 16);
+            final List<ListenableFuture<UpsertResult>> futures = Collections.synchronizedList(Lists.<ListenableFuture<UpsertResult>>newArrayList());
+
+            final List<Thread> submitters = Lists.newArrayList();
+            for (int t=0; t<4; t++) {
+                final Thread submitter = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            for (int i=0; i<200; i++) {
+                                futures.add(asyncProducer.submit(Collections.singletonMap("id", i)));
+                            }
+                        } catch (IllegalStateException e) {
+                            //Closed underneath this thread
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                submitter.start();
+                submitters.add(submitter);
+            }
+
+            Thread.sleep(attempt % 3);
+            asyncProducer.close();
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+
+            //Every row that was accepted is either sent or failed, never left hanging
+            for (ListenableFuture<UpsertResult> future : Lists.newArrayList(futures)) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    TestCase.assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+
+            try {
+                asyncProducer.submit(Collections.singletonMap("id", 0));
+                TestCase.fail("The producer is closed.");
+            } catch (IllegalStateException e) {
+                //Expected
+            }
+        }
+    }
+
+    /**
+     * Producer that records the batches it is asked to upsert, and reports every row as an insert, except
+     * for rows with an id of 4.
+     */
+    private static class RecordingProducer extends Soda2Producer
+    {
+        final List<Integer> batchSizes = Collections.synchronizedList(Lists.<Integer>newArrayList());
+
+        RecordingProducer()
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+        }
+
+        int rowCount()
+        {
+            int count = 0;
+            for (Integer size : Lists.newArrayList(batchSizes)) {
+                count += size;
+            }
+            return count;
+        }
+
+        @Override
+        public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body, UpsertRowListener listener) throws SodaError, InterruptedException
+        {
+            final List<Map<String, Object>> rows;
+            try {
+                final InputStream is = body.open();
+                try {
+                    rows = new ObjectMapper().readValue(IOUtils.toByteArray(is), List.class);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                throw new SodaError(e);
+            }
+
+            for (int i=0; i<rows.size(); i++) {
+                final String id = rows.get(i).get("id").toString();
+                if ("4".equals(id)) {
+                    listener.onRow(i, UpsertOperation.Error, id, "bad row");
+                } else {
+                    listener.onRow(i, UpsertOperation.Insert, id, null);
+                }
+            }
+            batchSizes.add(rows.size());
+            return new UpsertResult(rows.size(), 0, 0, null);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.socrata.api;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that CSV bulk loads are split on record boundaries, and resume from their journal.
+ */
+public class Soda2BulkLoaderTest
+{
+    @Test
+    public void testCsvChunks() throws IOException
+    {
+        final File csv = writeCsv();
+        try {
+            final String contents = FileUtils.readFileToString(csv, "UTF-8");
+            final List<Soda2BulkLoader.CsvChunk> chunks = Soda2BulkLoader.planCsvChunks(csv, 40);
+
+            TestCase.assertEquals("id,text\n", contents.substring(0, (int) chunks.get(0).end));
+            TestCase.assertTrue(chunks.size() > 2);
+
+            long expectedStart = chunks.get(0).end;
+            long expectedFirstRow = 0;
+            for (Soda2BulkLoader.CsvChunk chunk : chunks.subList(1, chunks.size())) {
+                TestCase.assertEquals(expectedStart, chunk.start);
+                TestCase.assertEquals(expectedFirstRow, chunk.firstRow);
+                TestCase.assertEquals(chunk.rows, countRecords("id,text\n" + contents.substring((int) chunk.start, (int) chunk.end)));
+                expectedStart = chunk.end;
+                expectedFirstRow += chunk.rows;
+            }
+            TestCase.assertEquals(contents.length(), expectedStart);
+            TestCase.assertEquals(10, expectedFirstRow);
+        } finally {
+            csv.delete();
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception
+    {
+        final File csv = writeCsv();
+        final File journal = File.createTempFile("bulkload", ".journal");
+        journal.delete();
+
+        try {
+            final FlakyProducer producer = new FlakyProducer(1);
+            final Soda2BulkLoader loader = new Soda2BulkLoader(producer, 40, Soda2BulkLoader.DEFAULT_CHUNK_ROWS);
+            final int chunkCount = Soda2BulkLoader.planCsvChunks(csv, 40).size() - 1;
+
+            try {
+                loader.upsertCsv("abcd-1234", csv, journal);
+                TestCase.fail("The second chunk should have failed.");
+            } catch (SodaError e) {
+                //Success
+            }
+            TestCase.assertEquals(1, producer.rowCounts.size());
+
+            final UpsertResult result = loader.upsertCsv("abcd-1234", csv, journal);
+            TestCase.assertEquals(chunkCount, producer.rowCounts.size());
+            TestCase.assertEquals(10, result.getRowsCreated());
+
+            //Re-running a finished load doesn't send anything.
+            final UpsertResult rerun = loader.upsertCsv("abcd-1234", csv, journal);
+            TestCase.assertEquals(chunkCount, producer.rowCounts.size());
+            TestCase.assertEquals(10, rerun.getRowsCreated());
+        } finally {
+            csv.delete();
+            journal.delete();
+        }
+    }
+
+    @Test
+    public void testJournalDropsTornLine() throws Exception
+    {
+        final File file = File.createTempFile("bulkload", ".journal");
+        file.delete();
+
+        try {
+            BulkLoadJournal journal = BulkLoadJournal.open(file, "key");
+            journal.commit(new BulkLoadJournal.Entry(0, 0, 5, new UpsertResult(4, 0, 0, Collections.singletonList(new UpsertError("bad", 2, "x")))));
+            journal.close();
+
+            FileUtils.writeStringToFile(file, FileUtils.readFileToString(file, "UTF-8") + "{\"chunk\":1,\"fir", "UTF-8");
+
+            journal = BulkLoadJournal.open(file, "key");
+            TestCase.assertEquals(1, journal.getEntries().size());
+            TestCase.assertNull(journal.get(1));
+            TestCase.assertEquals(4, journal.get(0).result.getRowsCreated());
+            TestCase.assertEquals("x", journal.get(0).result.getErrors().get(0).getPrimaryKey());
+            journal.close();
+
+            try {
+                BulkLoadJournal.open(file, "other key");
+                TestCase.fail("A journal for a different load should not be opened.");
+            } catch (SodaError e) {
+                //Success
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File writeCsv() throws IOException
+    {
+        final StringBuilder builder = new StringBuilder("id,text\n");
+        for (int i=0; i<10; i++) {
+            builder.append(i).append(',');
+            if (i % 3 == 0) {
+                builder.append("\"multi\nline, \"\"quoted\"\"\"");
+            } else {
+                builder.append("plain");
+            }
+            builder.append('\n');
+        }
+
+        final File csv = File.createTempFile("bulkload", ".csv");
+        FileUtils.writeStringToFile(csv, builder.toString(), "UTF-8");
+        return csv;
+    }
+
+    private static int countRecords(final String csv) throws IOException
+    {
+        final CSVReader reader = new CSVReader(new StringReader(csv));
+        try {
+            return reader.readAll().size() - 1;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Producer that counts the rows in each CSV chunk it is sent, and fails one call.
+     */
+    private static class FlakyProducer extends Soda2Producer
+    {
+        final List<Integer> rowCounts = new ArrayList<Integer>();
+        private int failOnCall;
+
+        FlakyProducer(final int failOnCall)
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+            this.failOnCall = failOnCall;
+        }
+
+        @Override
+        public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+        {
+            if (rowCounts.size() == failOnCall) {
+                failOnCall = -1;
+                throw new SodaError("Simulated failure");
+            }
+
+            try {
+                final InputStream is = body.open();
+                try {
+                    final int rows = countRecords(IOUtils.toString(new InputStreamReader(is, "UTF-8")));
+                    rowCounts.add(rows);
+                    return new UpsertResult(rows, 0, 0, null);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                throw new SodaError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests that partitioned upserts keep the changes to each row in order.
+ */
+public class Soda2PartitionedWriterTest
+{
+    @Test
+    public void testPerKeyOrdering() throws Exception
+    {
+        final Map<Object, Object> latest = Collections.synchronizedMap(new HashMap<Object, Object>());
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final Soda2Producer producer = new Soda2Producer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            public UpsertResult upsert(String resourceId, List objects)
+            {
+                maxConcurrent.set(Math.max(maxConcurrent.get(), concurrent.incrementAndGet()));
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                final List<UpsertError> errors = new ArrayList<UpsertError>();
+                for (int i=0; i<objects.size(); i++) {
+                    final Map row = (Map) objects.get(i);
+                    final Object previous = latest.put(row.get("key"), row.get("version"));
+                    if (previous != null && (Integer) previous > (Integer) row.get("version")) {
+                        errors.add(new UpsertError("Out of order", i, row.get("key").toString()));
+                    }
+                    if (row.get("bad") != null) {
+                        errors.add(new UpsertError("Bad row", i, row.get("key").toString()));
+                    }
+                }
+                concurrent.decrementAndGet();
+                return new UpsertResult(0, objects.size(), 0, errors.isEmpty() ? null : errors);
+            }
+        };
+
+        final Soda2PartitionedWriter writer = new Soda2PartitionedWriter(producer, "abcd-1234", 4, 7);
+        writer.setIdField("key");
+        try {
+            for (int version=0; version<20; version++) {
+                for (int key=0; key<25; key++) {
+                    final Map<String, Object> row = new LinkedHashMap<String, Object>();
+                    row.put("key", "row-" + key);
+                    row.put("version", version);
+                    if (version == 3 && key == 4) {
+                        row.put("bad", true);
+                    }
+                    writer.submit(row);
+                }
+            }
+
+            final UpsertResult result = writer.flush();
+            TestCase.assertEquals(500, result.getRowsUpdated());
+            TestCase.assertEquals(1, result.errorCount());
+            TestCase.assertEquals("Bad row", result.getErrors().get(0).getError());
+            TestCase.assertEquals(3 * 25 + 4, result.getErrors().get(0).getIndex());
+
+            for (int key=0; key<25; key++) {
+                TestCase.assertEquals(19, latest.get("row-" + key));
+            }
+            TestCase.assertTrue(maxConcurrent.get() > 1);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testFailureStopsLanes() throws Exception
+    {
+        final AtomicInteger batches = new AtomicInteger();
+        final Soda2Producer producer = new Soda2Producer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            public UpsertResult upsert(String resourceId, List objects) throws SodaError
+            {
+                batches.incrementAndGet();
+                throw new SodaError("Server error");
+            }
+        };
+
+        final Soda2PartitionedWriter writer = new Soda2PartitionedWriter(producer, "abcd-1234", 1, 1);
+        writer.setIdField("key");
+        try {
+            final Map<String, Object> row = new HashMap<String, Object>();
+            row.put("key", "a");
+            writer.submit(row);
+            writer.submit(row);
+            writer.flush();
+            TestCase.fail("The batch failure should be thrown");
+        } catch (SodaError e) {
+            TestCase.assertEquals(1, batches.get());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testLanesUseDaemonThreads() throws Exception
+    {
+        final AtomicReference<Thread> sender = new AtomicReference<Thread>();
+        final Soda2Producer producer = new Soda2Producer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            public UpsertResult upsert(String resourceId, List objects) throws SodaError
+            {
+                sender.set(Thread.currentThread());
+                return new UpsertResult(0, objects.size(), 0, Collections.<UpsertError>emptyList());
+            }
+        };
+
+        final Soda2PartitionedWriter writer = new Soda2PartitionedWriter(producer, "abcd-1234", 1, 1);
+        writer.setIdField("key");
+        try {
+            final Map<String, Object> row = new HashMap<String, Object>();
+            row.put("key", "a");
+            writer.submit(row);
+            writer.flush();
+            TestCase.assertTrue(sender.get().isDaemon());
+            TestCase.assertEquals("Soda2PartitionedWriter-abcd-1234-0", sender.get().getName());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testLaneSpread()
+    {
+        final int[] counts = new int[8];
+        for (int i=0; i<8000; i++) {
+            counts[Soda2PartitionedWriter.laneFor("row-" + i, counts.length)]++;
+        }
+        for (int count : counts) {
+            TestCase.assertTrue(count > 500);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.socrata.api;
+
+import com.socrata.exceptions.MalformedQueryError;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.SodaErrorResponse;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that spooled rows are drained in order, through outages and restarts.
+ */
+public class Soda2SpoolingProducerTest
+{
+    private static final ObjectMapper MAPPER = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    /**
+     * A producer that records the ids it is sent, failing the first few batches.
+     */
+    private static class RecordingProducer extends Soda2Producer
+    {
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger failures;
+        //Batches holding this id are rejected outright
+        volatile int rejectId = -1;
+        volatile CountDownLatch started;
+        volatile CountDownLatch blockUntil;
+
+        RecordingProducer(final int failures)
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+        {
+            if (started != null) {
+                started.countDown();
+                blockUntil.await();
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new SodaError("Unavailable");
+            }
+
+            try {
+                final InputStream stream = body.open();
+                try {
+                    final List<Map<String, Object>> rows = MAPPER.readValue(stream, List.class);
+                    for (Map<String, Object> row : rows) {
+                        if (row.get("id").equals(rejectId)) {
+                            throw new MalformedQueryError(new SodaErrorResponse("bad.request", "No such column", null, null));
+                        }
+                    }
+                    for (Map<String, Object> row : rows) {
+                        ids.add((Integer) row.get("id"));
+                    }
+                    return new UpsertResult(rows.size(), 0, 0, null);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                throw new SodaError(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testDrainsThroughOutage() throws Exception
+    {
+        final File directory = createDirectory();
+        try {
+            final RecordingProducer producer = new RecordingProducer(1);
+            final Soda2SpoolingProducer spool = new Soda2SpoolingProducer(producer, "abcd-1234", directory, 256, 10);
+            try {
+                for (int i=0; i<50; i++) {
+                    spool.write(row(i));
+                }
+
+                TestCase.assertTrue(spool.awaitDrained(20, TimeUnit.SECONDS));
+                TestCase.assertEquals(0, spool.getSpoolDepth());
+                TestCase.assertEquals(0, spool.getSpoolBytes());
+                TestCase.assertEquals(50, spool.getDrainedRows());
+                TestCase.assertTrue(spool.getDrainRate() > 0);
+                TestCase.assertNull(spool.getLastError());
+                assertInOrder(producer.ids, 50);
+
+                //Only the segment being written is left
+                TestCase.assertEquals(1, directory.list().length - 1);
+            } finally {
+                spool.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testResumesAfterRestart() throws Exception
+    {
+        final File directory = createDirectory();
+        try {
+            final RecordingProducer down = new RecordingProducer(Integer.MAX_VALUE);
+            final Soda2SpoolingProducer spool = new Soda2SpoolingProducer(down, "abcd-1234", directory, 256, 10);
+            for (int i=0; i<30; i++) {
+                spool.write(row(i));
+            }
+            TestCase.assertEquals(30, spool.getSpoolDepth());
+            spool.close();
+
+            final RecordingProducer up = new RecordingProducer(0);
+            final Soda2SpoolingProducer reopened = new Soda2SpoolingProducer(up, "abcd-1234", directory, 256, 10);
+            try {
+                reopened.write(row(30));
+                TestCase.assertTrue(reopened.awaitDrained(20, TimeUnit.SECONDS));
+                assertInOrder(up.ids, 31);
+            } finally {
+                reopened.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testRejectedBatchIsDeadLettered() throws Exception
+    {
+        final File directory = createDirectory();
+        try {
+            final RecordingProducer producer = new RecordingProducer(0);
+            producer.rejectId = 15;
+            final Soda2SpoolingProducer spool = new Soda2SpoolingProducer(producer, "abcd-1234", directory, 256, 10);
+            try {
+                for (int i=0; i<30; i++) {
+                    spool.write(row(i));
+                }
+
+                TestCase.assertTrue(spool.awaitDrained(20, TimeUnit.SECONDS));
+                TestCase.assertEquals(1, spool.getDeadLetterBatches());
+                TestCase.assertEquals(30, producer.ids.size() + spool.getDeadLetterRows());
+                TestCase.assertFalse(producer.ids.contains(15));
+
+                //The batch is kept, with its error
+                final File[] deadLetters = spool.getDeadLetterDirectory().listFiles();
+                TestCase.assertEquals(2, deadLetters.length);
+                for (File file : deadLetters) {
+                    if (file.getName().endsWith(".json")) {
+                        final List<Map<String, Object>> rows = MAPPER.readValue(file, List.class);
+                        TestCase.assertEquals(spool.getDeadLetterRows(), rows.size());
+                    } else {
+                        TestCase.assertTrue(FileUtils.readFileToString(file).contains("No such column"));
+                    }
+                }
+            } finally {
+                spool.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCorruptRecordIsSkipped() throws Exception
+    {
+        final File directory = createDirectory();
+        try {
+            final RecordingProducer producer = new RecordingProducer(0);
+            producer.started = new CountDownLatch(1);
+            producer.blockUntil = new CountDownLatch(1);
+            final Soda2SpoolingProducer spool = new Soda2SpoolingProducer(producer, "abcd-1234", directory, 64 * 1024, 10);
+            try {
+                //Hold the drainer in its first batch, so the rest are still only in the spool
+                for (int i=0; i<10; i++) {
+                    spool.write(row(i));
+                }
+                TestCase.assertTrue(producer.started.await(5, TimeUnit.SECONDS));
+                for (int i=10; i<30; i++) {
+                    spool.write(row(i));
+                }
+
+                int offset = 0;
+                for (int i=0; i<15; i++) {
+                    offset += 8 + MAPPER.writeValueAsBytes(row(i)).length;
+                }
+                final RandomAccessFile segment = new RandomAccessFile(new File(directory, String.format("spool-%020d.seg", 0)), "rw");
+                try {
+                    segment.seek(offset + 8 + 5);
+                    final int b = segment.read();
+                    segment.seek(offset + 8 + 5);
+                    segment.write(b ^ 0xff);
+                } finally {
+                    segment.close();
+                }
+                producer.blockUntil.countDown();
+
+                TestCase.assertTrue(spool.awaitDrained(20, TimeUnit.SECONDS));
+                TestCase.assertEquals(1, spool.getCorruptRows());
+                TestCase.assertEquals(29, producer.ids.size());
+                TestCase.assertFalse(producer.ids.contains(15));
+                TestCase.assertTrue(spool.isDraining());
+            } finally {
+                spool.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testStoppedDrainerIsReported() throws Exception
+    {
+        final File directory = createDirectory();
+        try {
+            //A file in the way of the dead-letter directory stops the drainer when a batch is rejected
+            FileUtils.writeStringToFile(new File(directory, "dead-letter"), "in the way");
+
+            final RecordingProducer producer = new RecordingProducer(0);
+            producer.rejectId = 0;
+            final Soda2SpoolingProducer spool = new Soda2SpoolingProducer(producer, "abcd-1234", directory, 256, 10);
+            try {
+                spool.write(row(0));
+                try {
+                    spool.awaitDrained(20, TimeUnit.SECONDS);
+                    TestCase.fail("The drainer stopped.");
+                } catch (SodaError e) {
+                    TestCase.assertTrue(e.getMessage().contains("stopped draining"));
+                }
+                TestCase.assertFalse(spool.isDraining());
+
+                try {
+                    spool.write(row(1));
+                    TestCase.fail("Rows written now would never be sent.");
+                } catch (SodaError e) {
+                    TestCase.assertTrue(e.getMessage().contains("stopped draining"));
+                }
+            } finally {
+                spool.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static Map<String, Object> row(final int id)
+    {
+        final Map<String, Object> row = new HashMap<String, Object>();
+        row.put("id", id);
+        row.put("text", "Row number " + id);
+        return row;
+    }
+
+    private static void assertInOrder(final List<Integer> ids, final int count)
+    {
+        TestCase.assertEquals(count, ids.size());
+        for (int i=0; i<count; i++) {
+            TestCase.assertEquals(i, ids.get(i).intValue());
+        }
+    }
+
+    private static File createDirectory() throws IOException
+    {
+        final File directory = File.createTempFile("spool", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+}
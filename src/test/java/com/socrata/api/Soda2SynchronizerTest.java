@@ -0,0 +1,149 @@
+package com.socrata.api;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.socrata.exceptions.SodaError;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.requests.ReplayableBody;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests syncing snapshots of a dataset, against a producer that never goes to the network.
+ */
+public class Soda2SynchronizerTest
+{
+    private File indexFile;
+    private StubProducer producer;
+    private Soda2Synchronizer synchronizer;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        indexFile = File.createTempFile("sync", ".idx");
+        indexFile.delete();
+        producer = new StubProducer();
+        synchronizer = new Soda2Synchronizer(producer, new RowIdentifiers(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            String getFieldName(final String resourceId)
+            {
+                return "case_number";
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        indexFile.delete();
+    }
+
+    @Test
+    public void testOnlyChangesAreSent() throws Exception
+    {
+        //The first sync sends everything
+        synchronizer.sync("abcd-1234", Lists.newArrayList(row("A-1", "one"), row("A-2", "two"), row("A-3", "three")).iterator(), indexFile);
+        TestCase.assertEquals(3, producer.rows.size());
+        TestCase.assertTrue(indexFile.exists());
+
+        producer.rows.clear();
+        final UpsertResult result = synchronizer.sync("abcd-1234", Lists.newArrayList(row("A-1", "one"), row("A-3", "changed"), row("A-4", "four")).iterator(), indexFile);
+        TestCase.assertEquals(2, result.getRowsUpdated());
+        TestCase.assertEquals(1, result.getRowsDeleted());
+        TestCase.assertEquals(Lists.newArrayList(row("A-3", "changed"), row("A-4", "four"), ImmutableMap.of(":id", "A-2", ":deleted", true)), producer.rows);
+
+        //Nothing changed, so nothing is sent
+        producer.rows.clear();
+        synchronizer.sync("abcd-1234", Lists.newArrayList(row("A-1", "one"), row("A-3", "changed"), row("A-4", "four")).iterator(), indexFile);
+        TestCase.assertTrue(producer.rows.isEmpty());
+    }
+
+    @Test
+    public void testFailedSyncIsRepeated() throws Exception
+    {
+        synchronizer.sync("abcd-1234", Lists.newArrayList(row("A-1", "one"), row("A-2", "two")).iterator(), indexFile);
+
+        producer.rows.clear();
+        producer.failRows = true;
+        synchronizer.sync("abcd-1234", Lists.newArrayList(row("A-1", "changed"), row("A-2", "two")).iterator(), indexFile);
+        TestCase.assertEquals(1, producer.rows.size());
+
+        //The index wasn't replaced, so the change is sent again
+        producer.rows.clear();
+        producer.failRows = false;
+        synchronizer.sync("abcd-1234", Lists.newArrayList(row("A-1", "changed"), row("A-2", "two")).iterator(), indexFile);
+        TestCase.assertEquals(Lists.newArrayList(row("A-1", "changed")), producer.rows);
+    }
+
+    @Test
+    public void testRowWithoutIdentifierFails() throws Exception
+    {
+        try {
+            synchronizer.sync("abcd-1234", Collections.singletonList(ImmutableMap.of("name", "one")).iterator(), indexFile);
+            TestCase.fail("The row has no case_number.");
+        } catch (IllegalArgumentException e) {
+            TestCase.assertTrue(e.getMessage().contains("case_number"));
+        }
+        TestCase.assertFalse(indexFile.exists());
+    }
+
+    private static Map<String, Object> row(final String id, final String name)
+    {
+        return ImmutableMap.<String, Object>of("case_number", id, "name", name);
+    }
+
+    /**
+     * Producer that records the rows it is asked to upsert, counting DeleteRecords as deletes.
+     */
+    private static class StubProducer extends Soda2Producer
+    {
+        final List<Map<String, Object>> rows = Collections.synchronizedList(Lists.<Map<String, Object>>newArrayList());
+        volatile boolean failRows;
+
+        StubProducer()
+        {
+            super(HttpLowLevel.instantiate("http://localhost"));
+            setBulkConcurrency(1);
+        }
+
+        @Override
+        public UpsertResult upsertStream(String resourceId, MediaType mediaType, ReplayableBody body) throws SodaError, InterruptedException
+        {
+            final List<Map<String, Object>> chunk;
+            try {
+                final InputStream is = body.open();
+                try {
+                    chunk = new ObjectMapper().readValue(IOUtils.toByteArray(is), List.class);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException e) {
+                throw new SodaError(e);
+            }
+            rows.addAll(chunk);
+
+            int deleted = 0;
+            for (Map<String, Object> row : chunk) {
+                if (row.containsKey(":deleted")) {
+                    deleted++;
+                }
+            }
+            final List<UpsertError> errors = failRows ? Lists.newArrayList(new UpsertError("bad row", 0, null)) : null;
+            return new UpsertResult(0, chunk.size() - deleted, deleted, errors);
+        }
+    }
+}
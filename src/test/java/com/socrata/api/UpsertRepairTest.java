@@ -0,0 +1,124 @@
+package com.socrata.api;
+
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that only repaired rows are resubmitted, and that errors refer back to the original rows.
+ */
+public class UpsertRepairTest
+{
+    @Test
+    public void testRepair() throws Exception
+    {
+        final List<List> submitted = new ArrayList<List>();
+        final Soda2Producer producer = new Soda2Producer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            public UpsertResult upsert(String resourceId, List objects)
+            {
+                submitted.add(new ArrayList(objects));
+
+                //Rows starting with "bad" fail
+                final List<UpsertError> errors = new ArrayList<UpsertError>();
+                for (int i=0; i<objects.size(); i++) {
+                    if (objects.get(i).toString().startsWith("bad")) {
+                        errors.add(new UpsertError("Invalid value", i, null));
+                    }
+                }
+                return new UpsertResult(objects.size() - errors.size(), 0, 0, errors.isEmpty() ? null : errors);
+            }
+        };
+
+        final List<Integer> repairedIndexes = new ArrayList<Integer>();
+        final UpsertResult result = producer.upsertWithRepair("abcd-1234", Arrays.asList("a", "bad-b", "c", "bad-bad-d", "bad-skip-e"), new UpsertRepairHandler<String>()
+        {
+            @Override
+            public String repair(String row, UpsertError error)
+            {
+                repairedIndexes.add(error.getIndex());
+                return row.contains("skip") ? null : row.substring(4);
+            }
+        });
+
+        TestCase.assertEquals(3, submitted.size());
+        TestCase.assertEquals(Arrays.asList("b", "bad-d"), submitted.get(1));
+        TestCase.assertEquals(Arrays.asList("d"), submitted.get(2));
+        TestCase.assertEquals(Arrays.asList(1, 3, 4, 3), repairedIndexes);
+
+        TestCase.assertEquals(4, result.getRowsCreated());
+        TestCase.assertEquals(1, result.errorCount());
+        TestCase.assertEquals(4, result.getErrors().get(0).getIndex());
+    }
+
+    @Test
+    public void testErrorsOutsideTheSubmittedRows() throws Exception
+    {
+        final Soda2Producer producer = new Soda2Producer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            public UpsertResult upsert(String resourceId, List objects)
+            {
+                //The last row always fails, along with an error for a row that wasn't sent
+                final List<UpsertError> errors = new ArrayList<UpsertError>();
+                errors.add(new UpsertError("Always fails", objects.size() - 1, null));
+                errors.add(new UpsertError("Mystery", objects.size(), null));
+                return new UpsertResult(objects.size() - 1, 0, 0, errors);
+            }
+        };
+
+        final UpsertResult result = producer.upsertWithRepair("abcd-1234", Arrays.asList("a", "b", "c"), new UpsertRepairHandler<String>()
+        {
+            @Override
+            public String repair(String row, UpsertError error)
+            {
+                return row;
+            }
+        }, 1);
+
+        //Index 1 in the repair round would otherwise look like the original row "b"
+        TestCase.assertEquals(3, result.errorCount());
+        TestCase.assertEquals(Soda2Producer.UNKNOWN_ROW_INDEX, result.getErrors().get(0).getIndex());
+        TestCase.assertEquals(Soda2Producer.UNKNOWN_ROW_INDEX, result.getErrors().get(1).getIndex());
+        TestCase.assertEquals("Mystery", result.getErrors().get(1).getError());
+        TestCase.assertEquals(2, result.getErrors().get(2).getIndex());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRounds() throws Exception
+    {
+        final Soda2Producer producer = new Soda2Producer(HttpLowLevel.instantiate("http://localhost"))
+        {
+            @Override
+            public UpsertResult upsert(String resourceId, List objects)
+            {
+                final List<UpsertError> errors = new ArrayList<UpsertError>();
+                errors.add(new UpsertError("Always fails", objects.size() - 1, "key"));
+                return new UpsertResult(objects.size() - 1, 0, 0, errors);
+            }
+        };
+
+        final int[] repairs = new int[1];
+        final UpsertResult result = producer.upsertWithRepair("abcd-1234", Arrays.asList("a", "b"), new UpsertRepairHandler<String>()
+        {
+            @Override
+            public String repair(String row, UpsertError error)
+            {
+                repairs[0]++;
+                return row;
+            }
+        }, 2);
+
+        TestCase.assertEquals(2, repairs[0]);
+        TestCase.assertEquals(1, result.getRowsCreated());
+        TestCase.assertEquals(1, result.errorCount());
+        TestCase.assertEquals(1, result.getErrors().get(0).getIndex());
+        TestCase.assertEquals("key", result.getErrors().get(0).getPrimaryKey());
+    }
+}
@@ -0,0 +1,79 @@
+package com.socrata.api;
+
+import com.google.common.collect.Lists;
+import com.socrata.model.UpsertOperation;
+import com.socrata.model.UpsertResult;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests decoding both forms of the upsert response.
+ */
+public class UpsertResultDecoderTest
+{
+    @Test
+    public void testRowResponse() throws IOException
+    {
+        final String response = "[[" +
+                "{\"typ\":\"insert\",\"id\":\"row-1\",\"ver\":\"v1\"}," +
+                "{\"id\":\"row-2\",\"typ\":\"update\",\"ver\":\"v2\"}," +
+                "{\"typ\":\"delete\",\"id\":\"row-3\",\"extra\":{\"nested\":[1,2]}}," +
+                "{\"err\":\"no such column\",\"typ\":\"error\",\"id\":\"row-4\"}," +
+                "{\"typ\":\"insert\",\"id\":\"row-5\",\"ver\":\"v5\"}" +
+                "]]";
+
+        final List<String> seen = Lists.newArrayList();
+        final UpsertResult result = new UpsertResultDecoder(new UpsertRowListener()
+        {
+            @Override
+            public void onRow(int index, UpsertOperation operation, String id, String error)
+            {
+                seen.add(index + ":" + operation + ":" + id + ":" + error);
+            }
+        }).decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+
+        TestCase.assertEquals(2, result.getRowsCreated());
+        TestCase.assertEquals(1, result.getRowsUpdated());
+        TestCase.assertEquals(1, result.getRowsDeleted());
+        TestCase.assertEquals(1, result.errorCount());
+        TestCase.assertEquals(3, result.getErrors().get(0).getIndex());
+        TestCase.assertEquals("row-4", result.getErrors().get(0).getPrimaryKey());
+        TestCase.assertEquals("no such column", result.getErrors().get(0).getError());
+
+        TestCase.assertEquals(Lists.newArrayList("0:Insert:row-1:null", "1:Update:row-2:null", "2:Delete:row-3:null",
+                                                 "3:Error:row-4:no such column", "4:Insert:row-5:null"), seen);
+    }
+
+    @Test
+    public void testUnexpectedRowsFail() throws IOException
+    {
+        for (String response : new String[] { "[[{\"typ\":\"insert\"},\"oops\",{\"typ\":\"insert\"}]]", "[[{\"typ\":\"insert\"}," }) {
+            try {
+                new UpsertResultDecoder(null).decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+                TestCase.fail("The rows don't parse: " + response);
+            } catch (IOException e) {
+                //Expected
+            }
+        }
+
+        final UpsertResult empty = new UpsertResultDecoder(null).decode(new ByteArrayInputStream("[[]]".getBytes("UTF-8")));
+        TestCase.assertEquals(0, empty.getRowsCreated());
+    }
+
+    @Test
+    public void testSummaryResponse() throws IOException
+    {
+        final String response = "{\"rows_created\":3,\"rows_updated\":2,\"rows_deleted\":1," +
+                "\"errors\":[{\"error\":\"bad\",\"input_index\":4,\"primary_key\":\"k\"}]}";
+
+        final UpsertResult result = new UpsertResultDecoder(null).decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        TestCase.assertEquals(3, result.getRowsCreated());
+        TestCase.assertEquals(2, result.getRowsUpdated());
+        TestCase.assertEquals(1, result.getRowsDeleted());
+        TestCase.assertEquals(4, result.getErrors().get(0).getIndex());
+    }
+}
@@ -0,0 +1,116 @@
+package com.socrata.model.columnar;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Tests decoding query responses into typed columns.
+ */
+public class ColumnarDecoderTest
+{
+    @Test
+    public void testDecode() throws IOException
+    {
+        final Map<String, String> types = new HashMap<String, String>();
+        types.put("id", "number");
+        types.put("amount", "money");
+        types.put("date", "calendar_date");
+        types.put("type", "text");
+        types.put("arrested", "checkbox");
+        types.put("location", "location");
+
+        final String response = "[" +
+                "{\"id\":\"1\",\"amount\":\"12\",\"date\":\"2012-09-14T22:38:01.000\",\"type\":\"THEFT\",\"arrested\":true}," +
+                "{\"id\":\"2\",\"amount\":\"3.5\",\"date\":\"2012-09-15T00:00:00Z\",\"type\":\"BATTERY\",\"location\":{\"latitude\":\"41.8\",\"longitude\":\"-87.6\",\"human_address\":\"{}\"}}," +
+                "{\"id\":\"3\",\"type\":\"THEFT\",\"count\":\"7\",\"arrested\":false,\"location\":{\"latitude\":\"41.8\"}}" +
+                "]";
+
+        final ColumnarResult result = new ColumnarDecoder(types).decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        TestCase.assertEquals(3, result.getRowCount());
+        TestCase.assertEquals(Arrays.asList("id", "amount", "date", "type", "arrested", "location", "count"), Arrays.asList(result.getColumns().keySet().toArray()));
+
+        final NumberColumn id = result.getNumberColumn("id");
+        TestCase.assertTrue(id.isIntegral());
+        TestCase.assertTrue(Arrays.equals(new long[] { 1, 2, 3 }, id.getLongs()));
+
+        final NumberColumn amount = result.getNumberColumn("amount");
+        TestCase.assertFalse(amount.isIntegral());
+        TestCase.assertEquals(3, amount.size());
+        TestCase.assertEquals(12.0, amount.getDouble(0));
+        TestCase.assertEquals(3.5, amount.getDouble(1));
+        TestCase.assertTrue(amount.isNull(2));
+        TestCase.assertEquals(1, amount.getNullCount());
+
+        final TimestampColumn date = result.getTimestampColumn("date");
+        final long floating = 1347662281000L - TimeZone.getDefault().getOffset(1347662281000L);
+        TestCase.assertEquals(floating, date.getTime(0), 3600000L);
+        TestCase.assertEquals(1347667200000L, date.getTime(1));
+        TestCase.assertNull(date.getDate(2));
+
+        final TextColumn type = result.getTextColumn("type");
+        TestCase.assertEquals(2, type.getCardinality());
+        TestCase.assertTrue(Arrays.equals(new int[] { 0, 1, 0 }, type.getCodes()));
+        TestCase.assertEquals("BATTERY", type.getString(1));
+
+        final BooleanColumn arrested = result.getBooleanColumn("arrested");
+        TestCase.assertTrue(arrested.getBoolean(0));
+        TestCase.assertTrue(arrested.isNull(1));
+        TestCase.assertFalse(arrested.getBoolean(2));
+
+        final LocationColumn location = result.getLocationColumn("location");
+        TestCase.assertTrue(location.isNull(0));
+        TestCase.assertEquals(41.8, location.getLatitude(1));
+        TestCase.assertEquals(-87.6, location.getLongitude(1));
+        TestCase.assertTrue(location.isNull(2));
+
+        //Untyped fields are typed by their first value; SODA2 sends numbers as strings
+        final TextColumn count = result.getTextColumn("count");
+        TestCase.assertTrue(count.isNull(0));
+        TestCase.assertEquals("7", count.getString(2));
+    }
+
+    @Test
+    public void testLongRange() throws IOException
+    {
+        final Map<String, String> types = new HashMap<String, String>();
+        types.put("id", "number");
+        types.put("big", "number");
+
+        final String response = "[" +
+                "{\"id\":\"9223372036854775807\",\"big\":\"1\"}," +
+                "{\"id\":\"-9223372036854775808\",\"big\":\"9223372036854775808\"}," +
+                "{\"id\":\"1234567890123456789\",\"big\":\"-12\"}" +
+                "]";
+
+        //19 digit values are kept exactly, rather than going through a double
+        final ColumnarResult result = new ColumnarDecoder(types).decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        final NumberColumn id = result.getNumberColumn("id");
+        TestCase.assertTrue(id.isIntegral());
+        TestCase.assertTrue(Arrays.equals(new long[] { Long.MAX_VALUE, Long.MIN_VALUE, 1234567890123456789L }, id.getLongs()));
+
+        //Past the range of a long, the column becomes doubles
+        final NumberColumn big = result.getNumberColumn("big");
+        TestCase.assertFalse(big.isIntegral());
+        TestCase.assertEquals(9223372036854775808.0, big.getDouble(1));
+        TestCase.assertEquals(-12.0, big.getDouble(2));
+    }
+
+    @Test
+    public void testBadNumber() throws IOException
+    {
+        try {
+            new ColumnarDecoder(Collections.singletonMap("id", "number")).decode(new ByteArrayInputStream("[{\"id\":\"abc\"}]".getBytes("UTF-8")));
+            TestCase.fail("A value that doesn't match its column's type should fail");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.socrata.model.requests;
+
+import com.socrata.utils.BufferPool;
+import com.socrata.utils.PooledBufferOutputStream;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests that ReplayableBody objects can be re-read.
+ */
+public class ReplayableBodyTest
+{
+    public static final File NOMINATIONS_CSV = new File("src/test/resources/testNominations.csv");
+
+    @Test
+    public void testFileBody() throws IOException
+    {
+        final byte[] expected = read(new FileInputStream(NOMINATIONS_CSV));
+
+        final ReplayableBody body = ReplayableBody.fromFile(NOMINATIONS_CSV);
+        TestCase.assertEquals(expected.length, body.length());
+        assertBytes(expected, read(body.open()));
+        assertBytes(expected, read(body.open()));
+
+        final ReplayableBody region = ReplayableBody.fromFile(NOMINATIONS_CSV, 5, 10);
+        TestCase.assertEquals(10, region.length());
+        final byte[] regionBytes = read(region.open());
+        TestCase.assertEquals(10, regionBytes.length);
+        for (int i=0; i<10; i++) {
+            TestCase.assertEquals(expected[i + 5], regionBytes[i]);
+        }
+    }
+
+    @Test
+    public void testSpooledInMemory() throws IOException
+    {
+        final byte[] expected = "[{\"a\":1},{\"a\":2}]".getBytes("UTF-8");
+        final ReplayableBody body = ReplayableBody.fromStream(new ByteArrayInputStream(expected));
+        TestCase.assertEquals(-1, body.length());
+
+        assertBytes(expected, read(body.open()));
+        TestCase.assertEquals(expected.length, body.length());
+        assertBytes(expected, read(body.open()));
+        body.close();
+    }
+
+    @Test
+    public void testPooledBuffers() throws IOException
+    {
+        final byte[] expected = new byte[1000];
+        for (int i=0; i<expected.length; i++) {
+            expected[i] = (byte) (i % 251);
+        }
+
+        for (boolean direct : new boolean[] { false, true }) {
+            final BufferPool pool = new BufferPool(64, 4, direct);
+            final PooledBufferOutputStream out = new PooledBufferOutputStream(pool);
+            out.write(expected[0]);
+            out.write(expected, 1, expected.length - 1);
+            TestCase.assertEquals(expected.length, out.size());
+            TestCase.assertEquals(16, out.getBuffers().size());
+
+            final ReplayableBody body = ReplayableBody.fromBuffers(out.getBuffers());
+            TestCase.assertEquals(expected.length, body.length());
+            assertBytes(expected, read(body.open()));
+            assertBytes(expected, read(body.open()));
+
+            //Released buffers are handed out again
+            out.release();
+            final PooledBufferOutputStream reused = new PooledBufferOutputStream(pool);
+            reused.write(1);
+            TestCase.assertEquals(64, reused.getBuffers().get(0).capacity());
+            TestCase.assertEquals(direct, reused.getBuffers().get(0).isDirect());
+            reused.release();
+        }
+    }
+
+    @Test
+    public void testSpilledToDisk() throws IOException
+    {
+        final byte[] expected = new byte[100000];
+        for (int i=0; i<expected.length; i++) {
+            expected[i] = (byte) (i % 251);
+        }
+
+        final ReplayableBody body = ReplayableBody.fromStream(new ByteArrayInputStream(expected), 1024);
+
+        //Only read part of it the first time, the replay needs to pick up the rest from the source.
+        final InputStream first = body.open();
+        TestCase.assertEquals(4096, first.read(new byte[4096]));
+        first.close();
+
+        assertBytes(expected, read(body.open()));
+        assertBytes(expected, read(body.open()));
+        TestCase.assertEquals(expected.length, body.length());
+        body.close();
+    }
+
+    private static byte[] read(final InputStream is) throws IOException
+    {
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void assertBytes(final byte[] expected, final byte[] actual)
+    {
+        TestCase.assertEquals(expected.length, actual.length);
+        for (int i=0; i<expected.length; i++) {
+            TestCase.assertEquals(expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.socrata.model.rows;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests decoding query responses into rows that share a schema.
+ */
+public class RowDecoderTest
+{
+    @Test
+    public void testDecode() throws IOException
+    {
+        final String response = "[" +
+                "{\"id\":\"1\",\"amount\":\"12.5\",\"date\":\"2012-09-15T00:00:00Z\",\"arrested\":true}," +
+                "{\"id\":\"2\",\"amount\":null,\"location\":{\"latitude\":\"41.8\"}}," +
+                "{\"id\":\"3\",\"count\":7}" +
+                "]";
+
+        final List<Row> rows = new RowDecoder().decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        TestCase.assertEquals(3, rows.size());
+
+        final RowSchema schema = rows.get(0).getSchema();
+        TestCase.assertEquals(Arrays.asList("id", "amount", "date", "arrested", "location", "count"), schema.getNames());
+        for (Row row : rows) {
+            TestCase.assertSame(schema, row.getSchema());
+        }
+
+        final Row first = rows.get(0);
+        TestCase.assertEquals("12.5", first.get("amount"));
+        TestCase.assertEquals(12.5, first.getDouble("amount"));
+        TestCase.assertSame(first.getDouble("amount"), first.getDouble("amount"));
+        TestCase.assertEquals(Long.valueOf(1), first.getLong("id"));
+        TestCase.assertEquals(1347667200000L, first.getDate("date").getTime());
+        TestCase.assertEquals(Boolean.TRUE, first.get("arrested"));
+        TestCase.assertNull(first.get("location"));
+        TestCase.assertNull(first.get("nonexistent"));
+
+        final Row second = rows.get(1);
+        TestCase.assertNull(second.getDouble("amount"));
+        TestCase.assertFalse(second.containsKey("amount"));
+        TestCase.assertEquals("41.8", ((Map) second.get("location")).get("latitude"));
+
+        final Row third = rows.get(2);
+        TestCase.assertEquals(Long.valueOf(7), third.getLong("count"));
+        TestCase.assertEquals(7.0, third.getDouble("count"));
+    }
+
+    @Test
+    public void testMapView() throws IOException
+    {
+        final String response = "[{\"b\":\"2\",\"a\":\"1\"},{\"a\":\"3\",\"c\":null}]";
+        final List<Row> rows = new RowDecoder().decode(new ByteArrayInputStream(response.getBytes("UTF-8")));
+
+        final Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+        TestCase.assertEquals(expected, rows.get(0));
+        TestCase.assertEquals(rows.get(0), expected);
+        TestCase.assertEquals(expected.hashCode(), rows.get(0).hashCode());
+        TestCase.assertEquals(Arrays.asList("b", "a"), Arrays.asList(rows.get(0).keySet().toArray()));
+
+        TestCase.assertEquals(1, rows.get(1).size());
+        TestCase.assertEquals("{a=3}", rows.get(1).toString());
+        TestCase.assertEquals(new LinkedHashMap<String, Object>(rows.get(1)), rows.get(1));
+
+        try {
+            rows.get(0).put("d", "4");
+            TestCase.fail("Rows should be read-only");
+        } catch (UnsupportedOperationException e) {
+            //Expected
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testLongOfFraction() throws IOException
+    {
+        final List<Row> rows = new RowDecoder().decode(new ByteArrayInputStream("[{\"a\":\"1.5\"}]".getBytes("UTF-8")));
+        rows.get(0).getLong("a");
+    }
+}
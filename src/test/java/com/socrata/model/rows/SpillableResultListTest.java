@@ -0,0 +1,106 @@
+package com.socrata.model.rows;
+
+import junit.framework.TestCase;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tests keeping the first rows of a result on the heap, and spilling the rest to disk.
+ */
+public class SpillableResultListTest
+{
+    private static ByteArrayInputStream response(final int rows) throws IOException
+    {
+        final StringBuilder builder = new StringBuilder("[");
+        for (int i=0; i<rows; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            //Rows of varying length, so they straddle the small test windows
+            builder.append("{\"id\":\"").append(i).append("\",\"name\":\"name ").append(i);
+            for (int j=0; j<i % 7; j++) {
+                builder.append(" \\u00e9\\\"x\\\"");
+            }
+            builder.append("\",\"unused\":[1,{\"a\":null}]}");
+        }
+        return new ByteArrayInputStream(builder.append(']').toString().getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testSpill() throws IOException
+    {
+        final SpillableResultList<Item> items = SpillableResultList.decode(response(500), Item.class, 10, 256);
+        try {
+            TestCase.assertEquals(500, items.size());
+            TestCase.assertEquals(490, items.getSpilledCount());
+
+            for (int i=499; i>=0; i--) {
+                final Item item = items.get(i);
+                TestCase.assertEquals(String.valueOf(i), item.id);
+                TestCase.assertTrue(item.name.startsWith("name " + i));
+                TestCase.assertEquals(i % 7, item.name.split("é\"x\"", -1).length - 1);
+            }
+
+            int count = 0;
+            for (Iterator<Item> it = items.iterator(); it.hasNext(); count++) {
+                TestCase.assertEquals(String.valueOf(count), it.next().id);
+            }
+            TestCase.assertEquals(500, count);
+        } finally {
+            items.close();
+        }
+
+        TestCase.assertEquals("0", items.get(0).id);
+        try {
+            items.get(10);
+            TestCase.fail("Spilled rows should be gone once the list is closed");
+        } catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testNoSpill() throws IOException
+    {
+        final SpillableResultList<Map> rows = SpillableResultList.decode(response(3), Map.class, 10);
+        TestCase.assertEquals(3, rows.size());
+        TestCase.assertEquals(0, rows.getSpilledCount());
+        TestCase.assertEquals("2", rows.get(2).get("id"));
+        rows.close();
+
+        final SpillableResultList<Map> empty = SpillableResultList.decode(new ByteArrayInputStream("[]".getBytes("UTF-8")), Map.class, 0);
+        TestCase.assertTrue(empty.isEmpty());
+        empty.close();
+    }
+
+    @Test
+    public void testOutOfRange() throws IOException
+    {
+        final SpillableResultList<Map> rows = SpillableResultList.decode(response(5), Map.class, 2);
+        try {
+            rows.get(5);
+            TestCase.fail("Row 5 is past the end");
+        } catch (IndexOutOfBoundsException e) {
+            //Expected
+        } finally {
+            rows.close();
+        }
+    }
+
+    public static class Item
+    {
+        @JsonProperty("id")
+        public String id;
+
+        @JsonProperty("name")
+        public String name;
+
+        @JsonProperty("unused")
+        public Object unused;
+    }
+}
@@ -0,0 +1,169 @@
+package com.socrata.model.soql;
+
+import com.google.common.collect.ImmutableList;
+import com.socrata.builders.SoqlQueryBuilder;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.ws.rs.core.UriBuilder;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Tests preparing, binding and encoding parameterized queries.
+ */
+public class PreparedSoqlQueryTest
+{
+    @Test
+    public void testBind() throws Exception
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare(new SoqlQueryBuilder()
+                .setWhereClause(new ConditionalExpression("primary_type = ${type} and beat = ${beat} and arrest = ${arrest}"))
+                .setLimit(10)
+                .build());
+        TestCase.assertEquals(ImmutableList.of("type", "beat", "arrest"), prepared.getParameterNames());
+
+        final String queryString = prepared.bind().set("type", "THEFT").set("beat", 1234).set("arrest", true).toQueryString();
+        final Map<String, String> params = decode(queryString);
+        TestCase.assertEquals("primary_type = 'THEFT' and beat = 1234 and arrest = true", params.get("$where"));
+        TestCase.assertEquals("10", params.get("$limit"));
+        TestCase.assertEquals(Arrays.asList("$where", "$limit"), Arrays.asList(params.keySet().toArray()));
+    }
+
+    @Test
+    public void testEscaping() throws Exception
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare(new SoqlQueryBuilder()
+                .setWhereClause(new ConditionalExpression("name = ${name}"))
+                .build());
+
+        TestCase.assertEquals("name = 'O''Hare'", decode(prepared.bind().set("name", "O'Hare").toQueryString()).get("$where"));
+
+        //Neither SoQL nor the query string can be broken out of
+        final String queryString = prepared.bind().set("name", "x' or 1=1 &$limit=1#é").toQueryString();
+        TestCase.assertEquals(1, decode(queryString).size());
+        TestCase.assertEquals("name = 'x'' or 1=1 &$limit=1#é'", decode(queryString).get("$where"));
+        TestCase.assertFalse(queryString.substring(1).contains("&") || queryString.contains("#") || queryString.contains(" "));
+    }
+
+    @Test
+    public void testValues() throws Exception
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare("select * where id in (${ids}) and x > ${x} and d < ${d}");
+
+        final TimeZone defaultZone = TimeZone.getDefault();
+        final String queryString;
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            queryString = prepared.bind()
+                                  .set("ids", Arrays.asList("a", 2L, null))
+                                  .set("x", 0.000001)
+                                  .set("d", new Date(0))
+                                  .toQueryString();
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+        TestCase.assertEquals("select * where id in ('a', 2, null) and x > 0.000001 and d < '1970-01-01T00:00:00.000'",
+                              decode(queryString).get("$query"));
+
+        TestCase.assertEquals("x > 12.50", decode(PreparedSoqlQuery.prepare("x > ${x}").bind().set("x", new BigDecimal("12.50")).toQueryString()).get("$query"));
+    }
+
+    @Test
+    public void testLiteralsAreNotParameters() throws Exception
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare("select * where a = '${a}' and b = 'it''s ${b}' and c = ${c}");
+        TestCase.assertEquals(ImmutableList.of("c"), prepared.getParameterNames());
+        TestCase.assertEquals("select * where a = '${a}' and b = 'it''s ${b}' and c = 'x'",
+                              decode(prepared.bind().set("c", "x").toQueryString()).get("$query"));
+    }
+
+    @Test
+    public void testFullTextSearch() throws Exception
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare(new SoqlQueryBuilder()
+                .setFullTextSearchClause("${term}")
+                .build());
+        TestCase.assertEquals("O'Hare & Midway", decode(prepared.bind().set("term", "O'Hare & Midway").toQueryString()).get("$q"));
+
+        try {
+            prepared.bind().set("term", Arrays.asList("a", "b"));
+            TestCase.fail("A list can't be used in the search clause.");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testUri() throws Exception
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare("select * where name = ${name}");
+        final URI uri = prepared.bind().set("name", "a b").toSodaUri(UriBuilder.fromUri("http://localhost/resource/abcd-1234"));
+        TestCase.assertEquals("/resource/abcd-1234", uri.getPath());
+        TestCase.assertEquals("$query=select * where name = 'a b'", uri.getQuery());
+
+        //Adding more parameters keeps the encoded ones as they are
+        final URI versioned = UriBuilder.fromUri(uri).queryParam("$$version", "2.0").build();
+        TestCase.assertEquals("$query=select * where name = 'a b'&$$version=2.0", versioned.getQuery());
+    }
+
+    @Test
+    public void testErrors()
+    {
+        final PreparedSoqlQuery prepared = PreparedSoqlQuery.prepare("select * where a = ${a} and b = ${b}");
+        final PreparedSoqlQuery.Bindings bindings = prepared.bind().set("a", 1);
+
+        try {
+            bindings.toQueryString();
+            TestCase.fail("b was never set.");
+        } catch (IllegalStateException e) {
+            //Expected
+        }
+
+        assertRejected(prepared.bind(), "c", "x");
+        assertRejected(prepared.bind(), "a", Double.NaN);
+        assertRejected(prepared.bind(), "a", Collections.emptyList());
+
+        for (String bad : Arrays.asList("a = ${a", "a = ${}", "a = ${1a}", "a = 'unterminated")) {
+            try {
+                PreparedSoqlQuery.prepare(bad);
+                TestCase.fail(bad + " should not prepare.");
+            } catch (IllegalArgumentException e) {
+                //Expected
+            }
+        }
+    }
+
+    private static void assertRejected(final PreparedSoqlQuery.Bindings bindings, final String name, final Object value)
+    {
+        try {
+            if (value instanceof Double) {
+                bindings.set(name, ((Double) value).doubleValue());
+            } else if (value instanceof java.util.Collection) {
+                bindings.set(name, (java.util.Collection<?>) value);
+            } else {
+                bindings.set(name, (String) value);
+            }
+            TestCase.fail(name + " = " + value + " should be rejected.");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    private static Map<String, String> decode(final String queryString) throws Exception
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        for (String param : queryString.split("&")) {
+            final int equals = param.indexOf('=');
+            params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"), URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,105 @@
+package com.socrata.utils;
+
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests writing, loading and checking a FingerprintIndex.
+ */
+public class TestFingerprintIndex
+{
+
+    @Test
+    public void testIndex() throws IOException
+    {
+        final File file = File.createTempFile("fingerprints", ".idx");
+        file.delete();
+
+        try {
+            final FingerprintIndex empty = FingerprintIndex.load(file);
+            TestCase.assertEquals(0, empty.size());
+            TestCase.assertEquals(FingerprintIndex.ABSENT, empty.check(bytes("a"), hash("a"), hash("1")));
+            TestCase.assertFalse(empty.unseenKeys().hasNext());
+            empty.close();
+
+            final FingerprintIndex.Writer writer = FingerprintIndex.newWriter(file);
+            for (int i=0; i<100; i++) {
+                writer.add(("key" + i).getBytes("UTF-8"), hash("key" + i), hash("content" + i));
+            }
+
+            //Abandoned writers don't touch the index
+            final FingerprintIndex.Writer abandoned = FingerprintIndex.newWriter(new File(file.getPath() + ".other"));
+            abandoned.add("x".getBytes("UTF-8"), hash("x"), hash("y"));
+            abandoned.close();
+            TestCase.assertFalse(new File(file.getPath() + ".other").exists());
+
+            writer.commit();
+            writer.close();
+
+            final FingerprintIndex index = FingerprintIndex.load(file);
+            TestCase.assertEquals(100, index.size());
+            for (int i=0; i<100; i++) {
+                if (i % 10 == 0) {
+                    continue;
+                }
+                final int expected = (i % 10 == 5) ? FingerprintIndex.CHANGED : FingerprintIndex.UNCHANGED;
+                TestCase.assertEquals(expected, index.check(bytes("key" + i), hash("key" + i), hash((i % 10 == 5 ? "changed" : "content") + i)));
+            }
+            TestCase.assertEquals(FingerprintIndex.ABSENT, index.check(bytes("key100"), hash("key100"), hash("content100")));
+
+            final List<String> unseen = Lists.newArrayList();
+            for (Iterator<byte[]> keys = index.unseenKeys(); keys.hasNext(); ) {
+                unseen.add(new String(keys.next(), "UTF-8"));
+            }
+            TestCase.assertEquals(10, unseen.size());
+            for (int i=0; i<100; i+=10) {
+                TestCase.assertTrue(unseen.contains("key" + i));
+            }
+            index.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCollidingKeys() throws IOException
+    {
+        final File file = File.createTempFile("fingerprints", ".idx");
+        try {
+            //Two different keys that hash the same are still different rows
+            final FingerprintIndex.Writer writer = FingerprintIndex.newWriter(file);
+            writer.add(bytes("first"), 42, hash("content1"));
+            writer.add(bytes("second"), 42, hash("content2"));
+            writer.commit();
+            writer.close();
+
+            final FingerprintIndex index = FingerprintIndex.load(file);
+            TestCase.assertEquals(2, index.size());
+            TestCase.assertEquals(FingerprintIndex.ABSENT, index.check(bytes("third"), 42, hash("content1")));
+            TestCase.assertEquals(FingerprintIndex.UNCHANGED, index.check(bytes("second"), 42, hash("content2")));
+
+            final Iterator<byte[]> unseen = index.unseenKeys();
+            TestCase.assertEquals("first", new String(unseen.next(), "UTF-8"));
+            TestCase.assertFalse(unseen.hasNext());
+            index.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long hash(final String value) throws IOException
+    {
+        return FingerprintIndex.hashKey(bytes(value));
+    }
+
+    private static byte[] bytes(final String value) throws IOException
+    {
+        return value.getBytes("UTF-8");
+    }
+}
@@ -3,12 +3,14 @@ package com.socrata.utils;
 import com.socrata.model.importer.Dataset;
 import junit.framework.TestCase;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.text.ParsePosition;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * Test the JacksonObjectMapperProvider
@@ -43,6 +45,31 @@ public class TestJacksonObjectMapperProvider
 
     }
 
+    @Test
+    public void testPlainDatesAreUtc() throws IOException
+    {
+        //Plain dates are midnight UTC, the same as StdDateFormat reads them, whatever the local zone
+        final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(null);
+        final long midnightUtc = 1340150400000L;
+        TestCase.assertEquals(midnightUtc, mapper.readValue("\"2012-06-20\"", Date.class).getTime());
+        TestCase.assertEquals(midnightUtc, mapper.readValue("\"2012-06-20\"", DateTime.class).getMillis());
+    }
+
+    @Test
+    public void testFloatingDateTimesAreUtc() throws IOException
+    {
+        //DateTimes have always read floating timestamps as UTC, whatever the local zone
+        final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(null);
+        final TimeZone local = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Chicago"));
+        try {
+            TestCase.assertEquals(1340175600000L, mapper.readValue("\"2012-06-20T07:00:00\"", DateTime.class).getMillis());
+            TestCase.assertEquals(1340175600123L, mapper.readValue("\"2012-06-20T07:00:00.123\"", DateTime.class).getMillis());
+        } finally {
+            TimeZone.setDefault(local);
+        }
+    }
+
     @Test
     public void testViewMapping() throws IOException
     {
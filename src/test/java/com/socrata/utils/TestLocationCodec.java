@@ -0,0 +1,116 @@
+package com.socrata.utils;
+
+import com.socrata.model.Address;
+import com.socrata.model.Location;
+import junit.framework.TestCase;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.annotate.JsonDeserialize;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Tests reading and writing locations with the LocationCodec.
+ */
+public class TestLocationCodec
+{
+    private static final String SODA_LOCATION = "{\"needs_recoding\":false,\"longitude\":\"-87.62\",\"latitude\":\"41.88\"," +
+            "\"human_address\":\"{\\\"address\\\":\\\"1 \\\\\\\"Main\\\\\\\" St\\\",\\\"city\\\":\\\"Chicago\\\",\\\"state\\\":null,\\\"zip\\\":60601}\"}";
+
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+
+    @Test
+    public void testRead() throws IOException
+    {
+        final Location location = mapper.readValue(SODA_LOCATION, Location.class);
+        TestCase.assertEquals(-87.62, location.getLongitude());
+        TestCase.assertEquals(41.88, location.getLatitude());
+        TestCase.assertEquals("1 \"Main\" St", location.getAddress().getStreetAddress());
+        TestCase.assertEquals("Chicago", location.getAddress().getCity());
+        TestCase.assertNull(location.getAddress().getState());
+        TestCase.assertEquals("60601", location.getAddress().getZip());
+
+        //The address as an object, or as an empty string
+        final Location object = mapper.readValue("{\"latitude\":1,\"human_address\":{\"city\":\"Seattle\"}}", Location.class);
+        TestCase.assertEquals(1.0, object.getLatitude());
+        TestCase.assertNull(object.getLongitude());
+        TestCase.assertEquals("Seattle", object.getAddress().getCity());
+        TestCase.assertNull(mapper.readValue("{\"human_address\":\"\"}", Location.class).getAddress());
+    }
+
+    @Test
+    public void testCoordinatesOnly() throws IOException
+    {
+        final Crime crime = mapper.readValue("{\"id\":\"1\",\"location\":" + SODA_LOCATION + "}", Crime.class);
+        TestCase.assertEquals(41.88, crime.location.getLatitude());
+        TestCase.assertNull(crime.location.getAddress());
+
+        final JsonParser parser = mapper.getJsonFactory().createJsonParser(SODA_LOCATION);
+        parser.nextToken();
+        final double[] coordinates = new double[2];
+        TestCase.assertTrue(LocationCodec.readCoordinates(parser, coordinates));
+        TestCase.assertEquals(41.88, coordinates[0]);
+        TestCase.assertEquals(-87.62, coordinates[1]);
+        TestCase.assertNull(parser.nextToken());
+    }
+
+    @Test
+    public void testWriteRoundTrip() throws IOException
+    {
+        final Location location = new Location(-87.62, 41.88, new Address("1 \"Main\" St\n", "Chicago", null, "60601"));
+        final JsonNode written = mapper.readTree(mapper.writeValueAsString(location));
+        TestCase.assertTrue(written.get("human_address").isTextual());
+        TestCase.assertNull(written.get("address"));
+
+        final Location read = mapper.readValue(written.toString(), Location.class);
+        TestCase.assertEquals(location.getLongitude(), read.getLongitude());
+        TestCase.assertEquals(location.getLatitude(), read.getLatitude());
+        TestCase.assertEquals(location.getAddress().getStreetAddress(), read.getAddress().getStreetAddress());
+        TestCase.assertEquals(location.getAddress().getZip(), read.getAddress().getZip());
+        TestCase.assertNull(read.getAddress().getState());
+
+        TestCase.assertEquals("{\"longitude\":83.12,\"latitude\":84.12}", mapper.writeValueAsString(new Location(83.12, 84.12, null)));
+    }
+
+    @Test
+    public void testParseDouble() throws IOException
+    {
+        final Random random = new Random(1);
+        final String[] fixed = { "0", "-0.0", "41.881832", "-87.623177", "1e3", "123456789012345678", "0.1234567890123456789", "+5." };
+        for (String text : fixed) {
+            TestCase.assertEquals(text, Double.parseDouble(text), LocationCodec.parseDouble(text.toCharArray(), 0, text.length()));
+        }
+
+        for (int i=0; i<10000; i++) {
+            final String text = String.format("%.6f", (random.nextDouble() - 0.5) * 360);
+            final char[] padded = ("[" + text + "]").toCharArray();
+            TestCase.assertEquals(text, Double.parseDouble(text), LocationCodec.parseDouble(padded, 1, text.length()));
+        }
+    }
+
+    @Test
+    public void testMalformedAddress() throws IOException
+    {
+        final String text = "{\"city\":\"Chicago\"";
+        try {
+            LocationCodec.parseAddress(text.toCharArray(), 0, text.length());
+            TestCase.fail("A truncated address should fail");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+
+    public static class Crime
+    {
+        @JsonProperty("id")
+        public String id;
+
+        @JsonProperty("location")
+        @JsonDeserialize(using=LocationCodec.CoordinatesDeserializer.class)
+        public Location location;
+    }
+}
@@ -0,0 +1,128 @@
+package com.socrata.utils;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Tests the file and stream copies.
+ */
+public class TestNioUtils
+{
+    @Test
+    public void testCopy() throws IOException
+    {
+        final byte[] data = bytes(300 * 1024);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TestCase.assertEquals(data.length, NioUtils.copy(new ByteArrayInputStream(data), out));
+        TestCase.assertTrue(Arrays.equals(data, out.toByteArray()));
+    }
+
+    @Test
+    public void testCopyFromFile() throws IOException
+    {
+        final byte[] data = bytes(300 * 1024);
+        final File file = tempFile(data);
+        try {
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                //Starts from wherever the stream already is
+                TestCase.assertEquals(10, in.skip(10));
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                TestCase.assertEquals(data.length - 10, NioUtils.copy(in, out));
+                TestCase.assertTrue(Arrays.equals(Arrays.copyOfRange(data, 10, data.length), out.toByteArray()));
+                TestCase.assertEquals(-1, in.read());
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTransferTo() throws IOException
+    {
+        final byte[] data = bytes(100 * 1024);
+        final File file = tempFile(data);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            NioUtils.transferTo(file, 1000, 5000, out);
+            TestCase.assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000, 6000), out.toByteArray()));
+
+            try {
+                NioUtils.transferTo(file, data.length - 10, 20, new ByteArrayOutputStream());
+                TestCase.fail("The region runs past the end of the file.");
+            } catch (IOException e) {
+                //Expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTransferFrom() throws IOException
+    {
+        final byte[] data = bytes(300 * 1024);
+        final File file = File.createTempFile("nio-test", ".bin");
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                TestCase.assertEquals(data.length, NioUtils.transferFrom(new ByteArrayInputStream(data), raf.getChannel(), 7));
+                TestCase.assertEquals(data.length + 7, raf.length());
+            } finally {
+                raf.close();
+            }
+
+            TestCase.assertEquals(data.length, NioUtils.transferFrom(new ByteArrayInputStream(data), file));
+            TestCase.assertEquals(data.length, file.length());
+
+            final File copy = File.createTempFile("nio-test", ".bin");
+            try {
+                final FileInputStream in = new FileInputStream(file);
+                try {
+                    TestCase.assertEquals(data.length, NioUtils.transferFrom(in, copy));
+                } finally {
+                    in.close();
+                }
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                NioUtils.transferTo(copy, 0, copy.length(), out);
+                TestCase.assertTrue(Arrays.equals(data, out.toByteArray()));
+            } finally {
+                copy.delete();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] bytes(final int length)
+    {
+        final byte[] bytes = new byte[length];
+        for (int i=0; i<length; i++) {
+            bytes[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return bytes;
+    }
+
+    private static File tempFile(final byte[] data) throws IOException
+    {
+        final File file = File.createTempFile("nio-test", ".bin");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,171 @@
+package com.socrata.utils;
+
+import junit.framework.TestCase;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the SodaDateCodec against SimpleDateFormat.
+ */
+public class TestSodaDateCodec
+{
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone CHICAGO = TimeZone.getTimeZone("America/Chicago");
+
+    @Test
+    public void testParseFloating() throws ParseException
+    {
+        for (TimeZone zone : new TimeZone[] { UTC, CHICAGO, TimeZone.getTimeZone("Asia/Kolkata") }) {
+            final SimpleDateFormat floating = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+            floating.setTimeZone(zone);
+
+            for (String text : new String[] { "2012-06-20T07:00:00.000", "2012-01-01T00:00:00.000", "2012-02-29T23:59:59.999",
+                                              "2012-03-11T12:30:00.000", "2012-11-04T00:30:00.000", "1969-12-31T23:59:59.500" }) {
+                TestCase.assertEquals(text, floating.parse(text).getTime(), SodaDateCodec.parse(text, 0, text.length(), zone));
+            }
+        }
+
+        TestCase.assertEquals(new Date(112, 5, 20, 7, 0).getTime(), SodaDateCodec.parse("2012-6-20T07:00:00", 0, 18, TimeZone.getDefault()));
+        TestCase.assertEquals(1340150400000L, SodaDateCodec.parse("2012-06-20", 0, 10, UTC));
+        TestCase.assertEquals(1340175600500L, SodaDateCodec.parse("2012-06-20T07:00:00.5", 0, 21, UTC));
+        TestCase.assertEquals(1340175600123L, SodaDateCodec.parse("2012-06-20 07:00:00.123456", 0, 26, UTC));
+        TestCase.assertEquals(1340175600000L, SodaDateCodec.parse("xx2012-06-20T07:00xx".toCharArray(), 2, 16, UTC));
+    }
+
+    @Test
+    public void testParseZoned()
+    {
+        final long expected = 1340175600000L;
+        for (String text : new String[] { "2012-06-20T07:00:00Z", "2012-06-20T07:00:00.000z", "2012-06-20T02:00:00-0500",
+                                          "2012-06-20T02:00:00.000-05:00", "2012-06-20T12:00+05", "2012-06-20T12:30:00+05:30" }) {
+            TestCase.assertEquals(text, expected, SodaDateCodec.parse(text, 0, text.length(), CHICAGO));
+        }
+    }
+
+    @Test
+    public void testParsePlainDateZone()
+    {
+        //Plain dates can be in a zone of their own, while floating timestamps stay in theirs
+        TestCase.assertEquals(1340150400000L, SodaDateCodec.parse("2012-06-20", 0, 10, CHICAGO, UTC));
+        TestCase.assertEquals(1340193600000L, SodaDateCodec.parse("2012-06-20T07:00:00", 0, 19, CHICAGO, UTC));
+        TestCase.assertEquals(1340168400000L, SodaDateCodec.parse("2012-06-20", 0, 10, CHICAGO));
+        TestCase.assertEquals(1340150400000L, SodaDateCodec.parseDate("2012-06-20", CHICAGO, UTC).getTime());
+    }
+
+    @Test
+    public void testParseInvalid()
+    {
+        for (String text : new String[] { "12345", "2012-13-01", "2012-02-30", "2011-02-29", "2012-06-20T07", "2012-06-20T24:00",
+                                          "2012-06-20T07:00:00+3", "2012-06-20T07:00:00.", "2012-06-20T07:00:00Zx", "2012-06-20X",
+                                          "20120620T070000", "Wed, 20 Jun 2012 07:00:00 GMT", "" }) {
+            TestCase.assertEquals(text, SodaDateCodec.INVALID, SodaDateCodec.parse(text, 0, text.length(), UTC));
+        }
+
+        try {
+            SodaDateCodec.parseDate("not a date", UTC);
+            TestCase.fail("Should not parse");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testFormat() throws ParseException
+    {
+        final Random random = new Random(42);
+        for (TimeZone zone : new TimeZone[] { UTC, CHICAGO, TimeZone.getTimeZone("Asia/Kolkata") }) {
+            final SimpleDateFormat writing = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+            writing.setTimeZone(zone);
+            final SimpleDateFormat floating = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+            floating.setTimeZone(zone);
+
+            final char[] out = new char[SodaDateCodec.FORMATTED_LENGTH + 2];
+            for (int i=0; i<1000; i++) {
+                //Between 1900 and 2100
+                final long millis = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+                final String expected = writing.format(new Date(millis));
+
+                TestCase.assertEquals(expected, SodaDateCodec.format(millis, zone));
+                TestCase.assertEquals(SodaDateCodec.FORMATTED_LENGTH + 1, SodaDateCodec.format(millis, zone, out, 1));
+                TestCase.assertEquals(expected, new String(out, 1, SodaDateCodec.FORMATTED_LENGTH));
+                if (zone.getOffset(millis) % 60000 == 0) {
+                    //Some historical offsets have seconds, which the format leaves out
+                    TestCase.assertEquals(millis, SodaDateCodec.parse(expected, 0, expected.length(), UTC));
+                }
+
+                final int end = SodaDateCodec.formatFloating(millis, zone, out, 0);
+                TestCase.assertEquals(SodaDateCodec.FLOATING_LENGTH, end);
+                TestCase.assertEquals(floating.format(new Date(millis)), new String(out, 0, end));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t=0; t<8; t++) {
+                final long seed = t;
+                results.add(executor.submit(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        final Random random = new Random(seed);
+                        for (int i=0; i<10000; i++) {
+                            final long millis = (long) (random.nextDouble() * 4102444800000L);
+                            final String text = SodaDateCodec.format(millis, CHICAGO);
+                            if (SodaDateCodec.parse(text, 0, text.length(), UTC) != millis) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                TestCase.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMapper() throws IOException
+    {
+        final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+        final TimeZone local = TimeZone.getDefault();
+        final long floating = SodaDateCodec.parse("2012-06-20T07:00:00", 0, 19, local);
+
+        TestCase.assertEquals(floating, mapper.readValue("\"2012-06-20T07:00:00\"", Date.class).getTime());
+        TestCase.assertEquals(1340175600000L, mapper.readValue("\"2012-06-20T07:00:00.000Z\"", Date.class).getTime());
+        TestCase.assertEquals(1340175600000L, mapper.readValue("\"Wed, 20 Jun 2012 07:00:00 GMT\"", Date.class).getTime());
+        TestCase.assertEquals("\"" + SodaDateCodec.format(floating, local) + "\"", mapper.writeValueAsString(new Date(floating)));
+
+        //DateTimes read floating timestamps as UTC, as Joda does
+        TestCase.assertEquals(1340175600000L, mapper.readValue("\"2012-06-20T07:00:00\"", DateTime.class).getMillis());
+        TestCase.assertEquals(new LocalDateTime(2012, 6, 20, 7, 0, 0, 123), mapper.readValue("\"2012-06-20T07:00:00.123\"", LocalDateTime.class));
+        TestCase.assertEquals(new LocalDate(2012, 6, 20), mapper.readValue("\"2012-06-20T07:00:00\"", LocalDate.class));
+        TestCase.assertEquals(new LocalDate(2012, 6, 20), mapper.readValue("[2012,6,20]", LocalDate.class));
+    }
+}
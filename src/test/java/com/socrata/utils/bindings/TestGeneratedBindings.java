@@ -0,0 +1,139 @@
+package com.socrata.utils.bindings;
+
+import com.socrata.model.Address;
+import com.socrata.model.DeleteRecord;
+import com.socrata.model.Meta;
+import com.socrata.model.UpsertError;
+import com.socrata.model.UpsertResult;
+import com.socrata.model.importer.Blueprint;
+import com.socrata.utils.JacksonObjectMapperProvider;
+import junit.framework.TestCase;
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests the bindings generated by the BindingProcessor against Jackson's reflection based binding.
+ */
+public class TestGeneratedBindings
+{
+    private final ObjectMapper mapper = new JacksonObjectMapperProvider().getContext(Object.class);
+    private final ObjectMapper reflection = new ObjectMapper();
+
+    @Before
+    public void setUp()
+    {
+        //The same date handling as the provider's mapper, but without the generated bindings
+        reflection.setDateFormat(mapper.getSerializationConfig().getDateFormat());
+    }
+
+    @Test
+    public void testBindingsFound()
+    {
+        final GeneratedBindingsModule module = GeneratedBindingsModule.load();
+        TestCase.assertTrue(module.getTypes().contains(UpsertResult.class));
+        TestCase.assertTrue(module.getTypes().contains(Address.class));
+        TestCase.assertTrue(module.getTypes().contains(Point.class));
+    }
+
+    @Test
+    public void testRead() throws IOException
+    {
+        final UpsertResult result = mapper.readValue("{\"rows_created\":\"3\",\"rows_updated\":2,\"other\":[1,{\"a\":1}],\"rows_deleted\":null," +
+                "\"errors\":[{\"error\":\"bad\",\"input_index\":1,\"primary_key\":\"k\"}]}", UpsertResult.class);
+        TestCase.assertEquals(3, result.getRowsCreated());
+        TestCase.assertEquals(2, result.getRowsUpdated());
+        TestCase.assertEquals(0, result.getRowsDeleted());
+        TestCase.assertEquals(1, result.errorCount());
+        TestCase.assertEquals("bad", result.getErrors().get(0).getError());
+        TestCase.assertEquals(1, result.getErrors().get(0).getIndex());
+        TestCase.assertEquals("k", result.getErrors().get(0).getPrimaryKey());
+
+        final Meta meta = mapper.readValue("{\":id\":\"row-1\",\":created_at\":\"2012-09-15T00:00:00Z\",\":updated_at\":1347667200000}", Meta.class);
+        TestCase.assertEquals("row-1", meta.getId());
+        TestCase.assertEquals(1347667200000L, meta.getCreatedAt().getTime());
+        TestCase.assertEquals(1347667200000L, meta.getUpdatedAt().getTime());
+        TestCase.assertNull(meta.getUpdatedMeta());
+
+        final List<Point> points = mapper.readValue("[{\"x\":\"1.5\",\"y\":2,\"label\":\"a\",\"ignored\":{}}]",
+                mapper.getTypeFactory().constructCollectionType(List.class, Point.class));
+        TestCase.assertEquals(1.5, points.get(0).getX());
+        TestCase.assertEquals(Integer.valueOf(2), points.get(0).getY());
+        TestCase.assertEquals("a", points.get(0).label);
+    }
+
+    @Test
+    public void testWriteMatchesReflection() throws IOException
+    {
+        final Date date = new Date(1347667200000L);
+        final List<?> objects = Arrays.asList(
+                new UpsertResult(1, 2, 3, Arrays.asList(new UpsertError("bad", 4, "k"))),
+                new UpsertResult(1, 2, 3, null),
+                new Address("1 Main St", "Seattle", null, null),
+                new Meta("row-1", null, "meta", date, null),
+                new DeleteRecord("row-2", true),
+                new Point(1.5, null, "a"));
+
+        for (Object object : objects) {
+            TestCase.assertEquals(reflection.readTree(reflection.writeValueAsString(object)), mapper.readTree(mapper.writeValueAsString(object)));
+        }
+    }
+
+    @Test
+    public void testUnknownField() throws IOException
+    {
+        final String json = "{\"name\":\"n\",\"unknown\":1}";
+        try {
+            reflection.readValue(json, Blueprint.class);
+            TestCase.fail("Reflection should fail on the unknown field");
+        } catch (JsonMappingException e) {
+            //Expected
+        }
+
+        try {
+            mapper.readValue(json, Blueprint.class);
+            TestCase.fail("The generated binding should fail on the unknown field");
+        } catch (JsonMappingException e) {
+            //Expected
+        }
+    }
+
+    /**
+     * A class outside the library, to check bindings are generated for test sources too.
+     */
+    @GenerateBinding
+    @JsonIgnoreProperties(value={"ignored"})
+    public static class Point
+    {
+        private final double x;
+        private final Integer y;
+        public final String label;
+
+        @JsonCreator
+        public Point(@JsonProperty("x") final double x, @JsonProperty("y") final Integer y, @JsonProperty("label") final String label)
+        {
+            this.x = x;
+            this.y = y;
+            this.label = label;
+        }
+
+        public double getX()
+        {
+            return x;
+        }
+
+        public Integer getY()
+        {
+            return y;
+        }
+    }
+}